@@ -0,0 +1,87 @@
+package projeto.projetoinformatico.config.async;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import projeto.projetoinformatico.utils.QueryPriority;
+
+import java.util.concurrent.BlockingQueue;
+
+@Configuration
+public class AsyncConfig implements WebMvcConfigurer {
+
+    private final AsyncTaskExecutor sparqlExecutor;
+    private final long requestTimeoutMs;
+
+    public AsyncConfig(@Qualifier("sparqlExecutor") AsyncTaskExecutor sparqlExecutor,
+                       @Value("${sparql.async.request-timeout-ms}") long requestTimeoutMs) {
+        this.sparqlExecutor = sparqlExecutor;
+        this.requestTimeoutMs = requestTimeoutMs;
+    }
+
+    /**
+     * Executor that runs remote SPARQL queries, kept apart from Tomcat's request threads
+     * and from the common ForkJoinPool. Virtual threads need a Java 21 runtime; the
+     * concurrency limit still bounds how many queries run against the endpoint at once.
+     * The pool takes its queued work most urgent first, see {@link PriorityTaskQueue}.
+     */
+    @Bean(name = "sparqlExecutor")
+    public static AsyncTaskExecutor sparqlExecutor(@Value("${sparql.executor.core-size}") int coreSize,
+                                                   @Value("${sparql.executor.max-size}") int maxSize,
+                                                   @Value("${sparql.executor.queue-capacity}") int queueCapacity,
+                                                   @Value("${sparql.executor.virtual-threads}") boolean virtualThreads) {
+        if (virtualThreads) {
+            SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("sparql-");
+            executor.setVirtualThreads(true);
+            executor.setConcurrencyLimit(maxSize);
+            return executor;
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor() {
+            @Override
+            protected BlockingQueue<Runnable> createQueue(int queueCapacity) {
+                return new PriorityTaskQueue(queueCapacity);
+            }
+        };
+        executor.setThreadNamePrefix("sparql-");
+        executor.setCorePoolSize(coreSize);
+        executor.setMaxPoolSize(maxSize);
+        executor.setQueueCapacity(queueCapacity);
+        return executor;
+    }
+
+    /**
+     * Fixed pool that fetches materialized layers again, apart from the queries of requests.
+     * {@code LayerRefreshScheduler} never hands it more work than it has threads.
+     */
+    @Bean(name = "layerRefreshExecutor")
+    public static AsyncTaskExecutor layerRefreshExecutor(@Value("${layers.refresh.workers}") int workers) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("layer-refresh-");
+        executor.setCorePoolSize(workers);
+        executor.setMaxPoolSize(workers);
+        executor.setQueueCapacity(workers);
+        return executor;
+    }
+
+    /**
+     * Executor of Spring MVC's async work, which is the writing of streamed result sets. It
+     * runs on the SPARQL executor as bulk work, so streams wait behind the maps people look at
+     * but not behind cache refreshes.
+     */
+    public static AsyncTaskExecutor mvcAsyncExecutor(AsyncTaskExecutor sparqlExecutor) {
+        return new TaskExecutorAdapter(PriorityTaskQueue.prioritized(sparqlExecutor, QueryPriority.BULK));
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(mvcAsyncExecutor(sparqlExecutor));
+        configurer.setDefaultTimeout(requestTimeoutMs);
+    }
+}
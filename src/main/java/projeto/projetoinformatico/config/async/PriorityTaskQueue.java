@@ -0,0 +1,62 @@
+package projeto.projetoinformatico.config.async;
+
+import projeto.projetoinformatico.utils.QueryPriority;
+
+import java.util.Comparator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Work queue of the SPARQL executor that hands the most urgent waiting task to the next free
+ * thread, in the order of {@link QueryPriority} and first come first served within a priority,
+ * so queries someone is waiting for are not stuck behind background work before they even
+ * reach the gateway. Tasks handed over through {@link #prioritized(Executor, QueryPriority)}
+ * carry their priority; any other task, such as a refresh of a cached result, waits behind all
+ * of them.
+ * <p>
+ * Like a bounded queue, it refuses tasks once it holds {@code capacity} of them, so the pool
+ * grows to its maximum size and then rejects them.
+ */
+public class PriorityTaskQueue extends PriorityBlockingQueue<Runnable> {
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private static final Comparator<Runnable> ORDER = Comparator
+            .comparing((Runnable task) -> task instanceof Task prioritized ? prioritized.priority() : QueryPriority.BACKGROUND)
+            .thenComparingLong(task -> task instanceof Task prioritized ? prioritized.sequence() : Long.MAX_VALUE);
+
+    private final int capacity;
+
+    public PriorityTaskQueue(int capacity) {
+        super(11, ORDER);
+        this.capacity = capacity;
+    }
+
+    /**
+     * An executor that runs every task on the given one with the priority.
+     */
+    public static Executor prioritized(Executor executor, QueryPriority priority) {
+        return task -> executor.execute(new Task(task, priority, SEQUENCE.getAndIncrement()));
+    }
+
+    @Override
+    public synchronized boolean offer(Runnable task) {
+        if (size() >= capacity) {
+            return false;
+        }
+        return super.offer(task);
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Math.max(0, capacity - size());
+    }
+
+    private record Task(Runnable task, QueryPriority priority, long sequence) implements Runnable {
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
+}
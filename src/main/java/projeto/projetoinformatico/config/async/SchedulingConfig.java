@@ -0,0 +1,12 @@
+package projeto.projetoinformatico.config.async;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Runs the {@code @Scheduled} background work, such as refreshing materialized layers.
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
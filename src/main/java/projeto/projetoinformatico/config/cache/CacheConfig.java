@@ -1,27 +1,145 @@
 package projeto.projetoinformatico.config.cache;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.CacheLoader;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Policy;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.h2.mvstore.MVStoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.cache.CacheMeterBinderProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.EnableCaching;
-import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.cache.support.SimpleCacheManager;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import projeto.projetoinformatico.service.SearchService;
 
-import java.util.concurrent.TimeUnit;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executor;
 
 @Configuration
 @EnableCaching
 public class CacheConfig {
 
+    private static final Logger logger = LoggerFactory.getLogger(CacheConfig.class);
+
+    private static final String SEARCH_CACHE = "searchCache";
+
+    private static final String[] CACHE_NAMES = {"userCache", "layerCache", "requestCache", SEARCH_CACHE};
+
+    /**
+     * Every cache gets its own Caffeine spec from {@code cache.spec.<name>}. Caches that set a
+     * {@code maximumWeight} are weighed by {@link SearchResultWeigher}; the search cache can also
+     * refresh hot entries in the background on the SPARQL executor. Statistics are recorded when
+     * the spec contains {@code recordStats} and published as {@code cache.*} metrics by Actuator.
+     * When a {@link DiskResultStore} is configured it backs the search cache, and the results it
+     * holds are loaded back into memory in the background at startup.
+     */
     @Bean
-    public CacheManager cacheManager() {
-        CaffeineCacheManager cacheManager = new CaffeineCacheManager("userCache", "layerCache", "requestCache", "searchCache");
-        cacheManager.setCaffeine(Caffeine.newBuilder()
-                .expireAfterWrite(300, TimeUnit.SECONDS));
+    public CacheManager cacheManager(Environment environment, ObjectProvider<SearchService> searchService,
+                                     @Qualifier("sparqlExecutor") Executor sparqlExecutor,
+                                     ObjectProvider<DiskResultStore> diskResultStore) {
+        DiskResultStore diskStore = diskResultStore.getIfAvailable();
+        List<org.springframework.cache.Cache> caches = new ArrayList<>();
+        for (String name : CACHE_NAMES) {
+            String spec = environment.getRequiredProperty("cache.spec." + name);
+            if (!SEARCH_CACHE.equals(name)) {
+                caches.add(new CaffeineCache(name, buildCache(spec, null, sparqlExecutor)));
+                continue;
+            }
+            Cache<Object, Object> searchCache = buildCache(spec, new SearchCacheLoader(searchService, diskStore), sparqlExecutor);
+            if (diskStore == null) {
+                caches.add(searchCaffeineCache(name, searchCache));
+            } else {
+                caches.add(new TieredCache(searchCaffeineCache(name, searchCache), diskStore));
+                warmUp(searchCache, diskStore);
+            }
+        }
+        SimpleCacheManager cacheManager = new SimpleCacheManager();
+        cacheManager.setCaches(caches);
+        cacheManager.initializeCaches();
         return cacheManager;
     }
 
+    /**
+     * The search cache falls back to memory only when the store file cannot be opened, for
+     * example because another instance on the same host holds its lock.
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "cache.disk.enabled", havingValue = "true")
+    public DiskResultStore diskResultStore(@Value("${cache.disk.path}") String path,
+                                           @Value("${cache.disk.max-bytes}") long maxBytes,
+                                           MeterRegistry meterRegistry) {
+        DiskResultStore store;
+        try {
+            store = new DiskResultStore(path, maxBytes);
+        } catch (MVStoreException | UncheckedIOException e) {
+            logger.warn("Search cache runs without its disk level, cannot open " + path + ": " + e.getMessage());
+            return null;
+        }
+        Gauge.builder("cache.disk.size", store, DiskResultStore::getTotalBytes)
+                .description("Serialized size of the search results kept on disk")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("cache.disk.entries", store, DiskResultStore::getEntryCount)
+                .description("Number of search results kept on disk")
+                .register(meterRegistry);
+        return store;
     }
 
+    /**
+     * Lets Actuator publish the statistics of the in-memory level of the tiered search cache.
+     */
+    @Bean
+    public CacheMeterBinderProvider<TieredCache> tieredCacheMeterBinderProvider() {
+        return (cache, tags) -> new CaffeineCacheMetrics<>((Cache<?, ?>) cache.getNativeCache(), cache.getName(), tags);
+    }
 
+    /**
+     * Spring reads a loading cache through {@code LoadingCache.get}, which would count every
+     * miss as a failed load. The search cache is only read through {@code getIfPresent}, which
+     * still starts refreshes, and written through {@code put}; so only refreshes are loads.
+     */
+    private static CaffeineCache searchCaffeineCache(String name, Cache<Object, Object> searchCache) {
+        return new CaffeineCache(name, searchCache) {
+            @Override
+            protected Object lookup(Object key) {
+                return getNativeCache().getIfPresent(key);
+            }
+        };
+    }
+
+    static Cache<Object, Object> buildCache(String spec, CacheLoader<Object, Object> loader, Executor executor) {
+        Caffeine<Object, Object> builder = Caffeine.from(spec);
+        if (spec.contains("maximumWeight")) {
+            builder.weigher(new SearchResultWeigher());
+        }
+        if (loader == null) {
+            return builder.build();
+        }
+        return builder.executor(executor).build(loader);
+    }
 
+    // Stops once the memory cache is full, the rest stays on disk until it is asked for
+    private static void warmUp(Cache<Object, Object> searchCache, DiskResultStore diskStore) {
+        Optional<Policy.Eviction<Object, Object>> eviction = searchCache.policy().eviction();
+        diskStore.warmUp((key, value) -> {
+            searchCache.asMap().putIfAbsent(key, value);
+            return eviction.map(bound -> bound.weightedSize().orElse(searchCache.estimatedSize()) < bound.getMaximum())
+                    .orElse(true);
+        });
+    }
+}
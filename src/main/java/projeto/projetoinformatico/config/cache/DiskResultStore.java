@@ -0,0 +1,247 @@
+package projeto.projetoinformatico.config.cache;
+
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import projeto.projetoinformatico.model.CachedSearchResult;
+import projeto.projetoinformatico.utils.QueryKey;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiPredicate;
+
+/**
+ * Search results kept on local disk in an H2 MVStore file, so they survive restarts.
+ * The store is bounded by the size of the serialized results and drops the least recently
+ * used ones first. Results are written on a background thread; when writes pile up faster
+ * than the disk takes them the newest ones are dropped, the memory cache still has them.
+ * Reads write nothing: their access times are kept in memory and stored on {@link #close()}.
+ */
+public class DiskResultStore implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(DiskResultStore.class);
+
+    private static final int WRITE_QUEUE_CAPACITY = 1000;
+    private static final ObjectInputFilter ENTRY_FILTER =
+            ObjectInputFilter.Config.createFilter("projeto.projetoinformatico.**;java.lang.*;java.util.*;!*");
+
+    private final MVStore store;
+    // Serialized entries and, per entry, {serialized size, last access time}
+    private final MVMap<String, byte[]> results;
+    private final MVMap<String, long[]> index;
+    private final long maxBytes;
+    // Access ordered, eldest first; guarded by itself
+    private final LinkedHashMap<String, Long> lru = new LinkedHashMap<>(16, 0.75f, true);
+    // Last access time of the entries read since they were stored; guarded by lru
+    private final Map<String, Long> accessed = new HashMap<>();
+    private long totalBytes;
+    private final ThreadPoolExecutor writer;
+
+    public DiskResultStore(String fileName, long maxBytes) {
+        this.maxBytes = maxBytes;
+        Path parent = Path.of(fileName).toAbsolutePath().getParent();
+        try {
+            Files.createDirectories(parent);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create search cache directory " + parent, e);
+        }
+        this.store = new MVStore.Builder().fileName(fileName).compress().open();
+        this.results = store.openMap("results");
+        this.index = store.openMap("index");
+        this.writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(WRITE_QUEUE_CAPACITY),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "search-cache-disk");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.DiscardPolicy());
+        rebuildLru();
+    }
+
+    private void rebuildLru() {
+        List<Map.Entry<String, long[]>> entries = new ArrayList<>();
+        for (Map.Entry<String, long[]> entry : index.entrySet()) {
+            entries.add(Map.entry(entry.getKey(), entry.getValue()));
+        }
+        entries.sort(Comparator.comparingLong(entry -> entry.getValue()[1]));
+        synchronized (lru) {
+            for (Map.Entry<String, long[]> entry : entries) {
+                lru.put(entry.getKey(), entry.getValue()[0]);
+                totalBytes += entry.getValue()[0];
+            }
+        }
+    }
+
+    public CachedSearchResult get(QueryKey key) {
+        String id = key.toString();
+        byte[] bytes = results.get(id);
+        if (bytes == null) {
+            return null;
+        }
+        StoredEntry entry = deserialize(id, bytes);
+        if (entry == null) {
+            remove(key);
+            return null;
+        }
+        synchronized (lru) {
+            if (lru.get(id) != null) {
+                accessed.put(id, System.currentTimeMillis());
+            }
+        }
+        return entry.value();
+    }
+
+    /**
+     * Queues the result to be written to disk.
+     */
+    public void putAsync(QueryKey key, CachedSearchResult value) {
+        writer.execute(() -> put(key, value));
+    }
+
+    /**
+     * Writes the result on the calling thread, evicting the least recently used ones past the budget.
+     */
+    public void put(QueryKey key, CachedSearchResult value) {
+        String id = key.toString();
+        byte[] bytes;
+        try {
+            bytes = serialize(new StoredEntry(key, value));
+        } catch (IOException e) {
+            logger.warn("Cannot serialize search result " + id, e);
+            return;
+        }
+        if (bytes.length > maxBytes) {
+            return;
+        }
+        results.put(id, bytes);
+        index.put(id, new long[]{bytes.length, System.currentTimeMillis()});
+        List<String> evicted = new ArrayList<>();
+        synchronized (lru) {
+            Long previous = lru.put(id, (long) bytes.length);
+            accessed.remove(id);
+            totalBytes += bytes.length - (previous == null ? 0 : previous);
+            Iterator<Map.Entry<String, Long>> eldest = lru.entrySet().iterator();
+            while (totalBytes > maxBytes && eldest.hasNext()) {
+                Map.Entry<String, Long> entry = eldest.next();
+                totalBytes -= entry.getValue();
+                evicted.add(entry.getKey());
+                accessed.remove(entry.getKey());
+                eldest.remove();
+            }
+        }
+        for (String evictedId : evicted) {
+            results.remove(evictedId);
+            index.remove(evictedId);
+        }
+    }
+
+    public void remove(QueryKey key) {
+        String id = key.toString();
+        results.remove(id);
+        index.remove(id);
+        synchronized (lru) {
+            Long size = lru.remove(id);
+            accessed.remove(id);
+            if (size != null) {
+                totalBytes -= size;
+            }
+        }
+    }
+
+    public void clear() {
+        results.clear();
+        index.clear();
+        synchronized (lru) {
+            lru.clear();
+            accessed.clear();
+            totalBytes = 0;
+        }
+    }
+
+    /**
+     * Reads stored results on the background thread, most recently used first, and hands them
+     * to the consumer until it returns false.
+     */
+    public void warmUp(BiPredicate<QueryKey, CachedSearchResult> consumer) {
+        writer.execute(() -> {
+            List<String> ids;
+            synchronized (lru) {
+                ids = new ArrayList<>(lru.keySet());
+            }
+            Collections.reverse(ids);
+            int loaded = 0;
+            for (String id : ids) {
+                byte[] bytes = results.get(id);
+                StoredEntry entry = bytes == null ? null : deserialize(id, bytes);
+                if (entry == null) {
+                    continue;
+                }
+                loaded++;
+                if (!consumer.test(entry.key(), entry.value())) {
+                    break;
+                }
+            }
+            logger.info("Loaded " + loaded + " search results from disk");
+        });
+    }
+
+    public long getTotalBytes() {
+        synchronized (lru) {
+            return totalBytes;
+        }
+    }
+
+    public int getEntryCount() {
+        synchronized (lru) {
+            return lru.size();
+        }
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        writer.shutdown();
+        if (!writer.awaitTermination(10, TimeUnit.SECONDS)) {
+            logger.warn("Search results still queued for disk were dropped");
+            writer.shutdownNow();
+        }
+        synchronized (lru) {
+            for (Map.Entry<String, Long> entry : accessed.entrySet()) {
+                Long size = lru.get(entry.getKey());
+                if (size != null) {
+                    index.put(entry.getKey(), new long[]{size, entry.getValue()});
+                }
+            }
+            accessed.clear();
+        }
+        store.close();
+    }
+
+    private static byte[] serialize(StoredEntry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(entry);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static StoredEntry deserialize(String id, byte[] bytes) {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            in.setObjectInputFilter(ENTRY_FILTER);
+            return (StoredEntry) in.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            // Written by an incompatible version, or damaged
+            logger.warn("Discarding unreadable search result " + id + ": " + e);
+            return null;
+        }
+    }
+
+    private record StoredEntry(QueryKey key, CachedSearchResult value) implements Serializable {
+    }
+}
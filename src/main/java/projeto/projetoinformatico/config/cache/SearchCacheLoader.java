@@ -0,0 +1,45 @@
+package projeto.projetoinformatico.config.cache;
+
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import org.springframework.beans.factory.ObjectProvider;
+import projeto.projetoinformatico.model.CachedSearchResult;
+import projeto.projetoinformatico.service.SearchService;
+import projeto.projetoinformatico.utils.QueryKey;
+
+/**
+ * Refreshes search cache entries that are read after {@code refreshAfterWrite}. The old result
+ * keeps being served until the new one arrives, and stays cached if the refresh fails.
+ * Misses are not loaded here, {@link SearchService} runs and coalesces them itself: the cache
+ * is only read through {@code getIfPresent} and written through {@code put}, see
+ * {@link CacheConfig}, so {@link #load} is never called and the load statistics count refreshes only.
+ */
+public class SearchCacheLoader implements CacheLoader<Object, Object> {
+
+    private final ObjectProvider<SearchService> searchService;
+    private final DiskResultStore diskStore;
+
+    /**
+     * @param diskStore store that refreshed results are also written to, or null
+     */
+    public SearchCacheLoader(ObjectProvider<SearchService> searchService, DiskResultStore diskStore) {
+        this.searchService = searchService;
+        this.diskStore = diskStore;
+    }
+
+    @Override
+    public Object load(Object key) {
+        throw new UnsupportedOperationException("Search cache misses are run by SearchService");
+    }
+
+    @Override
+    public Object reload(Object key, Object oldValue) {
+        if (key instanceof QueryKey queryKey) {
+            CachedSearchResult refreshed = searchService.getObject().refresh(queryKey);
+            if (diskStore != null) {
+                diskStore.putAsync(queryKey, refreshed);
+            }
+            return refreshed;
+        }
+        return oldValue;
+    }
+}
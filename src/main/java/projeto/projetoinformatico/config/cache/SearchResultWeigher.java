@@ -0,0 +1,25 @@
+package projeto.projetoinformatico.config.cache;
+
+import com.github.benmanes.caffeine.cache.Weigher;
+import projeto.projetoinformatico.model.CachedSearchResult;
+import projeto.projetoinformatico.utils.QueryKey;
+
+/**
+ * Weighs cache entries by their approximate size in bytes, so {@code maximumWeight} bounds
+ * the memory held by SPARQL results rather than the number of queries.
+ * Entries other than search results weigh one byte.
+ */
+public class SearchResultWeigher implements Weigher<Object, Object> {
+
+    @Override
+    public int weigh(Object key, Object value) {
+        long bytes = 1;
+        if (key instanceof QueryKey queryKey) {
+            bytes += queryKey.query().length();
+        }
+        if (value instanceof CachedSearchResult cached) {
+            bytes += cached.result().table().getEstimatedBytes();
+        }
+        return (int) Math.min(bytes, Integer.MAX_VALUE);
+    }
+}
@@ -0,0 +1,98 @@
+package projeto.projetoinformatico.config.cache;
+
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.SimpleValueWrapper;
+import projeto.projetoinformatico.model.CachedSearchResult;
+import projeto.projetoinformatico.utils.QueryKey;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Search cache in two levels: the in-memory Caffeine cache backed by a {@link DiskResultStore}.
+ * Results missing from memory are looked up on disk and promoted back into memory; results put
+ * in the cache are written through to disk in the background.
+ */
+public class TieredCache implements Cache {
+
+    private final Cache memory;
+    private final DiskResultStore disk;
+
+    public TieredCache(Cache memory, DiskResultStore disk) {
+        this.memory = memory;
+        this.disk = disk;
+    }
+
+    @Override
+    public String getName() {
+        return memory.getName();
+    }
+
+    @Override
+    public Object getNativeCache() {
+        return memory.getNativeCache();
+    }
+
+    @Override
+    public ValueWrapper get(Object key) {
+        ValueWrapper cached = memory.get(key);
+        if (cached != null || !(key instanceof QueryKey queryKey)) {
+            return cached;
+        }
+        CachedSearchResult stored = disk.get(queryKey);
+        if (stored == null) {
+            return null;
+        }
+        memory.put(key, stored);
+        return new SimpleValueWrapper(stored);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Class<T> type) {
+        ValueWrapper cached = get(key);
+        Object value = cached != null ? cached.get() : null;
+        if (value != null && type != null && !type.isInstance(value)) {
+            throw new IllegalStateException("Cached value is not of required type [" + type.getName() + "]: " + value);
+        }
+        return (T) value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        ValueWrapper cached = get(key);
+        if (cached != null) {
+            return (T) cached.get();
+        }
+        T value;
+        try {
+            value = valueLoader.call();
+        } catch (Exception e) {
+            throw new ValueRetrievalException(key, valueLoader, e);
+        }
+        put(key, value);
+        return value;
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        memory.put(key, value);
+        if (key instanceof QueryKey queryKey && value instanceof CachedSearchResult result) {
+            disk.putAsync(queryKey, result);
+        }
+    }
+
+    @Override
+    public void evict(Object key) {
+        memory.evict(key);
+        if (key instanceof QueryKey queryKey) {
+            disk.remove(queryKey);
+        }
+    }
+
+    @Override
+    public void clear() {
+        memory.clear();
+        disk.clear();
+    }
+}
@@ -0,0 +1,100 @@
+package projeto.projetoinformatico.config.ratelimit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A token bucket per client: every client may send {@code ratelimit.requests-per-second}
+ * requests, and up to {@code ratelimit.burst} at once after a pause. A bucket is a single
+ * {@link AtomicLong} holding the time its next token is due (the generic cell rate algorithm),
+ * so taking a token is one compare-and-set and clients never wait on each other's locks.
+ * <p>
+ * Buckets live in a Caffeine cache of at most {@code ratelimit.max-clients} entries, and are
+ * forgotten after {@code ratelimit.idle-ms} without requests. That is never shorter than a
+ * full refill, so a forgotten bucket would have been full anyway.
+ * <p>
+ * Refused requests are published as {@code ratelimit.rejected}, by whether the client is a
+ * user ({@code user:} keys) or an address, and the buckets kept as {@code ratelimit.clients}.
+ */
+@Component
+public class ClientRateLimiter implements MeterBinder {
+
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final Cache<String, AtomicLong> buckets;
+    private final LongAdder userRejections = new LongAdder();
+    private final LongAdder addressRejections = new LongAdder();
+
+    public ClientRateLimiter(@Value("${ratelimit.requests-per-second}") double requestsPerSecond,
+                             @Value("${ratelimit.burst}") int burst,
+                             @Value("${ratelimit.max-clients}") long maxClients,
+                             @Value("${ratelimit.idle-ms}") long idleMs) {
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond));
+        this.burstNanos = intervalNanos * Math.max(1, burst);
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(maxClients)
+                .expireAfterAccess(Duration.ofNanos(Math.max(TimeUnit.MILLISECONDS.toNanos(idleMs), burstNanos)))
+                .build();
+    }
+
+    /**
+     * Takes a token from the client's bucket if it has one.
+     *
+     * @param client user name or address of the client
+     * @return 0 when the request may go on, otherwise nanoseconds until the next token is due
+     */
+    public long tryAcquire(String client) {
+        AtomicLong nextDueNanos = buckets.get(client, key -> new AtomicLong(System.nanoTime() - burstNanos));
+        long now = System.nanoTime();
+        while (true) {
+            long due = nextDueNanos.get();
+            // A bucket left alone fills up to the burst and no further
+            long next = Math.max(due, now - burstNanos) + intervalNanos;
+            long waitNanos = next - now;
+            if (waitNanos > 0) {
+                (client.startsWith("user:") ? userRejections : addressRejections).increment();
+                return waitNanos;
+            }
+            if (nextDueNanos.compareAndSet(due, next)) {
+                return 0;
+            }
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("ratelimit.rejected", userRejections, LongAdder::sum)
+                .description("Requests refused for going past the client's rate")
+                .tag("client", "user")
+                .register(registry);
+        FunctionCounter.builder("ratelimit.rejected", addressRejections, LongAdder::sum)
+                .description("Requests refused for going past the client's rate")
+                .tag("client", "address")
+                .register(registry);
+        Gauge.builder("ratelimit.clients", this, ClientRateLimiter::getClientCount)
+                .description("Clients with a token bucket")
+                .register(registry);
+    }
+
+    public long getClientCount() {
+        return buckets.estimatedSize();
+    }
+
+    /**
+     * Drops the buckets that expired, Caffeine otherwise does it a little at a time.
+     */
+    public void cleanUp() {
+        buckets.cleanUp();
+    }
+}
@@ -0,0 +1,62 @@
+package projeto.projetoinformatico.config.ratelimit;
+
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Answers {@code 429 Too Many Requests} with a {@code Retry-After} header to clients past
+ * their rate on {@link RateLimited} endpoints. Clients logged in with a token are counted by
+ * user name, wherever they send requests from; anonymous clients by their address.
+ * <p>
+ * A request is counted once: the dispatch that writes the result of an asynchronous endpoint
+ * is not checked again.
+ */
+@Component
+public class RateLimitInterceptor implements HandlerInterceptor {
+
+    private final ClientRateLimiter clientRateLimiter;
+
+    public RateLimitInterceptor(ClientRateLimiter clientRateLimiter) {
+        this.clientRateLimiter = clientRateLimiter;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (request.getDispatcherType() == DispatcherType.ASYNC) {
+            return true;
+        }
+        if (!(handler instanceof HandlerMethod handlerMethod) || !handlerMethod.hasMethodAnnotation(RateLimited.class)) {
+            return true;
+        }
+        long waitNanos = clientRateLimiter.tryAcquire(clientKey(request));
+        if (waitNanos == 0) {
+            return true;
+        }
+        response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999))));
+        return false;
+    }
+
+    /**
+     * The user name set by the JWT filter, or the address of the client when it is anonymous.
+     */
+    static String clientKey(HttpServletRequest request) {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.isAuthenticated()
+                && !(authentication instanceof AnonymousAuthenticationToken)) {
+            return "user:" + authentication.getName();
+        }
+        return "ip:" + request.getRemoteAddr();
+    }
+}
@@ -0,0 +1,13 @@
+package projeto.projetoinformatico.config.ratelimit;
+
+import java.lang.annotation.*;
+
+/**
+ * Marks endpoints that count towards the request rate of the client calling them, see
+ * {@link RateLimitInterceptor}.
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RateLimited {
+}
@@ -6,6 +6,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.Order;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.AuthenticationProvider;
 import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
@@ -22,6 +23,9 @@ import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.AuthenticationEntryPoint;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
+import org.springframework.security.web.util.matcher.RequestMatcher;
+
+import static org.springframework.security.web.util.matcher.AntPathRequestMatcher.antMatcher;
 import projeto.projetoinformatico.config.jwt.JwtAuthenticationFilter;
 import projeto.projetoinformatico.exceptions.JWTAuthenticationEntryPoint;
 import projeto.projetoinformatico.service.UserService;
@@ -44,6 +48,9 @@ public class SecurityConfig {
     @Value("${spring.security.debug:false}")
     boolean securityDebug;
 
+    @Value("${management.server.port:-1}")
+    int managementPort;
+
     @Bean
     public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
         http.csrf(AbstractHttpConfigurer::disable)
@@ -53,12 +60,19 @@ public class SecurityConfig {
                     .requestMatchers("/api/layers").permitAll()
                     .requestMatchers("/api/layers/id/{id}").permitAll()
                     .requestMatchers("/api/layers/{id}").permitAll()
+                    .requestMatchers("/api/layers/{id}/stream").permitAll()
+                    .requestMatchers("/api/layers/{id}/tiled").permitAll()
+                    .requestMatchers("/api/layers/{id}/tiles/{zoom}/{x}/{y}").permitAll()
+                    .requestMatchers("/api/layers/{id}/materialization").permitAll()
                     .requestMatchers("/api/layers/search").permitAll()
                     .requestMatchers("/api/sparql").permitAll()
+                    .requestMatchers("/api/sparql/stream").permitAll()
                     .requestMatchers("/api/users/{id}/layers").permitAll()
                     .requestMatchers("/api/users/id/{id}").permitAll()
                     .requestMatchers("/data/property-values/{item_id}/{property_id}").permitAll()
                     .requestMatchers(WHITE_LIST_URL).permitAll()
+                    .requestMatchers("/actuator/health").permitAll()
+                    .requestMatchers("/actuator/**").hasAuthority("ADMIN")
                     .anyRequest().authenticated()
             )
             .exceptionHandling(customizer -> customizer.authenticationEntryPoint(authenticationEntryPoint()))
@@ -69,11 +83,38 @@ public class SecurityConfig {
 
 
 
+    /**
+     * Requests on the management port, which is kept off the public network. Prometheus scrapes
+     * /actuator/prometheus there without a token, as it cannot keep one fresh; the other
+     * endpoints need an admin token like everywhere else.
+     */
+    @Bean
+    @Order(1)
+    public SecurityFilterChain managementSecurityFilterChain(HttpSecurity http) throws Exception {
+        http.securityMatcher(managementRequests(managementPort))
+            .csrf(AbstractHttpConfigurer::disable)
+            .sessionManagement(manager -> manager.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
+            .authorizeHttpRequests(request -> request
+                    // The management port has a servlet of its own, which MVC matchers cannot find
+                    .requestMatchers(antMatcher("/actuator/health"), antMatcher("/actuator/prometheus")).permitAll()
+                    .anyRequest().hasAuthority("ADMIN")
+            )
+            .exceptionHandling(customizer -> customizer.authenticationEntryPoint(authenticationEntryPoint()))
+            .addFilterBefore(jwtAuthenticationFilter(), UsernamePasswordAuthenticationFilter.class);
+        return http.build();
+    }
+
+    static RequestMatcher managementRequests(int managementPort) {
+        return request -> managementPort > 0 && request.getLocalPort() == managementPort;
+    }
+
     @Bean
     public WebSecurityCustomizer webSecurityCustomizer() {
         return web -> web.debug(securityDebug)
                 .ignoring()
-                .requestMatchers("/css/**", "/js/**", "/img/**", "/lib/**", "/favicon.ico");
+                // Checked on the management port too, where MVC matchers find no servlet
+                .requestMatchers(antMatcher("/css/**"), antMatcher("/js/**"), antMatcher("/img/**"), antMatcher("/lib/**"),
+                        antMatcher("/favicon.ico"));
     }
 
     @Bean
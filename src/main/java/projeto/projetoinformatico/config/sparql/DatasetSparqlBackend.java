@@ -0,0 +1,42 @@
+package projeto.projetoinformatico.config.sparql;
+
+import org.apache.jena.query.*;
+
+import java.io.IOException;
+
+/**
+ * Runs queries in process over a Jena dataset, either a TDB2 database on disk or a dataset
+ * held in memory, without any network round trip. Wikidata's label service is answered from
+ * the labels in the dataset, see {@link LabelServiceRewriter}.
+ */
+public class DatasetSparqlBackend implements SparqlBackend {
+
+    private final Dataset dataset;
+    private final String description;
+
+    public DatasetSparqlBackend(Dataset dataset, String description) {
+        this.dataset = dataset;
+        this.description = description;
+    }
+
+    @Override
+    public <T> T execute(String query, QueryAction<T> action) throws IOException {
+        Query parsed = LabelServiceRewriter.rewrite(QueryFactory.create(query));
+        dataset.begin(ReadWrite.READ);
+        try (QueryExecution queryExecution = QueryExecutionFactory.create(parsed, dataset)) {
+            return action.apply(queryExecution);
+        } finally {
+            dataset.end();
+        }
+    }
+
+    @Override
+    public void close() {
+        dataset.close();
+    }
+
+    @Override
+    public String toString() {
+        return description;
+    }
+}
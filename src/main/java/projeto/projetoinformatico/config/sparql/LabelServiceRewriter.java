@@ -0,0 +1,116 @@
+package projeto.projetoinformatico.config.sparql;
+
+import org.apache.jena.graph.Node;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.graph.Triple;
+import org.apache.jena.query.Query;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.expr.E_Equals;
+import org.apache.jena.sparql.expr.E_Lang;
+import org.apache.jena.sparql.expr.ExprVar;
+import org.apache.jena.sparql.expr.NodeValue;
+import org.apache.jena.sparql.syntax.*;
+import org.apache.jena.sparql.syntax.syntaxtransform.ElementTransformCopyBase;
+import org.apache.jena.sparql.syntax.syntaxtransform.QueryTransformOps;
+import org.apache.jena.vocabulary.RDFS;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Replaces Wikidata's {@code SERVICE wikibase:label} with the patterns it stands for, so the
+ * same queries run on datasets outside the Wikidata Query Service. For every variable ?x bound
+ * next to the service whose ?xLabel or ?xDescription the query uses, the label or description
+ * in the first language given to the service, English by default, is looked up optionally.
+ */
+final class LabelServiceRewriter {
+
+    private static final String LABEL_SERVICE = "http://wikiba.se/ontology#label";
+    private static final Node LANGUAGE = NodeFactory.createURI("http://wikiba.se/ontology#language");
+    private static final Node DESCRIPTION = NodeFactory.createURI("http://schema.org/description");
+    private static final String DEFAULT_LANGUAGE = "en";
+    private static final Pattern SUFFIXED_VARIABLE = Pattern.compile("[?$](\\w+?)(Label|Description)\\b");
+
+    private LabelServiceRewriter() {
+    }
+
+    static Query rewrite(Query query) {
+        Set<String> labelled = new HashSet<>();
+        Set<String> described = new HashSet<>();
+        Matcher matcher = SUFFIXED_VARIABLE.matcher(query.serialize());
+        while (matcher.find()) {
+            (matcher.group(2).equals("Label") ? labelled : described).add(matcher.group(1));
+        }
+        return QueryTransformOps.transform(query, new Transform(labelled, described));
+    }
+
+    private static final class Transform extends ElementTransformCopyBase {
+
+        private final Set<String> labelled;
+        private final Set<String> described;
+
+        Transform(Set<String> labelled, Set<String> described) {
+            this.labelled = labelled;
+            this.described = described;
+        }
+
+        @Override
+        public Element transform(ElementGroup group, List<Element> members) {
+            ElementService service = null;
+            ElementGroup rewritten = new ElementGroup();
+            for (Element member : members) {
+                if (member instanceof ElementService candidate && candidate.getServiceNode().isURI()
+                        && LABEL_SERVICE.equals(candidate.getServiceNode().getURI())) {
+                    service = candidate;
+                } else {
+                    rewritten.addElement(member);
+                }
+            }
+            if (service == null) {
+                return super.transform(group, members);
+            }
+            String language = language(service);
+            Collection<Var> inScope = PatternVars.vars(rewritten);
+            for (Var var : new ArrayList<>(inScope)) {
+                addLookup(rewritten, inScope, var, labelled, "Label", RDFS.label.asNode(), language);
+                addLookup(rewritten, inScope, var, described, "Description", DESCRIPTION, language);
+            }
+            return rewritten;
+        }
+
+        private static void addLookup(ElementGroup group, Collection<Var> inScope, Var subject, Set<String> wanted,
+                                      String suffix, Node predicate, String language) {
+            Var value = Var.alloc(subject.getVarName() + suffix);
+            if (!wanted.contains(subject.getVarName()) || inScope.contains(value)) {
+                return;
+            }
+            ElementPathBlock pattern = new ElementPathBlock();
+            pattern.addTriple(Triple.create(subject, predicate, value));
+            ElementGroup lookup = new ElementGroup();
+            lookup.addElement(pattern);
+            lookup.addElementFilter(new ElementFilter(new E_Equals(new E_Lang(new ExprVar(value)), NodeValue.makeString(language))));
+            group.addElement(new ElementOptional(lookup));
+        }
+
+        // First explicit language of "bd:serviceParam wikibase:language", [AUTO_LANGUAGE] is skipped
+        private static String language(ElementService service) {
+            List<String> languages = new ArrayList<>();
+            ElementWalker.walk(service.getElement(), new ElementVisitorBase() {
+                @Override
+                public void visit(ElementPathBlock block) {
+                    block.getPattern().forEach(path -> {
+                        if (LANGUAGE.equals(path.getPredicate()) && path.getObject().isLiteral()) {
+                            languages.addAll(Arrays.asList(path.getObject().getLiteralLexicalForm().split(",")));
+                        }
+                    });
+                }
+            });
+            return languages.stream()
+                    .map(String::trim)
+                    .filter(language -> !language.isEmpty() && !language.startsWith("["))
+                    .findFirst()
+                    .orElse(DEFAULT_LANGUAGE);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package projeto.projetoinformatico.config.sparql;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QueryExecutionFactory;
+import org.apache.jena.riot.web.HttpOp;
+import org.apache.jena.sparql.engine.http.QueryExceptionHTTP;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends queries to a SPARQL endpoint over HTTP. When the endpoint refuses a query and says
+ * when to come back with {@code Retry-After}, the error is a {@link SparqlEndpointBusyException}.
+ * The bytes of the responses are counted as they are read, before they are decompressed.
+ */
+public class RemoteSparqlBackend implements SparqlBackend {
+
+    private static final String RETRY_AFTER = RemoteSparqlBackend.class.getName() + ".retryAfter";
+
+    private final String endpoint;
+    private final CloseableHttpClient httpClient;
+    private final LongAdder bytesRead = new LongAdder();
+
+    public RemoteSparqlBackend(String endpoint) {
+        this.endpoint = endpoint;
+        // Same pooled client Jena uses by default, keeping the Retry-After header of every response
+        this.httpClient = HttpOp.createPoolingHttpClientBuilder()
+                // First, so it sees the body before the content encoding is undone
+                .addInterceptorFirst((HttpResponseInterceptor) (response, context) -> {
+                    if (response.getEntity() != null) {
+                        response.setEntity(new CountingEntity(response.getEntity()));
+                    }
+                })
+                .addInterceptorLast((HttpResponseInterceptor) (response, context) -> {
+                    Header retryAfter = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+                    if (retryAfter != null) {
+                        context.setAttribute(RETRY_AFTER, retryAfter.getValue());
+                    }
+                })
+                .build();
+    }
+
+    @Override
+    public <T> T execute(String query, QueryAction<T> action) throws IOException {
+        HttpContext context = new BasicHttpContext();
+        try (QueryExecution queryExecution = QueryExecutionFactory.sparqlService(endpoint, query, httpClient, context)) {
+            return action.apply(queryExecution);
+        } catch (QueryExceptionHTTP e) {
+            Long retryAfterMillis = e instanceof SparqlEndpointBusyException ? null
+                    : SparqlEndpointBusyException.parseRetryAfter((String) context.getAttribute(RETRY_AFTER), System.currentTimeMillis());
+            if (retryAfterMillis != null) {
+                throw new SparqlEndpointBusyException(e, retryAfterMillis);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Bytes read from the endpoint since the backend was created.
+     */
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public void close() {
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            // Nothing left to do with the connections
+        }
+    }
+
+    @Override
+    public String toString() {
+        return endpoint;
+    }
+
+    private class CountingEntity extends HttpEntityWrapper {
+
+        CountingEntity(HttpEntity entity) {
+            super(entity);
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            return new FilterInputStream(super.getContent()) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) {
+                        bytesRead.increment();
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    int read = super.read(buffer, offset, length);
+                    if (read > 0) {
+                        bytesRead.add(read);
+                    }
+                    return read;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package projeto.projetoinformatico.config.sparql;
+
+import org.apache.jena.query.QueryExecution;
+
+import java.io.IOException;
+
+/**
+ * Somewhere SPARQL queries can run: a remote endpoint over HTTP, or a dataset loaded locally.
+ */
+public interface SparqlBackend extends AutoCloseable {
+
+    /**
+     * Name of the backend behind {@code sparql.endpoint}, used by queries that do not pick one.
+     */
+    String DEFAULT = "default";
+
+    /**
+     * Creates an execution of the query and hands it to the action, inside whatever transaction
+     * the backend needs to read the results. The execution is closed when the action returns.
+     */
+    <T> T execute(String query, QueryAction<T> action) throws IOException;
+
+    @Override
+    default void close() {
+    }
+
+    @FunctionalInterface
+    interface QueryAction<T> {
+        T apply(QueryExecution queryExecution) throws IOException;
+    }
+}
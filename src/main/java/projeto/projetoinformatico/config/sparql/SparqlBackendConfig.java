@@ -0,0 +1,35 @@
+package projeto.projetoinformatico.config.sparql;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@Configuration
+public class SparqlBackendConfig {
+
+    private static final Logger logger = LoggerFactory.getLogger(SparqlBackendConfig.class);
+
+    /**
+     * The default backend is {@code sparql.endpoint}; more can be named with
+     * {@code sparql.backends.<name>=<location>} and picked by layers. Locations are described
+     * in {@link SparqlBackends#fromLocation(String)}.
+     */
+    @Bean(destroyMethod = "close")
+    public SparqlBackends sparqlBackends(Environment environment) {
+        Map<String, SparqlBackend> backends = new LinkedHashMap<>();
+        backends.put(SparqlBackend.DEFAULT, SparqlBackends.fromLocation(environment.getRequiredProperty("sparql.endpoint")));
+        Binder.get(environment)
+                .bind("sparql.backends", Bindable.mapOf(String.class, String.class))
+                .orElse(Map.of())
+                .forEach((name, location) -> backends.put(name, SparqlBackends.fromLocation(location)));
+        backends.forEach((name, backend) -> logger.info("SPARQL backend " + name + ": " + backend));
+        return new SparqlBackends(backends);
+    }
+}
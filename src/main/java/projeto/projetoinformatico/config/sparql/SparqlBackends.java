@@ -0,0 +1,97 @@
+package projeto.projetoinformatico.config.sparql;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.tdb2.TDB2Factory;
+import projeto.projetoinformatico.exceptions.Exception.SparqlQueryException;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The SPARQL backends queries can be sent to, by name. The {@link SparqlBackend#DEFAULT} one
+ * is always there and is used when no name is given. The bytes read from every remote backend
+ * are published as {@code sparql.upstream.bytes}.
+ */
+public class SparqlBackends implements AutoCloseable, MeterBinder {
+
+    private final Map<String, SparqlBackend> backends;
+
+    public SparqlBackends(Map<String, SparqlBackend> backends) {
+        if (!backends.containsKey(SparqlBackend.DEFAULT)) {
+            throw new IllegalArgumentException("Missing the " + SparqlBackend.DEFAULT + " SPARQL backend");
+        }
+        this.backends = Collections.unmodifiableMap(new LinkedHashMap<>(backends));
+    }
+
+    /**
+     * Creates the backend for a location:
+     * <ul>
+     *     <li>{@code http://...} or {@code https://...}, a remote SPARQL endpoint</li>
+     *     <li>{@code tdb2:<directory>}, a TDB2 database, created empty if missing</li>
+     *     <li>{@code mem:<file>,<file>...}, an in-memory dataset loaded from RDF files</li>
+     * </ul>
+     */
+    public static SparqlBackend fromLocation(String location) {
+        if (location.startsWith("http://") || location.startsWith("https://")) {
+            return new RemoteSparqlBackend(location);
+        }
+        if (location.startsWith("tdb2:")) {
+            String directory = location.substring("tdb2:".length());
+            return new DatasetSparqlBackend(TDB2Factory.connectDataset(directory), location);
+        }
+        if (location.startsWith("mem:")) {
+            Dataset dataset = DatasetFactory.createTxnMem();
+            for (String file : location.substring("mem:".length()).split(",")) {
+                if (!file.isBlank()) {
+                    RDFDataMgr.read(dataset, file.trim());
+                }
+            }
+            return new DatasetSparqlBackend(dataset, location);
+        }
+        throw new IllegalArgumentException("Unsupported SPARQL backend location: " + location);
+    }
+
+    /**
+     * @param name backend name, or null for the default one
+     */
+    public SparqlBackend get(String name) {
+        SparqlBackend backend = backends.get(name == null ? SparqlBackend.DEFAULT : name);
+        if (backend == null) {
+            throw new SparqlQueryException("Unknown SPARQL backend: " + name);
+        }
+        return backend;
+    }
+
+    public boolean contains(String name) {
+        return name == null || backends.containsKey(name);
+    }
+
+    public Set<String> getNames() {
+        return backends.keySet();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        backends.forEach((name, backend) -> {
+            if (backend instanceof RemoteSparqlBackend remote) {
+                FunctionCounter.builder("sparql.upstream.bytes", remote, RemoteSparqlBackend::getBytesRead)
+                        .description("Bytes of the responses read from the SPARQL endpoint, as sent")
+                        .baseUnit("bytes")
+                        .tag("backend", name)
+                        .register(registry);
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        backends.values().forEach(SparqlBackend::close);
+    }
+}
@@ -0,0 +1,47 @@
+package projeto.projetoinformatico.config.sparql;
+
+import org.apache.jena.sparql.engine.http.QueryExceptionHTTP;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * An error answer of a SPARQL endpoint that said, with a {@code Retry-After} header, how long
+ * to wait before sending it queries again.
+ */
+public class SparqlEndpointBusyException extends QueryExceptionHTTP {
+
+    private final long retryAfterMillis;
+
+    public SparqlEndpointBusyException(QueryExceptionHTTP cause, long retryAfterMillis) {
+        super(cause.getStatusCode(), cause.getMessage(), cause);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    /**
+     * Milliseconds to wait for a {@code Retry-After} value, either a number of seconds or an
+     * HTTP date, or null when it is neither.
+     */
+    public static Long parseRetryAfter(String value, long nowMillis) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        String trimmed = value.trim();
+        try {
+            return Math.max(0, Long.parseLong(trimmed)) * 1000;
+        } catch (NumberFormatException e) {
+            // Not a number of seconds, maybe a date
+        }
+        try {
+            long retryAtMillis = ZonedDateTime.parse(trimmed, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            return Math.max(0, retryAtMillis - nowMillis);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
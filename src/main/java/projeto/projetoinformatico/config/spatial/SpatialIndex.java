@@ -0,0 +1,106 @@
+package projeto.projetoinformatico.config.spatial;
+
+import org.h2.mvstore.MVStore;
+import org.h2.mvstore.db.SpatialKey;
+import org.h2.mvstore.rtree.MVRTreeMap;
+import org.h2.mvstore.rtree.Spatial;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Coordinates of Wikidata items kept in an R-tree in an H2 MVStore file. Each item is a point
+ * in three dimensions: longitude, latitude and the year of its point in time (P585), so a box
+ * and a range of years are answered by the same tree lookup. Items without a point in time
+ * sit below every year. The index is built offline from a dump by {@link WikidataDumpIngester}.
+ */
+public class SpatialIndex implements AutoCloseable {
+
+    private static final float NO_YEAR = -Float.MAX_VALUE;
+
+    private final MVStore store;
+    // Keyed by the number of the item id, the value is its year or Long.MIN_VALUE
+    private final MVRTreeMap<Long> points;
+
+    public SpatialIndex(String fileName) {
+        Path parent = Path.of(fileName).toAbsolutePath().getParent();
+        try {
+            Files.createDirectories(parent);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create spatial index directory " + parent, e);
+        }
+        this.store = new MVStore.Builder().fileName(fileName).open();
+        this.points = store.openMap("points", new MVRTreeMap.Builder<Long>().dimensions(3));
+    }
+
+    /**
+     * @param itemId Wikidata item id, such as Q597
+     * @param year   year of the item's point in time, or null
+     */
+    public void put(String itemId, double latitude, double longitude, Long year) {
+        float lon = (float) longitude;
+        float lat = (float) latitude;
+        float time = year == null ? NO_YEAR : year;
+        points.put(new SpatialKey(itemNumber(itemId), lon, lon, lat, lat, time, time), year == null ? Long.MIN_VALUE : year);
+    }
+
+    /**
+     * Finds the items inside the box given by two opposite corners. When both years are given
+     * only items whose point in time falls between them, or that have none, are returned.
+     *
+     * @param limit maximum number of items returned
+     * @return item ids, such as Q597
+     */
+    public List<String> findWithin(double lat1, double lon1, double lat2, double lon2,
+                                   Long startYear, Long endYear, int limit) {
+        float minLon = (float) Math.min(lon1, lon2);
+        float maxLon = (float) Math.max(lon1, lon2);
+        float minLat = (float) Math.min(lat1, lat2);
+        float maxLat = (float) Math.max(lat1, lat2);
+        List<String> items = new ArrayList<>();
+        if (startYear == null || endYear == null) {
+            collect(new SpatialKey(0, minLon, maxLon, minLat, maxLat, NO_YEAR, Float.MAX_VALUE), items, limit);
+            return items;
+        }
+        collect(new SpatialKey(0, minLon, maxLon, minLat, maxLat, startYear, endYear), items, limit);
+        collect(new SpatialKey(0, minLon, maxLon, minLat, maxLat, NO_YEAR, NO_YEAR), items, limit);
+        return items;
+    }
+
+    private void collect(Spatial box, List<String> items, int limit) {
+        Iterator<Spatial> keys = points.findIntersectingKeys(box);
+        while (items.size() < limit && keys.hasNext()) {
+            items.add("Q" + keys.next().getId());
+        }
+    }
+
+    public long size() {
+        return points.sizeAsLong();
+    }
+
+    public void clear() {
+        points.clear();
+        store.commit();
+    }
+
+    public void commit() {
+        store.commit();
+    }
+
+    @Override
+    public void close() {
+        store.close();
+    }
+
+    private static long itemNumber(String itemId) {
+        if (itemId.length() < 2 || itemId.charAt(0) != 'Q') {
+            throw new IllegalArgumentException("Not a Wikidata item id: " + itemId);
+        }
+        return Long.parseLong(itemId.substring(1));
+    }
+}
@@ -0,0 +1,39 @@
+package projeto.projetoinformatico.config.spatial;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.h2.mvstore.MVStoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.UncheckedIOException;
+
+@Configuration
+public class SpatialIndexConfig {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpatialIndexConfig.class);
+
+    /**
+     * Bounding boxes are sent to the SPARQL endpoint when the index file cannot be opened, for
+     * example because another instance on the same host holds its lock.
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "spatial.index.enabled", havingValue = "true")
+    public SpatialIndex spatialIndex(@Value("${spatial.index.path}") String path, MeterRegistry meterRegistry) {
+        SpatialIndex index;
+        try {
+            index = new SpatialIndex(path);
+        } catch (MVStoreException | UncheckedIOException e) {
+            logger.warn("Running without the local spatial index, cannot open " + path + ": " + e.getMessage());
+            return null;
+        }
+        Gauge.builder("spatial.index.items", index, SpatialIndex::size)
+                .description("Number of Wikidata items in the local spatial index")
+                .register(meterRegistry);
+        return index;
+    }
+}
@@ -0,0 +1,86 @@
+package projeto.projetoinformatico.config.spatial;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.wikidata.wdtk.datamodel.helpers.Datamodel;
+import org.wikidata.wdtk.datamodel.interfaces.*;
+import org.wikidata.wdtk.dumpfiles.DumpContentType;
+import org.wikidata.wdtk.dumpfiles.DumpProcessingController;
+import org.wikidata.wdtk.dumpfiles.MwLocalDumpFile;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Streams a Wikidata JSON dump into a {@link SpatialIndex}. Every item with a coordinate
+ * location (P625) on Earth is indexed together with the year of its point in time (P585).
+ * Only the best ranked statements are used, and the dump reader drops labels, site links and
+ * every other property while parsing, so a full dump goes through in a single pass.
+ */
+public class WikidataDumpIngester implements EntityDocumentProcessor {
+
+    private static final Logger logger = LoggerFactory.getLogger(WikidataDumpIngester.class);
+
+    private static final String COORDINATE_LOCATION = "P625";
+    private static final String POINT_IN_TIME = "P585";
+    private static final int COMMIT_INTERVAL = 100_000;
+
+    private final SpatialIndex index;
+    private long indexed;
+
+    public WikidataDumpIngester(SpatialIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * Reads the dump, plain or compressed with gzip or bzip2 as told by its file extension.
+     *
+     * @return number of items added to the index
+     */
+    public long ingest(Path dumpFile) {
+        if (!Files.isReadable(dumpFile)) {
+            throw new IllegalArgumentException("Cannot read Wikidata dump " + dumpFile);
+        }
+        DumpProcessingController controller = new DumpProcessingController("wikidatawiki");
+        controller.setOfflineMode(true);
+        controller.setPropertyFilter(Set.of(
+                Datamodel.makeWikidataPropertyIdValue(COORDINATE_LOCATION),
+                Datamodel.makeWikidataPropertyIdValue(POINT_IN_TIME)));
+        controller.setSiteLinkFilter(Collections.emptySet());
+        controller.setLanguageFilter(Collections.emptySet());
+        controller.registerEntityDocumentProcessor(this, null, true);
+        controller.processDump(new MwLocalDumpFile(dumpFile.toString(), DumpContentType.JSON, null, null));
+        index.commit();
+        logger.info("Indexed the coordinates of " + indexed + " items from " + dumpFile);
+        return indexed;
+    }
+
+    @Override
+    public void processItemDocument(ItemDocument item) {
+        GlobeCoordinatesValue coordinates = bestValue(item, COORDINATE_LOCATION, GlobeCoordinatesValue.class);
+        if (coordinates == null || !GlobeCoordinatesValue.GLOBE_EARTH.equals(coordinates.getGlobe())) {
+            return;
+        }
+        TimeValue pointInTime = bestValue(item, POINT_IN_TIME, TimeValue.class);
+        index.put(item.getEntityId().getId(), coordinates.getLatitude(), coordinates.getLongitude(),
+                pointInTime == null ? null : pointInTime.getYear());
+        if (++indexed % COMMIT_INTERVAL == 0) {
+            index.commit();
+        }
+    }
+
+    private static <T extends Value> T bestValue(ItemDocument item, String property, Class<T> type) {
+        StatementGroup statements = item.findStatementGroup(property);
+        if (statements == null) {
+            return null;
+        }
+        for (Statement statement : statements.getBestStatements()) {
+            if (type.isInstance(statement.getValue())) {
+                return type.cast(statement.getValue());
+            }
+        }
+        return null;
+    }
+}
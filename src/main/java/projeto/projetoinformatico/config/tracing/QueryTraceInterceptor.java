@@ -0,0 +1,72 @@
+package projeto.projetoinformatico.config.tracing;
+
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import projeto.projetoinformatico.utils.QueryTrace;
+import projeto.projetoinformatico.utils.SlowQueryLog;
+
+/**
+ * Starts a {@link QueryTrace} for every request and answers its id in {@code X-Trace-Id}.
+ * The trace is current on the request thread while the handler runs. When the handler answers
+ * asynchronously, the response is written on a second dispatch, and that time is the
+ * {@link QueryTrace.Phase#SERIALIZE} phase. Once the response is written the trace goes to
+ * the {@link SlowQueryLog}.
+ */
+@Component
+public class QueryTraceInterceptor implements AsyncHandlerInterceptor {
+
+    public static final String TRACE_ID_HEADER = "X-Trace-Id";
+
+    private static final String TRACE = QueryTraceInterceptor.class.getName() + ".trace";
+    private static final String SCOPE = QueryTraceInterceptor.class.getName() + ".scope";
+    private static final String SERIALIZE_START = QueryTraceInterceptor.class.getName() + ".serializeStart";
+
+    private final SlowQueryLog slowQueryLog;
+
+    public QueryTraceInterceptor(SlowQueryLog slowQueryLog) {
+        this.slowQueryLog = slowQueryLog;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        QueryTrace trace = (QueryTrace) request.getAttribute(TRACE);
+        if (trace != null && request.getDispatcherType() == DispatcherType.ASYNC) {
+            request.setAttribute(SERIALIZE_START, System.nanoTime());
+        } else if (trace == null) {
+            trace = QueryTrace.start(request.getHeader("traceparent"));
+            request.setAttribute(TRACE, trace);
+            response.setHeader(TRACE_ID_HEADER, trace.getTraceId());
+        }
+        request.setAttribute(SCOPE, trace.attach());
+        return true;
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        detach(request);
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        detach(request);
+        QueryTrace trace = (QueryTrace) request.getAttribute(TRACE);
+        if (trace == null) {
+            return;
+        }
+        if (request.getAttribute(SERIALIZE_START) instanceof Long serializeStart) {
+            trace.record(QueryTrace.Phase.SERIALIZE, System.nanoTime() - serializeStart);
+        }
+        trace.finish();
+        slowQueryLog.record(trace);
+    }
+
+    private static void detach(HttpServletRequest request) {
+        if (request.getAttribute(SCOPE) instanceof QueryTrace.Scope scope) {
+            request.removeAttribute(SCOPE);
+            scope.close();
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package projeto.projetoinformatico.config.tracing;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+public class TracingConfig implements WebMvcConfigurer {
+
+    private final QueryTraceInterceptor queryTraceInterceptor;
+
+    public TracingConfig(QueryTraceInterceptor queryTraceInterceptor) {
+        this.queryTraceInterceptor = queryTraceInterceptor;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(queryTraceInterceptor).addPathPatterns("/api/layers/**");
+    }
+}
@@ -0,0 +1,120 @@
+package projeto.projetoinformatico.config.web;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import projeto.projetoinformatico.model.ClusterResult;
+import projeto.projetoinformatico.model.ResultTable;
+import projeto.projetoinformatico.model.SearchResult;
+import projeto.projetoinformatico.model.TermKind;
+import projeto.projetoinformatico.utils.PointClusters;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Writes search results and clusters as a GeoJSON FeatureCollection when a client asks for
+ * {@code application/geo+json}. The WKT point of each row becomes a geometry with numeric
+ * coordinates and the other variables its properties, with their values decoded like
+ * {@link TypedJsonHttpMessageConverter} does; rows without a point get a null geometry.
+ * Clusters are points with their count, plus the row of single point clusters.
+ */
+public class GeoJsonHttpMessageConverter extends AbstractHttpMessageConverter<Object> {
+
+    public static final MediaType APPLICATION_GEO_JSON = new MediaType("application", "geo+json");
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    public GeoJsonHttpMessageConverter() {
+        super(APPLICATION_GEO_JSON);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return SearchResult.class.isAssignableFrom(clazz) || ClusterResult.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected Object readInternal(Class<?> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("GeoJSON request bodies are not supported", inputMessage);
+    }
+
+    @Override
+    protected void writeInternal(Object body, HttpOutputMessage outputMessage) throws IOException {
+        try (JsonGenerator generator = jsonFactory.createGenerator(outputMessage.getBody(), JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            generator.writeStringField("type", "FeatureCollection");
+            generator.writeArrayFieldStart("features");
+            if (body instanceof ClusterResult clusters) {
+                writeClusters(clusters.clusters(), generator);
+            } else {
+                writeRows(((SearchResult) body).table(), generator);
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+    }
+
+    private static void writeRows(ResultTable table, JsonGenerator generator) throws IOException {
+        int coordinates = PointClusters.coordinateColumn(table);
+        List<String> variables = table.getVariables();
+        for (int row = 0; row < table.getRowCount(); row++) {
+            generator.writeStartObject();
+            generator.writeStringField("type", "Feature");
+            if (coordinates < 0 || Double.isNaN(table.getLatitude(row, coordinates))) {
+                generator.writeNullField("geometry");
+            } else {
+                writeGeometry(table.getLatitude(row, coordinates), table.getLongitude(row, coordinates), generator);
+            }
+            generator.writeObjectFieldStart("properties");
+            for (int column = 0; column < variables.size(); column++) {
+                if (column != coordinates) {
+                    TypedValues.writeField(generator, table, row, column);
+                }
+            }
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+    }
+
+    private static void writeClusters(List<ClusterResult.Cluster> clusters, JsonGenerator generator) throws IOException {
+        for (ClusterResult.Cluster cluster : clusters) {
+            generator.writeStartObject();
+            generator.writeStringField("type", "Feature");
+            writeGeometry(cluster.latitude(), cluster.longitude(), generator);
+            generator.writeObjectFieldStart("properties");
+            generator.writeNumberField("count", cluster.count());
+            if (cluster.item() != null) {
+                // Kinds are guessed from the text of the single row
+                ResultTable item = ResultTable.fromRows(List.of(cluster.item()));
+                for (int column = 0; column < item.getVariables().size(); column++) {
+                    if (item.getKind(column) != TermKind.POINT) {
+                        TypedValues.writeField(generator, item, 0, column);
+                    }
+                }
+            }
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+    }
+
+    private static void writeGeometry(double latitude, double longitude, JsonGenerator generator) throws IOException {
+        generator.writeObjectFieldStart("geometry");
+        generator.writeStringField("type", "Point");
+        generator.writeArrayFieldStart("coordinates");
+        generator.writeNumber(longitude);
+        generator.writeNumber(latitude);
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+}
@@ -0,0 +1,77 @@
+package projeto.projetoinformatico.config.web;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import projeto.projetoinformatico.model.ResultTable;
+import projeto.projetoinformatico.model.SearchResult;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Writes search results with decoded values when a client asks for
+ * {@code application/vnd.wikimaps.typed+json}, so it does not have to parse the RDF text of
+ * every value itself. The kind of each variable is listed before the rows, for example
+ * <pre>
+ * {"variables":[{"name":"item","kind":"ENTITY"},{"name":"coordinates","kind":"POINT"}],
+ *  "results":[{"item":"Q597","coordinates":{"latitude":38.7252,"longitude":-9.15}}]}
+ * </pre>
+ */
+public class TypedJsonHttpMessageConverter extends AbstractHttpMessageConverter<SearchResult> {
+
+    public static final MediaType APPLICATION_TYPED_JSON = new MediaType("application", "vnd.wikimaps.typed+json");
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    public TypedJsonHttpMessageConverter() {
+        super(APPLICATION_TYPED_JSON);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return SearchResult.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected SearchResult readInternal(Class<? extends SearchResult> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("Typed JSON request bodies are not supported", inputMessage);
+    }
+
+    @Override
+    protected void writeInternal(SearchResult result, HttpOutputMessage outputMessage) throws IOException {
+        ResultTable table = result.table();
+        List<String> variables = table.getVariables();
+        try (JsonGenerator generator = jsonFactory.createGenerator(outputMessage.getBody(), JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("variables");
+            for (int column = 0; column < variables.size(); column++) {
+                generator.writeStartObject();
+                generator.writeStringField("name", variables.get(column));
+                generator.writeStringField("kind", table.getKind(column).name());
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeArrayFieldStart("results");
+            for (int row = 0; row < table.getRowCount(); row++) {
+                generator.writeStartObject();
+                for (int column = 0; column < variables.size(); column++) {
+                    TypedValues.writeField(generator, table, row, column);
+                }
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+    }
+}
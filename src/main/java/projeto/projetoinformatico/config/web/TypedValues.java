@@ -0,0 +1,49 @@
+package projeto.projetoinformatico.config.web;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import projeto.projetoinformatico.model.ResultTable;
+
+import java.io.IOException;
+
+/**
+ * Writes the decoded value of a table cell as JSON: points as latitude and longitude, dates
+ * as milliseconds since the epoch, numbers as numbers, language literals as their text and
+ * language, and Wikidata entities by their id. Anything else is written as its text.
+ */
+final class TypedValues {
+
+    private TypedValues() {
+    }
+
+    /**
+     * Writes the field for the cell, nothing when its variable is unbound.
+     */
+    static void writeField(JsonGenerator generator, ResultTable table, int row, int column) throws IOException {
+        String text = table.getText(row, column);
+        if (text == null) {
+            return;
+        }
+        generator.writeFieldName(table.getVariables().get(column));
+        double latitude = table.getLatitude(row, column);
+        long epochMillis = table.getEpochMillis(row, column);
+        double number = table.getNumber(row, column);
+        String language = table.getLanguage(row, column);
+        if (!Double.isNaN(latitude)) {
+            generator.writeStartObject();
+            generator.writeNumberField("latitude", latitude);
+            generator.writeNumberField("longitude", table.getLongitude(row, column));
+            generator.writeEndObject();
+        } else if (epochMillis != ResultTable.NO_TIME) {
+            generator.writeNumber(epochMillis);
+        } else if (!Double.isNaN(number)) {
+            generator.writeNumber(number);
+        } else if (language != null) {
+            generator.writeStartObject();
+            generator.writeStringField("value", text);
+            generator.writeStringField("lang", language);
+            generator.writeEndObject();
+        } else {
+            generator.writeString(text);
+        }
+    }
+}
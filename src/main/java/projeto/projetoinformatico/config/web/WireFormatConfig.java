@@ -0,0 +1,23 @@
+package projeto.projetoinformatico.config.web;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.List;
+
+/**
+ * Result formats a client can ask for with its Accept header, besides the default JSON.
+ * CBOR ({@code application/cbor}) and Smile ({@code application/x-jackson-smile}) are added
+ * by Spring MVC itself as their Jackson modules are on the classpath. GeoJSON and typed JSON
+ * go last so clients that accept anything still get JSON.
+ */
+@Configuration
+public class WireFormatConfig implements WebMvcConfigurer {
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.add(new GeoJsonHttpMessageConverter());
+        converters.add(new TypedJsonHttpMessageConverter());
+    }
+}
@@ -6,7 +6,12 @@ import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import projeto.projetoinformatico.exceptions.Exception.InvalidParamsRequestException;
+import projeto.projetoinformatico.model.LayerCost;
 import projeto.projetoinformatico.service.UserService;
+import projeto.projetoinformatico.utils.LayerCostProfiler;
+
+import java.util.List;
 
 /**
  * Controller class for handling administrative operations.
@@ -17,6 +22,7 @@ import projeto.projetoinformatico.service.UserService;
 public class AdminController {
 
     private final UserService userService;
+    private final LayerCostProfiler layerCostProfiler;
 
     /**
      * Endpoint to greet the admin.
@@ -78,4 +84,39 @@ public class AdminController {
         return ResponseEntity.noContent().build();
     }
 
+    /**
+     * Endpoint to rank the layers by what their queries cost the SPARQL backends.
+     *
+     * @param sort  What to rank by: time, rows, bytes or queries (default is time).
+     * @param limit Most layers returned (default is 20).
+     * @return ResponseEntity with the most expensive layers first.
+     */
+    @Operation(summary = "Rank expensive layers", description = "Ranks the layers by the time, rows, result size or number of the queries they sent to the SPARQL backends since profiling started.")
+    @GetMapping("/layers/costs")
+    @PreAuthorize("hasAuthority('ADMIN')")
+    public ResponseEntity<List<LayerCost>> getLayerCosts(
+            @RequestParam(defaultValue = "time") String sort,
+            @RequestParam(defaultValue = "20") int limit) {
+        LayerCostProfiler.Order order = LayerCostProfiler.Order.fromId(sort);
+        if (order == null) {
+            throw new InvalidParamsRequestException("Invalid sort, use time, rows, bytes or queries");
+        }
+        if (limit < 1) {
+            throw new InvalidParamsRequestException("Invalid limit");
+        }
+        return ResponseEntity.ok(layerCostProfiler.ranking(order, limit));
+    }
+
+    /**
+     * Endpoint to start profiling the layers again from nothing.
+     *
+     * @return ResponseEntity with no content once the costs are cleared.
+     */
+    @Operation(summary = "Reset layer costs", description = "Forgets the costs of every layer and starts profiling again.")
+    @DeleteMapping("/layers/costs")
+    @PreAuthorize("hasAuthority('ADMIN')")
+    public ResponseEntity<Void> resetLayerCosts() {
+        layerCostProfiler.reset();
+        return ResponseEntity.noContent().build();
+    }
 }
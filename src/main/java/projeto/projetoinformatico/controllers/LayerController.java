@@ -1,6 +1,5 @@
 package projeto.projetoinformatico.controllers;
 
-import com.google.common.util.concurrent.RateLimiter;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
@@ -9,23 +8,32 @@ import jakarta.validation.Valid;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
-import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import projeto.projetoinformatico.config.ratelimit.RateLimited;
 import projeto.projetoinformatico.dtos.LayerDTO;
 import projeto.projetoinformatico.dtos.Paged.LayerPageDTO;
 import projeto.projetoinformatico.exceptions.Exception.InvalidParamsRequestException;
 import projeto.projetoinformatico.exceptions.Exception.NotFoundException;
 import projeto.projetoinformatico.exceptions.Exception.SparqlQueryException;
-import projeto.projetoinformatico.model.SearchResult;
+import projeto.projetoinformatico.model.CachedSearchResult;
+import projeto.projetoinformatico.model.MaterializationStatus;
 import projeto.projetoinformatico.requests.LayerRequest;
+import projeto.projetoinformatico.service.ClusterService;
 import projeto.projetoinformatico.service.LayerService;
+import projeto.projetoinformatico.utils.AsyncResults;
+import projeto.projetoinformatico.utils.Tile;
 import projeto.projetoinformatico.utils.Validation;
+import projeto.projetoinformatico.utils.VectorTileEncoder;
 
-import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Controller class for handling layer operations.
@@ -35,13 +43,13 @@ import java.util.Collections;
 public class LayerController {
 
     private final LayerService layerService;
-    private static final double REQUESTS_PER_SECOND = 20.0;
-    private static final RateLimiter rateLimiter = RateLimiter.create(REQUESTS_PER_SECOND);
     private final Validation validation;
+    private final ClusterService clusterService;
 
-    public LayerController(LayerService layerService, Validation validation) {
+    public LayerController(LayerService layerService, Validation validation, ClusterService clusterService) {
         this.layerService = layerService;
         this.validation = validation;
+        this.clusterService = clusterService;
     }
 
     /**
@@ -119,17 +127,22 @@ public class LayerController {
      * @param lon1  Longitude coordinate 1.
      * @param start Start timestamp for the query.
      * @param end   End timestamp for the query.
-     * @return ResponseEntity with the search results.
+     * @param zoom  Optional map zoom level, the results are then grouped in clusters for it.
+     * @return ResponseEntity with the search results, or their clusters, and an Age header with their age in seconds.
+     *         Besides JSON they can be asked for as typed JSON, GeoJSON, CBOR or Smile with the Accept header.
      */
-    @Operation(summary = "Get layer results with parameters", description = "Retrieves search results for a layer by ID with specified parameters.")
+    @Operation(summary = "Get layer results with parameters", description = "Retrieves search results for a layer by ID with specified parameters. With a zoom level the points are returned as clusters with their centroid and count.")
     @GetMapping("/layers/{id}")
+    @RateLimited
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Successfully retrieved layer results"),
             @ApiResponse(responseCode = "400", description = "Invalid request parameters"),
-            @ApiResponse(responseCode = "429", description = "Rate limit exceeded"),
-            @ApiResponse(responseCode = "500", description = "Internal server error")
+            @ApiResponse(responseCode = "429", description = "Rate limit exceeded, try again after Retry-After"),
+            @ApiResponse(responseCode = "503", description = "SPARQL endpoint unavailable, try again after Retry-After"),
+            @ApiResponse(responseCode = "500", description = "Internal server error"),
+            @ApiResponse(responseCode = "504", description = "SPARQL query timed out")
     })
-    public ResponseEntity<?> getLayerResultsByIdWithParams(
+    public DeferredResult<ResponseEntity<?>> getLayerResultsByIdWithParams(
             @Parameter(description = "ID of the layer to search", required = true)
             @PathVariable Long id,
             @RequestParam Double lat1,
@@ -137,22 +150,189 @@ public class LayerController {
             @RequestParam Double lat2,
             @RequestParam Double lon1,
             @RequestParam Long start,
-            @RequestParam Long end
+            @RequestParam Long end,
+            @RequestParam(required = false) Integer zoom
     ) {
-        if (!rateLimiter.tryAcquire()) {
-            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).build();
+        if (!validation.isValidCoordinate(lat1, lon2, lat2, lon1)) {
+            throw new InvalidParamsRequestException("Invalid params");
+        }
+        if (zoom != null && (zoom < 0 || zoom > Tile.MAX_ZOOM)) {
+            throw new InvalidParamsRequestException("Zoom must be between 0 and " + Tile.MAX_ZOOM);
+        }
+        CompletableFuture<CachedSearchResult> searchResult;
+        try {
+            searchResult = layerService.getLayerByIdWithParamsAsync(id, lat1, lon1, lat2, lon2, start, end); // Call the service method
+        } catch (Exception e) {
+            throw new SparqlQueryException("Invalid Sparql Query");
         }
+        // Cached results can be served while they are refreshed, the Age header tells how old they are
+        return AsyncResults.toDeferredResult(searchResult,
+                cached -> ResponseEntity.ok()
+                        .header(HttpHeaders.AGE, String.valueOf(cached.ageSeconds()))
+                        .body(zoom == null ? cached.result() : clusterService.cluster(cached.result(), zoom)),
+                AsyncResults::errorResponse);
+    }
+
+    /**
+     * Retrieves search results for a layer by ID, querying the map tiles covering the box.
+     * Every tile is cached on its own, so boxes that overlap reuse the tiles they share.
+     *
+     * @param id    The ID of the layer to search.
+     * @param lat1  Latitude coordinate 1.
+     * @param lon2  Longitude coordinate 2.
+     * @param lat2  Latitude coordinate 2.
+     * @param lon1  Longitude coordinate 1.
+     * @param start Start timestamp for the query.
+     * @param end   End timestamp for the query.
+     * @return ResponseEntity with the merged results of the tiles and an Age header with the age of the oldest one.
+     */
+    @Operation(summary = "Get tiled layer results with parameters", description = "Retrieves search results for a layer by ID from the map tiles covering the given box. Results may reach past the box up to the edges of its tiles.")
+    @GetMapping("/layers/{id}/tiled")
+    @RateLimited
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Successfully retrieved layer results"),
+            @ApiResponse(responseCode = "400", description = "Invalid request parameters"),
+            @ApiResponse(responseCode = "429", description = "Rate limit exceeded, try again after Retry-After"),
+            @ApiResponse(responseCode = "503", description = "SPARQL endpoint unavailable, try again after Retry-After"),
+            @ApiResponse(responseCode = "500", description = "Internal server error"),
+            @ApiResponse(responseCode = "504", description = "SPARQL query timed out")
+    })
+    public DeferredResult<ResponseEntity<?>> getLayerTilesByIdWithParams(
+            @Parameter(description = "ID of the layer to search", required = true)
+            @PathVariable Long id,
+            @RequestParam Double lat1,
+            @RequestParam Double lon2,
+            @RequestParam Double lat2,
+            @RequestParam Double lon1,
+            @RequestParam Long start,
+            @RequestParam Long end
+    ) {
         if (!validation.isValidCoordinate(lat1, lon2, lat2, lon1)) {
             throw new InvalidParamsRequestException("Invalid params");
         }
+        CompletableFuture<CachedSearchResult> searchResult;
         try {
-            SearchResult searchResult = layerService.getLayerByIdWithParams(id, lat1, lon1, lat2, lon2, start, end); // Call the service method
-            return ResponseEntity.ok(searchResult);
-        } catch (SparqlQueryException e) {
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new SearchResult(Collections.emptyList()));
+            searchResult = layerService.getLayerTilesByIdWithParamsAsync(id, lat1, lon1, lat2, lon2, start, end);
         } catch (Exception e) {
             throw new SparqlQueryException("Invalid Sparql Query");
         }
+        return AsyncResults.toDeferredResult(searchResult,
+                cached -> ResponseEntity.ok()
+                        .header(HttpHeaders.AGE, String.valueOf(cached.ageSeconds()))
+                        .body(cached.result()),
+                AsyncResults::errorResponse);
+    }
+
+    /**
+     * Retrieves the results of a layer inside a single map tile as a Mapbox Vector Tile.
+     * The tile is cached like the tiles of {@code /layers/{id}/tiled}, so both share results.
+     *
+     * @param id    The ID of the layer to search.
+     * @param zoom  Zoom level of the tile.
+     * @param x     Column of the tile, growing eastwards.
+     * @param y     Row of the tile, growing southwards.
+     * @param start Start timestamp for the query.
+     * @param end   End timestamp for the query.
+     * @return ResponseEntity with the encoded tile and an Age header with its age in seconds.
+     */
+    @Operation(summary = "Get a vector tile of layer results", description = "Retrieves the results of a layer inside the slippy map tile zoom/x/y, encoded as a Mapbox Vector Tile with one point feature per result.")
+    @GetMapping(value = "/layers/{id}/tiles/{zoom}/{x}/{y}", produces = VectorTileEncoder.MEDIA_TYPE)
+    @RateLimited
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Successfully retrieved the tile"),
+            @ApiResponse(responseCode = "400", description = "Invalid request parameters"),
+            @ApiResponse(responseCode = "429", description = "Rate limit exceeded, try again after Retry-After"),
+            @ApiResponse(responseCode = "503", description = "SPARQL endpoint unavailable, try again after Retry-After"),
+            @ApiResponse(responseCode = "500", description = "Internal server error"),
+            @ApiResponse(responseCode = "504", description = "SPARQL query timed out")
+    })
+    public DeferredResult<ResponseEntity<byte[]>> getLayerVectorTile(
+            @Parameter(description = "ID of the layer to search", required = true)
+            @PathVariable Long id,
+            @PathVariable int zoom,
+            @PathVariable int x,
+            @PathVariable int y,
+            @RequestParam Long start,
+            @RequestParam Long end
+    ) {
+        Tile tile;
+        try {
+            tile = new Tile(zoom, x, y);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidParamsRequestException("Invalid params");
+        }
+        CompletableFuture<CachedSearchResult> searchResult;
+        try {
+            searchResult = layerService.getLayerTileByIdAsync(id, tile, start, end);
+        } catch (Exception e) {
+            throw new SparqlQueryException("Invalid Sparql Query");
+        }
+        return AsyncResults.toDeferredResult(searchResult,
+                cached -> ResponseEntity.ok()
+                        .header(HttpHeaders.AGE, String.valueOf(cached.ageSeconds()))
+                        .contentType(MediaType.parseMediaType(VectorTileEncoder.MEDIA_TYPE))
+                        .body(VectorTileEncoder.encode("layer-" + id, tile, cached.result().table())),
+                e -> AsyncResults.errorResponse(e, null));
+    }
+
+    /**
+     * Retrieves the state of the materialized results of a layer.
+     *
+     * @param id The ID of the layer.
+     * @return ResponseEntity with whether the layer is materialized and ready, and when its results were fetched.
+     */
+    @Operation(summary = "Get layer materialization", description = "Retrieves whether the results of a layer are materialized, how many rows they have and when they were fetched.")
+    @GetMapping("/layers/{id}/materialization")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Successfully retrieved the materialization state"),
+            @ApiResponse(responseCode = "404", description = "Layer not found"),
+            @ApiResponse(responseCode = "500", description = "Internal server error")
+    })
+    public ResponseEntity<MaterializationStatus> getLayerMaterialization(
+            @Parameter(description = "ID of the layer", required = true)
+            @PathVariable Long id) {
+        return ResponseEntity.ok(layerService.getMaterializationStatus(id));
+    }
+
+    /**
+     * Streams search results for a layer by ID with specified parameters.
+     * Rows are written to the response as they arrive from the SPARQL endpoint.
+     *
+     * @param id    The ID of the layer to search.
+     * @param lat1  Latitude coordinate 1.
+     * @param lon2  Longitude coordinate 2.
+     * @param lat2  Latitude coordinate 2.
+     * @param lon1  Longitude coordinate 1.
+     * @param start Start timestamp for the query.
+     * @param end   End timestamp for the query.
+     * @return ResponseEntity with a streaming body of the search results.
+     */
+    @Operation(summary = "Stream layer results with parameters", description = "Streams search results for a layer by ID with specified parameters.")
+    @GetMapping("/layers/{id}/stream")
+    @RateLimited
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Successfully streamed layer results"),
+            @ApiResponse(responseCode = "400", description = "Invalid request parameters"),
+            @ApiResponse(responseCode = "429", description = "Rate limit exceeded, try again after Retry-After"),
+            @ApiResponse(responseCode = "503", description = "SPARQL endpoint unavailable, try again after Retry-After"),
+            @ApiResponse(responseCode = "500", description = "Internal server error")
+    })
+    public ResponseEntity<StreamingResponseBody> streamLayerResultsByIdWithParams(
+            @Parameter(description = "ID of the layer to search", required = true)
+            @PathVariable Long id,
+            @RequestParam Double lat1,
+            @RequestParam Double lon2,
+            @RequestParam Double lat2,
+            @RequestParam Double lon1,
+            @RequestParam Long start,
+            @RequestParam Long end
+    ) {
+        if (!validation.isValidCoordinate(lat1, lon2, lat2, lon1)) {
+            throw new InvalidParamsRequestException("Invalid params");
+        }
+        StreamingResponseBody body = outputStream ->
+                layerService.streamLayerByIdWithParams(id, lat1, lon1, lat2, lon2, start, end, outputStream);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
     }
 
     /**
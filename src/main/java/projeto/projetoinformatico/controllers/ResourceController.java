@@ -1,20 +1,24 @@
 package projeto.projetoinformatico.controllers;
 
-import com.google.common.util.concurrent.RateLimiter;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import projeto.projetoinformatico.config.ratelimit.RateLimited;
+import projeto.projetoinformatico.model.CachedSearchResult;
 import projeto.projetoinformatico.model.SearchResult;
 import projeto.projetoinformatico.service.ResourceService;
+import projeto.projetoinformatico.utils.AsyncResults;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 
+import java.util.concurrent.CompletableFuture;
+
 @Validated
 @RestController
 @RequestMapping("/api")
@@ -22,12 +26,9 @@ public class ResourceController {
 
     private  final ResourceService resourceService;
 
-    private final RateLimiter rateLimiter;
-
     @Autowired
-    public ResourceController(ResourceService resourceService, @Value("${max.requests}") double requestsPerSecond) {
+    public ResourceController(ResourceService resourceService) {
         this.resourceService = resourceService;
-        this.rateLimiter = RateLimiter.create(requestsPerSecond);
     }
 
     /**
@@ -38,21 +39,20 @@ public class ResourceController {
      */
     @Operation(summary = "Get Wikidata item by ID", description = "Endpoint to retrieve Wikidata item by ID.")
     @GetMapping("/items/{itemId}")
+    @RateLimited
     @PreAuthorize("hasAuthority('EDITOR') or hasAuthority('ADMIN') or hasAuthority('USER')")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Successful retrieval of Wikidata item"),
             @ApiResponse(responseCode = "401", description = "Unauthorized"),
-            @ApiResponse(responseCode = "429", description = "Too Many Requests"),
-            @ApiResponse(responseCode = "500", description = "Internal server error")
+            @ApiResponse(responseCode = "429", description = "Rate limit exceeded, try again after Retry-After"),
+            @ApiResponse(responseCode = "503", description = "SPARQL endpoint unavailable, try again after Retry-After"),
+            @ApiResponse(responseCode = "500", description = "Internal server error"),
+            @ApiResponse(responseCode = "504", description = "SPARQL query timed out")
     })
-    public ResponseEntity<SearchResult> getWikidataItem(
+    public DeferredResult<ResponseEntity<SearchResult>> getWikidataItem(
             @Parameter(description = "Wikidata item ID to retrieve", required = true)
             @PathVariable String itemId) {
-        if (!rateLimiter.tryAcquire()) {
-            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).build();
-        }
-        SearchResult item = resourceService.getItem(itemId);
-        return ResponseEntity.ok(item);
+        return respond(resourceService.getItemAsync(itemId));
     }
 
     /**
@@ -63,21 +63,20 @@ public class ResourceController {
      */
     @Operation(summary = "Get Wikidata property by ID", description = "Endpoint to retrieve Wikidata property by ID.")
     @GetMapping("/properties/{propertyId}")
+    @RateLimited
     @PreAuthorize("hasAuthority('EDITOR') or hasAuthority('ADMIN') or hasAuthority('USER')")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Successful retrieval of Wikidata property"),
             @ApiResponse(responseCode = "401", description = "Unauthorized"),
-            @ApiResponse(responseCode = "429", description = "Too Many Requests"),
-            @ApiResponse(responseCode = "500", description = "Internal server error")
+            @ApiResponse(responseCode = "429", description = "Rate limit exceeded, try again after Retry-After"),
+            @ApiResponse(responseCode = "503", description = "SPARQL endpoint unavailable, try again after Retry-After"),
+            @ApiResponse(responseCode = "500", description = "Internal server error"),
+            @ApiResponse(responseCode = "504", description = "SPARQL query timed out")
     })
-    public ResponseEntity<SearchResult> getWikidataProperty(
+    public DeferredResult<ResponseEntity<SearchResult>> getWikidataProperty(
             @Parameter(description = "Wikidata property ID to retrieve", required = true)
             @PathVariable String propertyId) {
-        if (!rateLimiter.tryAcquire()) {
-            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).build();
-        }
-        SearchResult property = resourceService.getProperty(propertyId);
-        return ResponseEntity.ok(property);
+        return respond(resourceService.getPropertyAsync(propertyId));
     }
 
     /**
@@ -88,25 +87,20 @@ public class ResourceController {
      */
     @Operation(summary = "Get geolocation data by item ID", description = "Endpoint to retrieve geolocation data by item ID.")
     @GetMapping("/data/geolocation/{item_id}")
+    @RateLimited
     @PreAuthorize("hasAuthority('EDITOR') or hasAuthority('ADMIN') or hasAuthority('USER')")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Successful retrieval of geolocation data"),
             @ApiResponse(responseCode = "401", description = "Unauthorized"),
-            @ApiResponse(responseCode = "429", description = "Too Many Requests"),
-            @ApiResponse(responseCode = "500", description = "Internal server error")
+            @ApiResponse(responseCode = "429", description = "Rate limit exceeded, try again after Retry-After"),
+            @ApiResponse(responseCode = "503", description = "SPARQL endpoint unavailable, try again after Retry-After"),
+            @ApiResponse(responseCode = "500", description = "Internal server error"),
+            @ApiResponse(responseCode = "504", description = "SPARQL query timed out")
     })
-    public ResponseEntity<?> getGeolocationData(
+    public DeferredResult<ResponseEntity<SearchResult>> getGeolocationData(
             @Parameter(description = "Item ID for geolocation data retrieval", required = true)
             @PathVariable("item_id") String itemId) {
-        if (!rateLimiter.tryAcquire()) {
-            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).build();
-        }
-        try {
-            SearchResult geolocationData = resourceService.getGeolocationData(itemId);
-            return ResponseEntity.ok(geolocationData);
-        } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
-        }
+        return respond(resourceService.getGeolocationDataAsync(itemId));
     }
 
     /**
@@ -118,19 +112,21 @@ public class ResourceController {
      */
     @Operation(summary = "Get property values by item ID and property ID", description = "Endpoint to retrieve property values by item ID and property ID.")
     @GetMapping("/data/property-values/{item_id}/{property_id}")
-    public ResponseEntity<?> getPropertyValues(
+    @RateLimited
+    public DeferredResult<ResponseEntity<SearchResult>> getPropertyValues(
             @Parameter(description = "Item ID for property values retrieval", required = true)
             @PathVariable("item_id") String itemId,
             @Parameter(description = "Property ID for property values retrieval", required = true)
             @PathVariable("property_id") String propertyId) {
-        if (!rateLimiter.tryAcquire()) {
-            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).build();
-        }
-        try {
-            SearchResult propertyValue = resourceService.getPropertyValues(itemId, propertyId);
-            return ResponseEntity.ok(propertyValue);
-        } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
-        }
+        return respond(resourceService.getPropertyValuesAsync(itemId, propertyId));
+    }
+
+    // Cached results can be served while they are refreshed, the Age header tells how old they are
+    private static DeferredResult<ResponseEntity<SearchResult>> respond(CompletableFuture<CachedSearchResult> searchResult) {
+        return AsyncResults.toDeferredResult(searchResult,
+                cached -> ResponseEntity.ok()
+                        .header(HttpHeaders.AGE, String.valueOf(cached.ageSeconds()))
+                        .body(cached.result()),
+                AsyncResults::errorResponse);
     }
 }
@@ -1,21 +1,21 @@
 package projeto.projetoinformatico.controllers;
 
-import com.google.common.util.concurrent.RateLimiter;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import projeto.projetoinformatico.config.ratelimit.RateLimited;
 import projeto.projetoinformatico.model.SearchResult;
 import projeto.projetoinformatico.service.SearchService;
-import projeto.projetoinformatico.exceptions.Exception.SparqlQueryException;
+import projeto.projetoinformatico.utils.AsyncResults;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 
-import java.util.Collections;
 
 @RestController
 @RequestMapping("/api")
@@ -24,43 +24,59 @@ public class SearchController {
 
     private final SearchService searchService;
 
-    private final RateLimiter rateLimiter;
-
     @Autowired
-    public SearchController(SearchService searchService, @Value("${max.requests}") double requestsPerSecond) {
+    public SearchController(SearchService searchService) {
         this.searchService = searchService;
-        this.rateLimiter = RateLimiter.create(requestsPerSecond);
-
     }
 
     /**
      * Endpoint to execute a SPARQL query.
      *
      * @param sparqlQuery The SPARQL query string.
-     * @return ResponseEntity with the search result.
+     * @return ResponseEntity with the search result, as JSON, typed JSON, GeoJSON, CBOR or Smile following the Accept header.
      */
-    @Operation(summary = "Execute SPARQL query", description = "Endpoint to execute a SPARQL query.")
+    @Operation(summary = "Execute SPARQL query", description = "Endpoint to execute a SPARQL query. Results are JSON unless typed JSON (application/vnd.wikimaps.typed+json), GeoJSON, CBOR or Smile is asked for in the Accept header.")
     @PostMapping("/sparql")
+    @RateLimited
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Successful execution of SPARQL query"),
+            @ApiResponse(responseCode = "400", description = "Bad request"),
+            @ApiResponse(responseCode = "429", description = "Rate limit exceeded, try again after Retry-After"),
+            @ApiResponse(responseCode = "503", description = "SPARQL endpoint unavailable, try again after Retry-After"),
+            @ApiResponse(responseCode = "500", description = "Internal server error"),
+            @ApiResponse(responseCode = "504", description = "SPARQL query timed out")
+    })
+    public DeferredResult<ResponseEntity<SearchResult>> executeSparqlQuery(
+            @Parameter(description = "SPARQL query string", required = true)
+            @RequestBody String sparqlQuery) {
+        return AsyncResults.toDeferredResult(searchService.executeSparqlQueryFromJsonStringAsync(sparqlQuery),
+                ResponseEntity::ok,
+                AsyncResults::errorResponse);
+    }
+
+    /**
+     * Endpoint to execute a SPARQL query and stream the results.
+     * Rows are written to the response as they arrive from the SPARQL endpoint.
+     *
+     * @param sparqlQuery The SPARQL query string.
+     * @return ResponseEntity with a streaming body of the search result.
+     */
+    @Operation(summary = "Stream SPARQL query results", description = "Endpoint to execute a SPARQL query and stream the results.")
+    @PostMapping("/sparql/stream")
+    @RateLimited
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Successful execution of SPARQL query"),
             @ApiResponse(responseCode = "400", description = "Bad request"),
-            @ApiResponse(responseCode = "429", description = "Too Many Requests"),
+            @ApiResponse(responseCode = "429", description = "Rate limit exceeded, try again after Retry-After"),
+            @ApiResponse(responseCode = "503", description = "SPARQL endpoint unavailable, try again after Retry-After"),
             @ApiResponse(responseCode = "500", description = "Internal server error")
     })
-    public ResponseEntity<SearchResult> executeSparqlQuery(
+    public ResponseEntity<StreamingResponseBody> streamSparqlQuery(
             @Parameter(description = "SPARQL query string", required = true)
             @RequestBody String sparqlQuery) {
-        if (!rateLimiter.tryAcquire()) {
-            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).build();
-        }
-        try {
-            SearchResult searchResult = searchService.executeSparqlQueryFromJsonString(sparqlQuery);
-            return ResponseEntity.ok(searchResult);
-        } catch (SparqlQueryException e) {
-            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new SearchResult(Collections.emptyList()));
-        } catch (Exception e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
-        }
+        String query = searchService.parseQueryFromJsonString(sparqlQuery);
+        StreamingResponseBody body = outputStream -> searchService.streamSparqlQuery(query, outputStream);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
     }
 
 }
@@ -14,6 +14,8 @@ public class LayerDTO {
     private String description;
     private Date timestamp;
     private String query;
+    private String backend;
+    private Boolean materialized;
     public void setUser(User user) {
         if (user != null) {
             this.userDTO = new UserDTO();
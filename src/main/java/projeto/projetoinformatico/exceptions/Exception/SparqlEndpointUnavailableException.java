@@ -0,0 +1,26 @@
+package projeto.projetoinformatico.exceptions.Exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class SparqlEndpointUnavailableException extends RuntimeException {
+
+    private final long retryAfterMillis;
+
+    public SparqlEndpointUnavailableException(String message, long retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    /**
+     * Value of the {@code Retry-After} header telling clients when to try again, in whole seconds.
+     */
+    public String getRetryAfterSeconds() {
+        return String.valueOf(Math.max(1, (retryAfterMillis + 999) / 1000));
+    }
+}
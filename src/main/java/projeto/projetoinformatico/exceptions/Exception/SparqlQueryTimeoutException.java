@@ -0,0 +1,11 @@
+package projeto.projetoinformatico.exceptions.Exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.GATEWAY_TIMEOUT)
+public class SparqlQueryTimeoutException extends RuntimeException {
+    public SparqlQueryTimeoutException(String message) {
+        super(message);
+    }
+}
@@ -1,5 +1,6 @@
 package projeto.projetoinformatico.exceptions.Handlers;
 
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.FieldError;
@@ -55,6 +56,22 @@ public class GlobalExceptionHandler {
         return new ResponseEntity<>(errorResponse, status);
     }
 
+    @ExceptionHandler(SparqlQueryTimeoutException.class)
+    @ResponseBody
+    public ResponseEntity<ErrorResponse> handleSparqlQueryTimeoutException(SparqlQueryTimeoutException ex) {
+        HttpStatus status = HttpStatus.GATEWAY_TIMEOUT;
+        ErrorResponse errorResponse = new ErrorResponse(status.value(), status, ex.getMessage());
+        return new ResponseEntity<>(errorResponse, status);
+    }
+
+    @ExceptionHandler(SparqlEndpointUnavailableException.class)
+    @ResponseBody
+    public ResponseEntity<ErrorResponse> handleSparqlEndpointUnavailableException(SparqlEndpointUnavailableException ex) {
+        HttpStatus status = HttpStatus.SERVICE_UNAVAILABLE;
+        ErrorResponse errorResponse = new ErrorResponse(status.value(), status, ex.getMessage());
+        return ResponseEntity.status(status).header(HttpHeaders.RETRY_AFTER, ex.getRetryAfterSeconds()).body(errorResponse);
+    }
+
     @ExceptionHandler(MethodArgumentNotValidException.class)
     @ResponseBody
     public ResponseEntity<ErrorResponse> handleMethodArgumentNotValidException(MethodArgumentNotValidException ex) {
@@ -0,0 +1,27 @@
+package projeto.projetoinformatico.model;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * A search result together with the time it was fetched from the SPARQL endpoint.
+ * This is what the search cache holds, so callers can tell how old a cached result is.
+ */
+public record CachedSearchResult(SearchResult result, long fetchedAtMillis) implements Serializable {
+
+    public CachedSearchResult {
+        Objects.requireNonNull(result, "result");
+    }
+
+    public static CachedSearchResult fetchedNow(SearchResult result) {
+        return new CachedSearchResult(result, System.currentTimeMillis());
+    }
+
+    public long ageMillis() {
+        return Math.max(0, System.currentTimeMillis() - fetchedAtMillis);
+    }
+
+    public long ageSeconds() {
+        return ageMillis() / 1000;
+    }
+}
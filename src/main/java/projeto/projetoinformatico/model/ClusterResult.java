@@ -0,0 +1,17 @@
+package projeto.projetoinformatico.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Points of a search result grouped for a zoom level of the map. Clusters of a single point
+ * carry the row of that point, larger ones only their centroid and how many points they hold.
+ */
+public record ClusterResult(int zoom, int points, List<Cluster> clusters) {
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record Cluster(double latitude, double longitude, int count, Map<String, String> item) {
+    }
+}
@@ -0,0 +1,18 @@
+package projeto.projetoinformatico.model;
+
+/**
+ * What the queries of a layer cost the SPARQL backends since profiling started.
+ *
+ * @param layerId     id of the layer
+ * @param queries     queries sent, failed ones included
+ * @param failures    queries that failed or timed out
+ * @param totalMillis time the backends spent on the queries
+ * @param meanMillis  time per query
+ * @param maxMillis   time of the slowest query
+ * @param rows        rows read
+ * @param bytes       approximate size of the results read
+ * @param timeShare   part of the time of all the profiled layers spent on this one, from 0 to 1
+ */
+public record LayerCost(Long layerId, long queries, long failures, double totalMillis, double meanMillis,
+                        double maxMillis, long rows, long bytes, double timeShare) {
+}
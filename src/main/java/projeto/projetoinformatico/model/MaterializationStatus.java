@@ -0,0 +1,18 @@
+package projeto.projetoinformatico.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * State of the materialized results of a layer.
+ *
+ * @param layerId           id of the layer
+ * @param materialized      whether the layer asks for its results to be materialized
+ * @param ready             whether boxes of the layer are answered from materialized results
+ * @param refreshing        whether the layer query is running in the background
+ * @param rows              number of rows materialized
+ * @param refreshedAtMillis when the materialized results were fetched, null before the first time
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record MaterializationStatus(Long layerId, boolean materialized, boolean ready, boolean refreshing,
+                                    int rows, Long refreshedAtMillis) {
+}
@@ -0,0 +1,159 @@
+package projeto.projetoinformatico.model;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Decoding of RDF terms from the text stored in a {@link ResultTable}, which is what Jena
+ * writes for them: IRIs as they are, typed literals as {@code lexical^^datatype}, language
+ * tagged literals as {@code text@lang} and plain strings as their text.
+ */
+public final class RdfTerms {
+
+    public static final String WIKIDATA_ENTITY = "http://www.wikidata.org/entity/";
+    public static final String WKT_LITERAL = "http://www.opengis.net/ont/geosparql#wktLiteral";
+    public static final String XSD = "http://www.w3.org/2001/XMLSchema#";
+
+    private static final String DATATYPE_SEPARATOR = "^^";
+
+    private static final Pattern ENTITY_ID = Pattern.compile("[QPL][1-9][0-9]*");
+
+    private static final Pattern WKT_POINT = Pattern.compile(
+            "Point\\s*\\(\\s*([-+]?[0-9.]+(?:[eE][-+]?[0-9]+)?)\\s+([-+]?[0-9.]+(?:[eE][-+]?[0-9]+)?)\\s*\\)",
+            Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern LANGUAGE_TAG = Pattern.compile("@([a-zA-Z]{1,8}(?:-[a-zA-Z0-9]{1,8})*)$");
+
+    private static final Pattern ZONE_OFFSET = Pattern.compile("[+-][0-9]{2}:[0-9]{2}$");
+
+    private RdfTerms() {
+    }
+
+    /**
+     * Kind of a term guessed from its text alone, for tables that were not built from query
+     * solutions. Plain strings ending like a language tag are taken for language literals.
+     */
+    public static TermKind infer(String value) {
+        int separator = value.lastIndexOf(DATATYPE_SEPARATOR);
+        if (separator >= 0) {
+            return datatypeKind(value.substring(separator + DATATYPE_SEPARATOR.length()), value.substring(0, separator));
+        }
+        if (value.startsWith(WIKIDATA_ENTITY)) {
+            return entityId(value) != null ? TermKind.ENTITY : TermKind.IRI;
+        }
+        if (value.startsWith("http://") || value.startsWith("https://") || value.startsWith("urn:")) {
+            return TermKind.IRI;
+        }
+        return LANGUAGE_TAG.matcher(value).find() ? TermKind.LANG_STRING : TermKind.LITERAL;
+    }
+
+    /**
+     * Kind of a literal with the given datatype IRI and lexical form.
+     */
+    public static TermKind datatypeKind(String datatype, String lexicalForm) {
+        if (WKT_LITERAL.equals(datatype)) {
+            return parsePoint(lexicalForm) != null ? TermKind.POINT : TermKind.LITERAL;
+        }
+        if (!datatype.startsWith(XSD)) {
+            return TermKind.LITERAL;
+        }
+        return switch (datatype.substring(XSD.length())) {
+            case "dateTime", "dateTimeStamp", "date" -> TermKind.DATE_TIME;
+            case "integer", "decimal", "double", "float", "long", "int", "short", "byte",
+                 "nonNegativeInteger", "positiveInteger", "nonPositiveInteger", "negativeInteger",
+                 "unsignedLong", "unsignedInt", "unsignedShort", "unsignedByte" -> TermKind.NUMBER;
+            default -> TermKind.LITERAL;
+        };
+    }
+
+    /**
+     * Text of the term without its datatype or language tag.
+     */
+    public static String lexicalForm(String value) {
+        int separator = value.lastIndexOf(DATATYPE_SEPARATOR);
+        return separator < 0 ? value : value.substring(0, separator);
+    }
+
+    /**
+     * @return id of a Wikidata entity IRI, such as Q42, or null
+     */
+    public static String entityId(String iri) {
+        if (!iri.startsWith(WIKIDATA_ENTITY)) {
+            return null;
+        }
+        String id = iri.substring(WIKIDATA_ENTITY.length());
+        return ENTITY_ID.matcher(id).matches() ? id : null;
+    }
+
+    /**
+     * Parses a WKT point such as {@code Point(-9.15 38.72)}, which may carry its datatype.
+     *
+     * @return latitude and longitude, or null
+     */
+    public static double[] parsePoint(String value) {
+        if (value == null) {
+            return null;
+        }
+        Matcher matcher = WKT_POINT.matcher(value);
+        if (!matcher.find()) {
+            return null;
+        }
+        try {
+            double longitude = Double.parseDouble(matcher.group(1));
+            double latitude = Double.parseDouble(matcher.group(2));
+            return new double[]{latitude, longitude};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses an {@code xsd:dateTime} or {@code xsd:date}; values without a time zone are
+     * taken as UTC.
+     *
+     * @return milliseconds since the epoch, or {@link Long#MIN_VALUE}
+     */
+    public static long parseEpochMillis(String value) {
+        String lexical = lexicalForm(value).trim();
+        try {
+            if (lexical.indexOf('T') < 0) {
+                return LocalDate.parse(lexical).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+            }
+            if (lexical.endsWith("Z") || ZONE_OFFSET.matcher(lexical).find()) {
+                return OffsetDateTime.parse(lexical).toInstant().toEpochMilli();
+            }
+            return LocalDateTime.parse(lexical).toInstant(ZoneOffset.UTC).toEpochMilli();
+        } catch (DateTimeParseException | ArithmeticException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * @return the number, or NaN
+     */
+    public static double parseNumber(String value) {
+        try {
+            return Double.parseDouble(lexicalForm(value).trim());
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Splits a language tagged literal into its text and language.
+     *
+     * @return text and language, the language is null when the value has none
+     */
+    public static String[] splitLanguage(String value) {
+        Matcher matcher = LANGUAGE_TAG.matcher(value);
+        if (!matcher.find()) {
+            return new String[]{value, null};
+        }
+        return new String[]{value.substring(0, matcher.start()), matcher.group(1)};
+    }
+}
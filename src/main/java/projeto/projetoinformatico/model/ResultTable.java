@@ -0,0 +1,540 @@
+package projeto.projetoinformatico.model;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Column oriented storage for SPARQL solutions.
+ * Variable names are kept once per table and every variable has its own value array,
+ * unbound values are stored as null. Values repeated inside a table (IRIs, labels, language
+ * tagged literals) share a single String instance.
+ * <p>
+ * Values are kept as the text Jena gives for each term, which is also what clients receive.
+ * The typed getters decode a whole column on first use, by the {@link TermKind} the query
+ * solutions had, so callers get coordinates, instants and entity ids without parsing text.
+ */
+public final class ResultTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // Rough heap footprint used to weigh cached results: object headers and references
+    private static final int STRING_BYTES = 40;
+    private static final int ARRAY_BYTES = 16;
+    private static final int REFERENCE_BYTES = 4;
+
+    /**
+     * Returned by {@link #getEpochMillis} for values that are not instants.
+     */
+    public static final long NO_TIME = Long.MIN_VALUE;
+
+    private static final ResultTable EMPTY = new ResultTable(new String[0], new String[0][], 0, 0, null);
+
+    private final String[] variables;
+    private final String[][] columns;
+    private final int rowCount;
+    private final long valueBytes;
+    // Kinds told by the query solutions, null for tables built from text alone
+    private final TermKind[] kinds;
+    private transient volatile DecodedColumn[] decoded;
+
+    private ResultTable(String[] variables, String[][] columns, int rowCount, long valueBytes, TermKind[] kinds) {
+        this.variables = variables;
+        this.columns = columns;
+        this.rowCount = rowCount;
+        this.valueBytes = valueBytes;
+        this.kinds = kinds;
+    }
+
+    public static ResultTable empty() {
+        return EMPTY;
+    }
+
+    public static Builder builder(List<String> variables) {
+        return new Builder(variables);
+    }
+
+    public static ResultTable fromRows(List<Map<String, String>> rows) {
+        if (rows == null || rows.isEmpty()) {
+            return EMPTY;
+        }
+        Set<String> variables = new LinkedHashSet<>();
+        for (Map<String, String> row : rows) {
+            variables.addAll(row.keySet());
+        }
+        Builder builder = new Builder(new ArrayList<>(variables));
+        String[] values = new String[variables.size()];
+        for (Map<String, String> row : rows) {
+            int column = 0;
+            for (String variable : variables) {
+                values[column++] = row.get(variable);
+            }
+            builder.addRow(values);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Rows of all the tables, each distinct row once, in the order they are first found.
+     * Variables missing from a table are unbound in its rows.
+     */
+    public static ResultTable distinctUnion(List<ResultTable> tables) {
+        Set<String> variables = new LinkedHashSet<>();
+        for (ResultTable table : tables) {
+            variables.addAll(Arrays.asList(table.variables));
+        }
+        if (variables.isEmpty()) {
+            return EMPTY;
+        }
+        Builder builder = new Builder(new ArrayList<>(variables));
+        Set<List<String>> seen = new HashSet<>();
+        for (ResultTable table : tables) {
+            int[] columns = new int[variables.size()];
+            int column = 0;
+            for (String variable : variables) {
+                columns[column] = table.indexOf(variable);
+                if (columns[column] >= 0 && table.kinds != null) {
+                    builder.addKind(column, table.kinds[columns[column]]);
+                }
+                column++;
+            }
+            for (int row = 0; row < table.rowCount; row++) {
+                String[] values = new String[columns.length];
+                for (int i = 0; i < columns.length; i++) {
+                    values[i] = columns[i] < 0 ? null : table.columns[columns[i]][row];
+                }
+                if (seen.add(Arrays.asList(values))) {
+                    builder.addRow(values);
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Rows at the given indexes, in that order, with the variables and kinds of this table.
+     */
+    public ResultTable select(int[] rows) {
+        Builder builder = new Builder(Arrays.asList(variables));
+        for (int column = 0; kinds != null && column < kinds.length; column++) {
+            builder.addKind(column, kinds[column]);
+        }
+        String[] values = new String[variables.length];
+        for (int row : rows) {
+            Objects.checkIndex(row, rowCount);
+            for (int column = 0; column < variables.length; column++) {
+                values[column] = columns[column][row];
+            }
+            builder.addRow(values);
+        }
+        return builder.build();
+    }
+
+    /**
+     * The table without the variables, sharing the values of the others. The table itself is
+     * returned when it has none of them.
+     */
+    public ResultTable without(Collection<String> dropped) {
+        int kept = 0;
+        for (String variable : variables) {
+            if (!dropped.contains(variable)) {
+                kept++;
+            }
+        }
+        if (kept == variables.length) {
+            return this;
+        }
+        String[] keptVariables = new String[kept];
+        String[][] keptColumns = new String[kept][];
+        TermKind[] keptKinds = kinds == null ? null : new TermKind[kept];
+        long keptBytes = valueBytes;
+        for (int column = 0, i = 0; column < variables.length; column++) {
+            if (dropped.contains(variables[column])) {
+                keptBytes -= STRING_BYTES + variables[column].length();
+                continue;
+            }
+            keptVariables[i] = variables[column];
+            keptColumns[i] = columns[column];
+            if (keptKinds != null) {
+                keptKinds[i] = kinds[column];
+            }
+            i++;
+        }
+        // Values of the dropped variables may be shared with the kept ones, they stay counted
+        return new ResultTable(keptVariables, keptColumns, rowCount, keptBytes, keptKinds);
+    }
+
+    public List<String> getVariables() {
+        return Collections.unmodifiableList(Arrays.asList(variables));
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Approximate heap size of the table in bytes, counting each shared value once.
+     * Columns decoded by the typed getters are not counted.
+     */
+    public long getEstimatedBytes() {
+        long arrays = (long) (variables.length + 1) * ARRAY_BYTES + (long) rowCount * variables.length * REFERENCE_BYTES;
+        return arrays + valueBytes;
+    }
+
+    public int indexOf(String variable) {
+        for (int i = 0; i < variables.length; i++) {
+            if (variables[i].equals(variable)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public String getValue(int row, int column) {
+        Objects.checkIndex(row, rowCount);
+        return columns[column][row];
+    }
+
+    public String getValue(int row, String variable) {
+        int column = indexOf(variable);
+        return column < 0 ? null : getValue(row, column);
+    }
+
+    /**
+     * Kind of the values of the column, taken from the query solutions or, for tables built
+     * from text, guessed from the values.
+     */
+    public TermKind getKind(int column) {
+        return decoded(column).kind;
+    }
+
+    /**
+     * @return latitude of a WKT point, or NaN
+     */
+    public double getLatitude(int row, int column) {
+        Objects.checkIndex(row, rowCount);
+        double[] latitudes = decoded(column).latitudes;
+        return latitudes == null ? Double.NaN : latitudes[row];
+    }
+
+    /**
+     * @return longitude of a WKT point, or NaN
+     */
+    public double getLongitude(int row, int column) {
+        Objects.checkIndex(row, rowCount);
+        double[] longitudes = decoded(column).longitudes;
+        return longitudes == null ? Double.NaN : longitudes[row];
+    }
+
+    /**
+     * @return milliseconds since the epoch of a date or date time, or {@link #NO_TIME}
+     */
+    public long getEpochMillis(int row, int column) {
+        Objects.checkIndex(row, rowCount);
+        long[] epochMillis = decoded(column).epochMillis;
+        return epochMillis == null ? NO_TIME : epochMillis[row];
+    }
+
+    /**
+     * @return value of a numeric literal, or NaN
+     */
+    public double getNumber(int row, int column) {
+        Objects.checkIndex(row, rowCount);
+        double[] numbers = decoded(column).numbers;
+        return numbers == null ? Double.NaN : numbers[row];
+    }
+
+    /**
+     * Value without its datatype or language tag, and the id for Wikidata entities, such as Q42.
+     *
+     * @return the text, or null when the variable is unbound
+     */
+    public String getText(int row, int column) {
+        Objects.checkIndex(row, rowCount);
+        return decoded(column).texts[row];
+    }
+
+    /**
+     * @return language of a language tagged literal, or null
+     */
+    public String getLanguage(int row, int column) {
+        Objects.checkIndex(row, rowCount);
+        String[] languages = decoded(column).languages;
+        return languages == null ? null : languages[row];
+    }
+
+    private DecodedColumn decoded(int column) {
+        DecodedColumn[] all = decoded;
+        if (all == null) {
+            all = new DecodedColumn[variables.length];
+            decoded = all;
+        }
+        DecodedColumn decodedColumn = all[column];
+        if (decodedColumn == null) {
+            TermKind kind = kinds != null && kinds[column] != null ? kinds[column] : inferKind(columns[column]);
+            decodedColumn = new DecodedColumn(kind, columns[column]);
+            all[column] = decodedColumn;
+        }
+        return decodedColumn;
+    }
+
+    private static TermKind inferKind(String[] values) {
+        TermKind kind = null;
+        for (String value : values) {
+            if (value != null) {
+                kind = TermKind.merge(kind, RdfTerms.infer(value));
+            }
+        }
+        return kind == null ? TermKind.LITERAL : kind;
+    }
+
+    /**
+     * Typed values of a column. Only the arrays its kind needs are filled, every value of a
+     * mixed column is decoded by its own kind.
+     */
+    private static final class DecodedColumn {
+        final TermKind kind;
+        final String[] texts;
+        final String[] languages;
+        final double[] latitudes;
+        final double[] longitudes;
+        final long[] epochMillis;
+        final double[] numbers;
+
+        DecodedColumn(TermKind kind, String[] values) {
+            this.kind = kind;
+            boolean mixed = kind == TermKind.MIXED;
+            boolean points = mixed || kind == TermKind.POINT;
+            this.texts = new String[values.length];
+            this.languages = mixed || kind == TermKind.LANG_STRING ? new String[values.length] : null;
+            this.latitudes = points ? filled(values.length) : null;
+            this.longitudes = points ? filled(values.length) : null;
+            this.epochMillis = mixed || kind == TermKind.DATE_TIME ? new long[values.length] : null;
+            this.numbers = mixed || kind == TermKind.NUMBER ? filled(values.length) : null;
+            if (epochMillis != null) {
+                Arrays.fill(epochMillis, NO_TIME);
+            }
+            for (int row = 0; row < values.length; row++) {
+                if (values[row] != null) {
+                    decode(row, values[row], mixed ? RdfTerms.infer(values[row]) : kind);
+                }
+            }
+        }
+
+        private void decode(int row, String value, TermKind valueKind) {
+            switch (valueKind) {
+                case ENTITY -> texts[row] = RdfTerms.entityId(value);
+                case IRI -> texts[row] = value;
+                case LANG_STRING -> {
+                    String[] text = RdfTerms.splitLanguage(value);
+                    texts[row] = text[0];
+                    languages[row] = text[1];
+                }
+                case POINT -> {
+                    texts[row] = RdfTerms.lexicalForm(value);
+                    double[] point = RdfTerms.parsePoint(value);
+                    if (point != null) {
+                        latitudes[row] = point[0];
+                        longitudes[row] = point[1];
+                    }
+                }
+                case DATE_TIME -> {
+                    texts[row] = RdfTerms.lexicalForm(value);
+                    epochMillis[row] = RdfTerms.parseEpochMillis(value);
+                }
+                case NUMBER -> {
+                    texts[row] = RdfTerms.lexicalForm(value);
+                    numbers[row] = RdfTerms.parseNumber(value);
+                }
+                default -> texts[row] = RdfTerms.lexicalForm(value);
+            }
+        }
+
+        private static double[] filled(int length) {
+            double[] values = new double[length];
+            Arrays.fill(values, Double.NaN);
+            return values;
+        }
+    }
+
+    /**
+     * Row oriented, read only view of the table. Rows are created on access and only
+     * contain the variables bound in that row.
+     */
+    public List<Map<String, String>> asRows() {
+        return new AbstractList<>() {
+            @Override
+            public Map<String, String> get(int index) {
+                Objects.checkIndex(index, rowCount);
+                return new RowView(index);
+            }
+
+            @Override
+            public int size() {
+                return rowCount;
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ResultTable that)) return false;
+        return rowCount == that.rowCount
+                && Arrays.equals(variables, that.variables)
+                && Arrays.deepEquals(columns, that.columns);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * rowCount + Arrays.hashCode(variables)) + Arrays.deepHashCode(columns);
+    }
+
+    @Override
+    public String toString() {
+        return "ResultTable{variables=" + Arrays.toString(variables) + ", rows=" + rowCount + "}";
+    }
+
+    private final class RowView extends AbstractMap<String, String> {
+        private final int row;
+
+        private RowView(int row) {
+            this.row = row;
+        }
+
+        @Override
+        public String get(Object key) {
+            return key instanceof String variable ? getValue(row, variable) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<String, String>> iterator() {
+                    return new Iterator<>() {
+                        private int column = advance(0);
+
+                        private int advance(int from) {
+                            while (from < variables.length && columns[from][row] == null) {
+                                from++;
+                            }
+                            return from;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return column < variables.length;
+                        }
+
+                        @Override
+                        public Entry<String, String> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<String, String> entry = new SimpleImmutableEntry<>(variables[column], columns[column][row]);
+                            column = advance(column + 1);
+                            return entry;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    int size = 0;
+                    for (String[] column : columns) {
+                        if (column[row] != null) {
+                            size++;
+                        }
+                    }
+                    return size;
+                }
+            };
+        }
+    }
+
+    public static final class Builder {
+        private static final int INITIAL_CAPACITY = 16;
+
+        private final String[] variables;
+        private final Map<String, String> dictionary = new HashMap<>();
+        private TermKind[] kinds;
+        private String[][] columns;
+        private int rowCount;
+        private long valueBytes;
+
+        private Builder(List<String> variables) {
+            this.variables = variables.toArray(new String[0]);
+            this.columns = new String[this.variables.length][INITIAL_CAPACITY];
+            for (String variable : this.variables) {
+                valueBytes += STRING_BYTES + variable.length();
+            }
+        }
+
+        /**
+         * Appends a row. Values must follow the order of the variables given to the builder,
+         * null marks an unbound variable.
+         */
+        public Builder addRow(String... values) {
+            if (values.length != variables.length) {
+                throw new IllegalArgumentException("Expected " + variables.length + " values but got " + values.length);
+            }
+            if (rowCount == capacity()) {
+                grow();
+            }
+            for (int column = 0; column < variables.length; column++) {
+                String value = values[column];
+                columns[column][rowCount] = value == null ? null : share(value);
+            }
+            rowCount++;
+            return this;
+        }
+
+        /**
+         * Records the kind of a value added to the column. A column given values of different
+         * kinds becomes {@link TermKind#MIXED}.
+         */
+        public Builder addKind(int column, TermKind kind) {
+            if (kinds == null) {
+                kinds = new TermKind[variables.length];
+            }
+            kinds[column] = TermKind.merge(kinds[column], kind);
+            return this;
+        }
+
+        public ResultTable build() {
+            if (rowCount == 0 && variables.length == 0) {
+                return EMPTY;
+            }
+            String[][] trimmed = new String[variables.length][];
+            for (int column = 0; column < variables.length; column++) {
+                trimmed[column] = Arrays.copyOf(columns[column], rowCount);
+            }
+            return new ResultTable(variables.clone(), trimmed, rowCount, valueBytes, kinds == null ? null : kinds.clone());
+        }
+
+        private String share(String value) {
+            String shared = dictionary.putIfAbsent(value, value);
+            if (shared != null) {
+                return shared;
+            }
+            valueBytes += STRING_BYTES + value.length();
+            return value;
+        }
+
+        private int capacity() {
+            return variables.length == 0 ? Integer.MAX_VALUE : columns[0].length;
+        }
+
+        private void grow() {
+            int newCapacity = capacity() * 2;
+            for (int column = 0; column < variables.length; column++) {
+                columns[column] = Arrays.copyOf(columns[column], newCapacity);
+            }
+        }
+    }
+}
@@ -1,8 +1,30 @@
 package projeto.projetoinformatico.model;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.io.Serializable;
 import java.util.List;
 import java.util.Map;
 
-public record SearchResult(List<Map<String, String>> results) {
+/**
+ * Result of a SPARQL query. Values are held in a columnar {@link ResultTable},
+ * the row list is only materialized as a view when {@link #results()} is used.
+ */
+public record SearchResult(@JsonIgnore ResultTable table) implements Serializable {
+
+    public SearchResult {
+        table = table == null ? ResultTable.empty() : table;
+    }
+
+    @JsonCreator
+    public SearchResult(@JsonProperty("results") List<Map<String, String>> results) {
+        this(ResultTable.fromRows(results));
+    }
 
+    @JsonProperty("results")
+    public List<Map<String, String>> results() {
+        return table.asRows();
+    }
 }
@@ -0,0 +1,44 @@
+package projeto.projetoinformatico.model;
+
+/**
+ * What the values of a result column are, which tells how {@link ResultTable} decodes them.
+ */
+public enum TermKind {
+
+    /**
+     * Wikidata entity IRI, decoded to its id such as Q42.
+     */
+    ENTITY,
+    IRI,
+    /**
+     * WKT point literal, decoded to latitude and longitude.
+     */
+    POINT,
+    /**
+     * {@code xsd:dateTime} or {@code xsd:date} literal, decoded to milliseconds since the epoch.
+     */
+    DATE_TIME,
+    /**
+     * Numeric XSD literal, decoded to a double.
+     */
+    NUMBER,
+    /**
+     * Language tagged literal, decoded to its text and language.
+     */
+    LANG_STRING,
+    LITERAL,
+    /**
+     * Values of different kinds in one column; each of them is decoded by its own kind.
+     */
+    MIXED;
+
+    /**
+     * Kind of a column holding values of both kinds. Null stands for a column without values.
+     */
+    public static TermKind merge(TermKind kind, TermKind other) {
+        if (kind == null || kind == other) {
+            return other;
+        }
+        return other == null ? kind : MIXED;
+    }
+}
@@ -35,6 +35,12 @@ public class Layer {
     @Column(nullable = false, columnDefinition = "TEXT")
     private String query;
 
+    // Name of the SPARQL backend the query runs on, null for the default one
+    private String backend;
+
+    // Whether the results are kept for the whole world and boxes answered from them, null for no
+    private Boolean materialized;
+
     @PrePersist
     protected void onCreate() {
         timestamp = new Date();
@@ -21,4 +21,6 @@ public interface LayersRepository extends JpaRepository<Layer, Long> {
     Page<Layer> findByKeywordsPage(@Param("query") String query, Pageable pageable);
 
     Page<Layer> findLayersByUserId(Long id, Pageable pageable);
+
+    List<Layer> findByMaterializedTrue();
 }
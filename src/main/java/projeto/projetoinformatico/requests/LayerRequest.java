@@ -13,6 +13,10 @@ public class LayerRequest {
     @NotBlank(message = "Query cannot be blank")
     private String query;
 
+    private String backend;
+
+    private Boolean materialized;
+
     public String getName() {
         return name;
     }
@@ -37,5 +41,21 @@ public class LayerRequest {
         this.query = query;
     }
 
+    public String getBackend() {
+        return backend;
+    }
+
+    public void setBackend(String backend) {
+        this.backend = backend;
+    }
+
+    public Boolean getMaterialized() {
+        return materialized;
+    }
+
+    public void setMaterialized(Boolean materialized) {
+        this.materialized = materialized;
+    }
+
 
 }
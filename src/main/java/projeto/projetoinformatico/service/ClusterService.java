@@ -0,0 +1,59 @@
+package projeto.projetoinformatico.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import projeto.projetoinformatico.exceptions.Exception.InvalidParamsRequestException;
+import projeto.projetoinformatico.model.ClusterResult;
+import projeto.projetoinformatico.model.SearchResult;
+import projeto.projetoinformatico.utils.PointClusters;
+import projeto.projetoinformatico.utils.Tile;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups the points of layer results for a zoom level, so zoomed out maps get a few clusters
+ * instead of every row. The cluster hierarchy of a result is built on its first use and kept
+ * for as long as the search cache holds that same result, so every zoom level and every user
+ * looking at the layer share it, and a refreshed result gets a new one. The statistics of the
+ * hierarchies kept are published as the {@code layers.clusters} cache.
+ */
+@Service
+public class ClusterService implements MeterBinder {
+
+    // Weak keys compare by identity and let the hierarchy go together with the cached result
+    private final Cache<SearchResult, PointClusters> hierarchies;
+
+    public ClusterService(@Value("${layers.clusters.cache-size}") int cacheSize) {
+        this.hierarchies = Caffeine.newBuilder()
+                .weakKeys()
+                .maximumSize(cacheSize)
+                .recordStats()
+                .build();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, hierarchies, "layers.clusters");
+    }
+
+    public ClusterResult cluster(SearchResult result, int zoom) {
+        if (zoom < 0 || zoom > Tile.MAX_ZOOM) {
+            throw new InvalidParamsRequestException("Zoom must be between 0 and " + Tile.MAX_ZOOM);
+        }
+        PointClusters hierarchy = hierarchies.get(result, searchResult -> PointClusters.of(searchResult.table()));
+        List<Map<String, String>> rows = result.results();
+        List<ClusterResult.Cluster> clusters = new ArrayList<>();
+        for (PointClusters.Cluster cluster : hierarchy.clusters(zoom)) {
+            clusters.add(new ClusterResult.Cluster(cluster.latitude(), cluster.longitude(), cluster.count(),
+                    cluster.count() == 1 ? rows.get(cluster.row()) : null));
+        }
+        return new ClusterResult(zoom, hierarchy.getPointCount(), clusters);
+    }
+}
@@ -0,0 +1,137 @@
+package projeto.projetoinformatico.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import projeto.projetoinformatico.utils.RemoteQueryBudget;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fetches materialized layers again in the background, most wanted first. Layers never
+ * fetched, or fetched for a query that has since changed, go first, then stale layers by how
+ * often their results were used since they were fetched and by how stale they are. Every
+ * refresh takes a query from the {@link RemoteQueryBudget} and a thread of the bounded
+ * {@code layerRefreshExecutor}; the layers left when either runs out wait for the next check.
+ * <p>
+ * Published as {@code layers.refresh.lag}, the time layers waited past the moment they were
+ * due, {@code layers.refresh.queue.depth}, the layers left waiting at the last check, and
+ * {@code layers.refresh.running}.
+ */
+@Service
+public class LayerRefreshScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(LayerRefreshScheduler.class);
+
+    private final MaterializationService materializationService;
+    private final RemoteQueryBudget budget;
+    private final Executor refreshExecutor;
+    private final Semaphore freeWorkers;
+    // Layers handed to a worker that may not have started yet
+    private final Set<Long> started = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final Timer refreshLag;
+
+    public LayerRefreshScheduler(MaterializationService materializationService, RemoteQueryBudget budget,
+                                 @Qualifier("layerRefreshExecutor") Executor refreshExecutor,
+                                 @Value("${layers.refresh.workers}") int workers, MeterRegistry registry) {
+        this.materializationService = materializationService;
+        this.budget = budget;
+        this.refreshExecutor = refreshExecutor;
+        this.freeWorkers = new Semaphore(Math.max(1, workers));
+        this.refreshLag = Timer.builder("layers.refresh.lag")
+                .description("Time materialized layers waited past the moment their results were due")
+                .register(registry);
+        Gauge.builder("layers.refresh.queue.depth", queueDepth, AtomicInteger::get)
+                .description("Materialized layers due for a refresh left waiting at the last check")
+                .register(registry);
+        Gauge.builder("layers.refresh.running", running, AtomicInteger::get)
+                .description("Materialized layers being fetched")
+                .register(registry);
+    }
+
+    /**
+     * Hands the due layers to free workers, most wanted first, while the budget lasts.
+     *
+     * @return number of refreshes started
+     */
+    @Scheduled(fixedDelayString = "${layers.refresh.interval-ms}")
+    public int scheduleRefreshes() {
+        List<MaterializationService.Refresh> due = materializationService.dueForRefresh();
+        due.sort(priority(materializationService.getMaxAgeMs()));
+        int count = 0;
+        due.removeIf(refresh -> started.contains(refresh.layerId()));
+        for (MaterializationService.Refresh refresh : due) {
+            if (!freeWorkers.tryAcquire()) {
+                break;
+            }
+            if (!budget.tryAcquire()) {
+                freeWorkers.release();
+                break;
+            }
+            if (!start(refresh)) {
+                break;
+            }
+            count++;
+        }
+        queueDepth.set(due.size() - count);
+        return count;
+    }
+
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    private boolean start(MaterializationService.Refresh refresh) {
+        started.add(refresh.layerId());
+        try {
+            running.incrementAndGet();
+            refreshExecutor.execute(() -> {
+                try {
+                    refreshLag.record(refresh.overdueMillis(), TimeUnit.MILLISECONDS);
+                    materializationService.refresh(refresh.layerId());
+                } finally {
+                    started.remove(refresh.layerId());
+                    running.decrementAndGet();
+                    freeWorkers.release();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            started.remove(refresh.layerId());
+            running.decrementAndGet();
+            freeWorkers.release();
+            logger.warn("Layer refresh executor rejected layer " + refresh.layerId());
+            return false;
+        }
+    }
+
+    /**
+     * Missing results first, longest waiting first; then stale results by how many times they
+     * were used, weighed by how many times their maximum age they are overdue.
+     */
+    private static Comparator<MaterializationService.Refresh> priority(long maxAgeMs) {
+        Comparator<MaterializationService.Refresh> missingFirst =
+                Comparator.comparing(MaterializationService.Refresh::missing).reversed();
+        return missingFirst.thenComparing(Comparator.comparingDouble(
+                (MaterializationService.Refresh refresh) -> refresh.missing()
+                        ? refresh.overdueMillis()
+                        : (1.0 + refresh.accesses()) * (1.0 + (double) refresh.overdueMillis() / Math.max(1, maxAgeMs)))
+                .reversed());
+    }
+}
@@ -2,25 +2,43 @@ package projeto.projetoinformatico.service;
 
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import projeto.projetoinformatico.dtos.LayerDTO;
 import projeto.projetoinformatico.exceptions.Exception.InvalidRequestException;
 import projeto.projetoinformatico.exceptions.Exception.NotFoundException;
+import projeto.projetoinformatico.model.CachedSearchResult;
+import projeto.projetoinformatico.model.MaterializationStatus;
+import projeto.projetoinformatico.model.ResultTable;
 import projeto.projetoinformatico.model.SearchResult;
 import projeto.projetoinformatico.model.layers.Layer;
 import projeto.projetoinformatico.model.layers.LayersRepository;
 import projeto.projetoinformatico.model.users.User;
 import projeto.projetoinformatico.model.users.UserRepository;
 import projeto.projetoinformatico.requests.LayerRequest;
+import projeto.projetoinformatico.utils.AsyncResults;
+import projeto.projetoinformatico.utils.LayerCostProfiler;
 import projeto.projetoinformatico.utils.ModelMapperUtils;
+import projeto.projetoinformatico.utils.QueryMetrics;
+import projeto.projetoinformatico.utils.QueryNamespace;
+import projeto.projetoinformatico.utils.QueryTrace;
 import projeto.projetoinformatico.utils.SparqlQueryProvider;
+import projeto.projetoinformatico.utils.Tile;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 public class LayerService {
@@ -28,17 +46,30 @@ public class LayerService {
     private final LayersRepository layersRepository;
     private final SparqlQueryProvider sparqlQueryProvider;
     private final SearchService searchService;
+    private final SpatialIndexService spatialIndexService;
+    private final TemporalFilterService temporalFilterService;
+    private final MaterializationService materializationService;
 
     private final ModelMapperUtils mapperUtils;
     private final UserRepository userRepository;
+    private final QueryMetrics queryMetrics;
+    private final LayerCostProfiler layerCostProfiler;
+
+    @Value("${layers.tiles.max-per-viewport}")
+    private int maxTilesPerViewport;
 
     @Autowired
-    public LayerService(LayersRepository layersRepository, SparqlQueryProvider sparqlQueryProvider, SearchService searchService, ModelMapperUtils mapperUtils,UserRepository userRepository) {
+    public LayerService(LayersRepository layersRepository, SparqlQueryProvider sparqlQueryProvider, SearchService searchService, SpatialIndexService spatialIndexService, TemporalFilterService temporalFilterService, MaterializationService materializationService, ModelMapperUtils mapperUtils,UserRepository userRepository, QueryMetrics queryMetrics, LayerCostProfiler layerCostProfiler) {
         this.layersRepository = layersRepository;
         this.sparqlQueryProvider = sparqlQueryProvider;
         this.userRepository = userRepository;
         this.searchService = searchService;
+        this.spatialIndexService = spatialIndexService;
+        this.temporalFilterService = temporalFilterService;
+        this.materializationService = materializationService;
         this.mapperUtils = mapperUtils;
+        this.queryMetrics = queryMetrics;
+        this.layerCostProfiler = layerCostProfiler;
 
     }
 
@@ -54,18 +85,150 @@ public class LayerService {
         newLayer.setLayerName(layerRequest.getName());
         newLayer.setDescription(layerRequest.getDescription());
         newLayer.setQuery(layerRequest.getQuery());
+        newLayer.setBackend(layerRequest.getBackend());
+        newLayer.setMaterialized(layerRequest.getMaterialized());
         Layer savedLayer = saveLayer(newLayer);
+        updateMaterialization(savedLayer);
         LayerDTO savedLayerDTO = convertLayerToDTO(savedLayer);
         savedLayerDTO.setUser(user);
         return savedLayerDTO;
     }
 
-    public SearchResult getLayerByIdWithParams(Long id, Double lat1, Double lon1, Double lat2, Double lon2, Long start, Long end) {
+    /**
+     * Layer results may come from the cache while they are being refreshed, the returned
+     * value tells when they were fetched. The box is queried and cached for every year at
+     * once, with the times of the items, and the years are filtered here, so moving the time
+     * slider over a cached box never queries the endpoint. Materialized layers answer from
+     * their materialized results once they are in.
+     */
+    public CompletableFuture<CachedSearchResult> getLayerByIdWithParamsAsync(Long id, Double lat1, Double lon1, Double lat2, Double lon2, Long start, Long end) {
+        QueryTrace.tagLayer(id);
+        LayerDTO layer = getLayerById(id);
+        return queryMetrics.timeLayer("box", () -> fetchLayerBox(layer, lat1, lon1, lat2, lon2, start, end));
+    }
+
+    private CompletableFuture<CachedSearchResult> fetchLayerBox(LayerDTO layer, Double lat1, Double lon1, Double lat2, Double lon2, Long start, Long end) {
+        Optional<CachedSearchResult> materialized = findMaterialized(layer, lat1, lon1, lat2, lon2, start, end);
+        if (materialized.isPresent()) {
+            return CompletableFuture.completedFuture(materialized.get());
+        }
+        String timesQuery;
+        try (QueryTrace.Span span = QueryTrace.span(QueryTrace.Phase.BUILD)) {
+            timesQuery = buildLayerTimesQuery(layer, lat1, lon1, lat2, lon2);
+        }
+        return filterYears(searchService.executeCachedSparqlQueryAsync(QueryNamespace.LAYER, layer.getBackend(), timesQuery), start, end);
+    }
+
+    /**
+     * Like {@link #getLayerByIdWithParamsAsync}, but the box is first snapped to the slippy map
+     * tiles covering it, at most {@code layers.tiles.max-per-viewport} of them, and every tile
+     * is queried and cached on its own. Boxes that overlap share the results of their common
+     * tiles. The merged result holds each distinct row once and may reach past the box up to
+     * the edges of its tiles; it is as old as its oldest tile.
+     */
+    public CompletableFuture<CachedSearchResult> getLayerTilesByIdWithParamsAsync(Long id, Double lat1, Double lon1, Double lat2, Double lon2, Long start, Long end) {
+        QueryTrace.tagLayer(id);
+        LayerDTO layer = getLayerById(id);
+        return queryMetrics.timeLayer("tiles", () -> fetchLayerTiles(layer, lat1, lon1, lat2, lon2, start, end));
+    }
+
+    private CompletableFuture<CachedSearchResult> fetchLayerTiles(LayerDTO layer, Double lat1, Double lon1, Double lat2, Double lon2, Long start, Long end) {
+        Optional<CachedSearchResult> materialized = findMaterialized(layer, lat1, lon1, lat2, lon2, start, end);
+        if (materialized.isPresent()) {
+            return CompletableFuture.completedFuture(materialized.get());
+        }
+        List<CompletableFuture<CachedSearchResult>> tiles = new ArrayList<>();
+        for (Tile tile : Tile.covering(lat1, lon1, lat2, lon2, Math.max(1, maxTilesPerViewport))) {
+            tiles.add(getLayerTileAsync(layer, tile));
+        }
+        return filterYears(AsyncResults.allOf(tiles).thenApply(LayerService::mergeTiles), start, end);
+    }
+
+    /**
+     * Results of a single map tile, shared with the tiled queries of the boxes it is part of.
+     */
+    public CompletableFuture<CachedSearchResult> getLayerTileByIdAsync(Long id, Tile tile, Long start, Long end) {
+        QueryTrace.tagLayer(id);
         LayerDTO layer = getLayerById(id);
+        return queryMetrics.timeLayer("tile", () -> fetchLayerTile(layer, tile, start, end));
+    }
+
+    private CompletableFuture<CachedSearchResult> fetchLayerTile(LayerDTO layer, Tile tile, Long start, Long end) {
+        Optional<CachedSearchResult> materialized = findMaterialized(layer, tile.south(), tile.west(), tile.north(), tile.east(), start, end);
+        if (materialized.isPresent()) {
+            return CompletableFuture.completedFuture(materialized.get());
+        }
+        return filterYears(getLayerTileAsync(layer, tile), start, end);
+    }
+
+    /**
+     * Narrows the results to the years once they are in, on whatever thread completes them.
+     */
+    private CompletableFuture<CachedSearchResult> filterYears(CompletableFuture<CachedSearchResult> results, Long start, Long end) {
+        QueryTrace trace = QueryTrace.current();
+        return results.thenApply(cached -> {
+            try (QueryTrace.Span span = QueryTrace.span(trace, QueryTrace.Phase.FILTER)) {
+                return temporalFilterService.filter(cached, start, end);
+            }
+        });
+    }
+
+    private Optional<CachedSearchResult> findMaterialized(LayerDTO layer, Double lat1, Double lon1, Double lat2, Double lon2, Long start, Long end) {
+        return materializationService.find(layer.getId(), layer.getQuery(), layer.getBackend(), lat1, lon1, lat2, lon2, start, end);
+    }
+
+    /**
+     * State of the materialized results of the layer and when they were fetched.
+     */
+    public MaterializationStatus getMaterializationStatus(Long id) {
+        return materializationService.status(getLayerById(id).getId());
+    }
+
+    private CompletableFuture<CachedSearchResult> getLayerTileAsync(LayerDTO layer, Tile tile) {
+        String timesQuery;
+        try (QueryTrace.Span span = QueryTrace.span(QueryTrace.Phase.BUILD)) {
+            timesQuery = buildLayerTimesQuery(layer, tile.south(), tile.west(), tile.north(), tile.east());
+        }
+        return searchService.executeCachedSparqlQueryAsync(QueryNamespace.LAYER, layer.getBackend(), timesQuery);
+    }
+
+    private static CachedSearchResult mergeTiles(List<CachedSearchResult> tiles) {
+        if (tiles.size() == 1) {
+            return tiles.get(0);
+        }
+        List<ResultTable> tables = new ArrayList<>(tiles.size());
+        long oldestFetch = Long.MAX_VALUE;
+        for (CachedSearchResult tile : tiles) {
+            tables.add(tile.result().table());
+            oldestFetch = Math.min(oldestFetch, tile.fetchedAtMillis());
+        }
+        return new CachedSearchResult(new SearchResult(ResultTable.distinctUnion(tables)), oldestFetch);
+    }
+
+    public void streamLayerByIdWithParams(Long id, Double lat1, Double lon1, Double lat2, Double lon2, Long start, Long end, OutputStream outputStream) throws IOException {
+        // Streams are written on a thread of their own, outside the trace of the request
+        try (QueryTrace.Scope scope = QueryTrace.attachIfAbsent()) {
+            QueryTrace.tagLayer(id);
+            LayerDTO layer = getLayerById(id);
+            String filterQuery = buildLayerFilterQuery(layer, lat1, lon1, lat2, lon2, start, end);
+            searchService.streamSparqlQuery(QueryNamespace.LAYER, layer.getBackend(), filterQuery, outputStream);
+        }
+    }
+
+    private String buildLayerFilterQuery(LayerDTO layer, Double lat1, Double lon1, Double lat2, Double lon2, Long start, Long end) {
         String query = layer.getQuery();
         validateSparqlQuery(query);
-        String filterQuery = sparqlQueryProvider.buildFilterQuery(query, lat1, lon1, lat2, lon2, start, end);
-        return searchService.executeSparqlQuery(filterQuery);
+        return spatialIndexService.findItemsWithin(lat1, lon1, lat2, lon2, start, end)
+                .map(itemIds -> sparqlQueryProvider.buildLocalFilterQuery(query, itemIds))
+                .orElseGet(() -> sparqlQueryProvider.buildFilterQuery(query, lat1, lon1, lat2, lon2, start, end));
+    }
+
+    /**
+     * Query of the box for every year, whose results carry the times of the items for
+     * {@link TemporalFilterService}, so it is cached once for all the ranges of years.
+     */
+    private String buildLayerTimesQuery(LayerDTO layer, Double lat1, Double lon1, Double lat2, Double lon2) {
+        return sparqlQueryProvider.buildTimesQuery(buildLayerFilterQuery(layer, lat1, lon1, lat2, lon2, null, null));
     }
 
     @Cacheable(value = "layerCache", key = "#id")
@@ -82,10 +245,19 @@ public class LayerService {
         Layer existingLayer = layersRepository.findById(id)
                 .orElseThrow(() -> new NotFoundException("Layer not found with id: " + id));
 
-        BeanUtils.copyProperties(layerRequest, existingLayer, "id");
+        // Requests that leave out the backend or materialization keep those of the layer
+        List<String> ignored = new ArrayList<>(List.of("id"));
+        if (layerRequest.getBackend() == null) {
+            ignored.add("backend");
+        }
+        if (layerRequest.getMaterialized() == null) {
+            ignored.add("materialized");
+        }
+        BeanUtils.copyProperties(layerRequest, existingLayer, ignored.toArray(new String[0]));
         existingLayer.setTimestamp(new Date());
         Layer updatedLayer = saveLayer(existingLayer);
         updatedLayer.setLayerName(layerRequest.getName());
+        updateMaterialization(updatedLayer);
         return convertLayerToDTO(updatedLayer);
     }
 
@@ -97,6 +269,8 @@ public class LayerService {
         }
         if (layersRepository.existsById(id)) {
             layersRepository.deleteById(id);
+            afterCommit(() -> materializationService.remove(id));
+            layerCostProfiler.remove(id);
         } else {
             throw new NotFoundException("Layer not found with id: " + id);
         }
@@ -105,6 +279,33 @@ public class LayerService {
     private Layer saveLayer(Layer layer) {
         return layersRepository.save(layer);
     }
+
+    private void updateMaterialization(Layer layer) {
+        if (layer != null) {
+            Long id = layer.getId();
+            String query = layer.getQuery();
+            String backend = layer.getBackend();
+            boolean materialized = Boolean.TRUE.equals(layer.getMaterialized());
+            afterCommit(() -> materializationService.update(id, query, backend, materialized));
+        }
+    }
+
+    /**
+     * Runs the action once the current transaction commits, so a layer change that is rolled
+     * back leaves the materialized results alone; without a transaction it runs now.
+     */
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
     private void validateSparqlQuery(String query) {
         if (sparqlQueryProvider.isSparqlQueryValid(query)) {
             throw new InvalidRequestException("Invalid SPARQL query");
@@ -114,6 +315,9 @@ public class LayerService {
         if (layerRequest == null || sparqlQueryProvider.isSparqlQueryValid(layerRequest.getQuery())) {
             throw new InvalidRequestException("Invalid layer request");
         }
+        if (layerRequest.getBackend() != null && !searchService.hasBackend(layerRequest.getBackend())) {
+            throw new InvalidRequestException("Unknown SPARQL backend: " + layerRequest.getBackend());
+        }
     }
 
     private void checkDuplicateLayerName(String name) {
@@ -0,0 +1,226 @@
+package projeto.projetoinformatico.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import projeto.projetoinformatico.model.CachedSearchResult;
+import projeto.projetoinformatico.model.MaterializationStatus;
+import projeto.projetoinformatico.model.ResultTable;
+import projeto.projetoinformatico.model.SearchResult;
+import projeto.projetoinformatico.model.layers.Layer;
+import projeto.projetoinformatico.model.layers.LayersRepository;
+import projeto.projetoinformatico.utils.PointIndex;
+import projeto.projetoinformatico.utils.QueryTrace;
+import projeto.projetoinformatico.utils.SparqlQueryProvider;
+import projeto.projetoinformatico.utils.TemporalIndex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the results of layers that opt in to materialization for the whole world, so their
+ * boxes and years are answered here and the first viewer does not wait for the endpoint.
+ * The layer query runs without any box, with the times of the items, and its points go to a
+ * {@link PointIndex} and a {@link TemporalIndex}. Layers are fetched by
+ * {@link LayerRefreshScheduler} when they are saved and once their results are older than
+ * {@code layers.materialized.max-age-ms}; until new results are in, the old ones keep being
+ * served, and boxes of layers that are not ready yet go to the endpoint as usual.
+ */
+@Service
+public class MaterializationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MaterializationService.class);
+
+    /**
+     * A materialized layer due for a refresh.
+     *
+     * @param overdueMillis how long its results have been missing or stale
+     * @param accesses      boxes answered from its results since they were fetched
+     */
+    public record Refresh(Long layerId, boolean missing, long overdueMillis, long accesses) {
+    }
+
+    private record Source(String query, String backend) {
+    }
+
+    private record Registration(Source source, long savedAtMillis) {
+    }
+
+    private record View(Source source, CachedSearchResult result, PointIndex points, TemporalIndex times) {
+    }
+
+    private final SearchService searchService;
+    private final SparqlQueryProvider sparqlQueryProvider;
+    private final LayersRepository layersRepository;
+    private final long maxAgeMs;
+    // Layers to materialize, and their results once fetched, replaced whole on every refresh
+    private final Map<Long, Registration> layers = new ConcurrentHashMap<>();
+    private final Map<Long, View> views = new ConcurrentHashMap<>();
+    private final Map<Long, LongAdder> accesses = new ConcurrentHashMap<>();
+    private final Set<Long> refreshing = ConcurrentHashMap.newKeySet();
+
+    public MaterializationService(SearchService searchService, SparqlQueryProvider sparqlQueryProvider,
+                                  LayersRepository layersRepository,
+                                  @Value("${layers.materialized.max-age-ms}") long maxAgeMs) {
+        this.searchService = searchService;
+        this.sparqlQueryProvider = sparqlQueryProvider;
+        this.layersRepository = layersRepository;
+        this.maxAgeMs = maxAgeMs;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void materializeSavedLayers() {
+        for (Layer layer : layersRepository.findByMaterializedTrue()) {
+            update(layer.getId(), layer.getQuery(), layer.getBackend(), true);
+        }
+    }
+
+    /**
+     * Called when a layer is saved. Materialized layers whose query or backend changed are due
+     * for a refresh right away, other layers lose their materialized results.
+     */
+    public void update(Long layerId, String query, String backend, boolean materialized) {
+        if (layerId == null) {
+            return;
+        }
+        if (!materialized) {
+            remove(layerId);
+            return;
+        }
+        Source source = new Source(query, backend);
+        Registration previous = layers.get(layerId);
+        if (previous == null || !previous.source().equals(source)) {
+            layers.put(layerId, new Registration(source, System.currentTimeMillis()));
+        }
+    }
+
+    public void remove(Long layerId) {
+        layers.remove(layerId);
+        views.remove(layerId);
+        accesses.remove(layerId);
+    }
+
+    /**
+     * Layers whose results are missing, outdated by a change of the layer, or older than
+     * {@code layers.materialized.max-age-ms}, leaving out the ones being fetched.
+     */
+    public List<Refresh> dueForRefresh() {
+        long now = System.currentTimeMillis();
+        List<Refresh> due = new ArrayList<>();
+        layers.forEach((layerId, registration) -> {
+            if (refreshing.contains(layerId)) {
+                return;
+            }
+            View view = views.get(layerId);
+            LongAdder accessCount = accesses.get(layerId);
+            long accessed = accessCount == null ? 0 : accessCount.sum();
+            if (view == null || !view.source().equals(registration.source())) {
+                due.add(new Refresh(layerId, true, Math.max(0, now - registration.savedAtMillis()), accessed));
+            } else if (view.result().ageMillis() > maxAgeMs) {
+                due.add(new Refresh(layerId, false, view.result().ageMillis() - maxAgeMs, accessed));
+            }
+        });
+        return due;
+    }
+
+    /**
+     * Fetches the layer again on the calling thread and swaps its new results in whole, unless
+     * the layer changed or stopped being materialized meanwhile.
+     *
+     * @return whether new results were swapped in
+     */
+    public boolean refresh(Long layerId) {
+        Registration registration = layers.get(layerId);
+        if (registration == null || !refreshing.add(layerId)) {
+            return false;
+        }
+        try (QueryTrace.Scope scope = QueryTrace.attachIfAbsent()) {
+            QueryTrace.tagLayer(layerId);
+            View view = fetch(registration.source());
+            View swapped = views.compute(layerId, (id, old) -> {
+                Registration current = layers.get(id);
+                return current != null && current.source().equals(view.source()) ? view : old;
+            });
+            if (swapped == view) {
+                accesses.remove(layerId);
+                return true;
+            }
+            return false;
+        } catch (RuntimeException e) {
+            logger.warn("Cannot materialize layer " + layerId, e);
+            return false;
+        } finally {
+            refreshing.remove(layerId);
+        }
+    }
+
+    /**
+     * Rows of the materialized results of the layer inside the box, and overlapping the years
+     * when both are given, like {@link TemporalFilterService} does. Nothing is returned when
+     * the layer is not materialized, its results are not in yet or were fetched for another
+     * query or backend.
+     */
+    public Optional<CachedSearchResult> find(Long layerId, String query, String backend,
+                                             Double lat1, Double lon1, Double lat2, Double lon2, Long start, Long end) {
+        View view = views.get(layerId);
+        if (view == null || !view.source().equals(new Source(query, backend))
+                || lat1 == null || lon1 == null || lat2 == null || lon2 == null) {
+            return Optional.empty();
+        }
+        accesses.computeIfAbsent(layerId, id -> new LongAdder()).increment();
+        int[] rows = view.points().rowsWithin(lat1, lon1, lat2, lon2);
+        if (start != null && end != null) {
+            rows = intersection(rows, view.times().rowsOverlappingYears(start, end));
+        }
+        SearchResult result = new SearchResult(view.result().result().table().select(rows));
+        return Optional.of(new CachedSearchResult(result, view.result().fetchedAtMillis()));
+    }
+
+    public MaterializationStatus status(Long layerId) {
+        View view = views.get(layerId);
+        Registration registration = layers.get(layerId);
+        boolean ready = view != null && registration != null && view.source().equals(registration.source());
+        return new MaterializationStatus(layerId, registration != null, ready, refreshing.contains(layerId),
+                ready ? view.result().result().table().getRowCount() : 0,
+                ready ? view.result().fetchedAtMillis() : null);
+    }
+
+    public long getMaxAgeMs() {
+        return maxAgeMs;
+    }
+
+    private View fetch(Source source) {
+        String timesQuery = sparqlQueryProvider.buildTimesQuery(source.query());
+        CachedSearchResult fetched = searchService.executeUncachedSparqlQuery(source.backend(), timesQuery);
+        ResultTable table = fetched.result().table();
+        // Once indexed, the times are no longer needed and are not sent to clients
+        CachedSearchResult result = new CachedSearchResult(new SearchResult(table.without(TemporalIndex.VARIABLES)), fetched.fetchedAtMillis());
+        return new View(source, result, PointIndex.of(table), TemporalIndex.of(table));
+    }
+
+    private static int[] intersection(int[] a, int[] b) {
+        int[] both = new int[Math.min(a.length, b.length)];
+        int count = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                both[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(both, count);
+    }
+}
@@ -1,14 +1,14 @@
 package projeto.projetoinformatico.service;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Service;
 import projeto.projetoinformatico.exceptions.Exception.SparqlQueryNotFoundException;
-import projeto.projetoinformatico.model.SearchResult;
+import projeto.projetoinformatico.model.CachedSearchResult;
+import projeto.projetoinformatico.utils.AsyncResults;
+import projeto.projetoinformatico.utils.QueryNamespace;
 import projeto.projetoinformatico.utils.SparqlQueryProvider;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 public class ResourceService {
@@ -22,35 +22,33 @@ public class ResourceService {
         this.sparqlQueryProvider = sparqlQueryProvider;
     }
 
-    @Cacheable(value = "searchCache", key = "{ #itemId, #propertyId }")
-    public SearchResult getPropertyValues(String itemId, String propertyId) {
+    public CompletableFuture<CachedSearchResult> getPropertyValuesAsync(String itemId, String propertyId) {
         String sparqlQuery = sparqlQueryProvider.buildPropertyItemQuery(itemId, propertyId);
-        return executeSparqlQuery(sparqlQuery);
+        return executeSparqlQueryAsync(QueryNamespace.PROPERTY_VALUES, sparqlQuery);
     }
 
-    @Cacheable(value = "searchCache", key = "{ #itemId }")
-    public SearchResult getGeolocationData(String itemId) {
+    public CompletableFuture<CachedSearchResult> getGeolocationDataAsync(String itemId) {
         String sparqlQuery = sparqlQueryProvider.buildGeoQuery(itemId);
-        return executeSparqlQuery(sparqlQuery);
+        return executeSparqlQueryAsync(QueryNamespace.GEOLOCATION, sparqlQuery);
     }
 
-    @Cacheable(value = "searchCache", key = "{ #itemId }")
-    public SearchResult getItem(String itemId) {
+    public CompletableFuture<CachedSearchResult> getItemAsync(String itemId) {
         String sparqlQuery = sparqlQueryProvider.buildItemQuery(itemId);
-        return executeSparqlQuery(sparqlQuery);
+        return executeSparqlQueryAsync(QueryNamespace.ITEM, sparqlQuery);
     }
 
-    @Cacheable(value = "searchCache", key = "{ #propertyId }")
-    public SearchResult getProperty(String propertyId) {
+    public CompletableFuture<CachedSearchResult> getPropertyAsync(String propertyId) {
         String sparqlQuery = sparqlQueryProvider.buildPropertyQuery(propertyId);
-        return executeSparqlQuery(sparqlQuery);
+        return executeSparqlQueryAsync(QueryNamespace.PROPERTY, sparqlQuery);
     }
 
-    private SearchResult executeSparqlQuery(String sparqlQuery) {
-        SearchResult result = searchService.executeSparqlQuery(sparqlQuery);
-        if (result == null) {
-            throw new SparqlQueryNotFoundException("SPARQL query returned no results");
-        }
-        return result;
+    // Results are cached by SearchService, keyed on the query template and the query itself
+    private CompletableFuture<CachedSearchResult> executeSparqlQueryAsync(QueryNamespace namespace, String sparqlQuery) {
+        return AsyncResults.map(searchService.executeCachedSparqlQueryAsync(namespace, sparqlQuery), result -> {
+            if (result == null) {
+                throw new SparqlQueryNotFoundException("SPARQL query returned no results");
+            }
+            return result;
+        });
     }
 }
@@ -1,91 +1,498 @@
 package projeto.projetoinformatico.service;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import org.apache.jena.query.*;
+import org.apache.jena.rdf.model.Literal;
 import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.riot.WebContent;
+import org.apache.jena.sparql.engine.http.QueryEngineHTTP;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.stereotype.Service;
+import projeto.projetoinformatico.config.async.PriorityTaskQueue;
+import projeto.projetoinformatico.config.sparql.SparqlBackend;
+import projeto.projetoinformatico.config.sparql.SparqlBackends;
+import projeto.projetoinformatico.model.CachedSearchResult;
+import projeto.projetoinformatico.model.RdfTerms;
+import projeto.projetoinformatico.model.ResultTable;
 import projeto.projetoinformatico.model.SearchResult;
+import projeto.projetoinformatico.model.TermKind;
+import projeto.projetoinformatico.utils.AsyncResults;
+import projeto.projetoinformatico.utils.QueryCacheMetrics;
+import projeto.projetoinformatico.utils.QueryKey;
+import projeto.projetoinformatico.utils.LayerCostProfiler;
+import projeto.projetoinformatico.utils.QueryKeyGenerator;
+import projeto.projetoinformatico.utils.QueryMetrics;
+import projeto.projetoinformatico.utils.QueryNamespace;
+import projeto.projetoinformatico.utils.QueryPriority;
+import projeto.projetoinformatico.utils.QueryTrace;
+import projeto.projetoinformatico.utils.SingleFlight;
 import projeto.projetoinformatico.utils.SparqlQueryProvider;
+import projeto.projetoinformatico.exceptions.Exception.SparqlEndpointUnavailableException;
 import projeto.projetoinformatico.exceptions.Exception.SparqlQueryException;
+import projeto.projetoinformatico.exceptions.Exception.SparqlQueryExecutionException;
+import projeto.projetoinformatico.exceptions.Exception.SparqlQueryTimeoutException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.*;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
 
+/**
+ * Runs SPARQL queries through the {@link SparqlGateway} and caches their results. Besides the
+ * {@link QueryMetrics} of every query, publishes {@code sparql.queries.in.flight}, the distinct
+ * queries being fetched, whether waiting or running.
+ */
 @EnableCaching
 @Service
-public class SearchService {
+public class SearchService implements MeterBinder {
 
-    @Value("${sparql.endpoint}")
-    private String sparqlEndpoint;
+    @Value("${sparql.query.timeout-ms}")
+    private long queryTimeoutMs;
+
+    @Value("${sparql.cache.max-stale-ms}")
+    private long maxStaleMs;
+
+    private static final String SEARCH_CACHE = "searchCache";
+
+    // Number of rows written between explicit flushes of the streamed response
+    private static final int STREAM_FLUSH_INTERVAL = 500;
 
     private static final Logger logger = LoggerFactory.getLogger(SearchService.class);
 
     private final SparqlQueryProvider sparqlQueryProvider;
     private final ObjectMapper objectMapper;
+    private final CacheManager cacheManager;
+    private final Executor sparqlExecutor;
+    private final QueryKeyGenerator queryKeyGenerator;
+    private final QueryCacheMetrics queryCacheMetrics;
+    private final SparqlBackends sparqlBackends;
+    private final SparqlGateway sparqlGateway;
+    private final QueryMetrics queryMetrics;
+    private final LayerCostProfiler layerCostProfiler;
+    private final SingleFlight<QueryKey, CachedSearchResult> inFlightQueries = new SingleFlight<>();
 
     @Autowired
-    public SearchService(SparqlQueryProvider sparqlQueryProvider, ObjectMapper objectMapper) {
+    public SearchService(SparqlQueryProvider sparqlQueryProvider, ObjectMapper objectMapper, CacheManager cacheManager,
+                         @Qualifier("sparqlExecutor") Executor sparqlExecutor, QueryKeyGenerator queryKeyGenerator,
+                         QueryCacheMetrics queryCacheMetrics, SparqlBackends sparqlBackends, SparqlGateway sparqlGateway,
+                         QueryMetrics queryMetrics, LayerCostProfiler layerCostProfiler) {
         this.sparqlQueryProvider = sparqlQueryProvider;
         this.objectMapper = objectMapper;
+        this.cacheManager = cacheManager;
+        this.sparqlExecutor = sparqlExecutor;
+        this.queryKeyGenerator = queryKeyGenerator;
+        this.queryCacheMetrics = queryCacheMetrics;
+        this.sparqlBackends = sparqlBackends;
+        this.sparqlGateway = sparqlGateway;
+        this.queryMetrics = queryMetrics;
+        this.layerCostProfiler = layerCostProfiler;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("sparql.queries.in.flight", this, SearchService::getInFlightQueryCount)
+                .description("Distinct SPARQL queries being fetched, waiting for a thread or the backend or running")
+                .register(registry);
+    }
+
+    /**
+     * Runs the query on the SPARQL executor without blocking the calling thread.
+     * The cache is read and written here rather than through {@code @Cacheable}, because the
+     * caching proxy hands callers a copy of the future and cancelling it would not reach the
+     * running {@link QueryExecution}. Cancelling or timing out the returned future aborts it.
+     * Identical queries that are already running are not sent again, callers share the result.
+     */
+    public CompletableFuture<SearchResult> executeSparqlQueryAsync(String sparqlQuery) {
+        return executeSparqlQueryAsync(QueryNamespace.SPARQL, sparqlQuery);
+    }
+
+    public CompletableFuture<SearchResult> executeSparqlQueryAsync(QueryNamespace namespace, String sparqlQuery) {
+        return AsyncResults.map(executeCachedSparqlQueryAsync(namespace, sparqlQuery), CachedSearchResult::result);
+    }
+
+    /**
+     * Same as {@link #executeSparqlQueryAsync(QueryNamespace, String)}, but also tells when the
+     * result was fetched. Cached results older than the cache's {@code refreshAfterWrite} are
+     * still returned while a background refresh replaces them, as long as they are not older
+     * than {@code sparql.cache.max-stale-ms}; older results are fetched again before answering.
+     */
+    public CompletableFuture<CachedSearchResult> executeCachedSparqlQueryAsync(QueryNamespace namespace, String sparqlQuery) {
+        return executeCachedSparqlQueryAsync(namespace, null, sparqlQuery);
     }
 
-    @Cacheable(value = "searchCache", key = "{ #sparqlQuery.hashCode() }")
-    public SearchResult executeSparqlQuery(String sparqlQuery) {
+    public CompletableFuture<CachedSearchResult> executeCachedSparqlQueryAsync(QueryNamespace namespace, String backend, String sparqlQuery) {
+        QueryKey key = queryKeyGenerator.keyFor(namespace, backend, sparqlQuery);
+        CachedSearchResult cached = lookUp(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        // Taken here, the executor threads do not know who asked
+        QueryPriority priority = QueryPriority.current();
+        return inFlightQueries.execute(key, () -> startQuery(sparqlQuery, key, priority));
+    }
+
+    private CompletableFuture<CachedSearchResult> startQuery(String sparqlQuery, QueryKey key, QueryPriority priority) {
+        RunningQuery runningQuery = new RunningQuery();
+        CompletableFuture<CachedSearchResult> future;
         try {
-            String sparqlQueryWithPrefixes = sparqlQueryProvider.constructSparqlQuery(sparqlQuery);
-            CompletableFuture<List<Map<String, String>>> futureResults = CompletableFuture.supplyAsync(() -> {
-                try (QueryExecution qexec = QueryExecutionFactory.sparqlService(sparqlEndpoint, sparqlQueryWithPrefixes)) {
-                    ResultSet resultSet = qexec.execSelect();
-                    return processQueryResults(resultSet);
-                }
-            });
+            future = CompletableFuture.supplyAsync(QueryTrace.propagate(() -> fetch(sparqlQuery, key, priority, runningQuery)),
+                    PriorityTaskQueue.prioritized(sparqlExecutor, priority));
+        } catch (RejectedExecutionException e) {
+            logger.warn("SPARQL executor rejected query: " + sparqlQuery);
+            return CompletableFuture.failedFuture(new SparqlQueryExecutionException("Too many SPARQL queries in progress"));
+        }
+        if (queryTimeoutMs > 0) {
+            future.orTimeout(queryTimeoutMs, TimeUnit.MILLISECONDS);
+        }
+        future.whenComplete((result, ex) -> {
+            if (ex != null) {
+                runningQuery.cancel();
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Runs the query behind a cache key again, on the calling thread. Used by the search cache to
+     * refresh hot entries in the background; the caller stores the returned result.
+     */
+    public CachedSearchResult refresh(QueryKey key) {
+        return CachedSearchResult.fetchedNow(runQuery(key, key.query(), QueryPriority.BACKGROUND, new RunningQuery()));
+    }
 
-            List<Map<String, String>> results = futureResults.get();
-            return new SearchResult(results);
-        } catch (InterruptedException | ExecutionException e) {
+    /**
+     * Runs the query on the calling thread without reading or writing the search cache, for
+     * results that are kept elsewhere, such as materialized layers.
+     */
+    public CachedSearchResult executeUncachedSparqlQuery(String backend, String sparqlQuery) {
+        QueryKey key = queryKeyGenerator.keyFor(QueryNamespace.LAYER, backend, sparqlQuery);
+        return CachedSearchResult.fetchedNow(runQuery(key, sparqlQuery, QueryPriority.BACKGROUND, new RunningQuery()));
+    }
+
+    /**
+     * Whether queries can be sent to the named SPARQL backend; null names the default one.
+     */
+    public boolean hasBackend(String backend) {
+        return sparqlBackends.contains(backend);
+    }
+
+    /**
+     * Number of distinct queries currently running against the endpoint.
+     */
+    public int getInFlightQueryCount() {
+        return inFlightQueries.size();
+    }
+
+    private SearchResult runQuery(QueryKey key, String sparqlQuery, QueryPriority priority, RunningQuery runningQuery) {
+        String backend = key.backend();
+        String sparqlQueryWithPrefixes;
+        try (QueryTrace.Span span = QueryTrace.span(QueryTrace.Phase.BUILD)) {
+            sparqlQueryWithPrefixes = sparqlQueryProvider.constructSparqlQuery(sparqlQuery);
+        }
+        QueryTrace.Span queued = QueryTrace.span(QueryTrace.Phase.QUEUE);
+        try {
+            SparqlBackend sparqlBackend = sparqlBackends.get(backend);
+            return sparqlGateway.execute(backend, priority, timed(key.namespace(), backend, key.digest(),
+                    result -> result.table().getRowCount(), result -> result.table().getEstimatedBytes(),
+                    () -> sparqlBackend.execute(sparqlQueryWithPrefixes, qexec -> {
+                queued.close();
+                if (queryTimeoutMs > 0) {
+                    qexec.setTimeout(queryTimeoutMs);
+                }
+                if (!runningQuery.attach(qexec)) {
+                    throw new CancellationException("SPARQL query cancelled before it started");
+                }
+                // Remote JSON results are read whole here, the decode phase is building the table
+                ResultSet resultSet;
+                try (QueryTrace.Span span = QueryTrace.span(QueryTrace.Phase.EXECUTE)) {
+                    resultSet = qexec.execSelect();
+                }
+                SearchResult result;
+                try (QueryTrace.Span span = QueryTrace.span(QueryTrace.Phase.DECODE)) {
+                    result = new SearchResult(processQueryResults(resultSet));
+                }
+                QueryTrace.tagRows(result.table().getRowCount());
+                return result;
+            })));
+        } catch (CancellationException | SparqlQueryException | SparqlEndpointUnavailableException e) {
+            throw e;
+        } catch (QueryCancelledException e) {
+            logger.warn("SPARQL query cancelled or timed out: " + sparqlQuery);
+            throw new SparqlQueryTimeoutException("SPARQL query timed out");
+        } catch (IOException | RuntimeException e) {
             logger.error("Error executing SPARQL query: " + sparqlQuery, e);
             throw new SparqlQueryException("Error executing SPARQL query");
+        } finally {
+            queued.close();
+        }
+    }
+
+    /**
+     * Runs the query and caches its result. When the gateway refuses the query, the cached
+     * result is answered however old it is, and the caller can tell its age.
+     */
+    private CachedSearchResult fetch(String sparqlQuery, QueryKey key, QueryPriority priority, RunningQuery runningQuery) {
+        CachedSearchResult fetched;
+        try {
+            fetched = CachedSearchResult.fetchedNow(runQuery(key, sparqlQuery, priority, runningQuery));
+        } catch (SparqlEndpointUnavailableException e) {
+            CachedSearchResult stale = searchCache().get(key, CachedSearchResult.class);
+            if (stale == null) {
+                throw e;
+            }
+            sparqlGateway.recordStaleServed(key.backend());
+            logger.warn("Serving a result " + stale.ageSeconds() + " s old, " + e.getMessage() + ": " + sparqlQuery);
+            return stale;
         }
+        searchCache().put(key, fetched);
+        return fetched;
     }
 
+    /**
+     * {@link #getCached(QueryKey)} as the cache phase of the current trace, which is tagged
+     * with the query.
+     */
+    private CachedSearchResult lookUp(QueryKey key) {
+        QueryTrace.tagQuery(key.digest());
+        try (QueryTrace.Span span = QueryTrace.span(QueryTrace.Phase.CACHE)) {
+            return getCached(key);
+        }
+    }
+
+    /**
+     * Cached result for the key, or null when there is none or it is past the staleness bound.
+     */
+    private CachedSearchResult getCached(QueryKey key) {
+        CachedSearchResult cached = searchCache().get(key, CachedSearchResult.class);
+        if (cached != null && (maxStaleMs <= 0 || cached.ageMillis() <= maxStaleMs)) {
+            queryCacheMetrics.recordHit(key.namespace());
+            return cached;
+        }
+        queryCacheMetrics.recordMiss(key.namespace());
+        return null;
+    }
 
-    public SearchResult executeSparqlQueryFromJsonString(String jsonString) {
+    private Cache searchCache() {
+        return Objects.requireNonNull(cacheManager.getCache(SEARCH_CACHE), "Missing cache " + SEARCH_CACHE);
+    }
+
+    /**
+     * Executes a SPARQL query and writes every solution to the output stream as soon as it
+     * is read from the endpoint, without building the whole result in memory first.
+     * The JSON written has the same shape as a serialized {@link SearchResult}. Streamed
+     * queries wait behind everyone looking at a map, see {@link QueryPriority#BULK}, and are
+     * aborted after {@code sparql.query.timeout-ms} or as soon as the client goes away.
+     */
+    public void streamSparqlQuery(String sparqlQuery, OutputStream outputStream) throws IOException {
+        streamSparqlQuery(null, sparqlQuery, outputStream);
+    }
+
+    public void streamSparqlQuery(String backend, String sparqlQuery, OutputStream outputStream) throws IOException {
+        streamSparqlQuery(QueryNamespace.SPARQL, backend, sparqlQuery, outputStream);
+    }
+
+    /**
+     * @param namespace query template the query was built from, for its metrics
+     */
+    public void streamSparqlQuery(QueryNamespace namespace, String backend, String sparqlQuery, OutputStream outputStream) throws IOException {
+        String sparqlQueryWithPrefixes = sparqlQueryProvider.constructSparqlQuery(sparqlQuery);
+        try {
+            SparqlBackend sparqlBackend = sparqlBackends.get(backend);
+            // What streamed rows weigh is not known, only their time and number are profiled
+            sparqlGateway.execute(backend, QueryPriority.BULK, timed(namespace, backend, null, rows -> rows, rows -> 0,
+                    () -> sparqlBackend.execute(sparqlQueryWithPrefixes, qexec -> {
+                if (queryTimeoutMs > 0) {
+                    qexec.setTimeout(queryTimeoutMs);
+                }
+                if (qexec instanceof QueryEngineHTTP queryEngineHTTP) {
+                    // The XML results parser is pull based, the JSON one reads the whole document first
+                    queryEngineHTTP.setSelectContentType(WebContent.contentTypeResultsXML);
+                }
+                try {
+                    return writeQueryResults(qexec.execSelect(), outputStream);
+                } catch (IOException e) {
+                    // The client is gone: stop reading, and do not count it against the backend
+                    qexec.abort();
+                    throw new UncheckedIOException(e);
+                }
+            })));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (QueryCancelledException e) {
+            logger.warn("Streamed SPARQL query timed out: " + sparqlQuery);
+            throw new SparqlQueryTimeoutException("SPARQL query timed out");
+        } catch (QueryException e) {
+            logger.error("Error streaming SPARQL query: " + sparqlQuery, e);
+            throw new SparqlQueryException("Error executing SPARQL query");
+        }
+    }
+
+    public CompletableFuture<SearchResult> executeSparqlQueryFromJsonStringAsync(String jsonString) {
+        try {
+            String sparqlQuery = sparqlQueryProvider.constructSparqlQuery(parseQueryFromJsonString(jsonString));
+            return executeSparqlQueryAsync(sparqlQuery);
+        } catch (SparqlQueryException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    public String parseQueryFromJsonString(String jsonString) {
         try {
             Map<String, String> jsonMap = objectMapper.readValue(jsonString, new TypeReference<>() {
             });
-            String sparqlQuery = jsonMap.get("query");
-            sparqlQuery = sparqlQueryProvider.constructSparqlQuery(sparqlQuery);
-            return executeSparqlQuery(sparqlQuery);
+            return jsonMap.get("query");
         } catch (IOException e) {
             logger.error("Error parsing JSON: " + e.getMessage());
             throw new SparqlQueryException("Error parsing JSON");
         }
     }
 
-    public List<Map<String, String>> processQueryResults(ResultSet results) {
-        List<Map<String, String>> resultList = new ArrayList<>();
+    /**
+     * Collects the solutions in a table, keeping the kind of every term so the table can
+     * decode coordinates, dates, entity ids and languages without guessing them from text.
+     */
+    public static ResultTable processQueryResults(ResultSet results) {
+        List<String> varNames = results.getResultVars();
+        ResultTable.Builder builder = ResultTable.builder(varNames);
+        String[] values = new String[varNames.size()];
         while (results.hasNext()) {
             QuerySolution solution = results.nextSolution();
-            Map<String, String> resultMap = new HashMap<>();
-            Iterator<String> varNames = solution.varNames();
-            while (varNames.hasNext()) {
-                String varName = varNames.next();
-                RDFNode rdfNode = solution.get(varName);
+            for (int i = 0; i < values.length; i++) {
+                RDFNode rdfNode = solution.get(varNames.get(i));
+                values[i] = rdfNode != null ? rdfNode.toString() : null;
                 if (rdfNode != null) {
-                    resultMap.put(varName, rdfNode.toString());
+                    builder.addKind(i, termKind(rdfNode));
                 }
             }
-            resultList.add(resultMap);
+            builder.addRow(values);
+        }
+        return builder.build();
+    }
+
+    private static TermKind termKind(RDFNode rdfNode) {
+        if (rdfNode.isURIResource()) {
+            return RdfTerms.entityId(rdfNode.asResource().getURI()) != null ? TermKind.ENTITY : TermKind.IRI;
+        }
+        if (!rdfNode.isLiteral()) {
+            return TermKind.LITERAL;
+        }
+        Literal literal = rdfNode.asLiteral();
+        if (!literal.getLanguage().isEmpty()) {
+            return TermKind.LANG_STRING;
+        }
+        return RdfTerms.datatypeKind(literal.getDatatypeURI(), literal.getLexicalForm());
+    }
+
+    /**
+     * Wraps a call to a backend so its time and rows go to {@link QueryMetrics}, and for layer
+     * queries to the {@link LayerCostProfiler} with the layer of the current trace. Only the
+     * call is timed, the wait for the gateway is not part of it.
+     *
+     * @param queryHash digest of the query, lets the profiler tell the layer of untraced refreshes
+     */
+    private <T> SparqlGateway.Call<T> timed(QueryNamespace namespace, String backend, String queryHash,
+                                            ToLongFunction<T> rows, ToLongFunction<T> bytes, SparqlGateway.Call<T> call) {
+        return () -> {
+            long startNanos = System.nanoTime();
+            T result;
+            try {
+                result = call.run();
+            } catch (CancellationException e) {
+                throw e;
+            } catch (IOException | RuntimeException e) {
+                long elapsedNanos = System.nanoTime() - startNanos;
+                queryMetrics.recordQueryFailure(namespace, backend, elapsedNanos);
+                if (namespace == QueryNamespace.LAYER) {
+                    layerCostProfiler.recordFailure(currentLayerId(), queryHash, elapsedNanos);
+                }
+                throw e;
+            }
+            long elapsedNanos = System.nanoTime() - startNanos;
+            long rowCount = rows.applyAsLong(result);
+            queryMetrics.recordQuery(namespace, backend, elapsedNanos, rowCount);
+            if (namespace == QueryNamespace.LAYER) {
+                layerCostProfiler.record(currentLayerId(), queryHash, elapsedNanos, rowCount, bytes.applyAsLong(result));
+            }
+            return result;
+        };
+    }
+
+    private static Long currentLayerId() {
+        QueryTrace trace = QueryTrace.current();
+        return trace == null ? null : trace.getLayerId();
+    }
+
+    /**
+     * Writes the solutions of a result set as {@code {"results":[{...},...]}} one row at a time.
+     * The output stream is flushed periodically and is left open for the caller to close.
+     *
+     * @return number of rows written
+     */
+    public long writeQueryResults(ResultSet results, OutputStream outputStream) throws IOException {
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        try (generator) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("results");
+            long rows = 0;
+            while (results.hasNext()) {
+                QuerySolution solution = results.nextSolution();
+                generator.writeStartObject();
+                Iterator<String> varNames = solution.varNames();
+                while (varNames.hasNext()) {
+                    String varName = varNames.next();
+                    RDFNode rdfNode = solution.get(varName);
+                    if (rdfNode != null) {
+                        generator.writeStringField(varName, rdfNode.toString());
+                    }
+                }
+                generator.writeEndObject();
+                if (++rows % STREAM_FLUSH_INTERVAL == 0) {
+                    generator.flush();
+                }
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+            return rows;
+        }
+    }
+
+    /**
+     * Handle on a query that may still be waiting for a thread. A cancel that arrives before
+     * the {@link QueryExecution} exists is remembered, and the query is then never sent.
+     */
+    private static final class RunningQuery {
+        private QueryExecution queryExecution;
+        private boolean cancelled;
+
+        synchronized boolean attach(QueryExecution queryExecution) {
+            this.queryExecution = queryExecution;
+            return !cancelled;
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            if (queryExecution != null) {
+                queryExecution.abort();
+            }
         }
-        return resultList;
     }
 }
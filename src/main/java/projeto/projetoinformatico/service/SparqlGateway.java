@@ -0,0 +1,493 @@
+package projeto.projetoinformatico.service;
+
+import com.google.common.util.concurrent.RateLimiter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.jena.query.QueryCancelledException;
+import org.apache.jena.sparql.engine.http.QueryExceptionHTTP;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import projeto.projetoinformatico.config.sparql.SparqlBackend;
+import projeto.projetoinformatico.config.sparql.SparqlEndpointBusyException;
+import projeto.projetoinformatico.exceptions.Exception.SparqlEndpointUnavailableException;
+import projeto.projetoinformatico.utils.QueryPriority;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The one way out to the SPARQL backends. Every backend gets at most {@code max.requests}
+ * queries per second and an adaptive number of queries at once: the limit grows by one every
+ * time a full window of queries succeeds, and shrinks by a fraction on every query that fails
+ * with 429 or 5xx, times out, cannot connect or is slower than {@code sparql.gateway.slow-ms}.
+ * <p>
+ * After {@code sparql.gateway.failure-threshold} such failures in a row, or as soon as the
+ * endpoint answers with {@code Retry-After}, the circuit opens and no query is sent for
+ * {@code sparql.gateway.open-ms}, or for as long as the endpoint asked. Then a single query
+ * is let through, and its outcome closes the circuit or opens it again. Queries refused here
+ * fail with {@link SparqlEndpointUnavailableException}, which {@link SearchService} answers
+ * with stale cached results when it has some.
+ * <p>
+ * Queries past the limit wait for a running one to finish, up to
+ * {@code sparql.gateway.queue-depth} of them for at most {@code sparql.gateway.queue-timeout-ms},
+ * and go in order of {@link QueryPriority}, first come first served within a priority. Within
+ * that same time, editor and interactive queries also wait for their share of the rate, bulk
+ * ones for a tenth of that time and background ones not at all. When
+ * the queue is full a query takes the place of the last waiting query of a lower priority,
+ * which is refused; a query with nothing lower to push out is refused instead.
+ * <p>
+ * Published per backend as {@code sparql.gateway.limit}, {@code sparql.gateway.in.flight},
+ * {@code sparql.gateway.circuit.open} and {@code sparql.gateway.stale}, and per backend and
+ * priority as {@code sparql.gateway.admitted}, {@code sparql.gateway.queue.depth},
+ * {@code sparql.gateway.queue.wait} and {@code sparql.gateway.rejected} (also tagged with the
+ * reason).
+ */
+@Service
+public class SparqlGateway {
+
+    private static final Logger logger = LoggerFactory.getLogger(SparqlGateway.class);
+
+    // Share of the limit kept after a failure
+    private static final double BACKOFF_RATIO = 0.9;
+    // Retry-After given to callers refused by the limits rather than by an open circuit
+    private static final long BUSY_RETRY_AFTER_MS = 1000;
+
+    private final double queriesPerSecond;
+    private final int initialLimit;
+    private final int maxLimit;
+    private final long slowNanos;
+    private final int failureThreshold;
+    private final long openMs;
+    private final int queueDepth;
+    private final long queueTimeoutNanos;
+    private final MeterRegistry registry;
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    public SparqlGateway(@Value("${max.requests}") double queriesPerSecond,
+                         @Value("${sparql.gateway.initial-limit}") int initialLimit,
+                         @Value("${sparql.gateway.max-limit}") int maxLimit,
+                         @Value("${sparql.gateway.slow-ms}") long slowMs,
+                         @Value("${sparql.gateway.failure-threshold}") int failureThreshold,
+                         @Value("${sparql.gateway.open-ms}") long openMs,
+                         @Value("${sparql.gateway.queue-depth}") int queueDepth,
+                         @Value("${sparql.gateway.queue-timeout-ms}") long queueTimeoutMs,
+                         MeterRegistry registry) {
+        this.queriesPerSecond = queriesPerSecond;
+        this.maxLimit = Math.max(1, maxLimit);
+        this.initialLimit = Math.min(Math.max(1, initialLimit), this.maxLimit);
+        this.slowNanos = TimeUnit.MILLISECONDS.toNanos(slowMs);
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMs = openMs;
+        this.queueDepth = Math.max(0, queueDepth);
+        this.queueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(queueTimeoutMs);
+        this.registry = registry;
+    }
+
+    /**
+     * A call to a backend, such as running a query and reading its results.
+     */
+    @FunctionalInterface
+    public interface Call<T> {
+        T run() throws IOException;
+    }
+
+    /**
+     * Runs the call with the priority of the calling thread, see {@link QueryPriority#current()}.
+     */
+    public <T> T execute(String backend, Call<T> call) throws IOException {
+        return execute(backend, QueryPriority.current(), call);
+    }
+
+    /**
+     * Runs the call once the backend can take another query, waiting in the queue if it is
+     * running as many as it may.
+     *
+     * @param backend name of the backend, or null for the default one
+     * @throws SparqlEndpointUnavailableException when the circuit is open, a limit is reached
+     *                                            or the query was pushed out of the queue
+     */
+    public <T> T execute(String backend, QueryPriority priority, Call<T> call) throws IOException {
+        Endpoint endpoint = endpoint(backend);
+        Permit permit = endpoint.acquire(priority);
+        long startNanos = System.nanoTime();
+        boolean released = false;
+        try {
+            T result = call.run();
+            released = true;
+            endpoint.onSuccess(permit, System.nanoTime() - startNanos);
+            return result;
+        } catch (IOException | RuntimeException e) {
+            released = true;
+            if (isEndpointFailure(e)) {
+                endpoint.onFailure(permit, e instanceof SparqlEndpointBusyException busy ? busy.getRetryAfterMillis() : null);
+            } else if (e instanceof QueryExceptionHTTP) {
+                // The endpoint answered, the query was at fault
+                endpoint.onSuccess(permit, System.nanoTime() - startNanos);
+            } else {
+                endpoint.onIgnored(permit);
+            }
+            throw e;
+        } finally {
+            // An Error says nothing about the endpoint, but its permit must not leak
+            if (!released) {
+                endpoint.onIgnored(permit);
+            }
+        }
+    }
+
+    /**
+     * Counts a query answered with stale cached results instead of going to the backend.
+     */
+    public void recordStaleServed(String backend) {
+        endpoint(backend).stale.increment();
+    }
+
+    public boolean isCircuitOpen(String backend) {
+        return endpoint(backend).isCircuitOpen();
+    }
+
+    public int getLimit(String backend) {
+        return endpoint(backend).getLimit();
+    }
+
+    public int getInFlight(String backend) {
+        return endpoint(backend).getInFlight();
+    }
+
+    public int getQueueDepth(String backend, QueryPriority priority) {
+        return endpoint(backend).getQueueDepth(priority);
+    }
+
+    private Endpoint endpoint(String backend) {
+        return endpoints.computeIfAbsent(backend == null ? SparqlBackend.DEFAULT : backend, Endpoint::new);
+    }
+
+    private static boolean isEndpointFailure(Exception e) {
+        if (e instanceof QueryExceptionHTTP http) {
+            int status = http.getStatusCode();
+            // No status at all means the endpoint could not be reached
+            return status == 429 || status >= 500 || status <= 0;
+        }
+        return e instanceof QueryCancelledException || e instanceof IOException;
+    }
+
+    private enum Circuit {CLOSED, OPEN, HALF_OPEN}
+
+    private record Permit(boolean probe, int inFlightAtStart) {
+    }
+
+    private record Rejection(QueryPriority priority, String reason) {
+    }
+
+    /**
+     * A query waiting in the queue, until it is given a place or pushed out.
+     */
+    private static final class Waiter {
+
+        private static final Comparator<Waiter> ORDER = Comparator.comparing((Waiter waiter) -> waiter.priority)
+                .thenComparingLong(waiter -> waiter.sequence);
+
+        private final QueryPriority priority;
+        private final long sequence;
+        private boolean admitted;
+        // Why the query was refused while waiting, null while it waits
+        private String refusal;
+        private int inFlightAtStart;
+
+        Waiter(QueryPriority priority, long sequence) {
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+    }
+
+    private final class Endpoint {
+
+        private final String name;
+        private final RateLimiter rateLimiter;
+        private final Counter stale;
+        private double limit = initialLimit;
+        private int inFlight;
+        private int consecutiveFailures;
+        private Circuit circuit = Circuit.CLOSED;
+        private long openUntilMillis;
+        private boolean probing;
+        // Most urgent first
+        private final TreeSet<Waiter> waiting = new TreeSet<>(Waiter.ORDER);
+        private final int[] waitingByPriority = new int[QueryPriority.values().length];
+        private long nextSequence;
+        private final Map<QueryPriority, Counter> admitted = new EnumMap<>(QueryPriority.class);
+        private final Map<QueryPriority, Timer> queueWait = new EnumMap<>(QueryPriority.class);
+        private final Map<Rejection, Counter> rejected = new ConcurrentHashMap<>();
+
+        Endpoint(String name) {
+            this.name = name;
+            this.rateLimiter = RateLimiter.create(queriesPerSecond);
+            this.stale = Counter.builder("sparql.gateway.stale")
+                    .description("Queries answered with stale cached results because the backend refused them")
+                    .tag("backend", name)
+                    .register(registry);
+            Gauge.builder("sparql.gateway.limit", this, Endpoint::getLimit)
+                    .description("Queries the backend may run at once")
+                    .tag("backend", name)
+                    .register(registry);
+            Gauge.builder("sparql.gateway.in.flight", this, Endpoint::getInFlight)
+                    .description("Queries running on the backend")
+                    .tag("backend", name)
+                    .register(registry);
+            Gauge.builder("sparql.gateway.circuit.open", this, endpoint -> endpoint.isCircuitOpen() ? 1 : 0)
+                    .description("Whether queries to the backend are refused until it recovers")
+                    .tag("backend", name)
+                    .register(registry);
+            for (QueryPriority priority : QueryPriority.values()) {
+                admitted.put(priority, Counter.builder("sparql.gateway.admitted")
+                        .description("Queries sent to the backend")
+                        .tag("backend", name)
+                        .tag("priority", priority.getId())
+                        .register(registry));
+                queueWait.put(priority, Timer.builder("sparql.gateway.queue.wait")
+                        .description("Time queries waited in the queue before being sent to the backend")
+                        .tag("backend", name)
+                        .tag("priority", priority.getId())
+                        .register(registry));
+                Gauge.builder("sparql.gateway.queue.depth", this, endpoint -> endpoint.getQueueDepth(priority))
+                        .description("Queries waiting for the backend to take another query")
+                        .tag("backend", name)
+                        .tag("priority", priority.getId())
+                        .register(registry);
+            }
+        }
+
+        Permit acquire(QueryPriority priority) {
+            long deadline = System.nanoTime() + queueTimeoutNanos;
+            refuseWhileOpen(priority);
+            // Waits for its rate outside the lock, queries that are admitted do not wait for it
+            takeRate(priority);
+            return admit(priority, deadline);
+        }
+
+        private synchronized void refuseWhileOpen(QueryPriority priority) {
+            long now = System.currentTimeMillis();
+            if (circuit == Circuit.OPEN && now < openUntilMillis) {
+                throw reject(priority, "open", "SPARQL endpoint unavailable", openUntilMillis - now);
+            }
+            if (circuit == Circuit.HALF_OPEN && probing) {
+                throw reject(priority, "open", "SPARQL endpoint unavailable", BUSY_RETRY_AFTER_MS);
+            }
+        }
+
+        private synchronized Permit admit(QueryPriority priority, long deadline) {
+            long now = System.currentTimeMillis();
+            if (circuit == Circuit.OPEN) {
+                if (now < openUntilMillis) {
+                    throw reject(priority, "open", "SPARQL endpoint unavailable", openUntilMillis - now);
+                }
+                circuit = Circuit.HALF_OPEN;
+                probing = false;
+            }
+            if (circuit == Circuit.HALF_OPEN) {
+                // A single probe at a time, and it does not wait
+                if (probing || inFlight >= getLimit()) {
+                    throw reject(priority, "open", "SPARQL endpoint unavailable", BUSY_RETRY_AFTER_MS);
+                }
+                probing = true;
+                admitted.get(priority).increment();
+                return new Permit(true, inFlight++);
+            }
+            if (waiting.isEmpty() && inFlight < getLimit()) {
+                admitted.get(priority).increment();
+                return new Permit(false, inFlight++);
+            }
+            return await(enqueue(priority), deadline);
+        }
+
+        /**
+         * Takes the query's share of {@code max.requests}. Queries someone is waiting for may
+         * wait for it, and a waiting query holds the next share, so background work cannot
+         * take every share away from them.
+         */
+        private void takeRate(QueryPriority priority) {
+            if (!rateLimiter.tryAcquire(rateWaitNanos(priority), TimeUnit.NANOSECONDS)) {
+                throw reject(priority, "rate", "Too many SPARQL queries per second", BUSY_RETRY_AFTER_MS);
+            }
+        }
+
+        private long rateWaitNanos(QueryPriority priority) {
+            return switch (priority) {
+                case EDITOR, INTERACTIVE -> queueTimeoutNanos;
+                case BULK -> queueTimeoutNanos / 10;
+                case BACKGROUND -> 0;
+            };
+        }
+
+        /**
+         * Queues the query, pushing out the last waiting query of a lower priority when full.
+         */
+        private Waiter enqueue(QueryPriority priority) {
+            if (waiting.size() >= queueDepth) {
+                Waiter last = waiting.isEmpty() ? null : waiting.last();
+                if (last == null || last.priority.compareTo(priority) <= 0) {
+                    throw reject(priority, "limit", "Too many SPARQL queries in progress", BUSY_RETRY_AFTER_MS);
+                }
+                remove(last);
+                last.refusal = "shed";
+                notifyAll();
+            }
+            Waiter waiter = new Waiter(priority, nextSequence++);
+            waiting.add(waiter);
+            waitingByPriority[priority.ordinal()]++;
+            return waiter;
+        }
+
+        private Permit await(Waiter waiter, long deadline) {
+            long startNanos = System.nanoTime();
+            try {
+                while (!waiter.admitted && waiter.refusal == null) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        remove(waiter);
+                        throw reject(waiter.priority, "timeout", "Too many SPARQL queries in progress", BUSY_RETRY_AFTER_MS);
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (waiter.admitted) {
+                    release();
+                } else {
+                    remove(waiter);
+                }
+                throw new SparqlEndpointUnavailableException("SPARQL query interrupted while waiting", BUSY_RETRY_AFTER_MS);
+            }
+            if ("open".equals(waiter.refusal)) {
+                throw reject(waiter.priority, "open", "SPARQL endpoint unavailable",
+                        Math.max(BUSY_RETRY_AFTER_MS, openUntilMillis - System.currentTimeMillis()));
+            }
+            if (waiter.refusal != null) {
+                throw reject(waiter.priority, "shed", "SPARQL endpoint busy with more urgent queries", BUSY_RETRY_AFTER_MS);
+            }
+            queueWait.get(waiter.priority).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            return new Permit(false, waiter.inFlightAtStart);
+        }
+
+        private void remove(Waiter waiter) {
+            if (waiting.remove(waiter)) {
+                waitingByPriority[waiter.priority.ordinal()]--;
+            }
+        }
+
+        /**
+         * Frees the place of a finished query and hands the free places to the most urgent
+         * waiting queries.
+         */
+        private void release() {
+            inFlight--;
+            admitWaiting();
+        }
+
+        private void admitWaiting() {
+            if (waiting.isEmpty()) {
+                return;
+            }
+            while (!waiting.isEmpty() && (circuit != Circuit.CLOSED || inFlight < getLimit())) {
+                Waiter waiter = waiting.first();
+                remove(waiter);
+                if (circuit != Circuit.CLOSED) {
+                    // Nothing is sent while the circuit is open, the waiting queries are refused
+                    waiter.refusal = "open";
+                } else {
+                    waiter.admitted = true;
+                    waiter.inFlightAtStart = inFlight++;
+                    admitted.get(waiter.priority).increment();
+                }
+            }
+            notifyAll();
+        }
+
+        synchronized void onSuccess(Permit permit, long elapsedNanos) {
+            inFlight--;
+            if (elapsedNanos > slowNanos) {
+                decreaseLimit();
+            } else if (permit.inFlightAtStart() + 1 >= getLimit() / 2) {
+                // Only grow while the limit is being used, idle endpoints keep theirs
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+            consecutiveFailures = 0;
+            if (permit.probe()) {
+                probing = false;
+                circuit = Circuit.CLOSED;
+                logger.info("SPARQL backend " + name + " recovered, closing its circuit");
+            }
+            admitWaiting();
+        }
+
+        synchronized void onFailure(Permit permit, Long retryAfterMillis) {
+            inFlight--;
+            decreaseLimit();
+            consecutiveFailures++;
+            if (permit.probe()) {
+                probing = false;
+            }
+            boolean tripped = permit.probe() || consecutiveFailures >= failureThreshold;
+            if (tripped || retryAfterMillis != null) {
+                long openFor = Math.max(tripped ? openMs : 0, retryAfterMillis == null ? 0 : retryAfterMillis);
+                long openUntil = System.currentTimeMillis() + openFor;
+                if (circuit != Circuit.OPEN || openUntil > openUntilMillis) {
+                    openUntilMillis = openUntil;
+                }
+                if (circuit != Circuit.OPEN) {
+                    logger.warn("Opening the circuit of SPARQL backend " + name + " for " + openFor + " ms");
+                }
+                circuit = Circuit.OPEN;
+            }
+            admitWaiting();
+        }
+
+        synchronized void onIgnored(Permit permit) {
+            if (permit.probe()) {
+                probing = false;
+            }
+            release();
+        }
+
+        synchronized int getLimit() {
+            return (int) limit;
+        }
+
+        synchronized int getInFlight() {
+            return inFlight;
+        }
+
+        synchronized int getQueueDepth(QueryPriority priority) {
+            return waitingByPriority[priority.ordinal()];
+        }
+
+        synchronized boolean isCircuitOpen() {
+            return circuit == Circuit.OPEN && System.currentTimeMillis() < openUntilMillis;
+        }
+
+        private void decreaseLimit() {
+            limit = Math.max(1, limit * BACKOFF_RATIO);
+        }
+
+        private SparqlEndpointUnavailableException reject(QueryPriority priority, String reason, String message,
+                                                          long retryAfterMillis) {
+            rejected.computeIfAbsent(new Rejection(priority, reason), key -> Counter.builder("sparql.gateway.rejected")
+                            .description("Queries refused before reaching the backend")
+                            .tag("backend", name)
+                            .tag("priority", key.priority().getId())
+                            .tag("reason", key.reason())
+                            .register(registry))
+                    .increment();
+            return new SparqlEndpointUnavailableException(message, retryAfterMillis);
+        }
+    }
+}
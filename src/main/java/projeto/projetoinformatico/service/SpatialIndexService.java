@@ -0,0 +1,85 @@
+package projeto.projetoinformatico.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import projeto.projetoinformatico.config.spatial.SpatialIndex;
+import projeto.projetoinformatico.config.spatial.WikidataDumpIngester;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Answers layer bounding boxes from the local {@link SpatialIndex} when there is one, so the
+ * SPARQL endpoint only has to look up the items found instead of searching the box itself.
+ */
+@Service
+public class SpatialIndexService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpatialIndexService.class);
+
+    private final SpatialIndex spatialIndex;
+    private final int maxItems;
+    private final String dumpFile;
+    private volatile boolean ingesting;
+
+    @Autowired
+    public SpatialIndexService(ObjectProvider<SpatialIndex> spatialIndex,
+                               @Value("${spatial.index.max-items}") int maxItems,
+                               @Value("${spatial.index.dump-file:}") String dumpFile) {
+        this.spatialIndex = spatialIndex.getIfAvailable();
+        this.maxItems = maxItems;
+        this.dumpFile = dumpFile;
+    }
+
+    /**
+     * Finds the items inside the box, restricted to the given years like the remote filter.
+     * Nothing is returned when the index is missing, empty or being rebuilt, when the box is
+     * incomplete, or when it holds more than {@code spatial.index.max-items} items; the box is
+     * then left to the SPARQL endpoint.
+     */
+    public Optional<List<String>> findItemsWithin(Double lat1, Double lon1, Double lat2, Double lon2, Long start, Long end) {
+        if (spatialIndex == null || ingesting || lat1 == null || lon1 == null || lat2 == null || lon2 == null
+                || spatialIndex.size() == 0) {
+            return Optional.empty();
+        }
+        List<String> items = spatialIndex.findWithin(lat1, lon1, lat2, lon2, start, end, maxItems + 1);
+        return items.size() > maxItems ? Optional.empty() : Optional.of(items);
+    }
+
+    /**
+     * Rebuilds the index from the dump set in {@code spatial.index.dump-file}, in the background
+     * once the application has started. Boxes go to the SPARQL endpoint until it is done.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void ingestConfiguredDump() {
+        if (spatialIndex == null || dumpFile.isBlank()) {
+            return;
+        }
+        Thread thread = new Thread(() -> rebuild(Path.of(dumpFile)), "spatial-index-ingest");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public long rebuild(Path dump) {
+        if (spatialIndex == null) {
+            throw new IllegalStateException("The spatial index is not enabled");
+        }
+        ingesting = true;
+        try {
+            spatialIndex.clear();
+            return new WikidataDumpIngester(spatialIndex).ingest(dump);
+        } catch (RuntimeException e) {
+            logger.error("Cannot build the spatial index from " + dump, e);
+            return 0;
+        } finally {
+            ingesting = false;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package projeto.projetoinformatico.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import projeto.projetoinformatico.model.CachedSearchResult;
+import projeto.projetoinformatico.model.ResultTable;
+import projeto.projetoinformatico.model.SearchResult;
+import projeto.projetoinformatico.utils.TemporalIndex;
+
+/**
+ * Narrows layer results to a range of years on this side, so moving a time slider over a
+ * cached layer does not query the endpoint again. Layer results are fetched with the times of
+ * their items and without any time filter, and the {@link TemporalIndex} of a result is built
+ * on its first use and kept for as long as the search cache holds that same result. The times
+ * are dropped from the rows answered. The filtered results of the last ranges of years asked
+ * for are kept with the index, so the same range answers the same result, and what is built
+ * on it, such as its cluster hierarchy, is built once. The statistics of the results kept are
+ * published as the {@code layers.temporal} cache.
+ */
+@Service
+public class TemporalFilterService implements MeterBinder {
+
+    // Ranges of years whose filtered results are kept per cached result
+    private static final int RANGES_PER_RESULT = 16;
+
+    private record YearRange(Long startYear, Long endYear) {
+    }
+
+    private static final class Filtered {
+        private volatile TemporalIndex index;
+        private final Cache<YearRange, SearchResult> ranges = Caffeine.newBuilder()
+                .maximumSize(RANGES_PER_RESULT)
+                .build();
+
+        TemporalIndex index(SearchResult result) {
+            TemporalIndex built = index;
+            if (built == null) {
+                // Built twice at worst, by callers racing for it
+                built = TemporalIndex.of(result.table());
+                index = built;
+            }
+            return built;
+        }
+    }
+
+    // Weak keys compare by identity and let the filtered results go together with the cached result
+    private final Cache<SearchResult, Filtered> filtered;
+
+    public TemporalFilterService(@Value("${layers.temporal.cache-size}") int cacheSize) {
+        this.filtered = Caffeine.newBuilder()
+                .weakKeys()
+                .maximumSize(cacheSize)
+                .recordStats()
+                .build();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, filtered, "layers.temporal");
+    }
+
+    /**
+     * Rows of the result whose time overlaps the years from start to end, both included, or
+     * that have no time at all; every row without both years. The times are left out of the
+     * rows returned, they are only there for filtering. The same result and range of years
+     * answer the same instance while it is kept.
+     */
+    public SearchResult filter(SearchResult result, Long startYear, Long endYear) {
+        if (result.table().getVariables().stream().noneMatch(TemporalIndex.VARIABLES::contains)) {
+            // Nothing to filter on or drop, as for materialized results
+            return result;
+        }
+        Filtered ranges = filtered.get(result, searchResult -> new Filtered());
+        return ranges.ranges.get(new YearRange(startYear, endYear), range -> select(result, ranges, range));
+    }
+
+    private static SearchResult select(SearchResult result, Filtered filtered, YearRange range) {
+        ResultTable table = result.table();
+        if (range.startYear() != null && range.endYear() != null) {
+            TemporalIndex index = filtered.index(result);
+            int[] rows = index.rowsOverlappingYears(range.startYear(), range.endYear());
+            if (rows.length != index.getRowCount()) {
+                table = table.select(rows);
+            }
+        }
+        ResultTable untimed = table.without(TemporalIndex.VARIABLES);
+        return untimed == result.table() ? result : new SearchResult(untimed);
+    }
+
+    public CachedSearchResult filter(CachedSearchResult cached, Long startYear, Long endYear) {
+        SearchResult filtered = filter(cached.result(), startYear, endYear);
+        return filtered == cached.result() ? cached : new CachedSearchResult(filtered, cached.fetchedAtMillis());
+    }
+}
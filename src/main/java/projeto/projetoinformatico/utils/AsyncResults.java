@@ -0,0 +1,140 @@
+package projeto.projetoinformatico.utils;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.async.DeferredResult;
+import projeto.projetoinformatico.exceptions.Exception.SparqlEndpointUnavailableException;
+import projeto.projetoinformatico.exceptions.Exception.SparqlQueryException;
+import projeto.projetoinformatico.exceptions.Exception.SparqlQueryNotFoundException;
+import projeto.projetoinformatico.exceptions.Exception.SparqlQueryTimeoutException;
+import projeto.projetoinformatico.model.SearchResult;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+/**
+ * Bridges service futures to Spring MVC's {@link DeferredResult}.
+ * Unlike returning a {@link CompletableFuture} from a controller, the future is cancelled
+ * when the async request times out or fails (for example when the client disconnects).
+ */
+public final class AsyncResults {
+
+    private AsyncResults() {
+    }
+
+    /**
+     * @param onSuccess maps the value of the future to the response
+     * @param onFailure maps a failure to the response, or throws to let the exception handlers deal with it
+     */
+    public static <T, R> DeferredResult<R> toDeferredResult(CompletableFuture<T> future,
+                                                            Function<T, R> onSuccess,
+                                                            Function<Throwable, R> onFailure) {
+        DeferredResult<R> deferredResult = new DeferredResult<>();
+        deferredResult.onTimeout(() -> {
+            future.cancel(true);
+            deferredResult.setErrorResult(new SparqlQueryTimeoutException("SPARQL query timed out"));
+        });
+        deferredResult.onError(e -> future.cancel(true));
+        future.whenComplete((value, ex) -> {
+            try {
+                deferredResult.setResult(ex == null ? onSuccess.apply(value) : onFailure.apply(unwrap(ex)));
+            } catch (RuntimeException e) {
+                deferredResult.setErrorResult(e);
+            }
+        });
+        return deferredResult;
+    }
+
+    /**
+     * Like {@link CompletableFuture#thenApply}, but cancelling the mapped future also cancels the source.
+     */
+    public static <T, R> CompletableFuture<R> map(CompletableFuture<T> source, Function<T, R> mapper) {
+        CompletableFuture<R> mapped = source.thenApply(mapper);
+        mapped.whenComplete((value, ex) -> {
+            if (mapped.isCancelled()) {
+                source.cancel(true);
+            }
+        });
+        return mapped;
+    }
+
+    /**
+     * Completes with the values of all the sources in order, or with the first failure.
+     * Cancelling the returned future, or any source failing, cancels the sources still running.
+     */
+    public static <T> CompletableFuture<List<T>> allOf(List<CompletableFuture<T>> sources) {
+        CompletableFuture<List<T>> all = CompletableFuture.allOf(sources.toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> sources.stream().map(CompletableFuture::join).toList());
+        for (CompletableFuture<T> source : sources) {
+            source.whenComplete((value, ex) -> {
+                if (ex != null) {
+                    all.completeExceptionally(ex);
+                }
+            });
+        }
+        all.whenComplete((value, ex) -> {
+            if (ex != null) {
+                sources.forEach(source -> source.cancel(true));
+            }
+        });
+        return all;
+    }
+
+    public static <R> DeferredResult<R> completed(R value) {
+        DeferredResult<R> deferredResult = new DeferredResult<>();
+        deferredResult.setResult(value);
+        return deferredResult;
+    }
+
+    public static boolean isTimeout(Throwable ex) {
+        return ex instanceof TimeoutException || ex instanceof SparqlQueryTimeoutException;
+    }
+
+    /**
+     * Response to a query the SPARQL gateway refused, telling the client when to try again.
+     */
+    public static <R> ResponseEntity<R> unavailable(SparqlEndpointUnavailableException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, e.getRetryAfterSeconds())
+                .build();
+    }
+
+    /**
+     * Response to a failed query: 503 when the gateway refused it, 400 with no results when
+     * the query is wrong and 504 when it timed out. A query that found nothing is thrown for
+     * the exception handlers as it is, any other failure as a {@link SparqlQueryException}.
+     */
+    public static ResponseEntity<SearchResult> errorResponse(Throwable e) {
+        return errorResponse(e, new SearchResult(Collections.emptyList()));
+    }
+
+    /**
+     * Like {@link #errorResponse(Throwable)}, for responses that are not search results.
+     *
+     * @param badRequestBody body of the 400 response, or null for none
+     */
+    public static <R> ResponseEntity<R> errorResponse(Throwable e, R badRequestBody) {
+        if (e instanceof SparqlEndpointUnavailableException unavailable) {
+            return unavailable(unavailable);
+        }
+        if (e instanceof SparqlQueryException) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(badRequestBody);
+        }
+        if (isTimeout(e)) {
+            return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT).build();
+        }
+        if (e instanceof SparqlQueryNotFoundException notFound) {
+            throw notFound;
+        }
+        throw new SparqlQueryException("Invalid Sparql Query");
+    }
+
+    private static Throwable unwrap(Throwable ex) {
+        return ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+    }
+}
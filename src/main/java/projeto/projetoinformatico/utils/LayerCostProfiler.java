@@ -0,0 +1,164 @@
+package projeto.projetoinformatico.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import projeto.projetoinformatico.model.LayerCost;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Adds up the time, rows and size of the results of every query a layer sends to the SPARQL
+ * backends, so the layers that weigh most on them can be found and fixed or materialized.
+ * Every layer has a set of {@link LongAdder}s, so recording never waits on a lock, and at most
+ * {@code layers.profiler.max-layers} layers are kept, the least used ones going first.
+ * <p>
+ * Queries are told apart by layer through the current {@link QueryTrace}. Refreshes of cached
+ * results run without one, and are put down to the layer that last sent the same query.
+ */
+@Component
+public class LayerCostProfiler {
+
+    public enum Order {
+        TIME("time", Comparator.comparingDouble(LayerCost::totalMillis)),
+        ROWS("rows", Comparator.comparingLong(LayerCost::rows)),
+        BYTES("bytes", Comparator.comparingLong(LayerCost::bytes)),
+        QUERIES("queries", Comparator.comparingLong(LayerCost::queries));
+
+        private final String id;
+        private final Comparator<LayerCost> comparator;
+
+        Order(String id, Comparator<LayerCost> comparator) {
+            this.id = id;
+            this.comparator = comparator;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * @return the order with the id, or null when there is none
+         */
+        public static Order fromId(String id) {
+            for (Order order : values()) {
+                if (order.id.equals(id.toLowerCase(Locale.ROOT))) {
+                    return order;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class Cost {
+        final LongAdder queries = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+        final LongAdder rows = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+
+        void add(long elapsedNanos) {
+            queries.increment();
+            nanos.add(elapsedNanos);
+            maxNanos.accumulate(elapsedNanos);
+        }
+    }
+
+    private final Cache<Long, Cost> costs;
+    // Digest of a query to the layer that sent it last, for the refreshes
+    private final Cache<String, Long> layersByQuery;
+
+    public LayerCostProfiler(@Value("${layers.profiler.max-layers}") long maxLayers) {
+        this.costs = Caffeine.newBuilder()
+                .maximumSize(maxLayers)
+                .build();
+        this.layersByQuery = Caffeine.newBuilder()
+                .maximumSize(maxLayers * 16)
+                .build();
+    }
+
+    /**
+     * A layer query the backend answered. Queries of unknown layers are left out.
+     *
+     * @param layerId   layer that sent the query, or null to look it up by the digest
+     * @param queryHash digest of the query, see {@link QueryKey#digest()}, or null
+     */
+    public void record(Long layerId, String queryHash, long elapsedNanos, long rows, long bytes) {
+        Cost cost = costOf(layerId, queryHash);
+        if (cost != null) {
+            cost.add(elapsedNanos);
+            cost.rows.add(rows);
+            cost.bytes.add(bytes);
+        }
+    }
+
+    /**
+     * A layer query the backend failed or did not answer in time.
+     */
+    public void recordFailure(Long layerId, String queryHash, long elapsedNanos) {
+        Cost cost = costOf(layerId, queryHash);
+        if (cost != null) {
+            cost.add(elapsedNanos);
+            cost.failures.increment();
+        }
+    }
+
+    private Cost costOf(Long layerId, String queryHash) {
+        if (layerId == null) {
+            layerId = queryHash == null ? null : layersByQuery.getIfPresent(queryHash);
+            if (layerId == null) {
+                return null;
+            }
+        } else if (queryHash != null && !layerId.equals(layersByQuery.getIfPresent(queryHash))) {
+            layersByQuery.put(queryHash, layerId);
+        }
+        return costs.get(layerId, id -> new Cost());
+    }
+
+    /**
+     * The most expensive layers first.
+     *
+     * @param limit most layers returned
+     */
+    public List<LayerCost> ranking(Order order, int limit) {
+        // Evicts the layers past the bound now rather than a little at a time
+        costs.cleanUp();
+        List<LayerCost> ranked = new ArrayList<>();
+        double totalNanos = 0;
+        for (Cost cost : costs.asMap().values()) {
+            totalNanos += cost.nanos.sum();
+        }
+        for (var entry : costs.asMap().entrySet()) {
+            Cost cost = entry.getValue();
+            long queries = cost.queries.sum();
+            long nanos = cost.nanos.sum();
+            ranked.add(new LayerCost(entry.getKey(), queries, cost.failures.sum(), nanos / 1e6,
+                    queries == 0 ? 0 : nanos / 1e6 / queries, cost.maxNanos.get() / 1e6,
+                    cost.rows.sum(), cost.bytes.sum(), totalNanos == 0 ? 0 : nanos / totalNanos));
+        }
+        ranked.sort(order.comparator.reversed().thenComparing(LayerCost::layerId));
+        return ranked.size() > limit ? List.copyOf(ranked.subList(0, Math.max(0, limit))) : ranked;
+    }
+
+    /**
+     * Forgets what the layer cost, as when it is deleted.
+     */
+    public void remove(Long layerId) {
+        costs.invalidate(layerId);
+    }
+
+    /**
+     * Starts profiling again from nothing, as after fixing the expensive layers.
+     */
+    public void reset() {
+        costs.invalidateAll();
+        layersByQuery.invalidateAll();
+    }
+}
@@ -0,0 +1,225 @@
+package projeto.projetoinformatico.utils;
+
+import projeto.projetoinformatico.model.ResultTable;
+import projeto.projetoinformatico.model.TermKind;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Grid clustering of the points of a result table for every zoom level of the map. Each
+ * {@link Tile} is split in {@value #CELLS_PER_TILE} by {@value #CELLS_PER_TILE} cells and the
+ * points falling in the same cell form a cluster, placed at their centroid. The levels are
+ * built once, from the deepest one upwards by merging the four cells under each parent cell,
+ * so a whole hierarchy costs about as much as a single pass over the rows.
+ */
+public final class PointClusters {
+
+    public static final int CELLS_PER_TILE = 4;
+
+    // Cells of zoom z are the tiles of zoom z + CELL_ZOOM
+    private static final int CELL_ZOOM = Integer.numberOfTrailingZeros(CELLS_PER_TILE);
+
+    /**
+     * Points in the same cell. {@code row} is the first row of the table in the cluster.
+     */
+    public record Cluster(double latitude, double longitude, int count, int row) {
+    }
+
+    private final String coordinateVariable;
+    private final int pointCount;
+    // Levels without any merge are shared with the level below them
+    private final Level[] levels;
+
+    private PointClusters(String coordinateVariable, int pointCount, Level[] levels) {
+        this.coordinateVariable = coordinateVariable;
+        this.pointCount = pointCount;
+        this.levels = levels;
+    }
+
+    /**
+     * Clusters the rows of the table by the first variable holding WKT points, such as the
+     * values of Wikidata's coordinate location (P625). Rows without a point are left out.
+     * The coordinates come decoded from the table, so no value is parsed here.
+     */
+    public static PointClusters of(ResultTable table) {
+        int column = coordinateColumn(table);
+        Level[] levels = new Level[Tile.MAX_ZOOM + 1];
+        if (column < 0) {
+            Arrays.fill(levels, Level.EMPTY);
+            return new PointClusters(null, 0, levels);
+        }
+        Level leaves = Level.leaves(table, column).trimmed();
+        levels[Tile.MAX_ZOOM] = leaves;
+        Level cells = leaves;
+        for (int zoom = Tile.MAX_ZOOM - 1; zoom >= 0; zoom--) {
+            // The cells of a shared level still have to be merged from the zoom they were made for
+            Level parent = cells.parent();
+            levels[zoom] = parent.size == cells.size ? levels[zoom + 1] : parent.trimmed();
+            cells = parent;
+        }
+        return new PointClusters(table.getVariables().get(column), leaves.points(), levels);
+    }
+
+    /**
+     * @param zoom map zoom level, from 0 to {@link Tile#MAX_ZOOM}
+     */
+    public List<Cluster> clusters(int zoom) {
+        if (zoom < 0 || zoom > Tile.MAX_ZOOM) {
+            throw new IllegalArgumentException("Zoom must be between 0 and " + Tile.MAX_ZOOM + ": " + zoom);
+        }
+        return levels[zoom].clusters();
+    }
+
+    /**
+     * Variable the points were read from, or null when the table has none.
+     */
+    public String getCoordinateVariable() {
+        return coordinateVariable;
+    }
+
+    public int getPointCount() {
+        return pointCount;
+    }
+
+    /**
+     * Number of distinct levels kept, zoom levels without any merge share the level below them.
+     */
+    public int getLevelCount() {
+        int count = 0;
+        for (int zoom = 0; zoom <= Tile.MAX_ZOOM; zoom++) {
+            if (zoom == Tile.MAX_ZOOM || levels[zoom] != levels[zoom + 1]) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Index of the first variable holding WKT points, or of the first one with some points
+     * among other values, or -1.
+     */
+    public static int coordinateColumn(ResultTable table) {
+        int mixed = -1;
+        for (int column = 0; column < table.getVariables().size(); column++) {
+            TermKind kind = table.getKind(column);
+            if (kind == TermKind.POINT) {
+                return column;
+            }
+            if (mixed < 0 && kind == TermKind.MIXED && hasPoint(table, column)) {
+                mixed = column;
+            }
+        }
+        return mixed;
+    }
+
+    private static boolean hasPoint(ResultTable table, int column) {
+        for (int row = 0; row < table.getRowCount(); row++) {
+            if (!Double.isNaN(table.getLatitude(row, column))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class Level {
+
+        static final Level EMPTY = new Level(0);
+
+        final long[] cells;
+        final double[] latitudeSums;
+        final double[] longitudeSums;
+        final int[] counts;
+        final int[] rows;
+        int size;
+
+        Level(int capacity) {
+            cells = new long[capacity];
+            latitudeSums = new double[capacity];
+            longitudeSums = new double[capacity];
+            counts = new int[capacity];
+            rows = new int[capacity];
+        }
+
+        static Level leaves(ResultTable table, int column) {
+            int zoom = Tile.MAX_ZOOM + CELL_ZOOM;
+            Level level = new Level(table.getRowCount());
+            Map<Long, Integer> indexes = new HashMap<>();
+            for (int row = 0; row < table.getRowCount(); row++) {
+                double latitude = table.getLatitude(row, column);
+                double longitude = table.getLongitude(row, column);
+                if (Double.isNaN(latitude) || Double.isNaN(longitude)) {
+                    continue;
+                }
+                long cell = cell(Tile.x(longitude, zoom), Tile.y(latitude, zoom));
+                level.add(indexes, cell, latitude, longitude, 1, row);
+            }
+            return level;
+        }
+
+        Level trimmed() {
+            Level level = new Level(size);
+            System.arraycopy(cells, 0, level.cells, 0, size);
+            System.arraycopy(latitudeSums, 0, level.latitudeSums, 0, size);
+            System.arraycopy(longitudeSums, 0, level.longitudeSums, 0, size);
+            System.arraycopy(counts, 0, level.counts, 0, size);
+            System.arraycopy(rows, 0, level.rows, 0, size);
+            level.size = size;
+            return level;
+        }
+
+        Level parent() {
+            Level parent = new Level(size);
+            Map<Long, Integer> indexes = new HashMap<>();
+            for (int i = 0; i < size; i++) {
+                long cell = cell((int) (cells[i] >>> 32) >> 1, (int) cells[i] >> 1);
+                parent.add(indexes, cell, latitudeSums[i], longitudeSums[i], counts[i], rows[i]);
+            }
+            return parent;
+        }
+
+        private void add(Map<Long, Integer> indexes, long cell, double latitude, double longitude, int count, int row) {
+            Integer index = indexes.putIfAbsent(cell, size);
+            if (index == null) {
+                cells[size] = cell;
+                latitudeSums[size] = latitude;
+                longitudeSums[size] = longitude;
+                counts[size] = count;
+                rows[size] = row;
+                size++;
+                return;
+            }
+            latitudeSums[index] += latitude;
+            longitudeSums[index] += longitude;
+            counts[index] += count;
+            rows[index] = Math.min(rows[index], row);
+        }
+
+        int points() {
+            int points = 0;
+            for (int i = 0; i < size; i++) {
+                points += counts[i];
+            }
+            return points;
+        }
+
+        List<Cluster> clusters() {
+            if (size == 0) {
+                return Collections.emptyList();
+            }
+            List<Cluster> clusters = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                clusters.add(new Cluster(latitudeSums[i] / counts[i], longitudeSums[i] / counts[i], counts[i], rows[i]));
+            }
+            return clusters;
+        }
+
+        private static long cell(int x, int y) {
+            return (long) x << 32 | (y & 0xFFFFFFFFL);
+        }
+    }
+}
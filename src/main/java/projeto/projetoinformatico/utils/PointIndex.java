@@ -0,0 +1,91 @@
+package projeto.projetoinformatico.utils;
+
+import projeto.projetoinformatico.model.ResultTable;
+
+import java.util.Arrays;
+
+/**
+ * Points of a result table sorted by longitude, for answering which rows fall inside a box
+ * without querying again. A lookup finds the first longitude of the box by binary search and
+ * checks the latitudes of the points up to the last one. Rows without a point are left out,
+ * as the endpoint's box search leaves them out too.
+ */
+public final class PointIndex {
+
+    private final double[] longitudes;
+    private final double[] latitudes;
+    private final int[] rows;
+
+    private PointIndex(double[] longitudes, double[] latitudes, int[] rows) {
+        this.longitudes = longitudes;
+        this.latitudes = latitudes;
+        this.rows = rows;
+    }
+
+    /**
+     * Indexes the rows by the first variable holding WKT points, like {@link PointClusters}.
+     */
+    public static PointIndex of(ResultTable table) {
+        int column = PointClusters.coordinateColumn(table);
+        if (column < 0) {
+            return new PointIndex(new double[0], new double[0], new int[0]);
+        }
+        Integer[] order = new Integer[table.getRowCount()];
+        int points = 0;
+        for (int row = 0; row < table.getRowCount(); row++) {
+            if (!Double.isNaN(table.getLatitude(row, column)) && !Double.isNaN(table.getLongitude(row, column))) {
+                order[points++] = row;
+            }
+        }
+        Integer[] sorted = Arrays.copyOf(order, points);
+        Arrays.sort(sorted, (a, b) -> Double.compare(table.getLongitude(a, column), table.getLongitude(b, column)));
+        double[] longitudes = new double[points];
+        double[] latitudes = new double[points];
+        int[] rows = new int[points];
+        for (int i = 0; i < points; i++) {
+            rows[i] = sorted[i];
+            longitudes[i] = table.getLongitude(rows[i], column);
+            latitudes[i] = table.getLatitude(rows[i], column);
+        }
+        return new PointIndex(longitudes, latitudes, rows);
+    }
+
+    /**
+     * Rows whose point is inside the box given by two opposite corners, edges included.
+     *
+     * @return row indexes in ascending order
+     */
+    public int[] rowsWithin(double lat1, double lon1, double lat2, double lon2) {
+        double minLat = Math.min(lat1, lat2);
+        double maxLat = Math.max(lat1, lat2);
+        double maxLon = Math.max(lon1, lon2);
+        int[] found = new int[rows.length];
+        int count = 0;
+        for (int i = firstAtLeast(Math.min(lon1, lon2)); i < rows.length && longitudes[i] <= maxLon; i++) {
+            if (latitudes[i] >= minLat && latitudes[i] <= maxLat) {
+                found[count++] = rows[i];
+            }
+        }
+        int[] within = Arrays.copyOf(found, count);
+        Arrays.sort(within);
+        return within;
+    }
+
+    public int getPointCount() {
+        return rows.length;
+    }
+
+    private int firstAtLeast(double longitude) {
+        int low = 0;
+        int high = longitudes.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (longitudes[middle] < longitude) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
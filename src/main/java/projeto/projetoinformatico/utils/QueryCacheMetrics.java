@@ -0,0 +1,56 @@
+package projeto.projetoinformatico.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Hit and miss counters of the search cache, per query namespace. Published as
+ * {@code sparql.cache.requests} (tagged with the result) and {@code sparql.cache.hit.ratio}.
+ */
+@Component
+public class QueryCacheMetrics {
+
+    private final Map<QueryNamespace, Counter> hits = new EnumMap<>(QueryNamespace.class);
+    private final Map<QueryNamespace, Counter> misses = new EnumMap<>(QueryNamespace.class);
+
+    public QueryCacheMetrics(MeterRegistry registry) {
+        for (QueryNamespace namespace : QueryNamespace.values()) {
+            hits.put(namespace, requestCounter(registry, namespace, "hit"));
+            misses.put(namespace, requestCounter(registry, namespace, "miss"));
+            Gauge.builder("sparql.cache.hit.ratio", this, metrics -> metrics.hitRatio(namespace))
+                    .description("Share of SPARQL queries answered from the search cache")
+                    .tag("namespace", namespace.getId())
+                    .register(registry);
+        }
+    }
+
+    public void recordHit(QueryNamespace namespace) {
+        hits.get(namespace).increment();
+    }
+
+    public void recordMiss(QueryNamespace namespace) {
+        misses.get(namespace).increment();
+    }
+
+    /**
+     * Hits over lookups since startup, or NaN before the first lookup.
+     */
+    public double hitRatio(QueryNamespace namespace) {
+        double hitCount = hits.get(namespace).count();
+        double lookups = hitCount + misses.get(namespace).count();
+        return lookups == 0 ? Double.NaN : hitCount / lookups;
+    }
+
+    private static Counter requestCounter(MeterRegistry registry, QueryNamespace namespace, String result) {
+        return Counter.builder("sparql.cache.requests")
+                .description("Search cache lookups")
+                .tag("namespace", namespace.getId())
+                .tag("result", result)
+                .register(registry);
+    }
+}
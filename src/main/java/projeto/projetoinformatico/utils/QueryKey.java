@@ -0,0 +1,49 @@
+package projeto.projetoinformatico.utils;
+
+import projeto.projetoinformatico.config.sparql.SparqlBackend;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Cache key of a SPARQL query: its template namespace and the backend it runs on, plus the
+ * SHA-256 digest of the canonical query text. Built by {@link QueryKeyGenerator}.
+ * The query text, as it was first asked for, is carried along so a cached result can be
+ * refreshed from its key; it takes no part in equality.
+ */
+public record QueryKey(QueryNamespace namespace, String backend, String digest, String query) implements Serializable {
+
+    public QueryKey {
+        Objects.requireNonNull(namespace, "namespace");
+        Objects.requireNonNull(digest, "digest");
+        Objects.requireNonNull(query, "query");
+        // Keys written before backends existed have none
+        if (backend == null) {
+            backend = SparqlBackend.DEFAULT;
+        }
+    }
+
+    public QueryKey(QueryNamespace namespace, String digest, String query) {
+        this(namespace, SparqlBackend.DEFAULT, digest, query);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof QueryKey that)) return false;
+        return namespace == that.namespace && backend.equals(that.backend) && digest.equals(that.digest);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * namespace.hashCode() + backend.hashCode()) + digest.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        if (SparqlBackend.DEFAULT.equals(backend)) {
+            return namespace.getId() + ":" + digest;
+        }
+        return namespace.getId() + "@" + backend + ":" + digest;
+    }
+}
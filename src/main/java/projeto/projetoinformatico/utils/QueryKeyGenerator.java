@@ -0,0 +1,113 @@
+package projeto.projetoinformatico.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.apache.jena.query.Query;
+import org.apache.jena.query.QueryException;
+import org.apache.jena.query.QueryFactory;
+import org.apache.jena.shared.PrefixMapping;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Builds collision free cache keys for SPARQL queries.
+ * Queries are parsed and serialized again with every prefixed name expanded, so whitespace,
+ * formatting and the order or names of PREFIX declarations do not change the key.
+ * Text that does not parse falls back to collapsing whitespace outside string literals.
+ * The statistics of the memo of digests are published as the {@code sparql.query.keys} cache.
+ */
+@Component
+public class QueryKeyGenerator implements MeterBinder {
+
+    // Upper bound, in characters of query text, of the memo of already digested queries
+    private static final long MAX_MEMO_CHARS = 4_000_000;
+
+    private final String prefixes;
+    private final Cache<String, String> digests = Caffeine.newBuilder()
+            .maximumWeight(MAX_MEMO_CHARS)
+            .weigher((String query, String digest) -> query.length() + digest.length())
+            .recordStats()
+            .build();
+
+    public QueryKeyGenerator(@Value("${sparql.prefixes}") String prefixes) {
+        this.prefixes = prefixes;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, digests, "sparql.query.keys");
+    }
+
+    public QueryKey keyFor(QueryNamespace namespace, String sparqlQuery) {
+        return keyFor(namespace, null, sparqlQuery);
+    }
+
+    /**
+     * Key of the query, which keeps the query as given: the canonical form is only digested.
+     *
+     * @param backend name of the backend the query runs on, or null for the default one
+     */
+    public QueryKey keyFor(QueryNamespace namespace, String backend, String sparqlQuery) {
+        String digest = digests.get(sparqlQuery, query -> sha256(canonicalize(query)));
+        return new QueryKey(namespace, backend, digest, sparqlQuery);
+    }
+
+    /**
+     * Canonical text of a query, with or without the common prefixes in front of it.
+     */
+    public String canonicalize(String sparqlQuery) {
+        try {
+            Query query = QueryFactory.create(prefixes + sparqlQuery);
+            query.setPrefixMapping(PrefixMapping.Factory.create());
+            return query.serialize();
+        } catch (QueryException e) {
+            return collapseWhitespace(sparqlQuery);
+        }
+    }
+
+    static String collapseWhitespace(String text) {
+        StringBuilder canonical = new StringBuilder(text.length());
+        char quote = 0;
+        boolean pendingSpace = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quote != 0) {
+                canonical.append(c);
+                if (c == '\\' && i + 1 < text.length()) {
+                    canonical.append(text.charAt(++i));
+                } else if (c == quote) {
+                    quote = 0;
+                }
+            } else if (Character.isWhitespace(c)) {
+                pendingSpace = canonical.length() > 0;
+            } else {
+                if (pendingSpace) {
+                    canonical.append(' ');
+                    pendingSpace = false;
+                }
+                if (c == '"' || c == '\'') {
+                    quote = c;
+                }
+                canonical.append(c);
+            }
+        }
+        return canonical.toString();
+    }
+
+    private static String sha256(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
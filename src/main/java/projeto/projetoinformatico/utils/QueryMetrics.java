@@ -0,0 +1,112 @@
+package projeto.projetoinformatico.utils;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+import projeto.projetoinformatico.config.sparql.SparqlBackend;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Latency of the SPARQL queries sent to the backends and of the layer requests answered, with
+ * the rows every query brought back. Published as {@code sparql.query} (tagged with the
+ * namespace, backend and outcome), {@code sparql.query.rows} and {@code layers.request}
+ * (tagged with how the layer was asked for and the outcome). Their histograms are turned on
+ * with {@code management.metrics.distribution.percentiles-histogram.*}. Layers are left out of
+ * the tags, so clients cannot make up meters by asking for ids; what every layer costs is kept
+ * by {@link LayerCostProfiler}.
+ * <p>
+ * Meters are looked up once per set of tags and kept, recording takes no more than a map
+ * lookup and the timer itself.
+ */
+@Component
+public class QueryMetrics {
+
+    private final MeterRegistry registry;
+    private final Map<QueryTags, Timer> queryTimers = new ConcurrentHashMap<>();
+    private final Map<QueryTags, DistributionSummary> queryRows = new ConcurrentHashMap<>();
+    private final Map<LayerTags, Timer> layerTimers = new ConcurrentHashMap<>();
+
+    public QueryMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * A query the backend answered, with the number of rows it read.
+     */
+    public void recordQuery(QueryNamespace namespace, String backend, long elapsedNanos, long rows) {
+        QueryTags tags = new QueryTags(namespace, backendName(backend), true);
+        queryTimer(tags).record(elapsedNanos, TimeUnit.NANOSECONDS);
+        queryRows.computeIfAbsent(tags, key -> DistributionSummary.builder("sparql.query.rows")
+                        .description("Rows read from the SPARQL backend per query")
+                        .tag("namespace", key.namespace().getId())
+                        .tag("backend", key.backend())
+                        .register(registry))
+                .record(rows);
+    }
+
+    /**
+     * A query the backend failed or did not answer in time.
+     */
+    public void recordQueryFailure(QueryNamespace namespace, String backend, long elapsedNanos) {
+        queryTimer(new QueryTags(namespace, backendName(backend), false)).record(elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Times a request of a layer already found, from the call until its result completes.
+     * Requests that fail before they return a result are recorded as errors and their
+     * exception rethrown.
+     *
+     * @param mode how the layer was asked for, such as {@code box} or {@code tiles}
+     */
+    public <T> CompletableFuture<T> timeLayer(String mode, Supplier<CompletableFuture<T>> request) {
+        long startNanos = System.nanoTime();
+        CompletableFuture<T> result;
+        try {
+            result = request.get();
+        } catch (RuntimeException e) {
+            recordLayer(mode, System.nanoTime() - startNanos, false);
+            throw e;
+        }
+        // Returns the request's own future, cancelling it still reaches the query
+        result.whenComplete((value, e) -> recordLayer(mode, System.nanoTime() - startNanos, e == null));
+        return result;
+    }
+
+    private void recordLayer(String mode, long elapsedNanos, boolean succeeded) {
+        layerTimers.computeIfAbsent(new LayerTags(mode, succeeded), key -> Timer.builder("layers.request")
+                        .description("Time to answer a layer request, from the cache, materialized results or the backend")
+                        .tag("mode", key.mode())
+                        .tag("outcome", outcome(key.succeeded()))
+                        .register(registry))
+                .record(elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private Timer queryTimer(QueryTags tags) {
+        return queryTimers.computeIfAbsent(tags, key -> Timer.builder("sparql.query")
+                .description("Time the SPARQL backend took to answer a query and its results to be read")
+                .tag("namespace", key.namespace().getId())
+                .tag("backend", key.backend())
+                .tag("outcome", outcome(key.succeeded()))
+                .register(registry));
+    }
+
+    private static String backendName(String backend) {
+        return backend == null ? SparqlBackend.DEFAULT : backend;
+    }
+
+    private static String outcome(boolean succeeded) {
+        return succeeded ? "success" : "error";
+    }
+
+    private record QueryTags(QueryNamespace namespace, String backend, boolean succeeded) {
+    }
+
+    private record LayerTags(String mode, boolean succeeded) {
+    }
+}
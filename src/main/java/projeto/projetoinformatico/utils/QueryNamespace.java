@@ -0,0 +1,24 @@
+package projeto.projetoinformatico.utils;
+
+/**
+ * Query template a cached result belongs to. Each template gets its own key space in the
+ * search cache, so results of different templates can never be served for one another.
+ */
+public enum QueryNamespace {
+    SPARQL("sparql"),
+    LAYER("layer"),
+    ITEM("item"),
+    PROPERTY("property"),
+    GEOLOCATION("geolocation"),
+    PROPERTY_VALUES("property-values");
+
+    private final String id;
+
+    QueryNamespace(String id) {
+        this.id = id;
+    }
+
+    public String getId() {
+        return id;
+    }
+}
@@ -0,0 +1,51 @@
+package projeto.projetoinformatico.utils;
+
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.context.request.RequestContextHolder;
+import projeto.projetoinformatico.model.users.Role;
+
+import java.util.Set;
+
+/**
+ * How soon a SPARQL query should reach the backend when it has to wait for one, from the most
+ * urgent to the least. Editors previewing layers go before everyone else, then queries someone
+ * is looking at a map for, then whole result sets streamed out, and last the queries nobody is
+ * waiting for, such as cache and materialized layer refreshes.
+ */
+public enum QueryPriority {
+    EDITOR("editor"),
+    INTERACTIVE("interactive"),
+    BULK("bulk"),
+    BACKGROUND("background");
+
+    private static final Set<String> EDITOR_ROLES = Set.of(Role.EDITOR.name(), Role.ADMIN.name());
+
+    private final String id;
+
+    QueryPriority(String id) {
+        this.id = id;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Priority of a query started on the calling thread: background when no web request is
+     * being handled on it, editor for editors and admins, interactive for everyone else.
+     */
+    public static QueryPriority current() {
+        if (RequestContextHolder.getRequestAttributes() == null) {
+            return BACKGROUND;
+        }
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.isAuthenticated() && authentication.getAuthorities().stream()
+                .map(GrantedAuthority::getAuthority)
+                .anyMatch(EDITOR_ROLES::contains)) {
+            return EDITOR;
+        }
+        return INTERACTIVE;
+    }
+}
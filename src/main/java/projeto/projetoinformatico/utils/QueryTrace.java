@@ -0,0 +1,282 @@
+package projeto.projetoinformatico.utils;
+
+import org.slf4j.MDC;
+
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Where the time of one request went: building the query, looking it up in the caches,
+ * waiting for the gateway, running it, decoding its results, filtering them and writing the
+ * response. A trace has a W3C style trace id, taken from the {@code traceparent} header when
+ * the client sent one, and every phase is a span with an id of its own. Both are in the
+ * logging MDC as {@code traceId} and {@code spanId} while the trace is current.
+ * <p>
+ * The trace is current on the thread that attached it, and code handing work to another
+ * thread carries it over with {@link #propagate(Supplier)}. Without a current trace, spans
+ * cost nothing and record nothing. Phases may happen more than once, as for every tile of a
+ * box, and their times add up.
+ */
+public final class QueryTrace {
+
+    public enum Phase {
+        BUILD("build"),
+        CACHE("cache"),
+        QUEUE("queue"),
+        EXECUTE("execute"),
+        DECODE("decode"),
+        FILTER("filter"),
+        SERIALIZE("serialize");
+
+        private final String id;
+
+        Phase(String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return id;
+        }
+    }
+
+    public static final String TRACE_ID = "traceId";
+    public static final String SPAN_ID = "spanId";
+
+    private static final Pattern TRACEPARENT = Pattern.compile("[0-9a-f]{2}-([0-9a-f]{32})-[0-9a-f]{16}-[0-9a-f]{2}");
+    private static final ThreadLocal<QueryTrace> CURRENT = new ThreadLocal<>();
+    private static final Span NO_SPAN = () -> { };
+
+    private final String traceId;
+    private final String spanId;
+    private final long startNanos = System.nanoTime();
+    private final AtomicLongArray phaseNanos = new AtomicLongArray(Phase.values().length);
+    private final AtomicLong rows = new AtomicLong(-1);
+    private volatile long endNanos;
+    private volatile Long layerId;
+    private volatile String queryHash;
+
+    private QueryTrace(String traceId) {
+        this.traceId = traceId;
+        this.spanId = newId(1);
+    }
+
+    /**
+     * A span that adds its time to its phase when closed. Closing it again does nothing.
+     */
+    public interface Span extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /**
+     * Undoes {@link #attach()}.
+     */
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /**
+     * @param traceparent the W3C {@code traceparent} header of the request, or null; its trace
+     *                    id is kept so the trace joins the caller's
+     */
+    public static QueryTrace start(String traceparent) {
+        if (traceparent != null) {
+            var matcher = TRACEPARENT.matcher(traceparent.trim().toLowerCase(Locale.ROOT));
+            if (matcher.matches() && !matcher.group(1).equals("0".repeat(32))) {
+                return new QueryTrace(matcher.group(1));
+            }
+        }
+        return new QueryTrace(newId(2));
+    }
+
+    /**
+     * The trace attached to the calling thread, or null.
+     */
+    public static QueryTrace current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Makes the trace current on the calling thread until the returned scope is closed.
+     */
+    public Scope attach() {
+        QueryTrace previous = CURRENT.get();
+        String previousTraceId = MDC.get(TRACE_ID);
+        String previousSpanId = MDC.get(SPAN_ID);
+        CURRENT.set(this);
+        MDC.put(TRACE_ID, traceId);
+        MDC.put(SPAN_ID, spanId);
+        return () -> {
+            restore(CURRENT, previous);
+            restoreMdc(TRACE_ID, previousTraceId);
+            restoreMdc(SPAN_ID, previousSpanId);
+        };
+    }
+
+    /**
+     * Starts a trace on the calling thread when it has none, for work outside the requests
+     * such as background refreshes. Closing the scope leaves a trace already there current.
+     */
+    public static Scope attachIfAbsent() {
+        return current() != null ? () -> { } : start(null).attach();
+    }
+
+    /**
+     * Runs the supplier with the calling thread's trace current, wherever it runs.
+     */
+    public static <T> Supplier<T> propagate(Supplier<T> supplier) {
+        QueryTrace trace = current();
+        if (trace == null) {
+            return supplier;
+        }
+        return () -> {
+            try (Scope scope = trace.attach()) {
+                return supplier.get();
+            }
+        };
+    }
+
+    /**
+     * Starts a span of the current trace.
+     */
+    public static Span span(Phase phase) {
+        return span(current(), phase);
+    }
+
+    /**
+     * Starts a span of the trace, or a span that records nothing when it is null.
+     */
+    public static Span span(QueryTrace trace, Phase phase) {
+        return trace == null ? NO_SPAN : trace.startSpan(phase);
+    }
+
+    private Span startSpan(Phase phase) {
+        String parentSpanId = MDC.get(SPAN_ID);
+        MDC.put(SPAN_ID, newId(1));
+        long spanStartNanos = System.nanoTime();
+        return new Span() {
+            private boolean closed;
+
+            @Override
+            public void close() {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                record(phase, System.nanoTime() - spanStartNanos);
+                restoreMdc(SPAN_ID, parentSpanId);
+            }
+        };
+    }
+
+    public void record(Phase phase, long elapsedNanos) {
+        phaseNanos.addAndGet(phase.ordinal(), elapsedNanos);
+    }
+
+    /**
+     * Tags the current trace with the layer it is answering.
+     */
+    public static void tagLayer(Long layerId) {
+        QueryTrace trace = current();
+        if (trace != null) {
+            trace.layerId = layerId;
+        }
+    }
+
+    /**
+     * Tags the current trace with the digest of the query sent, see {@link QueryKey#digest()}.
+     */
+    public static void tagQuery(String queryHash) {
+        QueryTrace trace = current();
+        if (trace != null) {
+            trace.queryHash = queryHash;
+        }
+    }
+
+    /**
+     * Adds rows read from the backend to the current trace.
+     */
+    public static void tagRows(long rows) {
+        QueryTrace trace = current();
+        if (trace != null) {
+            trace.rows.accumulateAndGet(rows, (total, added) -> Math.max(total, 0) + added);
+        }
+    }
+
+    /**
+     * Ends the trace, {@link #getElapsedNanos()} no longer grows.
+     */
+    public void finish() {
+        if (endNanos == 0) {
+            endNanos = System.nanoTime();
+        }
+    }
+
+    public String getTraceId() {
+        return traceId;
+    }
+
+    public String getSpanId() {
+        return spanId;
+    }
+
+    public Long getLayerId() {
+        return layerId;
+    }
+
+    public String getQueryHash() {
+        return queryHash;
+    }
+
+    /**
+     * Rows read from the backend, -1 when no query was sent.
+     */
+    public long getRows() {
+        return rows.get();
+    }
+
+    public long getPhaseNanos(Phase phase) {
+        return phaseNanos.get(phase.ordinal());
+    }
+
+    public long getElapsedNanos() {
+        long end = endNanos;
+        return (end == 0 ? System.nanoTime() : end) - startNanos;
+    }
+
+    private static <T> void restore(ThreadLocal<T> threadLocal, T previous) {
+        if (previous == null) {
+            threadLocal.remove();
+        } else {
+            threadLocal.set(previous);
+        }
+    }
+
+    private static void restoreMdc(String key, String previous) {
+        if (previous == null) {
+            MDC.remove(key);
+        } else {
+            MDC.put(key, previous);
+        }
+    }
+
+    /**
+     * Random hex id of 16 characters per long.
+     */
+    private static String newId(int longs) {
+        StringBuilder id = new StringBuilder(16 * longs);
+        for (int i = 0; i < longs; i++) {
+            long value;
+            do {
+                value = ThreadLocalRandom.current().nextLong();
+            } while (value == 0);
+            id.append(String.format("%016x", value));
+        }
+        return id.toString();
+    }
+}
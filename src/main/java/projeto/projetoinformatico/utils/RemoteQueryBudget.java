@@ -0,0 +1,33 @@
+package projeto.projetoinformatico.utils;
+
+import com.google.common.util.concurrent.RateLimiter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Queries per second the application may send to the SPARQL endpoint for work nobody is
+ * waiting on, such as refreshing materialized layers. It is set by
+ * {@code sparql.background.queries-per-second} and shared by all the background work. Those
+ * queries still go through the gateway, so they count towards {@code max.requests} as well;
+ * this budget keeps them from taking all of it.
+ */
+@Component
+public class RemoteQueryBudget {
+
+    private final RateLimiter rateLimiter;
+
+    public RemoteQueryBudget(@Value("${sparql.background.queries-per-second}") double queriesPerSecond) {
+        this.rateLimiter = RateLimiter.create(queriesPerSecond);
+    }
+
+    /**
+     * Takes one query from the budget if it has one right now, without waiting.
+     */
+    public boolean tryAcquire() {
+        return rateLimiter.tryAcquire();
+    }
+
+    public double getQueriesPerSecond() {
+        return rateLimiter.getRate();
+    }
+}
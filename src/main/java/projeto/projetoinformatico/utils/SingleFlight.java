@@ -0,0 +1,111 @@
+package projeto.projetoinformatico.utils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls for the same key into a single execution.
+ * The first caller starts the call, callers that arrive while it is running share its outcome.
+ * Every caller gets its own future; the shared call is only cancelled once all of them have cancelled.
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, Flight<V>> inFlight = new ConcurrentHashMap<>();
+
+    public CompletableFuture<V> execute(K key, Supplier<CompletableFuture<V>> call) {
+        while (true) {
+            Flight<V> flight = inFlight.get(key);
+            if (flight == null) {
+                Flight<V> created = new Flight<>();
+                flight = inFlight.putIfAbsent(key, created);
+                if (flight == null) {
+                    CompletableFuture<V> caller = created.join();
+                    start(key, created, call);
+                    return caller;
+                }
+            }
+            CompletableFuture<V> caller = flight.join();
+            if (caller != null) {
+                return caller;
+            }
+            // The flight completed or was abandoned between lookup and join, it is about to leave the map
+            inFlight.remove(key, flight);
+        }
+    }
+
+    public int size() {
+        return inFlight.size();
+    }
+
+    private void start(K key, Flight<V> flight, Supplier<CompletableFuture<V>> call) {
+        CompletableFuture<V> upstream;
+        try {
+            upstream = call.get();
+        } catch (RuntimeException e) {
+            upstream = CompletableFuture.failedFuture(e);
+        }
+        flight.upstream(upstream);
+        upstream.whenComplete((value, ex) -> {
+            inFlight.remove(key, flight);
+            if (ex != null) {
+                flight.shared.completeExceptionally(ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+            } else {
+                flight.shared.complete(value);
+            }
+        });
+    }
+
+    private static final class Flight<V> {
+        private final CompletableFuture<V> shared = new CompletableFuture<>();
+        private final AtomicInteger waiters = new AtomicInteger();
+        private volatile CompletableFuture<V> upstream;
+
+        /**
+         * Registers a new caller, or returns null if every previous caller already gave up.
+         */
+        CompletableFuture<V> join() {
+            int current;
+            do {
+                current = waiters.get();
+                if (current < 0 || shared.isDone()) {
+                    return null;
+                }
+            } while (!waiters.compareAndSet(current, current + 1));
+
+            CompletableFuture<V> caller = new CompletableFuture<>();
+            shared.whenComplete((value, ex) -> {
+                if (ex != null) {
+                    caller.completeExceptionally(ex);
+                } else {
+                    caller.complete(value);
+                }
+            });
+            caller.whenComplete((value, ex) -> {
+                if (caller.isCancelled()) {
+                    leave();
+                }
+            });
+            return caller;
+        }
+
+        void upstream(CompletableFuture<V> upstream) {
+            this.upstream = upstream;
+            if (waiters.get() < 0) {
+                upstream.cancel(true);
+            }
+        }
+
+        private void leave() {
+            if (waiters.decrementAndGet() == 0 && waiters.compareAndSet(0, -1)) {
+                CompletableFuture<V> running = upstream;
+                if (running != null) {
+                    running.cancel(true);
+                }
+            }
+        }
+    }
+}
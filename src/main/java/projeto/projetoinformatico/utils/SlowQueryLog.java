@@ -0,0 +1,53 @@
+package projeto.projetoinformatico.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Logs the layer requests that took longer than {@code layers.slow-query-ms}, with their
+ * trace id, layer, the digest of the query sent, the rows read and the time of every phase.
+ * A negative threshold turns the log off.
+ */
+@Component
+public class SlowQueryLog {
+
+    private static final Logger logger = LoggerFactory.getLogger(SlowQueryLog.class);
+
+    private final long thresholdNanos;
+
+    public SlowQueryLog(@Value("${layers.slow-query-ms}") long thresholdMs) {
+        this.thresholdNanos = thresholdMs < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(thresholdMs);
+    }
+
+    /**
+     * @return whether the trace was slow enough to be logged
+     */
+    public boolean record(QueryTrace trace) {
+        if (thresholdNanos < 0 || trace.getLayerId() == null || trace.getElapsedNanos() < thresholdNanos) {
+            return false;
+        }
+        logger.warn(format(trace));
+        return true;
+    }
+
+    static String format(QueryTrace trace) {
+        StringBuilder message = new StringBuilder("Slow layer query")
+                .append(" trace=").append(trace.getTraceId())
+                .append(" layer=").append(trace.getLayerId())
+                .append(" query=").append(trace.getQueryHash() == null ? "-" : trace.getQueryHash())
+                .append(" rows=").append(trace.getRows())
+                .append(" total=").append(millis(trace.getElapsedNanos())).append("ms");
+        for (QueryTrace.Phase phase : QueryTrace.Phase.values()) {
+            message.append(' ').append(phase.getId()).append('=').append(millis(trace.getPhaseNanos(phase))).append("ms");
+        }
+        return message.toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.1f", nanos / 1e6);
+    }
+}
@@ -3,9 +3,13 @@ package projeto.projetoinformatico.utils;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
+
 @Component
 public class SparqlQueryProvider {
 
+    private static final String LAYER_SELECT = "SELECT DISTINCT ?item ?itemLabel ?description ?coordinates ?image ?itemSchemaLabel ?url WHERE {\n";
+
     @Value("${sparql.prefixes}")
     private String PREFIXES; // Inject SPARQL prefixes
 
@@ -54,8 +58,39 @@ public class SparqlQueryProvider {
                 "}";
     }
     public String buildFilterQuery(String query, Double lat1, Double lon1, Double lat2, Double lon2, Long startTime, Long endTime) {
-        String filterClause = generateFilterClause(lat1, lon1, lat2, lon2, startTime, endTime);
+        return insertFilterClause(query, generateFilterClause(lat1, lon1, lat2, lon2, startTime, endTime));
+    }
 
+    /**
+     * Restricts the layer query to items already known to be in the box, found in the local
+     * spatial index, instead of having the endpoint search the box.
+     */
+    public String buildLocalFilterQuery(String query, List<String> itemIds) {
+        return insertFilterClause(query, generateValuesClause(itemIds));
+    }
+
+    /**
+     * Adds to every row of a layer query the earliest and the latest of the point in time (P585),
+     * start time (P580) and end time (P582) of its item, as {@value TemporalIndex#START_TIME} and
+     * {@value TemporalIndex#END_TIME}, for {@link TemporalIndex} to filter them by time. The
+     * times are aggregated per row, so items with several of them still give a single row.
+     * The layer query is nested rather than the times, which would be evaluated on their own
+     * for every item of the endpoint.
+     */
+    public String buildTimesQuery(String query) {
+        if (!query.startsWith(LAYER_SELECT) || query.lastIndexOf('}') < LAYER_SELECT.length()) {
+            return query;
+        }
+        String variables = LAYER_SELECT.substring("SELECT DISTINCT ".length(), LAYER_SELECT.length() - " WHERE {\n".length());
+        return "SELECT " + variables
+                + " (MIN(?start) AS ?" + TemporalIndex.START_TIME + ") (MAX(?end) AS ?" + TemporalIndex.END_TIME + ") WHERE {\n"
+                + "  {\n" + query + "\n  }\n"
+                + "  OPTIONAL { ?item wdt:P585|wdt:P580 ?start. }\n"
+                + "  OPTIONAL { ?item wdt:P585|wdt:P582 ?end. }\n"
+                + "} GROUP BY " + variables;
+    }
+
+    private String insertFilterClause(String query, String filterClause) {
         // Find the last occurrence of the innermost SELECT statement
         int selectIndex = query.lastIndexOf("SELECT DISTINCT ?item ?coordinates WHERE {");
         if (selectIndex != -1) {
@@ -69,7 +104,15 @@ public class SparqlQueryProvider {
         return query;
     }
 
-
+    public String generateValuesClause(List<String> itemIds) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("      VALUES ?item {");
+        for (String itemId : itemIds) {
+            sb.append(" wd:").append(itemId);
+        }
+        sb.append(" }\n");
+        return sb.toString();
+    }
 
     public String generateFilterClause(Double lat1, Double lon1, Double lat2, Double lon2, Long startTime, Long endTime) {
         StringBuilder sb = new StringBuilder();
@@ -88,7 +131,7 @@ public class SparqlQueryProvider {
     }
 
         public boolean isSparqlQueryValid(String query) {
-            return !query.startsWith("SELECT DISTINCT ?item ?itemLabel ?description ?coordinates ?image ?itemSchemaLabel ?url WHERE {\n")
+            return !query.startsWith(LAYER_SELECT)
                     || !query.contains("SERVICE wikibase:label { bd:serviceParam wikibase:language \"[AUTO_LANGUAGE]\". }\n")
                     || !query.contains("SELECT DISTINCT ?item ?itemLabel ?coordinates ?itemSchemaLabel ?url WHERE {\n")
                     || !query.contains("wdt:P625");
@@ -0,0 +1,176 @@
+package projeto.projetoinformatico.utils;
+
+import projeto.projetoinformatico.model.ResultTable;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Time spans of the rows of a result table, for answering which rows overlap a time range
+ * without querying again. A row spans from its start time (P580) to its end time (P582);
+ * its point in time (P585) counts as both when they are missing. A row with only a start is
+ * still ongoing and one with only an end has always been. Rows without any time are kept
+ * apart and match every range. Layers are queried with the earliest and latest times of their
+ * items as start and end, see {@link SparqlQueryProvider#buildTimesQuery}.
+ * <p>
+ * The spans are sorted by start in plain arrays, and each one also keeps the latest end of
+ * the spans in its half of an implicit binary search tree over them, which makes it an
+ * interval tree: a lookup costs a logarithm plus the number of rows found.
+ */
+public final class TemporalIndex {
+
+    public static final String POINT_IN_TIME = "pointInTime";
+    public static final String START_TIME = "startTime";
+    public static final String END_TIME = "endTime";
+    /**
+     * Variables read by the index, which clients are not sent.
+     */
+    public static final List<String> VARIABLES = List.of(POINT_IN_TIME, START_TIME, END_TIME);
+
+    // Years whose first millisecond since the epoch still fits in a long
+    private static final long MAX_YEAR = 290_000_000L;
+
+    // Spans sorted by start, with the row each one came from
+    private final long[] starts;
+    private final long[] ends;
+    private final int[] rows;
+    // Latest end in the subtree rooted at each index
+    private final long[] maxEnds;
+    private final int[] timeless;
+
+    private TemporalIndex(long[] starts, long[] ends, int[] rows, int[] timeless) {
+        this.starts = starts;
+        this.ends = ends;
+        this.rows = rows;
+        this.timeless = timeless;
+        this.maxEnds = new long[starts.length];
+        buildMaxEnds(0, starts.length);
+    }
+
+    /**
+     * Indexes the table by its {@value #POINT_IN_TIME}, {@value #START_TIME} and
+     * {@value #END_TIME} variables, the ones missing from it are taken as unbound.
+     */
+    public static TemporalIndex of(ResultTable table) {
+        int pointInTime = table.indexOf(POINT_IN_TIME);
+        int startTime = table.indexOf(START_TIME);
+        int endTime = table.indexOf(END_TIME);
+        int rowCount = table.getRowCount();
+        long[] spanStarts = new long[rowCount];
+        long[] spanEnds = new long[rowCount];
+        Integer[] order = new Integer[rowCount];
+        int[] timeless = new int[rowCount];
+        int spans = 0;
+        int timelessCount = 0;
+        for (int row = 0; row < rowCount; row++) {
+            long point = epochMillis(table, row, pointInTime);
+            long start = earliest(point, epochMillis(table, row, startTime));
+            long end = latest(point, epochMillis(table, row, endTime));
+            if (start == ResultTable.NO_TIME && end == ResultTable.NO_TIME) {
+                timeless[timelessCount++] = row;
+                continue;
+            }
+            spanStarts[row] = start == ResultTable.NO_TIME ? Long.MIN_VALUE : start;
+            spanEnds[row] = end == ResultTable.NO_TIME ? Long.MAX_VALUE : end;
+            order[spans++] = row;
+        }
+        Integer[] sorted = Arrays.copyOf(order, spans);
+        Arrays.sort(sorted, (a, b) -> Long.compare(spanStarts[a], spanStarts[b]));
+        long[] starts = new long[spans];
+        long[] ends = new long[spans];
+        int[] rows = new int[spans];
+        for (int i = 0; i < spans; i++) {
+            rows[i] = sorted[i];
+            starts[i] = spanStarts[rows[i]];
+            ends[i] = spanEnds[rows[i]];
+        }
+        return new TemporalIndex(starts, ends, rows, Arrays.copyOf(timeless, timelessCount));
+    }
+
+    /**
+     * Rows whose span overlaps the range, both ends included, and the rows without any time.
+     *
+     * @return row indexes in ascending order
+     */
+    public int[] rowsOverlapping(long fromMillis, long toMillis) {
+        int[] found = new int[rows.length + timeless.length];
+        int count = collect(0, rows.length, fromMillis, toMillis, found, 0);
+        System.arraycopy(timeless, 0, found, count, timeless.length);
+        int[] overlapping = Arrays.copyOf(found, count + timeless.length);
+        Arrays.sort(overlapping);
+        return overlapping;
+    }
+
+    /**
+     * Like {@link #rowsOverlapping}, for the years from start to end, both included, in UTC.
+     */
+    public int[] rowsOverlappingYears(long startYear, long endYear) {
+        return rowsOverlapping(startOfYear(startYear), startOfYear(endYear + 1) - 1);
+    }
+
+    /**
+     * Number of rows with some time.
+     */
+    public int getTimedRowCount() {
+        return rows.length;
+    }
+
+    public int getRowCount() {
+        return rows.length + timeless.length;
+    }
+
+    private long buildMaxEnds(int from, int to) {
+        if (from >= to) {
+            return Long.MIN_VALUE;
+        }
+        int middle = (from + to) >>> 1;
+        long maxEnd = Math.max(ends[middle], Math.max(buildMaxEnds(from, middle), buildMaxEnds(middle + 1, to)));
+        maxEnds[middle] = maxEnd;
+        return maxEnd;
+    }
+
+    private int collect(int from, int to, long fromMillis, long toMillis, int[] found, int count) {
+        if (from >= to) {
+            return count;
+        }
+        int middle = (from + to) >>> 1;
+        if (maxEnds[middle] < fromMillis) {
+            // Every span under this node ends before the range
+            return count;
+        }
+        count = collect(from, middle, fromMillis, toMillis, found, count);
+        if (starts[middle] > toMillis) {
+            // This span starts after the range, and the ones after it start even later
+            return count;
+        }
+        if (ends[middle] >= fromMillis) {
+            found[count++] = rows[middle];
+        }
+        return collect(middle + 1, to, fromMillis, toMillis, found, count);
+    }
+
+    private static long startOfYear(long year) {
+        int clamped = (int) Math.max(-MAX_YEAR, Math.min(MAX_YEAR, year));
+        return LocalDate.of(clamped, 1, 1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+    }
+
+    private static long epochMillis(ResultTable table, int row, int column) {
+        return column < 0 ? ResultTable.NO_TIME : table.getEpochMillis(row, column);
+    }
+
+    private static long earliest(long a, long b) {
+        if (a == ResultTable.NO_TIME) {
+            return b;
+        }
+        return b == ResultTable.NO_TIME ? a : Math.min(a, b);
+    }
+
+    private static long latest(long a, long b) {
+        if (a == ResultTable.NO_TIME) {
+            return b;
+        }
+        return b == ResultTable.NO_TIME ? a : Math.max(a, b);
+    }
+}
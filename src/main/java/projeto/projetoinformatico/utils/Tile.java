@@ -0,0 +1,111 @@
+package projeto.projetoinformatico.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Slippy map tile: the Web Mercator quadtree cell at (x, y) of the given zoom level, with
+ * x growing eastwards and y southwards. Tiles of the first and last rows reach the poles so
+ * that no place is left out of the grid.
+ */
+public record Tile(int zoom, int x, int y) {
+
+    public static final int MAX_ZOOM = 18;
+
+    private static final double MAX_LATITUDE = 85.0511287798066;
+
+    public Tile {
+        if (zoom < 0 || zoom > MAX_ZOOM || x < 0 || y < 0 || x >= 1 << zoom || y >= 1 << zoom) {
+            throw new IllegalArgumentException("No such tile: " + zoom + "/" + x + "/" + y);
+        }
+    }
+
+    /**
+     * Snaps a box, given by two opposite corners, to the tiles of the deepest zoom level at
+     * which at most {@code maxTiles} of them cover it.
+     */
+    public static List<Tile> covering(double lat1, double lon1, double lat2, double lon2, int maxTiles) {
+        double south = Math.min(lat1, lat2);
+        double north = Math.max(lat1, lat2);
+        double west = Math.min(lon1, lon2);
+        double east = Math.max(lon1, lon2);
+        int zoom = MAX_ZOOM;
+        while (zoom > 0 && count(south, west, north, east, zoom) > maxTiles) {
+            zoom--;
+        }
+        int minX = x(west, zoom);
+        int maxX = x(east, zoom);
+        int minY = y(north, zoom);
+        int maxY = y(south, zoom);
+        List<Tile> tiles = new ArrayList<>((maxX - minX + 1) * (maxY - minY + 1));
+        for (int y = minY; y <= maxY; y++) {
+            for (int x = minX; x <= maxX; x++) {
+                tiles.add(new Tile(zoom, x, y));
+            }
+        }
+        return tiles;
+    }
+
+    private static long count(double south, double west, double north, double east, int zoom) {
+        return (long) (x(east, zoom) - x(west, zoom) + 1) * (y(south, zoom) - y(north, zoom) + 1);
+    }
+
+    static int x(double longitude, int zoom) {
+        int tiles = 1 << zoom;
+        return clamp((int) Math.floor(worldX(longitude) * tiles), tiles);
+    }
+
+    static int y(double latitude, int zoom) {
+        int tiles = 1 << zoom;
+        return clamp((int) Math.floor(worldY(latitude) * tiles), tiles);
+    }
+
+    /**
+     * Position of the longitude across the whole map, from 0 at 180 degrees west to 1.
+     */
+    static double worldX(double longitude) {
+        return (longitude + 180) / 360;
+    }
+
+    /**
+     * Position of the latitude down the whole map, from 0 at its northern edge to 1.
+     */
+    static double worldY(double latitude) {
+        double lat = Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude)));
+        return (1 - Math.log(Math.tan(lat) + 1 / Math.cos(lat)) / Math.PI) / 2;
+    }
+
+    private static int clamp(int index, int tiles) {
+        return Math.max(0, Math.min(tiles - 1, index));
+    }
+
+    public double west() {
+        return longitude(x);
+    }
+
+    public double east() {
+        return longitude(x + 1);
+    }
+
+    public double north() {
+        return y == 0 ? 90 : latitude(y);
+    }
+
+    public double south() {
+        return y == (1 << zoom) - 1 ? -90 : latitude(y + 1);
+    }
+
+    private double longitude(int x) {
+        return (double) x / (1 << zoom) * 360 - 180;
+    }
+
+    private double latitude(int y) {
+        double n = Math.PI - 2 * Math.PI * y / (1 << zoom);
+        return Math.toDegrees(Math.atan(Math.sinh(n)));
+    }
+
+    @Override
+    public String toString() {
+        return zoom + "/" + x + "/" + y;
+    }
+}
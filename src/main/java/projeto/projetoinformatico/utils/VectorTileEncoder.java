@@ -0,0 +1,194 @@
+package projeto.projetoinformatico.utils;
+
+import projeto.projetoinformatico.model.ResultTable;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Encodes the points of a result table as a Mapbox Vector Tile (version 2.1) with a single
+ * layer. Each row with a WKT point inside the tile becomes a point feature and its other
+ * variables its properties; rows outside the tile or without a point are left out. Properties
+ * are the decoded values of the table: entity ids and texts as strings, numbers as doubles and
+ * dates as milliseconds since the epoch. Keys and values are shared between features as the
+ * format intends. The protocol buffer
+ * messages of the format are few and small, so they are written here directly.
+ */
+public final class VectorTileEncoder {
+
+    public static final String MEDIA_TYPE = "application/vnd.mapbox-vector-tile";
+
+    public static final int EXTENT = 4096;
+
+    // Field numbers of vector_tile.proto
+    private static final int TILE_LAYERS = 3;
+    private static final int LAYER_NAME = 1;
+    private static final int LAYER_FEATURES = 2;
+    private static final int LAYER_KEYS = 3;
+    private static final int LAYER_VALUES = 4;
+    private static final int LAYER_EXTENT = 5;
+    private static final int LAYER_VERSION = 15;
+    private static final int FEATURE_TAGS = 2;
+    private static final int FEATURE_TYPE = 3;
+    private static final int FEATURE_GEOMETRY = 4;
+    private static final int VALUE_STRING = 1;
+    private static final int VALUE_DOUBLE = 3;
+    private static final int VALUE_SINT = 6;
+
+    private static final int VARINT = 0;
+    private static final int FIXED64 = 1;
+    private static final int LENGTH_DELIMITED = 2;
+
+    private static final int GEOMETRY_POINT = 1;
+    // MoveTo command repeated once
+    private static final int MOVE_TO_ONE = 1 | 1 << 3;
+
+    private VectorTileEncoder() {
+    }
+
+    public static byte[] encode(String layerName, Tile tile, ResultTable table) {
+        int coordinates = PointClusters.coordinateColumn(table);
+        List<String> variables = table.getVariables();
+        Map<String, Integer> keys = new HashMap<>();
+        Map<Object, Integer> values = new HashMap<>();
+        ProtoWriter keyMessages = new ProtoWriter();
+        ProtoWriter valueMessages = new ProtoWriter();
+        ProtoWriter features = new ProtoWriter();
+        double scale = (double) (1 << tile.zoom()) * EXTENT;
+        for (int row = 0; coordinates >= 0 && row < table.getRowCount(); row++) {
+            double latitude = table.getLatitude(row, coordinates);
+            double longitude = table.getLongitude(row, coordinates);
+            if (Double.isNaN(latitude) || Double.isNaN(longitude)) {
+                continue;
+            }
+            long x = Math.round(Tile.worldX(longitude) * scale) - (long) tile.x() * EXTENT;
+            long y = Math.round(Tile.worldY(latitude) * scale) - (long) tile.y() * EXTENT;
+            if (x < 0 || x > EXTENT || y < 0 || y > EXTENT) {
+                continue;
+            }
+            ProtoWriter tags = new ProtoWriter();
+            for (int column = 0; column < variables.size(); column++) {
+                Object value = value(table, row, column);
+                if (column == coordinates || value == null) {
+                    continue;
+                }
+                tags.varint(index(keys, variables.get(column), key -> keyMessages.string(LAYER_KEYS, key)));
+                tags.varint(index(values, value, property -> valueMessages.message(LAYER_VALUES, valueMessage(property))));
+            }
+            ProtoWriter geometry = new ProtoWriter();
+            geometry.varint(MOVE_TO_ONE);
+            geometry.varint(zigZag(x));
+            geometry.varint(zigZag(y));
+
+            ProtoWriter feature = new ProtoWriter();
+            feature.message(FEATURE_TAGS, tags);
+            feature.field(FEATURE_TYPE, VARINT);
+            feature.varint(GEOMETRY_POINT);
+            feature.message(FEATURE_GEOMETRY, geometry);
+            features.message(LAYER_FEATURES, feature);
+        }
+        ProtoWriter layer = new ProtoWriter();
+        layer.field(LAYER_VERSION, VARINT);
+        layer.varint(2);
+        layer.string(LAYER_NAME, layerName);
+        layer.append(features);
+        layer.append(keyMessages);
+        layer.append(valueMessages);
+        layer.field(LAYER_EXTENT, VARINT);
+        layer.varint(EXTENT);
+
+        ProtoWriter vectorTile = new ProtoWriter();
+        vectorTile.message(TILE_LAYERS, layer);
+        return vectorTile.toByteArray();
+    }
+
+    private static Object value(ResultTable table, int row, int column) {
+        switch (table.getKind(column)) {
+            case NUMBER -> {
+                double number = table.getNumber(row, column);
+                if (!Double.isNaN(number)) {
+                    return number;
+                }
+            }
+            case DATE_TIME -> {
+                long epochMillis = table.getEpochMillis(row, column);
+                if (epochMillis != ResultTable.NO_TIME) {
+                    return epochMillis;
+                }
+            }
+            default -> {
+            }
+        }
+        return table.getText(row, column);
+    }
+
+    private static ProtoWriter valueMessage(Object value) {
+        ProtoWriter message = new ProtoWriter();
+        if (value instanceof Double number) {
+            message.field(VALUE_DOUBLE, FIXED64);
+            message.fixed64(Double.doubleToLongBits(number));
+        } else if (value instanceof Long integer) {
+            message.field(VALUE_SINT, VARINT);
+            message.varint(zigZag(integer));
+        } else {
+            message.string(VALUE_STRING, (String) value);
+        }
+        return message;
+    }
+
+    private static <T> int index(Map<T, Integer> indexes, T value, Consumer<T> writer) {
+        Integer index = indexes.get(value);
+        if (index == null) {
+            index = indexes.size();
+            indexes.put(value, index);
+            writer.accept(value);
+        }
+        return index;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static final class ProtoWriter extends ByteArrayOutputStream {
+
+        void field(int number, int wireType) {
+            varint((long) number << 3 | wireType);
+        }
+
+        void varint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void fixed64(long value) {
+            for (int i = 0; i < 8; i++) {
+                write((int) (value >>> 8 * i) & 0xFF);
+            }
+        }
+
+        void string(int number, String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            field(number, LENGTH_DELIMITED);
+            varint(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        void message(int number, ProtoWriter message) {
+            field(number, LENGTH_DELIMITED);
+            varint(message.size());
+            append(message);
+        }
+
+        void append(ProtoWriter other) {
+            write(other.buf, 0, other.count);
+        }
+    }
+}
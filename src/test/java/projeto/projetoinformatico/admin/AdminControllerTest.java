@@ -5,25 +5,34 @@ import org.junit.jupiter.api.Test;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import projeto.projetoinformatico.controllers.AdminController;
+import projeto.projetoinformatico.exceptions.Exception.InvalidParamsRequestException;
 import projeto.projetoinformatico.exceptions.Exception.InvalidRequestException;
+import projeto.projetoinformatico.model.LayerCost;
 import projeto.projetoinformatico.service.UserService;
+import projeto.projetoinformatico.utils.LayerCostProfiler;
+
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.*;
 
 public class AdminControllerTest {
 
     private UserService userService;
+    private LayerCostProfiler layerCostProfiler;
 
     @BeforeEach
     public void setUp(){
         userService = mock(UserService.class);
+        layerCostProfiler = new LayerCostProfiler(100);
 
     }
     @Test
     public void testSayHello_Success() {
         // Mock dependencies
-        AdminController adminController = new AdminController(userService);
+        AdminController adminController = new AdminController(userService, layerCostProfiler);
 
         // Call the endpoint
         ResponseEntity<String> response = adminController.sayHello();
@@ -36,7 +45,7 @@ public class AdminControllerTest {
     @Test
     public void testblockUser_Success() {
         // Mock dependencies
-        AdminController adminController = new AdminController(userService);
+        AdminController adminController = new AdminController(userService, layerCostProfiler);
 
         // Set up mock behavior
         doNothing().when(userService).blockUser(anyLong());
@@ -51,7 +60,7 @@ public class AdminControllerTest {
 
     @Test
     public void testBlockUser_UserNotFound(){
-        AdminController adminController = new AdminController(userService);
+        AdminController adminController = new AdminController(userService, layerCostProfiler);
 
         // Mock the UserService blockUser method to throw an exception for user not found
         doThrow(new RuntimeException("User not found")).when(userService).blockUser(anyLong());
@@ -67,7 +76,7 @@ public class AdminControllerTest {
 
     @Test
     public void testBlockUser_BlockAdminUser() {
-        AdminController adminController = new AdminController(userService);
+        AdminController adminController = new AdminController(userService, layerCostProfiler);
 
         // Mock the UserService blockUser method to throw an exception for blocking an admin user
         doThrow(new RuntimeException("Cannot block an admin user.")).when(userService).blockUser(anyLong());
@@ -83,7 +92,7 @@ public class AdminControllerTest {
 
     @Test
     public void testUnblockUser_Success() {
-        AdminController adminController = new AdminController(userService);
+        AdminController adminController = new AdminController(userService, layerCostProfiler);
 
         // Mock the UserService unblockUser method
         doNothing().when(userService).unblockUser(anyLong());
@@ -97,7 +106,7 @@ public class AdminControllerTest {
 
     @Test
     public void testUnblockUser_UserNotFound(){
-        AdminController adminController = new AdminController(userService);
+        AdminController adminController = new AdminController(userService, layerCostProfiler);
 
         // Mock the UserService unblockUser method to throw an exception for user not found
         doThrow(new RuntimeException("User not found")).when(userService).unblockUser(anyLong());
@@ -113,7 +122,7 @@ public class AdminControllerTest {
 
     @Test
     public void testdeleteUserById_Success() {
-        AdminController adminController = new AdminController(userService);
+        AdminController adminController = new AdminController(userService, layerCostProfiler);
 
         // Mock the UserService deleteUser method
         doNothing().when(userService).deleteUser(anyLong());
@@ -127,7 +136,7 @@ public class AdminControllerTest {
 
     @Test
     public void testdeleteUserById_UserNotFound(){
-        AdminController adminController = new AdminController(userService);
+        AdminController adminController = new AdminController(userService, layerCostProfiler);
 
         // Mock the UserService deleteUser method to throw an exception for user not found
         doThrow(new RuntimeException("User not found")).when(userService).deleteUser(anyLong());
@@ -143,7 +152,7 @@ public class AdminControllerTest {
 
     @Test
     public void testDeleteUserById_AdminDeletionNotAllowed() {
-        AdminController adminController = new AdminController(userService);
+        AdminController adminController = new AdminController(userService, layerCostProfiler);
 
         // Mock the UserService deleteUser method to throw InvalidRequestException for deleting an admin user
         doThrow(new InvalidRequestException("Admin users cannot delete other admin users.")).when(userService).deleteUser(anyLong());
@@ -156,4 +165,27 @@ public class AdminControllerTest {
             assertEquals("Admin users cannot delete other admin users.", e.getMessage());
         }
     }
+
+    @Test
+    public void testGetLayerCosts_RanksByTheChosenOrder() {
+        AdminController adminController = new AdminController(userService, layerCostProfiler);
+        layerCostProfiler.record(1L, null, 5_000_000, 10, 1_000);
+        layerCostProfiler.record(2L, null, 1_000_000, 500, 80_000);
+        layerCostProfiler.recordFailure(2L, null, 1_000_000);
+
+        ResponseEntity<List<LayerCost>> byTime = adminController.getLayerCosts("time", 20);
+        ResponseEntity<List<LayerCost>> byRows = adminController.getLayerCosts("ROWS", 1);
+
+        assertEquals(HttpStatus.OK, byTime.getStatusCode());
+        assertEquals(List.of(1L, 2L), byTime.getBody().stream().map(LayerCost::layerId).toList());
+        assertEquals(2, byTime.getBody().get(1).queries());
+        assertEquals(1, byTime.getBody().get(1).failures());
+        assertEquals(5.0 / 7.0, byTime.getBody().get(0).timeShare(), 1e-9);
+        assertEquals(List.of(2L), byRows.getBody().stream().map(LayerCost::layerId).toList());
+        assertThrows(InvalidParamsRequestException.class, () -> adminController.getLayerCosts("cost", 20));
+        assertThrows(InvalidParamsRequestException.class, () -> adminController.getLayerCosts("time", 0));
+
+        assertEquals(HttpStatus.NO_CONTENT, adminController.resetLayerCosts().getStatusCode());
+        assertTrue(adminController.getLayerCosts("time", 20).getBody().isEmpty());
+    }
 }
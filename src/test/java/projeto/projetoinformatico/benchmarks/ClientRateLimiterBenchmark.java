@@ -0,0 +1,72 @@
+package projeto.projetoinformatico.benchmarks;
+
+import com.google.common.util.concurrent.RateLimiter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import projeto.projetoinformatico.config.ratelimit.ClientRateLimiter;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of taking a token under contention: every thread on one client, every thread on its
+ * own client, and requests spread over many clients, against a single Guava
+ * {@link RateLimiter}, which takes a lock on every call, like the controllers used to share.
+ * Rates are high enough that tokens never run out, so only the bookkeeping is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class ClientRateLimiterBenchmark {
+
+    private static final int CLIENTS = 10_000;
+
+    private ClientRateLimiter clientRateLimiter;
+    private RateLimiter sharedRateLimiter;
+    private String[] clients;
+
+    @State(Scope.Thread)
+    public static class ThreadClient {
+        String name = "user:" + Thread.currentThread().getName();
+    }
+
+    @Setup
+    public void setUp() {
+        clientRateLimiter = new ClientRateLimiter(1e9, 1_000, CLIENTS * 2, 600_000);
+        sharedRateLimiter = RateLimiter.create(1e9);
+        clients = new String[CLIENTS];
+        for (int i = 0; i < CLIENTS; i++) {
+            clients[i] = "ip:10.0." + i / 256 + "." + i % 256;
+        }
+    }
+
+    @Benchmark
+    public long sameClient() {
+        return clientRateLimiter.tryAcquire("user:ana");
+    }
+
+    @Benchmark
+    public long clientPerThread(ThreadClient client) {
+        return clientRateLimiter.tryAcquire(client.name);
+    }
+
+    @Benchmark
+    public long manyClients() {
+        return clientRateLimiter.tryAcquire(clients[ThreadLocalRandom.current().nextInt(CLIENTS)]);
+    }
+
+    @Benchmark
+    public boolean sharedGuavaRateLimiter() {
+        return sharedRateLimiter.tryAcquire();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ClientRateLimiterBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,58 @@
+package projeto.projetoinformatico.benchmarks;
+
+import org.modelmapper.ModelMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import projeto.projetoinformatico.dtos.LayerDTO;
+import projeto.projetoinformatico.model.layers.Layer;
+import projeto.projetoinformatico.model.users.Role;
+import projeto.projetoinformatico.model.users.User;
+import projeto.projetoinformatico.utils.ModelMapperUtils;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping a layer and its owner to the DTO answered by the layer endpoints, once per layer
+ * listed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LayerMappingBenchmark {
+
+    private ModelMapperUtils modelMapperUtils;
+    private Layer layer;
+
+    @Setup
+    public void setUp() {
+        modelMapperUtils = new ModelMapperUtils(new ModelMapper());
+        User user = new User();
+        user.setId(7L);
+        user.setUsername("ana");
+        user.setEmail("ana@example.com");
+        user.setRole(Role.EDITOR);
+        layer = new Layer();
+        layer.setId(42L);
+        layer.setUser(user);
+        layer.setLayerName("Castles of Portugal");
+        layer.setDescription("Castles with coordinates");
+        layer.setTimestamp(new Date(1_700_000_000_000L));
+        layer.setQuery("SELECT DISTINCT ?item ?coordinates WHERE { ?item wdt:P31 wd:Q23413; wdt:P625 ?coordinates. }");
+        layer.setMaterialized(true);
+    }
+
+    @Benchmark
+    public LayerDTO layerToDTO() {
+        return modelMapperUtils.layerToDTO(layer, LayerDTO.class);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(LayerMappingBenchmark.class.getSimpleName()).build()).run();
+    }
+}
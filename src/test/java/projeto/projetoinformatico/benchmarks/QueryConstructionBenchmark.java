@@ -0,0 +1,69 @@
+package projeto.projetoinformatico.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import projeto.projetoinformatico.utils.SparqlQueryProvider;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the query for one box of a layer, as done for every map move and every tile:
+ * the filter clause alone, and the clause put into a layer query, with and without years.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryConstructionBenchmark {
+
+    private static final String LAYER_QUERY = "SELECT DISTINCT ?item ?itemLabel ?description ?coordinates ?image ?itemSchemaLabel ?url WHERE {\n"
+            + "  {\n"
+            + "    SELECT DISTINCT ?item ?itemLabel ?coordinates ?itemSchemaLabel ?url WHERE {\n"
+            + "      {\n"
+            + "        SELECT DISTINCT ?item ?coordinates WHERE {\n"
+            + "          ?item wdt:P31/wdt:P279* wd:Q23413;\n"
+            + "                wdt:P625 ?coordinates.\n"
+            + "        }\n"
+            + "      }\n"
+            + "      SERVICE wikibase:label { bd:serviceParam wikibase:language \"[AUTO_LANGUAGE]\". }\n"
+            + "    }\n"
+            + "  }\n"
+            + "  OPTIONAL { ?item schema:description ?description. FILTER(LANG(?description) = \"en\") }\n"
+            + "  OPTIONAL { ?item wdt:P18 ?image. }\n"
+            + "}";
+
+    private SparqlQueryProvider sparqlQueryProvider;
+
+    @Setup
+    public void setUp() {
+        sparqlQueryProvider = new SparqlQueryProvider();
+    }
+
+    @Benchmark
+    public String generateFilterClause() {
+        return sparqlQueryProvider.generateFilterClause(38.6, -9.3, 38.8, -9.0, null, null);
+    }
+
+    @Benchmark
+    public String generateFilterClauseWithYears() {
+        return sparqlQueryProvider.generateFilterClause(38.6, -9.3, 38.8, -9.0, 1500L, 1800L);
+    }
+
+    @Benchmark
+    public String buildFilterQuery() {
+        return sparqlQueryProvider.buildFilterQuery(LAYER_QUERY, 38.6, -9.3, 38.8, -9.0, null, null);
+    }
+
+    @Benchmark
+    public String buildFilterQueryWithYears() {
+        return sparqlQueryProvider.buildFilterQuery(LAYER_QUERY, 38.6, -9.3, 38.8, -9.0, 1500L, 1800L);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(QueryConstructionBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,40 @@
+package projeto.projetoinformatico.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import projeto.projetoinformatico.model.ResultTable;
+import projeto.projetoinformatico.service.SearchService;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning the solutions of a query into a {@link ResultTable}. Rows are made while they are
+ * read, so {@link #drainOnly()} is there to tell their cost apart from that of the table.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ResultProcessingBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    private int rows;
+
+    @Benchmark
+    public ResultTable processQueryResults() {
+        return SearchService.processQueryResults(SyntheticResults.resultSet(rows));
+    }
+
+    @Benchmark
+    public int drainOnly() {
+        return SyntheticResults.drain(SyntheticResults.resultSet(rows));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ResultProcessingBenchmark.class.getSimpleName()).build()).run();
+    }
+}
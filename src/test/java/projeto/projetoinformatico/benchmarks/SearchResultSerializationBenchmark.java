@@ -0,0 +1,122 @@
+package projeto.projetoinformatico.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.mock.http.MockHttpOutputMessage;
+import projeto.projetoinformatico.config.web.GeoJsonHttpMessageConverter;
+import projeto.projetoinformatico.model.SearchResult;
+import projeto.projetoinformatico.service.SearchService;
+import projeto.projetoinformatico.utils.Tile;
+import projeto.projetoinformatico.utils.VectorTileEncoder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing a {@link SearchResult} in every format answered to clients, and reading the Jackson
+ * formats back into one. The result is built from the same solutions a query would give. Next to the time
+ * of {@link #serialize}, the {@code bytes} counter tells how large the format is.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchResultSerializationBenchmark {
+
+    private interface Encoder {
+        byte[] encode(SearchResult result) throws IOException;
+    }
+
+    @State(Scope.Benchmark)
+    public static class Encoding {
+
+        @Param({"json", "cbor", "smile", "geojson", "mvt"})
+        private String format;
+
+        private Encoder encoder;
+
+        @Setup
+        public void setUp() {
+            encoder = switch (format) {
+                case "json" -> writer(new ObjectMapper())::writeValueAsBytes;
+                case "cbor" -> writer(new ObjectMapper(new CBORFactory()))::writeValueAsBytes;
+                case "smile" -> writer(new ObjectMapper(new SmileFactory()))::writeValueAsBytes;
+                case "geojson" -> result -> {
+                    MockHttpOutputMessage message = new MockHttpOutputMessage();
+                    new GeoJsonHttpMessageConverter().write(result, GeoJsonHttpMessageConverter.APPLICATION_GEO_JSON, message);
+                    return message.getBodyAsBytes();
+                };
+                // The whole world in one tile, so every row is in it
+                case "mvt" -> result -> VectorTileEncoder.encode("layer", new Tile(0, 0, 0), result.table());
+                default -> throw new IllegalArgumentException("Unknown format " + format);
+            };
+        }
+
+        private static ObjectWriter writer(ObjectMapper objectMapper) {
+            return objectMapper.writerFor(SearchResult.class);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Decoding {
+
+        // GeoJSON and vector tiles are only ever written
+        @Param({"json", "cbor", "smile"})
+        private String format;
+
+        private ObjectMapper objectMapper;
+        private byte[] bytes;
+
+        @Setup
+        public void setUp(SearchResultSerializationBenchmark benchmark) throws IOException {
+            objectMapper = switch (format) {
+                case "json" -> new ObjectMapper();
+                case "cbor" -> new ObjectMapper(new CBORFactory());
+                case "smile" -> new ObjectMapper(new SmileFactory());
+                default -> throw new IllegalArgumentException("Unknown format " + format);
+            };
+            bytes = objectMapper.writeValueAsBytes(benchmark.searchResult);
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class EncodedSize {
+        // Size of the last result written, the same every time
+        public long bytes;
+    }
+
+    @Param({"100", "10000"})
+    private int rows;
+
+    private SearchResult searchResult;
+
+    @Setup
+    public void setUp() {
+        searchResult = new SearchResult(SearchService.processQueryResults(SyntheticResults.resultSet(rows)));
+    }
+
+    @Benchmark
+    public byte[] serialize(Encoding encoding, EncodedSize size) throws IOException {
+        byte[] bytes = encoding.encoder.encode(searchResult);
+        size.bytes = bytes.length;
+        return bytes;
+    }
+
+    @Benchmark
+    public SearchResult deserialize(Decoding decoding) throws IOException {
+        return decoding.objectMapper.readValue(decoding.bytes, SearchResult.class);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(SearchResultSerializationBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,83 @@
+package projeto.projetoinformatico.benchmarks;
+
+import org.apache.jena.datatypes.RDFDatatype;
+import org.apache.jena.datatypes.TypeMapper;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.ResultSetStream;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.engine.binding.BindingMap;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Result sets shaped like the answer to a layer query: an entity, a language tagged label, a
+ * description some items lack, WKT coordinates and an image URL. Rows are made as they are
+ * read, so a million of them never sit in memory at once; {@link #drain(ResultSet)} measures
+ * what making them costs on its own.
+ */
+final class SyntheticResults {
+
+    static final List<String> VARS = List.of("item", "itemLabel", "description", "coordinates", "image");
+
+    private static final Var ITEM = Var.alloc("item");
+    private static final Var ITEM_LABEL = Var.alloc("itemLabel");
+    private static final Var DESCRIPTION = Var.alloc("description");
+    private static final Var COORDINATES = Var.alloc("coordinates");
+    private static final Var IMAGE = Var.alloc("image");
+    private static final RDFDatatype WKT_LITERAL =
+            TypeMapper.getInstance().getSafeTypeByName("http://www.opengis.net/ont/geosparql#wktLiteral");
+
+    private SyntheticResults() {
+    }
+
+    static ResultSet resultSet(int rows) {
+        Iterator<Binding> bindings = new Iterator<>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < rows;
+            }
+
+            @Override
+            public Binding next() {
+                Binding binding = row(next);
+                next++;
+                return binding;
+            }
+        };
+        return new ResultSetStream(VARS, ModelFactory.createDefaultModel(), bindings);
+    }
+
+    /**
+     * Reads every solution without keeping anything, the cost of the rows themselves.
+     */
+    static int drain(ResultSet results) {
+        int count = 0;
+        while (results.hasNext()) {
+            results.nextBinding();
+            count++;
+        }
+        return count;
+    }
+
+    private static Binding row(int i) {
+        BindingMap binding = BindingFactory.create();
+        binding.add(ITEM, NodeFactory.createURI("http://www.wikidata.org/entity/Q" + (i + 1)));
+        binding.add(ITEM_LABEL, NodeFactory.createLiteral("Castle " + i, "en"));
+        if (i % 3 != 0) {
+            binding.add(DESCRIPTION, NodeFactory.createLiteral("castle in district " + (i % 20), "en"));
+        }
+        binding.add(COORDINATES, NodeFactory.createLiteral(
+                "Point(" + (-9.0 + (i % 1000) / 1000.0) + " " + (38.0 + (i % 700) / 1000.0) + ")", WKT_LITERAL));
+        if (i % 2 == 0) {
+            binding.add(IMAGE, NodeFactory.createURI("http://commons.wikimedia.org/wiki/Special:FilePath/Castle_" + i + ".jpg"));
+        }
+        return binding;
+    }
+}
@@ -0,0 +1,122 @@
+package projeto.projetoinformatico.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.mock.env.MockEnvironment;
+import projeto.projetoinformatico.config.cache.CacheConfig;
+import projeto.projetoinformatico.config.cache.DiskResultStore;
+import projeto.projetoinformatico.config.cache.SearchResultWeigher;
+import projeto.projetoinformatico.model.CachedSearchResult;
+import projeto.projetoinformatico.model.ResultTable;
+import projeto.projetoinformatico.model.SearchResult;
+import projeto.projetoinformatico.service.SearchService;
+import projeto.projetoinformatico.utils.QueryKey;
+import projeto.projetoinformatico.utils.QueryNamespace;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class CacheConfigTest {
+
+    private final SearchService searchService = mock(SearchService.class);
+
+    @SuppressWarnings("unchecked")
+    private CacheManager cacheManager(String searchSpec) {
+        ObjectProvider<SearchService> provider = mock(ObjectProvider.class);
+        when(provider.getObject()).thenReturn(searchService);
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("cache.spec.userCache", "maximumSize=2")
+                .withProperty("cache.spec.layerCache", "expireAfterAccess=60s")
+                .withProperty("cache.spec.requestCache", "maximumSize=10,recordStats")
+                .withProperty("cache.spec.searchCache", searchSpec);
+        ObjectProvider<DiskResultStore> noDiskStore = mock(ObjectProvider.class);
+        return new CacheConfig().cacheManager(environment, provider, Runnable::run, noDiskStore);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Cache<Object, Object> nativeCache(CacheManager cacheManager, String name) {
+        return ((CaffeineCache) cacheManager.getCache(name)).getNativeCache();
+    }
+
+    @Test
+    public void testEachCacheGetsItsOwnPolicy() {
+        CacheManager cacheManager = cacheManager("maximumWeight=1000000,refreshAfterWrite=300s,recordStats");
+
+        assertEquals(2, nativeCache(cacheManager, "userCache").policy().eviction().orElseThrow().getMaximum());
+        assertTrue(nativeCache(cacheManager, "layerCache").policy().expireAfterAccess().isPresent());
+        assertTrue(nativeCache(cacheManager, "layerCache").policy().eviction().isEmpty());
+        assertTrue(nativeCache(cacheManager, "requestCache").policy().isRecordingStats());
+        assertTrue(nativeCache(cacheManager, "searchCache").policy().eviction().orElseThrow().isWeighted());
+        assertTrue(nativeCache(cacheManager, "searchCache").policy().refreshAfterWrite().isPresent());
+        assertNull(cacheManager.getCache("unknownCache"));
+    }
+
+    @Test
+    public void testSearchCacheIsBoundedByResultSize() {
+        CacheManager cacheManager = cacheManager("maximumWeight=200000");
+        Cache<Object, Object> searchCache = nativeCache(cacheManager, "searchCache");
+
+        for (int i = 0; i < 50; i++) {
+            cacheManager.getCache("searchCache").put(key("q" + i), CachedSearchResult.fetchedNow(result(500, "q" + i)));
+        }
+        searchCache.cleanUp();
+
+        assertTrue(searchCache.estimatedSize() < 50);
+        assertTrue(searchCache.policy().eviction().orElseThrow().weightedSize().orElseThrow() <= 200000);
+    }
+
+    @Test
+    public void testRefreshRunsTheQueryAgain() {
+        CacheManager cacheManager = cacheManager("maximumWeight=1000000,refreshAfterWrite=300s");
+        QueryKey key = key("castles");
+        CachedSearchResult stale = new CachedSearchResult(result(1, "old"), 0);
+        CachedSearchResult fresh = CachedSearchResult.fetchedNow(result(1, "new"));
+        when(searchService.refresh(key)).thenReturn(fresh);
+        cacheManager.getCache("searchCache").put(key, stale);
+
+        ((LoadingCache<Object, Object>) nativeCache(cacheManager, "searchCache")).refresh(key).join();
+
+        assertSame(fresh, cacheManager.getCache("searchCache").get(key, CachedSearchResult.class));
+    }
+
+    @Test
+    public void testMissesAreLeftToSearchService() {
+        CacheManager cacheManager = cacheManager("maximumWeight=1000000,refreshAfterWrite=300s,recordStats");
+
+        assertNull(cacheManager.getCache("searchCache").get(key("missing")));
+        verifyNoInteractions(searchService);
+        CacheStats stats = nativeCache(cacheManager, "searchCache").stats();
+        assertEquals(1, stats.missCount());
+        assertEquals(0, stats.loadCount());
+    }
+
+    @Test
+    public void testWeightGrowsWithRowsAndValues() {
+        SearchResultWeigher weigher = new SearchResultWeigher();
+
+        int small = weigher.weigh(key("q"), CachedSearchResult.fetchedNow(result(10, "x")));
+        int large = weigher.weigh(key("q"), CachedSearchResult.fetchedNow(result(1000, "x")));
+
+        assertTrue(small > 10);
+        assertTrue(large > small * 50);
+    }
+
+    private static QueryKey key(String name) {
+        return new QueryKey(QueryNamespace.SPARQL, name, "SELECT * WHERE { ?s ?p \"" + name + "\" }");
+    }
+
+    private static SearchResult result(int rows, String prefix) {
+        ResultTable.Builder builder = ResultTable.builder(List.of("item", "itemLabel"));
+        for (int i = 0; i < rows; i++) {
+            builder.addRow("http://www.wikidata.org/entity/Q" + i, prefix + " label " + i);
+        }
+        return new SearchResult(builder.build());
+    }
+}
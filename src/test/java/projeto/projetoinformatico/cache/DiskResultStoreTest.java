@@ -0,0 +1,154 @@
+package projeto.projetoinformatico.cache;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.cache.Cache;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+import projeto.projetoinformatico.config.cache.DiskResultStore;
+import projeto.projetoinformatico.config.cache.TieredCache;
+import projeto.projetoinformatico.model.CachedSearchResult;
+import projeto.projetoinformatico.model.ResultTable;
+import projeto.projetoinformatico.model.SearchResult;
+import projeto.projetoinformatico.utils.QueryKey;
+import projeto.projetoinformatico.utils.QueryNamespace;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DiskResultStoreTest {
+
+    @TempDir
+    Path directory;
+
+    private String file() {
+        return directory.resolve("search-cache.mv.db").toString();
+    }
+
+    @Test
+    public void testResultsSurviveReopening() throws Exception {
+        CachedSearchResult result = new CachedSearchResult(result(100, "castle"), 1_700_000_000_000L);
+        DiskResultStore store = new DiskResultStore(file(), 10_000_000);
+        store.putAsync(key("castles"), result);
+        store.close();
+
+        DiskResultStore reopened = new DiskResultStore(file(), 10_000_000);
+        try {
+            assertEquals(result, reopened.get(key("castles")));
+            assertEquals(1, reopened.getEntryCount());
+            assertNull(reopened.get(key("churches")));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void testLeastRecentlyUsedResultsAreDroppedPastBudget() throws Exception {
+        long entryBytes;
+        DiskResultStore measure = new DiskResultStore(directory.resolve("measure.mv.db").toString(), 10_000_000);
+        try {
+            measure.put(key("a"), CachedSearchResult.fetchedNow(result(50, "a")));
+            entryBytes = measure.getTotalBytes();
+        } finally {
+            measure.close();
+        }
+
+        long budget = entryBytes * 3 + entryBytes / 2;
+        DiskResultStore store = new DiskResultStore(file(), budget);
+        try {
+            store.put(key("a"), CachedSearchResult.fetchedNow(result(50, "a")));
+            store.put(key("b"), CachedSearchResult.fetchedNow(result(50, "b")));
+            store.put(key("c"), CachedSearchResult.fetchedNow(result(50, "c")));
+            store.get(key("a"));
+            store.put(key("d"), CachedSearchResult.fetchedNow(result(50, "d")));
+
+            assertNotNull(store.get(key("a")));
+            assertNull(store.get(key("b")));
+            assertNotNull(store.get(key("c")));
+            assertNotNull(store.get(key("d")));
+            assertTrue(store.getTotalBytes() <= budget);
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testReadsAreRememberedAcrossReopening() throws Exception {
+        DiskResultStore store = new DiskResultStore(file(), 10_000_000);
+        store.put(key("a"), CachedSearchResult.fetchedNow(result(50, "a")));
+        store.put(key("b"), CachedSearchResult.fetchedNow(result(50, "b")));
+        long entryBytes = store.getTotalBytes() / 2;
+        Thread.sleep(5);
+        store.get(key("a"));
+        store.close();
+
+        // Room for two results, the one not read since it was stored goes first
+        DiskResultStore reopened = new DiskResultStore(file(), entryBytes * 2 + entryBytes / 2);
+        try {
+            reopened.put(key("c"), CachedSearchResult.fetchedNow(result(50, "c")));
+
+            assertNotNull(reopened.get(key("a")));
+            assertNull(reopened.get(key("b")));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void testWarmUpLoadsMostRecentlyUsedFirst() throws Exception {
+        DiskResultStore store = new DiskResultStore(file(), 10_000_000);
+        try {
+            store.put(key("old"), CachedSearchResult.fetchedNow(result(1, "old")));
+            store.put(key("new"), CachedSearchResult.fetchedNow(result(1, "new")));
+
+            List<QueryKey> loaded = new ArrayList<>();
+            CountDownLatch done = new CountDownLatch(1);
+            store.warmUp((key, value) -> {
+                loaded.add(key);
+                done.countDown();
+                return false;
+            });
+
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertEquals(List.of(key("new")), loaded);
+            assertEquals(key("new").query(), loaded.get(0).query());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testTieredCachePromotesResultsFromDisk() throws Exception {
+        DiskResultStore store = new DiskResultStore(file(), 10_000_000);
+        try {
+            CachedSearchResult result = CachedSearchResult.fetchedNow(result(10, "castle"));
+            store.put(key("castles"), result);
+            Cache memory = new ConcurrentMapCache("searchCache");
+            TieredCache cache = new TieredCache(memory, store);
+
+            assertEquals(result, cache.get(key("castles"), CachedSearchResult.class));
+            assertNotNull(memory.get(key("castles")));
+
+            cache.evict(key("castles"));
+            assertNull(cache.get(key("castles")));
+        } finally {
+            store.close();
+        }
+    }
+
+    private static QueryKey key(String name) {
+        return new QueryKey(QueryNamespace.LAYER, name, "SELECT * WHERE { ?s ?p \"" + name + "\" }");
+    }
+
+    private static SearchResult result(int rows, String prefix) {
+        ResultTable.Builder builder = ResultTable.builder(List.of("item", "itemLabel"));
+        for (int i = 0; i < rows; i++) {
+            builder.addRow("http://www.wikidata.org/entity/Q" + i, prefix + " label " + i);
+        }
+        return new SearchResult(builder.build());
+    }
+}
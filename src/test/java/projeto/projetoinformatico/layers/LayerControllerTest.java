@@ -11,6 +11,7 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
@@ -22,18 +23,23 @@ import projeto.projetoinformatico.dtos.LayerDTO;
 import projeto.projetoinformatico.dtos.Paged.LayerPageDTO;
 import projeto.projetoinformatico.exceptions.Exception.InvalidParamsRequestException;
 import projeto.projetoinformatico.exceptions.Exception.NotFoundException;
+import projeto.projetoinformatico.model.CachedSearchResult;
+import projeto.projetoinformatico.model.ClusterResult;
 import projeto.projetoinformatico.model.SearchResult;
 import projeto.projetoinformatico.model.layers.Layer;
 import projeto.projetoinformatico.model.users.Role;
 import projeto.projetoinformatico.model.users.User;
 import projeto.projetoinformatico.model.users.UserRepository;
 import projeto.projetoinformatico.requests.LayerRequest;
+import projeto.projetoinformatico.service.ClusterService;
 import projeto.projetoinformatico.service.LayerService;
 import projeto.projetoinformatico.utils.Validation;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
@@ -62,7 +68,7 @@ public class LayerControllerTest {
         validation = mock(Validation.class);
         rateLimiter = mock(RateLimiter.class);
         userRepository = mock(UserRepository.class);
-        layerController = new LayerController(layerService, validation);
+        layerController = new LayerController(layerService, validation, new ClusterService(16));
     }
 
     @Test
@@ -159,14 +165,41 @@ public class LayerControllerTest {
 
         // Mock layer service response
         SearchResult mockSearchResult = new SearchResult(Collections.emptyList());
-        when(layerService.getLayerByIdWithParams(id, lat1, lon1, lat2, lon2, start, end)).thenReturn(mockSearchResult);
+        CachedSearchResult cached = new CachedSearchResult(mockSearchResult, System.currentTimeMillis() - 90_000);
+        when(layerService.getLayerByIdWithParamsAsync(id, lat1, lon1, lat2, lon2, start, end)).thenReturn(CompletableFuture.completedFuture(cached));
 
         // Call the controller method
-        ResponseEntity<?> response = layerController.getLayerResultsByIdWithParams(id, lat1, lon2, lat2, lon1, start, end);
+        ResponseEntity<?> response = (ResponseEntity<?>) layerController.getLayerResultsByIdWithParams(id, lat1, lon2, lat2, lon1, start, end, null).getResult();
 
         // Verify response
         assertEquals(HttpStatus.OK, response.getStatusCode());
         assertEquals(mockSearchResult, response.getBody());
+        assertEquals("90", response.getHeaders().getFirst(HttpHeaders.AGE));
+    }
+
+    @Test
+    public void testGetLayerResultsByIdWithParams_Clustered() {
+        when(validation.isValidCoordinate(38.0, -10.0, 42.0, -8.0)).thenReturn(true);
+        String wkt = "^^http://www.opengis.net/ont/geosparql#wktLiteral";
+        SearchResult result = new SearchResult(List.of(
+                Map.of("item", "http://www.wikidata.org/entity/Q597", "coordinates", "Point(-9.15 38.7252)" + wkt),
+                Map.of("item", "http://www.wikidata.org/entity/Q2001", "coordinates", "Point(-9.0938 38.7677)" + wkt),
+                Map.of("item", "http://www.wikidata.org/entity/Q36433", "coordinates", "Point(-8.6219 41.1621)" + wkt)));
+        when(layerService.getLayerByIdWithParamsAsync(1L, 38.0, -8.0, 42.0, -10.0, 1000L, 2000L))
+                .thenReturn(CompletableFuture.completedFuture(CachedSearchResult.fetchedNow(result)));
+
+        ResponseEntity<?> response = (ResponseEntity<?>) layerController
+                .getLayerResultsByIdWithParams(1L, 38.0, -10.0, 42.0, -8.0, 1000L, 2000L, 6).getResult();
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        ClusterResult clusters = (ClusterResult) response.getBody();
+        assertEquals(3, clusters.points());
+        assertEquals(2, clusters.clusters().size());
+        assertEquals(2, clusters.clusters().get(0).count());
+        assertNull(clusters.clusters().get(0).item());
+        assertEquals("http://www.wikidata.org/entity/Q36433", clusters.clusters().get(1).item().get("item"));
+        assertThrows(InvalidParamsRequestException.class, () ->
+                layerController.getLayerResultsByIdWithParams(1L, 38.0, -10.0, 42.0, -8.0, 1000L, 2000L, 19));
     }
 
     @Test
@@ -186,7 +219,7 @@ public class LayerControllerTest {
 
         // Call the controller method and expect InvalidParamsRequestException
         assertThrows(InvalidParamsRequestException.class, () -> {
-            layerController.getLayerResultsByIdWithParams(id, lat1, lon2, lat2, lon1, start, end);
+            layerController.getLayerResultsByIdWithParams(id, lat1, lon2, lat2, lon1, start, end, null);
         });
     }
 /*
@@ -211,7 +244,7 @@ public class LayerControllerTest {
 
         // Call the controller method and expect SparqlQueryException
         assertThrows(SparqlQueryException.class, () -> {
-            layerController.getLayerResultsByIdWithParams(id, lat1, lon2, lat2, lon1, start, end);
+            layerController.getLayerResultsByIdWithParams(id, lat1, lon2, lat2, lon1, start, end, null);
         });
     }
 */
@@ -379,7 +412,7 @@ public class LayerControllerTest {
         // Mock dependencies
         LayerDTO layerDTO = new LayerDTO();
 
-        LayerController layerController = new LayerController(layerService, validation);
+        LayerController layerController = new LayerController(layerService, validation, new ClusterService(16));
 
         // Set up mock behavior
         when(layerService.getLayerById(100L)).thenThrow(new NotFoundException("Layer not found with id: 100"));
@@ -403,7 +436,7 @@ public class LayerControllerTest {
 
         // Call the endpoint
         ResponseEntity<?> response = layerController.getLayerResultsByIdWithParams(2L, 38.7223, -8.6291, 41.1579, -9.1393,
-                2000L, 2020L);
+                2000L, 2020L, null);
 
         // Assert the response
         assertEquals(HttpStatus.OK, response.getStatusCode());
@@ -415,7 +448,7 @@ public class LayerControllerTest {
         when(rateLimiter.tryAcquire()).thenReturn(false);
 
         ResponseEntity<?> response = layerController.getLayerResultsByIdWithParams(
-                1L, 38.7223, -9.1393, 41.1579, -8.6291, 2000L, 2020L);
+                1L, 38.7223, -9.1393, 41.1579, -8.6291, 2000L, 2020L, null);
 
         assertEquals(HttpStatus.TOO_MANY_REQUESTS, response.getStatusCode());
     }
@@ -427,7 +460,7 @@ public class LayerControllerTest {
 
         try {
             layerController.getLayerResultsByIdWithParams(
-                    1L, 38.7223, -9.1393, 41.1579, -8.6291, 2000L, 2020L);
+                    1L, 38.7223, -9.1393, 41.1579, -8.6291, 2000L, 2020L, null);
         } catch (InvalidParamsRequestException e) {
             assertEquals("Invalid params", e.getMessage());
         }
@@ -443,7 +476,7 @@ public class LayerControllerTest {
 
         try {
             layerController.getLayerResultsByIdWithParams(
-                    1L, 38.7223, -9.1393, 41.1579, -8.6291, 2000L, 2020L);
+                    1L, 38.7223, -9.1393, 41.1579, -8.6291, 2000L, 2020L, null);
         } catch (SparqlQueryException e) {
             assertEquals("Invalid Sparql Query", e.getMessage());
         }
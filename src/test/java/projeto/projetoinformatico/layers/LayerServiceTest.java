@@ -1,10 +1,16 @@
 package projeto.projetoinformatico.layers;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import projeto.projetoinformatico.dtos.LayerDTO;
 import projeto.projetoinformatico.exceptions.Exception.InvalidRequestException;
 import projeto.projetoinformatico.exceptions.Exception.NotFoundException;
+import projeto.projetoinformatico.model.CachedSearchResult;
+import projeto.projetoinformatico.model.ResultTable;
 import projeto.projetoinformatico.model.SearchResult;
 import projeto.projetoinformatico.model.layers.Layer;
 import projeto.projetoinformatico.model.layers.LayersRepository;
@@ -12,12 +18,21 @@ import projeto.projetoinformatico.model.users.Role;
 import projeto.projetoinformatico.model.users.User;
 import projeto.projetoinformatico.model.users.UserRepository;
 import projeto.projetoinformatico.requests.LayerRequest;
+import projeto.projetoinformatico.service.ClusterService;
 import projeto.projetoinformatico.service.LayerService;
+import projeto.projetoinformatico.service.MaterializationService;
 import projeto.projetoinformatico.service.SearchService;
+import projeto.projetoinformatico.service.SpatialIndexService;
+import projeto.projetoinformatico.service.TemporalFilterService;
+import projeto.projetoinformatico.utils.LayerCostProfiler;
 import projeto.projetoinformatico.utils.ModelMapperUtils;
+import projeto.projetoinformatico.utils.QueryMetrics;
+import projeto.projetoinformatico.utils.QueryNamespace;
 import projeto.projetoinformatico.utils.SparqlQueryProvider;
+import projeto.projetoinformatico.utils.Tile;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -34,20 +49,29 @@ public class LayerServiceTest {
 
     private SearchService searchService;
 
+    private SpatialIndexService spatialIndexService;
+
+    private MaterializationService materializationService;
+
     private ModelMapperUtils mapperUtils;
 
     private UserRepository userRepository;
 
+    private SimpleMeterRegistry meterRegistry;
 
     @BeforeEach
     public void setUp() {
         sparqlQueryProvider = mock(SparqlQueryProvider.class);
         mapperUtils = mock(ModelMapperUtils.class);
         searchService = mock(SearchService.class);
+        spatialIndexService = mock(SpatialIndexService.class);
+        materializationService = mock(MaterializationService.class);
         userRepository = mock(UserRepository.class);
         layersRepository = mock(LayersRepository.class);
-        layerService = new LayerService(layersRepository, sparqlQueryProvider, searchService
-                , mapperUtils, userRepository);
+        meterRegistry = new SimpleMeterRegistry();
+        layerService = new LayerService(layersRepository, sparqlQueryProvider, searchService, spatialIndexService
+                , new TemporalFilterService(16), materializationService, mapperUtils, userRepository,
+                new QueryMetrics(meterRegistry), new LayerCostProfiler(16));
 
     }
 
@@ -83,6 +107,46 @@ public class LayerServiceTest {
         assertNotNull(createdLayer);
         assertEquals(expectedDTO.getId(), createdLayer.getId());
         assertEquals(expectedDTO.getUserDTO(), createdLayer.getUserDTO());
+        verify(materializationService).update(1L, null, null, false);
+    }
+
+    @Test
+    void getLayerByIdWithParamsAsync_AnsweredByMaterializedResults() {
+        LayerDTO layerDTO = new LayerDTO();
+        layerDTO.setId(1L);
+        layerDTO.setQuery("Valid Query");
+        when(layersRepository.findById(1L)).thenReturn(Optional.of(new Layer()));
+        when(mapperUtils.layerToDTO(any(Layer.class), eq(LayerDTO.class))).thenReturn(layerDTO);
+        CachedSearchResult materialized = new CachedSearchResult(new SearchResult(List.of(Map.of("item", "Q597"))), 1_000L);
+        when(materializationService.find(1L, "Valid Query", null, 1.0, 4.0, 3.0, 2.0, 1000L, 2000L))
+                .thenReturn(Optional.of(materialized));
+
+        CachedSearchResult result = layerService.getLayerByIdWithParamsAsync(1L, 1.0, 4.0, 3.0, 2.0, 1000L, 2000L).join();
+
+        assertSame(materialized, result);
+        verifyNoInteractions(searchService);
+    }
+
+    @Test
+    void getLayerByIdWithParamsAsync_TimedWithoutTheLayerId() {
+        LayerDTO layerDTO = new LayerDTO();
+        layerDTO.setId(1L);
+        layerDTO.setQuery("Valid Query");
+        when(layersRepository.findById(1L)).thenReturn(Optional.of(new Layer()));
+        when(mapperUtils.layerToDTO(any(Layer.class), eq(LayerDTO.class))).thenReturn(layerDTO);
+        when(materializationService.find(1L, "Valid Query", null, 1.0, 4.0, 3.0, 2.0, null, null))
+                .thenReturn(Optional.of(new CachedSearchResult(new SearchResult(List.of()), 1_000L)));
+
+        layerService.getLayerByIdWithParamsAsync(1L, 1.0, 4.0, 3.0, 2.0, null, null).join();
+        // Unknown layers make no meters
+        for (long id = 2; id < 10; id++) {
+            long unknown = id;
+            assertThrows(NotFoundException.class, () -> layerService.getLayerByIdWithParamsAsync(unknown, 1.0, 4.0, 3.0, 2.0, null, null));
+        }
+
+        assertEquals(1, meterRegistry.find("layers.request").timers().size());
+        assertEquals(1, meterRegistry.get("layers.request").tag("mode", "box").tag("outcome", "success").timer().count());
+        assertNull(meterRegistry.get("layers.request").timer().getId().getTag("layer"));
     }
 
     @Test
@@ -137,17 +201,129 @@ public class LayerServiceTest {
 
         // Mock layer service response
         SearchResult mockSearchResult = new SearchResult(Collections.emptyList());
-        when(layerService.getLayerByIdWithParams(id, lat1, lon1, lat2, lon2, start, end)).thenReturn(mockSearchResult);
+        when(searchService.executeCachedSparqlQueryAsync(eq(QueryNamespace.LAYER), isNull(), any()))
+                .thenReturn(CompletableFuture.completedFuture(CachedSearchResult.fetchedNow(mockSearchResult)));
 
         // Call the service method
-        SearchResult result = layerService.getLayerByIdWithParams(id, lat1, lon1, lat2, lon2, start, end);
+        SearchResult result = layerService.getLayerByIdWithParamsAsync(id, lat1, lon1, lat2, lon2, start, end).join().result();
 
         // Verify result
-        assertEquals(mockSearchResult, result);
+        assertTrue(result.results().isEmpty());
+    }
+
+    @Test
+    void getLayerByIdWithParamsAsync_BoxAnsweredByLocalIndex() {
+        LayerDTO layerDTO = new LayerDTO();
+        layerDTO.setId(1L);
+        layerDTO.setQuery("Valid Query");
+        when(layersRepository.findById(1L)).thenReturn(Optional.of(new Layer()));
+        when(mapperUtils.layerToDTO(any(Layer.class), eq(LayerDTO.class))).thenReturn(layerDTO);
+        when(spatialIndexService.findItemsWithin(1.0, 4.0, 3.0, 2.0, null, null)).thenReturn(Optional.of(List.of("Q597", "Q36433")));
+        when(sparqlQueryProvider.buildLocalFilterQuery("Valid Query", List.of("Q597", "Q36433"))).thenReturn("Local Query");
+        when(sparqlQueryProvider.buildTimesQuery("Local Query")).thenReturn("Local Times Query");
+        SearchResult mockSearchResult = new SearchResult(List.of(Map.of("item", "Q597")));
+        when(searchService.executeCachedSparqlQueryAsync(QueryNamespace.LAYER, null, "Local Times Query"))
+                .thenReturn(CompletableFuture.completedFuture(CachedSearchResult.fetchedNow(mockSearchResult)));
+
+        SearchResult result = layerService.getLayerByIdWithParamsAsync(1L, 1.0, 4.0, 3.0, 2.0, null, null).join().result();
+
+        assertSame(mockSearchResult, result);
+        verify(sparqlQueryProvider, never()).buildFilterQuery(anyString(), any(), any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void getLayerTilesByIdWithParams_MergesTilesWithoutDuplicates() {
+        ReflectionTestUtils.setField(layerService, "maxTilesPerViewport", 4);
+        LayerDTO layerDTO = new LayerDTO();
+        layerDTO.setId(1L);
+        layerDTO.setQuery("Valid Query");
+        when(layersRepository.findById(1L)).thenReturn(Optional.of(new Layer()));
+        when(mapperUtils.layerToDTO(any(Layer.class), eq(LayerDTO.class))).thenReturn(layerDTO);
+        when(spatialIndexService.findItemsWithin(any(), any(), any(), any(), any(), any())).thenReturn(Optional.empty());
+        when(sparqlQueryProvider.buildFilterQuery(eq("Valid Query"), any(), any(), any(), any(), any(), any()))
+                .thenAnswer(invocation -> "Tile " + invocation.getArgument(1) + " " + invocation.getArgument(2));
+        when(sparqlQueryProvider.buildTimesQuery(anyString())).thenAnswer(invocation -> invocation.getArgument(0));
+        long now = System.currentTimeMillis();
+        // Every tile finds the item on the shared edge plus one item of its own
+        when(searchService.executeCachedSparqlQueryAsync(eq(QueryNamespace.LAYER), isNull(), anyString()))
+                .thenAnswer(invocation -> CompletableFuture.completedFuture(new CachedSearchResult(new SearchResult(List.of(
+                        Map.of("item", "Q1"),
+                        Map.of("item", invocation.getArgument(2, String.class)))), now - 5_000)));
+
+        CachedSearchResult result = layerService.getLayerTilesByIdWithParamsAsync(1L, 38.70, -9.20, 38.75, -9.10, null, null).join();
+
+        int tiles = Tile.covering(38.70, -9.20, 38.75, -9.10, 4).size();
+        assertTrue(tiles > 1);
+        assertEquals(tiles + 1, result.result().results().size());
+        assertEquals(1, result.result().results().stream().filter(row -> row.get("item").equals("Q1")).count());
+        assertEquals(now - 5_000, result.fetchedAtMillis());
+        verify(searchService, times(tiles)).executeCachedSparqlQueryAsync(eq(QueryNamespace.LAYER), isNull(), anyString());
+    }
+
+    @Test
+    void getLayerByIdWithParamsAsync_FiltersYearsOfTheCachedBox() {
+        LayerDTO layerDTO = new LayerDTO();
+        layerDTO.setId(1L);
+        layerDTO.setQuery("Valid Query");
+        when(layersRepository.findById(1L)).thenReturn(Optional.of(new Layer()));
+        when(mapperUtils.layerToDTO(any(Layer.class), eq(LayerDTO.class))).thenReturn(layerDTO);
+        when(spatialIndexService.findItemsWithin(any(), any(), any(), any(), isNull(), isNull())).thenReturn(Optional.empty());
+        when(sparqlQueryProvider.buildFilterQuery("Valid Query", 1.0, 4.0, 3.0, 2.0, null, null)).thenReturn("Box Query");
+        when(sparqlQueryProvider.buildTimesQuery("Box Query")).thenReturn("Box Times Query");
+        String dateTime = "^^http://www.w3.org/2001/XMLSchema#dateTime";
+        SearchResult box = new SearchResult(ResultTable.builder(List.of("item", "pointInTime", "startTime", "endTime"))
+                .addRow("Q1", "1755-11-01T00:00:00Z" + dateTime, null, null)
+                .addRow("Q2", null, "1998-05-22T00:00:00Z" + dateTime, "1998-09-30T00:00:00Z" + dateTime)
+                .addRow("Q3", null, null, null)
+                .build());
+        when(searchService.executeCachedSparqlQueryAsync(QueryNamespace.LAYER, null, "Box Times Query"))
+                .thenReturn(CompletableFuture.completedFuture(new CachedSearchResult(box, 1_000L)));
+
+        CachedSearchResult earthquake = layerService.getLayerByIdWithParamsAsync(1L, 1.0, 4.0, 3.0, 2.0, 1700L, 1800L).join();
+        CachedSearchResult expo = layerService.getLayerByIdWithParamsAsync(1L, 1.0, 4.0, 3.0, 2.0, 1998L, 1998L).join();
+        CachedSearchResult all = layerService.getLayerByIdWithParamsAsync(1L, 1.0, 4.0, 3.0, 2.0, 1000L, 2000L).join();
+
+        assertEquals(List.of("Q1", "Q3"), earthquake.result().results().stream().map(row -> row.get("item")).toList());
+        assertEquals(List.of("Q2", "Q3"), expo.result().results().stream().map(row -> row.get("item")).toList());
+        assertEquals(List.of("Q1", "Q2", "Q3"), all.result().results().stream().map(row -> row.get("item")).toList());
+        assertEquals(1_000L, expo.fetchedAtMillis());
+        // The times are only there for filtering
+        assertEquals(List.of("item"), expo.result().table().getVariables());
+        assertEquals(List.of("item"), all.result().table().getVariables());
+        // Every range of years is answered by the same query of the box
+        verify(searchService, times(3)).executeCachedSparqlQueryAsync(QueryNamespace.LAYER, null, "Box Times Query");
     }
 
     @Test
-    void getLayerByIdWithParams_LayerNotFound() {
+    void getLayerByIdWithParamsAsync_SameYearsReuseTheClusterHierarchy() {
+        LayerDTO layerDTO = new LayerDTO();
+        layerDTO.setId(1L);
+        layerDTO.setQuery("Valid Query");
+        when(layersRepository.findById(1L)).thenReturn(Optional.of(new Layer()));
+        when(mapperUtils.layerToDTO(any(Layer.class), eq(LayerDTO.class))).thenReturn(layerDTO);
+        when(sparqlQueryProvider.buildFilterQuery("Valid Query", 1.0, 4.0, 3.0, 2.0, null, null)).thenReturn("Box Query");
+        when(sparqlQueryProvider.buildTimesQuery("Box Query")).thenReturn("Box Times Query");
+        String wkt = "^^http://www.opengis.net/ont/geosparql#wktLiteral";
+        SearchResult box = new SearchResult(ResultTable.builder(List.of("item", "coordinates", "pointInTime", "startTime", "endTime"))
+                .addRow("Q1", "Point(-9.15 38.7252)" + wkt, "1755-11-01T00:00:00Z^^http://www.w3.org/2001/XMLSchema#dateTime", null, null)
+                .addRow("Q2", "Point(-8.6219 41.1621)" + wkt, null, null, null)
+                .build());
+        when(searchService.executeCachedSparqlQueryAsync(QueryNamespace.LAYER, null, "Box Times Query"))
+                .thenReturn(CompletableFuture.completedFuture(new CachedSearchResult(box, 1_000L)));
+        ClusterService clusterService = new ClusterService(16);
+        clusterService.bindTo(meterRegistry);
+
+        for (int i = 0; i < 2; i++) {
+            CachedSearchResult result = layerService.getLayerByIdWithParamsAsync(1L, 1.0, 4.0, 3.0, 2.0, 1700L, 1800L).join();
+            assertEquals(2, clusterService.cluster(result.result(), 6).points());
+        }
+
+        assertEquals(1.0, meterRegistry.get("cache.gets").tags("cache", "layers.clusters", "result", "hit").functionCounter().count());
+        assertEquals(1.0, meterRegistry.get("cache.gets").tags("cache", "layers.clusters", "result", "miss").functionCounter().count());
+    }
+
+    @Test
+    void getLayerByIdWithParamsAsync_LayerNotFound() {
         // Mock parameters
         Long id = 1L;
         Double lat1 = 1.0;
@@ -157,25 +333,16 @@ public class LayerServiceTest {
         Long start = 1000L;
         Long end = 2000L;
 
-        // Mock layerDTO
-        LayerDTO layerDTO = new LayerDTO();
-        layerDTO.setId(id);
-        layerDTO.setQuery("Valid Query");
-
         // Mock layersRepository behavior
-        when(layersRepository.findById(id)).thenReturn(Optional.of(new Layer())); // Assuming findById returns Optional
-        when(mapperUtils.layerToDTO(any(Layer.class), eq(LayerDTO.class))).thenReturn(layerDTO);
-
-        // Mock layer service response
-        SearchResult mockSearchResult = new SearchResult(Collections.emptyList());
-        when(layerService.getLayerByIdWithParams(id, lat1, lon1, lat2, lon2, start, end)).thenThrow(new NotFoundException("Layer not found with id: " + id));
+        when(layersRepository.findById(id)).thenReturn(Optional.empty());
 
         // Act & Assert
-        assertThrows(NotFoundException.class, () -> layerService.getLayerByIdWithParams(id, 0.0, 0.0, 0.0, 0.0, 0L, 0L));
+        assertThrows(NotFoundException.class, () -> layerService.getLayerByIdWithParamsAsync(id, lat1, lon1, lat2, lon2, start, end));
+        verifyNoInteractions(searchService);
     }
 
     @Test
-    void getLayerByIdWithParams_InvalidSparqlQuery() {
+    void getLayerByIdWithParamsAsync_InvalidSparqlQuery() {
         // Mock parameters
         Long id = 1L;
         Double lat1 = 1.0;
@@ -188,22 +355,18 @@ public class LayerServiceTest {
         // Mock layerDTO
         LayerDTO layerDTO = new LayerDTO();
         layerDTO.setId(id);
-        layerDTO.setQuery("Valid Query");
+        layerDTO.setQuery("Invalid Query");
 
         // Mock layersRepository behavior
         when(layersRepository.findById(id)).thenReturn(Optional.of(new Layer())); // Assuming findById returns Optional
         when(mapperUtils.layerToDTO(any(Layer.class), eq(LayerDTO.class))).thenReturn(layerDTO);
 
-        // Mock layer service response
-        SearchResult mockSearchResult = new SearchResult(Collections.emptyList());
-        when(layerService.getLayerByIdWithParams(id, lat1, lon1, lat2, lon2, start, end)).thenThrow(new InvalidRequestException("Invalid SPARQL query"));
-
         // Mocking isSparqlQueryValid to return true for invalid query
-        //when(sparqlQueryProvider.isSparqlQueryValid("Invalid Query")).thenReturn(true);
+        when(sparqlQueryProvider.isSparqlQueryValid("Invalid Query")).thenReturn(true);
 
         // Act & Assert
         assertThrows(InvalidRequestException.class, () ->
-                layerService.getLayerByIdWithParams(id, 0.0, 0.0, 0.0, 0.0, 0L, 0L)
+                layerService.getLayerByIdWithParamsAsync(id, lat1, lon1, lat2, lon2, start, end)
         );
     }
 
@@ -276,6 +439,52 @@ public class LayerServiceTest {
         assertEquals(expectedDTO, resultDTO);
     }
 
+    @Test
+    void updateLayer_KeepsBackendAndMaterializationLeftOut() {
+        Layer existingLayer = new Layer();
+        existingLayer.setId(1L);
+        existingLayer.setLayerName("Castles");
+        existingLayer.setQuery("Existing Query");
+        existingLayer.setBackend("local");
+        existingLayer.setMaterialized(true);
+        when(layersRepository.findById(1L)).thenReturn(Optional.of(existingLayer));
+        when(layersRepository.save(existingLayer)).thenReturn(existingLayer);
+        LayerRequest layerRequest = new LayerRequest();
+        layerRequest.setName("Portuguese castles");
+        layerRequest.setQuery("New Query");
+
+        layerService.updateLayer(1L, layerRequest);
+
+        assertEquals("New Query", existingLayer.getQuery());
+        assertEquals("local", existingLayer.getBackend());
+        assertTrue(existingLayer.getMaterialized());
+        verify(materializationService).update(1L, "New Query", "local", true);
+        verify(materializationService, never()).remove(any());
+    }
+
+    @Test
+    void updateLayer_MaterializesOnlyOnceCommitted() {
+        Layer existingLayer = new Layer();
+        existingLayer.setId(1L);
+        when(layersRepository.findById(1L)).thenReturn(Optional.of(existingLayer));
+        when(layersRepository.save(existingLayer)).thenReturn(existingLayer);
+        LayerRequest layerRequest = new LayerRequest();
+        layerRequest.setName("Castles");
+        layerRequest.setQuery("Query");
+        layerRequest.setMaterialized(true);
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            layerService.updateLayer(1L, layerRequest);
+            verifyNoInteractions(materializationService);
+
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        verify(materializationService).update(1L, "Query", null, true);
+    }
+
     @Test
     void updateLayer_LayerNotFound() {
         // Arrange
@@ -0,0 +1,174 @@
+package projeto.projetoinformatico.layers;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import projeto.projetoinformatico.model.CachedSearchResult;
+import projeto.projetoinformatico.model.MaterializationStatus;
+import projeto.projetoinformatico.model.ResultTable;
+import projeto.projetoinformatico.model.SearchResult;
+import projeto.projetoinformatico.model.layers.LayersRepository;
+import projeto.projetoinformatico.service.LayerRefreshScheduler;
+import projeto.projetoinformatico.service.MaterializationService;
+import projeto.projetoinformatico.service.SearchService;
+import projeto.projetoinformatico.utils.RemoteQueryBudget;
+import projeto.projetoinformatico.utils.SparqlQueryProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+public class MaterializationServiceTest {
+
+    private static final String WKT = "^^http://www.opengis.net/ont/geosparql#wktLiteral";
+    private static final String DATE_TIME = "^^http://www.w3.org/2001/XMLSchema#dateTime";
+
+    private SearchService searchService;
+    private SimpleMeterRegistry registry;
+    private MaterializationService materializationService;
+
+    @BeforeEach
+    public void setUp() {
+        searchService = mock(SearchService.class);
+        registry = new SimpleMeterRegistry();
+        SparqlQueryProvider sparqlQueryProvider = mock(SparqlQueryProvider.class);
+        when(sparqlQueryProvider.buildTimesQuery(anyString())).thenAnswer(invocation -> invocation.getArgument(0) + " Times");
+        materializationService = new MaterializationService(searchService, sparqlQueryProvider, mock(LayersRepository.class), 60_000);
+    }
+
+    @Test
+    public void testBoxesAndYearsAreAnsweredFromTheMaterializedResults() {
+        when(searchService.executeUncachedSparqlQuery(null, "Layer Query Times")).thenReturn(new CachedSearchResult(places(), 5_000L));
+
+        materializationService.update(1L, "Layer Query", null, true);
+        assertTrue(materializationService.find(1L, "Layer Query", null, 38.6, -9.3, 38.8, -9.0, null, null).isEmpty());
+        assertTrue(materializationService.refresh(1L));
+        Optional<CachedSearchResult> lisbon = materializationService.find(1L, "Layer Query", null, 38.6, -9.3, 38.8, -9.0, null, null);
+        // Items without any time are kept for every range of years
+        Optional<CachedSearchResult> earthquake = materializationService.find(1L, "Layer Query", null, 38.6, -9.3, 38.8, -9.0, 1700L, 1800L);
+        Optional<CachedSearchResult> portugal = materializationService.find(1L, "Layer Query", null, 42.0, -7.0, 37.0, -10.0, null, null);
+
+        assertEquals(List.of("Q597", "Q2001"), items(lisbon.orElseThrow()));
+        assertEquals(5_000L, lisbon.orElseThrow().fetchedAtMillis());
+        assertEquals(List.of("Q597"), items(earthquake.orElseThrow()));
+        assertEquals(List.of("item", "coordinates"), earthquake.orElseThrow().result().table().getVariables());
+        assertEquals(List.of("Q597", "Q2001", "Q36433"), items(portugal.orElseThrow()));
+        assertEquals(new MaterializationStatus(1L, true, true, false, 4, 5_000L), materializationService.status(1L));
+        verify(searchService, times(1)).executeUncachedSparqlQuery(null, "Layer Query Times");
+    }
+
+    @Test
+    public void testChangedOrDroppedLayersAreNotAnswered() {
+        when(searchService.executeUncachedSparqlQuery(isNull(), anyString())).thenReturn(new CachedSearchResult(places(), 5_000L));
+        materializationService.update(1L, "Layer Query", null, true);
+        materializationService.refresh(1L);
+
+        assertTrue(materializationService.find(1L, "Other Query", null, 38.6, -9.3, 38.8, -9.0, null, null).isEmpty());
+        assertTrue(materializationService.find(1L, "Layer Query", "local", 38.6, -9.3, 38.8, -9.0, null, null).isEmpty());
+
+        materializationService.update(1L, "Other Query", null, true);
+
+        assertFalse(materializationService.status(1L).ready());
+        assertTrue(materializationService.dueForRefresh().get(0).missing());
+
+        materializationService.update(1L, "Other Query", null, false);
+
+        assertTrue(materializationService.dueForRefresh().isEmpty());
+        assertFalse(materializationService.refresh(1L));
+        assertFalse(materializationService.status(1L).materialized());
+    }
+
+    @Test
+    public void testSchedulerRefreshesSavedLayersFirstThenTheMostUsedStaleOnes() {
+        long stale = System.currentTimeMillis() - 120_000;
+        when(searchService.executeUncachedSparqlQuery(isNull(), anyString())).thenReturn(new CachedSearchResult(places(), stale));
+        for (long layerId = 1; layerId <= 3; layerId++) {
+            materializationService.update(layerId, "Layer " + layerId, null, true);
+            materializationService.refresh(layerId);
+        }
+        // Layer 2 is used the most, layer 4 was just saved
+        for (int i = 0; i < 5; i++) {
+            materializationService.find(2L, "Layer 2", null, 38.6, -9.3, 38.8, -9.0, null, null);
+        }
+        materializationService.find(3L, "Layer 3", null, 38.6, -9.3, 38.8, -9.0, null, null);
+        materializationService.update(4L, "Layer 4", null, true);
+        List<String> fetched = new ArrayList<>();
+        when(searchService.executeUncachedSparqlQuery(isNull(), anyString())).thenAnswer(invocation -> {
+            fetched.add(invocation.getArgument(1));
+            return new CachedSearchResult(places(), System.currentTimeMillis());
+        });
+        // Two workers, and the refreshes run on the calling thread
+        LayerRefreshScheduler scheduler = new LayerRefreshScheduler(materializationService, unlimitedBudget(),
+                Runnable::run, 2, registry);
+
+        assertEquals(4, scheduler.scheduleRefreshes());
+
+        assertEquals(List.of("Layer 4 Times", "Layer 2 Times", "Layer 3 Times", "Layer 1 Times"), fetched);
+        assertEquals(0, scheduler.getQueueDepth());
+        assertEquals(4, registry.get("layers.refresh.lag").timer().count());
+        assertEquals(0, scheduler.scheduleRefreshes());
+    }
+
+    @Test
+    public void testSchedulerStopsWhenTheBudgetRunsOut() {
+        when(searchService.executeUncachedSparqlQuery(isNull(), anyString()))
+                .thenReturn(new CachedSearchResult(places(), System.currentTimeMillis()));
+        for (long layerId = 1; layerId <= 3; layerId++) {
+            materializationService.update(layerId, "Layer " + layerId, null, true);
+        }
+        // The first query of a rate limiter is free, the next one is a minute away
+        LayerRefreshScheduler scheduler = new LayerRefreshScheduler(materializationService, new RemoteQueryBudget(1.0 / 60),
+                Runnable::run, 2, registry);
+
+        assertEquals(1, scheduler.scheduleRefreshes());
+        assertEquals(2, scheduler.getQueueDepth());
+        assertEquals(2.0, registry.get("layers.refresh.queue.depth").gauge().value());
+        verify(searchService, times(1)).executeUncachedSparqlQuery(isNull(), anyString());
+    }
+
+    @Test
+    public void testSchedulerKeepsWithinItsWorkers() {
+        when(searchService.executeUncachedSparqlQuery(isNull(), anyString()))
+                .thenReturn(new CachedSearchResult(places(), System.currentTimeMillis()));
+        for (long layerId = 1; layerId <= 3; layerId++) {
+            materializationService.update(layerId, "Layer " + layerId, null, true);
+        }
+        List<Runnable> queued = new ArrayList<>();
+        // Nothing runs until the test says so, so both workers stay busy
+        LayerRefreshScheduler scheduler = new LayerRefreshScheduler(materializationService, unlimitedBudget(),
+                queued::add, 2, registry);
+
+        assertEquals(2, scheduler.scheduleRefreshes());
+        assertEquals(0, scheduler.scheduleRefreshes());
+        assertEquals(1, scheduler.getQueueDepth());
+        assertEquals(2.0, registry.get("layers.refresh.running").gauge().value());
+
+        queued.forEach(Runnable::run);
+
+        assertEquals(1, scheduler.scheduleRefreshes());
+    }
+
+    private static RemoteQueryBudget unlimitedBudget() {
+        RemoteQueryBudget budget = mock(RemoteQueryBudget.class);
+        when(budget.tryAcquire()).thenReturn(true);
+        return budget;
+    }
+
+    private static SearchResult places() {
+        return new SearchResult(ResultTable.builder(List.of("item", "coordinates", "pointInTime"))
+                .addRow("Q597", "Point(-9.15 38.7252)" + WKT, null)
+                .addRow("Q2001", "Point(-9.0938 38.7677)" + WKT, "1998-05-22T00:00:00Z" + DATE_TIME)
+                .addRow("Q36433", "Point(-8.6219 41.1621)" + WKT, null)
+                .addRow("Q42", null, null)
+                .build());
+    }
+
+    private static List<String> items(CachedSearchResult cached) {
+        return cached.result().results().stream().map(row -> row.get("item")).toList();
+    }
+}
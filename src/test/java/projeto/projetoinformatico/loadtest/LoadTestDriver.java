@@ -0,0 +1,241 @@
+package projeto.projetoinformatico.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import projeto.projetoinformatico.ProjetoInformaticoApplication;
+import projeto.projetoinformatico.model.users.Role;
+import projeto.projetoinformatico.model.users.User;
+import projeto.projetoinformatico.model.users.UserRepository;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+/**
+ * Starts the service against a {@link StubSparqlServer} and measures {@code /api/layers/{id}},
+ * {@code /api/sparql} and {@code /api/items/{itemId}} with many requests at once, reporting
+ * the throughput and the p50 and p99 latency of each. Requests go round a number of distinct
+ * boxes, queries and items, so the share of them answered from the cache can be chosen.
+ * <p>
+ * Run with {@code mvn -Ploadtest verify}; the settings are the system properties read in
+ * {@link #main(String[])}.
+ */
+public class LoadTestDriver implements AutoCloseable {
+
+    static final String LAYER_QUERY = "SELECT DISTINCT ?item ?itemLabel ?description ?coordinates ?image ?itemSchemaLabel ?url WHERE {\n"
+            + "  {\n"
+            + "    SELECT DISTINCT ?item ?itemLabel ?coordinates ?itemSchemaLabel ?url WHERE {\n"
+            + "      {\n"
+            + "        SELECT DISTINCT ?item ?coordinates WHERE {\n"
+            + "          ?item wdt:P31/wdt:P279* wd:Q23413;\n"
+            + "                wdt:P625 ?coordinates.\n"
+            + "        }\n"
+            + "      }\n"
+            + "      SERVICE wikibase:label { bd:serviceParam wikibase:language \"[AUTO_LANGUAGE]\". }\n"
+            + "    }\n"
+            + "  }\n"
+            + "  OPTIONAL { ?item schema:description ?description. FILTER(LANG(?description) = \"en\") }\n"
+            + "  OPTIONAL { ?item wdt:P18 ?image. }\n"
+            + "}";
+
+    private static final String USERNAME = "loadtest";
+    private static final String PASSWORD = "loadtest-password";
+
+    private final ConfigurableApplicationContext context;
+    private final HttpClient client;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final String baseUrl;
+    private final String accessToken;
+    private final long layerId;
+
+    /**
+     * Latency and throughput of one endpoint. Statuses are counted by code, -1 for requests
+     * that got no response at all.
+     */
+    public record Result(String endpoint, int requests, int concurrency, double throughputPerSecond,
+                         double p50Millis, double p99Millis, double maxMillis, Map<Integer, Integer> statuses) {
+
+        static Result of(String endpoint, int concurrency, long[] latencyNanos, long elapsedNanos, Map<Integer, Integer> statuses) {
+            long[] sorted = latencyNanos.clone();
+            Arrays.sort(sorted);
+            return new Result(endpoint, sorted.length, concurrency,
+                    sorted.length / Math.max(elapsedNanos / 1e9, 1e-9),
+                    percentile(sorted, 0.50), percentile(sorted, 0.99),
+                    sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1e6,
+                    new TreeMap<>(statuses));
+        }
+
+        /**
+         * Nearest rank percentile of sorted latencies, in milliseconds.
+         */
+        static double percentile(long[] sorted, double percentile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(percentile * sorted.length);
+            return sorted[Math.max(0, rank - 1)] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-20s %8d %6d %10.1f/s %10.2f ms %10.2f ms %10.2f ms  %s",
+                    endpoint, requests, concurrency, throughputPerSecond, p50Millis, p99Millis, maxMillis, statuses);
+        }
+    }
+
+    /**
+     * Starts the service on a free port with an in-memory database, nothing kept on disk and
+     * the rate limits out of the way, then signs up an editor and creates a layer.
+     */
+    public LoadTestDriver(String sparqlEndpoint) throws IOException, InterruptedException {
+        // As arguments, so they win over application.properties
+        context = new SpringApplicationBuilder(ProjetoInformaticoApplication.class).run(
+                "--server.port=0",
+                "--management.server.port=-1",
+                "--spring.datasource.url=jdbc:h2:mem:loadtest-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1",
+                "--sparql.endpoint=" + sparqlEndpoint,
+                "--cache.disk.enabled=false",
+                "--spatial.index.enabled=false",
+                "--max.requests=1000000",
+                "--ratelimit.requests-per-second=1000000",
+                "--ratelimit.burst=1000000");
+        int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+        baseUrl = "http://localhost:" + port;
+        client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+
+        send(post("/api/auth/signup", Map.of("username", USERNAME, "password", PASSWORD, "email", "loadtest@example.com")));
+        UserRepository userRepository = context.getBean(UserRepository.class);
+        User user = userRepository.findByUsername(USERNAME);
+        user.setRole(Role.EDITOR);
+        userRepository.save(user);
+        accessToken = send(post("/api/auth/signin", Map.of("username", USERNAME, "password", PASSWORD)))
+                .get("accessToken").asText();
+        layerId = send(withToken(post("/api/layers", Map.of("name", "Castles", "description", "Load test layer",
+                "query", LAYER_QUERY)))).get("id").asLong();
+    }
+
+    /**
+     * Measures the three endpoints one after the other.
+     *
+     * @param distinct number of different requests each endpoint goes round
+     */
+    public List<Result> runAll(int requests, int concurrency, int distinct) throws InterruptedException {
+        return List.of(
+                run("/api/layers/{id}", requests, concurrency, i -> {
+                    double offset = (i % distinct) * 0.01;
+                    return HttpRequest.newBuilder(URI.create(baseUrl + "/api/layers/" + layerId
+                            + "?lat1=" + (38.6 + offset) + "&lon1=" + (-9.3 + offset)
+                            + "&lat2=" + (38.8 + offset) + "&lon2=" + (-9.0 + offset)
+                            + "&start=1500&end=2000")).GET().build();
+                }),
+                run("/api/sparql", requests, concurrency, i -> post("/api/sparql", Map.of("query",
+                        "SELECT ?item ?coordinates WHERE { ?item wdt:P625 ?coordinates. } LIMIT " + (100 + i % distinct))).build()),
+                run("/api/items/{itemId}", requests, concurrency, i -> withToken(HttpRequest.newBuilder(
+                        URI.create(baseUrl + "/api/items/Q" + (1 + i % distinct))).GET()).build()));
+    }
+
+    /**
+     * Sends the requests from {@code concurrency} threads, each sending its next request as
+     * soon as the last one is answered.
+     */
+    public Result run(String endpoint, int requests, int concurrency, IntFunction<HttpRequest> request)
+            throws InterruptedException {
+        long[] latencyNanos = new long[requests];
+        Map<Integer, Integer> statuses = new ConcurrentHashMap<>();
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        long startNanos = System.nanoTime();
+        try {
+            List<Future<Object>> done = workers.invokeAll(Collections.nCopies(concurrency, () -> {
+                for (int i = next.getAndIncrement(); i < requests; i = next.getAndIncrement()) {
+                    long sentNanos = System.nanoTime();
+                    int status;
+                    try {
+                        status = client.send(request.apply(i), HttpResponse.BodyHandlers.discarding()).statusCode();
+                    } catch (IOException e) {
+                        status = -1;
+                    }
+                    latencyNanos[i] = System.nanoTime() - sentNanos;
+                    statuses.merge(status, 1, Integer::sum);
+                }
+                return null;
+            }));
+            for (Future<Object> worker : done) {
+                worker.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Load test worker failed", e.getCause());
+        } finally {
+            workers.shutdownNow();
+        }
+        return Result.of(endpoint, concurrency, latencyNanos, System.nanoTime() - startNanos, statuses);
+    }
+
+    @Override
+    public void close() {
+        context.close();
+    }
+
+    private HttpRequest.Builder post(String path, Map<String, String> body) {
+        try {
+            return HttpRequest.newBuilder(URI.create(baseUrl + path))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(body)));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private HttpRequest.Builder withToken(HttpRequest.Builder request) {
+        return request.header("Authorization", "Bearer " + accessToken);
+    }
+
+    private JsonNode send(HttpRequest.Builder request) throws IOException, InterruptedException {
+        HttpResponse<String> response = client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException(request.build().uri() + " answered " + response.statusCode() + ": " + response.body());
+        }
+        return objectMapper.readTree(response.body());
+    }
+
+    public static void main(String[] args) throws Exception {
+        int requests = Integer.getInteger("loadtest.requests", 2_000);
+        int concurrency = Integer.getInteger("loadtest.concurrency", 16);
+        int distinct = Integer.getInteger("loadtest.distinct", 200);
+        String resultFile = System.getProperty("loadtest.result", "target/loadtest-result.json");
+        try (StubSparqlServer stub = new StubSparqlServer()
+                .latency(Long.getLong("loadtest.stub.latency-ms", 50), Long.getLong("loadtest.stub.jitter-ms", 20))
+                .errors(Double.parseDouble(System.getProperty("loadtest.stub.error-rate", "0.01")), 503)
+                .rows(Integer.getInteger("loadtest.stub.rows", 500));
+             LoadTestDriver driver = new LoadTestDriver(stub.getUrl())) {
+            List<Result> results = driver.runAll(requests, concurrency, distinct);
+            System.out.printf("%-20s %8s %6s %12s %13s %13s %13s  %s%n",
+                    "Endpoint", "Requests", "Conc.", "Throughput", "p50", "p99", "Max", "Statuses");
+            results.forEach(System.out::println);
+            System.out.println("Stub SPARQL endpoint answered " + stub.getQueryCount() + " queries, "
+                    + stub.getErrorCount() + " with an error");
+            new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(new File(resultFile), results);
+        }
+    }
+}
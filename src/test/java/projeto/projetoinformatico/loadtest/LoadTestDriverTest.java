@@ -0,0 +1,88 @@
+package projeto.projetoinformatico.loadtest;
+
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.QueryExecutionFactory;
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.riot.WebContent;
+import org.apache.jena.sparql.engine.http.QueryEngineHTTP;
+import org.apache.jena.sparql.engine.http.QueryExceptionHTTP;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoadTestDriverTest {
+
+    private static final String QUERY = "SELECT * WHERE { ?s ?p ?o }";
+
+    @Test
+    public void testStubAnswersTheRowsAskedForAsJsonOrXml() throws Exception {
+        try (StubSparqlServer stub = new StubSparqlServer().rows(250)) {
+            assertEquals(250, count(stub, false));
+            assertEquals(250, count(stub, true));
+            assertEquals(2, stub.getQueryCount());
+        }
+    }
+
+    @Test
+    public void testStubFailsAsOftenAsAsked() throws Exception {
+        try (StubSparqlServer stub = new StubSparqlServer().errors(1.0, 503)) {
+            QueryExceptionHTTP failure = assertThrows(QueryExceptionHTTP.class, () -> count(stub, false));
+
+            assertEquals(503, failure.getStatusCode());
+            assertEquals(1, stub.getErrorCount());
+        }
+    }
+
+    @Test
+    public void testPercentilesAreNearestRank() {
+        long[] latencyNanos = new long[100];
+        for (int i = 0; i < latencyNanos.length; i++) {
+            latencyNanos[i] = (100 - i) * 1_000_000L;
+        }
+
+        LoadTestDriver.Result result = LoadTestDriver.Result.of("/api/sparql", 4, latencyNanos, 2_000_000_000L, Map.of(200, 100));
+
+        assertEquals(50.0, result.p50Millis());
+        assertEquals(99.0, result.p99Millis());
+        assertEquals(100.0, result.maxMillis());
+        assertEquals(50.0, result.throughputPerSecond());
+    }
+
+    // Starts the whole service, so it runs with mvn -Ploadtest verify rather than with the unit tests
+    @Test
+    @Tag("loadtest")
+    public void testDriverMeasuresEveryEndpointAgainstTheStub() throws Exception {
+        try (StubSparqlServer stub = new StubSparqlServer().rows(50);
+             LoadTestDriver driver = new LoadTestDriver(stub.getUrl())) {
+            List<LoadTestDriver.Result> results = driver.runAll(40, 4, 5);
+
+            assertEquals(List.of("/api/layers/{id}", "/api/sparql", "/api/items/{itemId}"),
+                    results.stream().map(LoadTestDriver.Result::endpoint).toList());
+            for (LoadTestDriver.Result result : results) {
+                assertEquals(Map.of(200, 40), result.statuses(), result.endpoint());
+                assertTrue(result.p50Millis() <= result.p99Millis());
+            }
+            // Five distinct requests per endpoint, the rest come from the cache
+            assertTrue(stub.getQueryCount() <= 15, "Queries sent: " + stub.getQueryCount());
+        }
+    }
+
+    private static int count(StubSparqlServer stub, boolean xml) {
+        try (QueryExecution queryExecution = QueryExecutionFactory.sparqlService(stub.getUrl(), QUERY)) {
+            if (xml) {
+                ((QueryEngineHTTP) queryExecution).setSelectContentType(WebContent.contentTypeResultsXML);
+            }
+            ResultSet results = queryExecution.execSelect();
+            int rows = 0;
+            while (results.hasNext()) {
+                results.next();
+                rows++;
+            }
+            return rows;
+        }
+    }
+}
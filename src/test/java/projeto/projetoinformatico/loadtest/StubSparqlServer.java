@@ -0,0 +1,185 @@
+package projeto.projetoinformatico.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SPARQL endpoint on a local port answering every query with the same made up places, so the
+ * service can be measured without Wikidata. How long it takes, how often it fails and how many
+ * rows it answers can be changed while it runs. Results are SPARQL JSON, or SPARQL XML when
+ * only XML is accepted, as for streamed queries.
+ */
+public class StubSparqlServer implements AutoCloseable {
+
+    private static final String WKT_LITERAL = "http://www.opengis.net/ont/geosparql#wktLiteral";
+    private static final String[] VARS = {"item", "itemLabel", "description", "coordinates", "image"};
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private volatile long latencyMs;
+    private volatile long jitterMs;
+    private volatile double errorRate;
+    private volatile int errorStatus = 503;
+    private volatile int rows = 100;
+
+    public StubSparqlServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/sparql", this::answer);
+        server.start();
+    }
+
+    public String getUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/sparql";
+    }
+
+    /**
+     * Every answer takes {@code latencyMs} plus a random part up to {@code jitterMs}.
+     */
+    public StubSparqlServer latency(long latencyMs, long jitterMs) {
+        this.latencyMs = latencyMs;
+        this.jitterMs = jitterMs;
+        return this;
+    }
+
+    /**
+     * Share of queries answered with the status instead of results, 0 for none and 1 for all.
+     */
+    public StubSparqlServer errors(double errorRate, int errorStatus) {
+        this.errorRate = errorRate;
+        this.errorStatus = errorStatus;
+        return this;
+    }
+
+    public StubSparqlServer rows(int rows) {
+        this.rows = rows;
+        return this;
+    }
+
+    public long getQueryCount() {
+        return queries.get();
+    }
+
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void answer(HttpExchange exchange) throws IOException {
+        try (exchange; InputStream body = exchange.getRequestBody()) {
+            body.transferTo(OutputStream.nullOutputStream());
+            queries.incrementAndGet();
+            sleep(latencyMs + (jitterMs > 0 ? ThreadLocalRandom.current().nextLong(jitterMs + 1) : 0));
+            if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                errors.incrementAndGet();
+                byte[] message = "Stub SPARQL endpoint failure".getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(errorStatus, message.length);
+                exchange.getResponseBody().write(message);
+                return;
+            }
+            String accept = exchange.getRequestHeaders().getFirst("Accept");
+            boolean xml = accept != null && !accept.contains("sparql-results+json") && accept.contains("sparql-results+xml");
+            exchange.getResponseHeaders().set("Content-Type", xml
+                    ? "application/sparql-results+xml; charset=utf-8"
+                    : "application/sparql-results+json; charset=utf-8");
+            // Chunked, rows are written as they are made
+            exchange.sendResponseHeaders(200, 0);
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+                if (xml) {
+                    writeXml(writer, rows);
+                } else {
+                    writeJson(writer, rows);
+                }
+            }
+        }
+    }
+
+    private static void writeJson(Writer writer, int rows) throws IOException {
+        writer.write("{\"head\":{\"vars\":[");
+        for (int i = 0; i < VARS.length; i++) {
+            writer.write((i > 0 ? "," : "") + "\"" + VARS[i] + "\"");
+        }
+        writer.write("]},\"results\":{\"bindings\":[");
+        for (int i = 0; i < rows; i++) {
+            writer.write(i > 0 ? ",\n{" : "\n{");
+            writer.write("\"item\":{\"type\":\"uri\",\"value\":\"" + item(i) + "\"}");
+            writer.write(",\"itemLabel\":{\"type\":\"literal\",\"xml:lang\":\"en\",\"value\":\"Castle " + i + "\"}");
+            if (i % 3 != 0) {
+                writer.write(",\"description\":{\"type\":\"literal\",\"xml:lang\":\"en\",\"value\":\"castle in district " + (i % 20) + "\"}");
+            }
+            writer.write(",\"coordinates\":{\"type\":\"literal\",\"datatype\":\"" + WKT_LITERAL + "\",\"value\":\"" + point(i) + "\"}");
+            if (i % 2 == 0) {
+                writer.write(",\"image\":{\"type\":\"uri\",\"value\":\"" + image(i) + "\"}");
+            }
+            writer.write("}");
+        }
+        writer.write("]}}");
+    }
+
+    private static void writeXml(Writer writer, int rows) throws IOException {
+        writer.write("<?xml version=\"1.0\"?>\n<sparql xmlns=\"http://www.w3.org/2005/sparql-results#\">\n<head>");
+        for (String var : VARS) {
+            writer.write("<variable name=\"" + var + "\"/>");
+        }
+        writer.write("</head>\n<results>\n");
+        for (int i = 0; i < rows; i++) {
+            writer.write("<result>");
+            writer.write("<binding name=\"item\"><uri>" + item(i) + "</uri></binding>");
+            writer.write("<binding name=\"itemLabel\"><literal xml:lang=\"en\">Castle " + i + "</literal></binding>");
+            if (i % 3 != 0) {
+                writer.write("<binding name=\"description\"><literal xml:lang=\"en\">castle in district " + (i % 20) + "</literal></binding>");
+            }
+            writer.write("<binding name=\"coordinates\"><literal datatype=\"" + WKT_LITERAL + "\">" + point(i) + "</literal></binding>");
+            if (i % 2 == 0) {
+                writer.write("<binding name=\"image\"><uri>" + image(i) + "</uri></binding>");
+            }
+            writer.write("</result>\n");
+        }
+        writer.write("</results>\n</sparql>");
+    }
+
+    private static String item(int i) {
+        return "http://www.wikidata.org/entity/Q" + (i + 1);
+    }
+
+    private static String point(int i) {
+        return "Point(" + (-9.0 + (i % 1000) / 1000.0) + " " + (38.0 + (i % 700) / 1000.0) + ")";
+    }
+
+    private static String image(int i) {
+        return "http://commons.wikimedia.org/wiki/Special:FilePath/Castle_" + i + ".jpg";
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
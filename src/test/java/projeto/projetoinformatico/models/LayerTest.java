@@ -92,7 +92,7 @@ public class LayerTest {
         layer.setQuery("SELECT * FROM test_table"); // Set query
 
         // Expected toString result
-        String expectedToString = "Layer(id=1, user=User(id=1, username=john_doe, password=password, role=ADMIN, email=john.doe@example.com, accountNonLocked=true), layerName=Test Layer, description=This is a test layer., timestamp=" + layer.getTimestamp() + ", query=" + layer.getQuery() + ")";
+        String expectedToString = "Layer(id=1, user=User(id=1, username=john_doe, password=password, role=ADMIN, email=john.doe@example.com, accountNonLocked=true), layerName=Test Layer, description=This is a test layer., timestamp=" + layer.getTimestamp() + ", query=" + layer.getQuery() + ", backend=" + layer.getBackend() + ", materialized=" + layer.getMaterialized() + ")";
 
         // Ensure the toString method produces the expected output
         assertEquals(expectedToString, layer.toString());
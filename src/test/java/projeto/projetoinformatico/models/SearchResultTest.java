@@ -0,0 +1,152 @@
+package projeto.projetoinformatico.models;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import projeto.projetoinformatico.model.RdfTerms;
+import projeto.projetoinformatico.model.ResultTable;
+import projeto.projetoinformatico.model.SearchResult;
+import projeto.projetoinformatico.model.TermKind;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SearchResultTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void testJsonMatchesRowRepresentation() throws Exception {
+        List<Map<String, String>> rows = List.of(
+                Map.of("item", "http://www.wikidata.org/entity/Q1", "itemLabel", "Castle"),
+                Map.of("item", "http://www.wikidata.org/entity/Q2"),
+                Map.of());
+
+        SearchResult result = new SearchResult(rows);
+
+        String expected = objectMapper.writeValueAsString(Map.of("results", rows));
+        assertEquals(objectMapper.readTree(expected), objectMapper.readTree(objectMapper.writeValueAsString(result)));
+    }
+
+    @Test
+    void testJsonRoundTrip() throws Exception {
+        SearchResult result = new SearchResult(List.of(Map.of("item", "Q1", "itemLabel", "Castle")));
+
+        SearchResult read = objectMapper.readValue(objectMapper.writeValueAsString(result), SearchResult.class);
+
+        assertEquals(result, read);
+    }
+
+    @Test
+    void testUnboundValuesAreLeftOutOfRows() {
+        ResultTable table = ResultTable.builder(List.of("item", "date"))
+                .addRow("Q1", null)
+                .addRow("Q2", "2001")
+                .build();
+
+        List<Map<String, String>> rows = table.asRows();
+
+        assertEquals(Map.of("item", "Q1"), rows.get(0));
+        assertFalse(rows.get(0).containsKey("date"));
+        assertEquals(Map.of("item", "Q2", "date", "2001"), rows.get(1));
+        assertEquals(2, table.getRowCount());
+        assertEquals("2001", table.getValue(1, "date"));
+    }
+
+    @Test
+    void testRepeatedValuesShareOneInstance() {
+        ResultTable table = ResultTable.builder(List.of("type", "lang"))
+                .addRow(new String("http://www.wikidata.org/entity/Q23413"), new String("en"))
+                .addRow(new String("http://www.wikidata.org/entity/Q23413"), new String("en"))
+                .build();
+
+        assertSame(table.getValue(0, 0), table.getValue(1, 0));
+        assertSame(table.getValue(0, 1), table.getValue(1, 1));
+    }
+
+    @Test
+    void testValuesAreDecodedByTheKindOfTheirColumn() {
+        ResultTable table = ResultTable.builder(List.of("item", "itemLabel", "coordinates", "date", "population", "email"))
+                .addKind(0, TermKind.ENTITY).addKind(1, TermKind.LANG_STRING).addKind(2, TermKind.POINT)
+                .addKind(3, TermKind.DATE_TIME).addKind(4, TermKind.NUMBER).addKind(5, TermKind.LITERAL)
+                .addRow("http://www.wikidata.org/entity/Q597", "Lisbon@en",
+                        "Point(-9.15 38.7252)^^" + RdfTerms.WKT_LITERAL,
+                        "1998-05-22T00:00:00Z^^" + RdfTerms.XSD + "dateTime",
+                        "545796^^" + RdfTerms.XSD + "decimal", "info@lisboa")
+                .addRow(null, null, null, null, null, null)
+                .build();
+
+        assertEquals("Q597", table.getText(0, 0));
+        assertEquals("Lisbon", table.getText(0, 1));
+        assertEquals("en", table.getLanguage(0, 1));
+        assertEquals(38.7252, table.getLatitude(0, 2));
+        assertEquals(-9.15, table.getLongitude(0, 2));
+        assertEquals(895795200000L, table.getEpochMillis(0, 3));
+        assertEquals(545796.0, table.getNumber(0, 4));
+        // The column kind says it is a plain string, not Lisbon in a language called lisboa
+        assertEquals("info@lisboa", table.getText(0, 5));
+        assertNull(table.getLanguage(0, 5));
+        assertNull(table.getText(1, 0));
+        assertTrue(Double.isNaN(table.getLatitude(1, 2)));
+        assertEquals(ResultTable.NO_TIME, table.getEpochMillis(1, 3));
+    }
+
+    @Test
+    void testKindsAreGuessedForTablesBuiltFromText() {
+        SearchResult result = new SearchResult(List.of(
+                Map.of("item", "http://www.wikidata.org/entity/Q90", "coordinates", "Point(2.3508 48.8567)^^" + RdfTerms.WKT_LITERAL,
+                        "value", "Paris@fr"),
+                Map.of("item", "http://www.wikidata.org/entity/Q42", "value", "1952-03-11^^" + RdfTerms.XSD + "date")));
+        ResultTable table = result.table();
+
+        assertEquals(TermKind.ENTITY, table.getKind(table.indexOf("item")));
+        assertEquals(TermKind.POINT, table.getKind(table.indexOf("coordinates")));
+        int value = table.indexOf("value");
+        assertEquals(TermKind.MIXED, table.getKind(value));
+        assertEquals("fr", table.getLanguage(0, value));
+        assertEquals(-562032000000L, table.getEpochMillis(1, value));
+        assertEquals(48.8567, table.getLatitude(0, table.indexOf("coordinates")));
+    }
+
+    @Test
+    void testRdfTerms() {
+        assertArrayEquals(new double[]{38.7252, -9.15}, RdfTerms.parsePoint("Point(-9.15 38.7252)^^" + RdfTerms.WKT_LITERAL));
+        assertArrayEquals(new double[]{1.5e-3, 10}, RdfTerms.parsePoint("POINT (10 1.5E-3)"));
+        assertNull(RdfTerms.parsePoint("Lisbon"));
+        assertEquals("Q42", RdfTerms.entityId("http://www.wikidata.org/entity/Q42"));
+        assertNull(RdfTerms.entityId("http://www.wikidata.org/entity/statement/Q42-1"));
+        assertEquals(0L, RdfTerms.parseEpochMillis("1970-01-01T01:00:00+01:00^^" + RdfTerms.XSD + "dateTime"));
+        assertEquals(0L, RdfTerms.parseEpochMillis("1970-01-01T00:00:00"));
+        assertEquals(ResultTable.NO_TIME, RdfTerms.parseEpochMillis("yesterday"));
+        assertArrayEquals(new String[]{"Castelo de Guimarães", "pt-PT"}, RdfTerms.splitLanguage("Castelo de Guimarães@pt-PT"));
+        assertEquals(TermKind.IRI, RdfTerms.infer("https://commons.wikimedia.org/wiki/File:Lisboa.jpg"));
+        assertEquals(TermKind.NUMBER, RdfTerms.infer("12^^" + RdfTerms.XSD + "integer"));
+        assertEquals(TermKind.LITERAL, RdfTerms.infer("Lisbon"));
+    }
+
+    @Test
+    void testDroppedVariablesLeaveTheOthersShared() {
+        ResultTable table = ResultTable.builder(List.of("item", "startTime", "label"))
+                .addKind(2, TermKind.LITERAL)
+                .addRow("Q1", "1998", "Expo")
+                .addRow("Q2", null, "Lisbon")
+                .build();
+
+        ResultTable dropped = table.without(List.of("startTime", "endTime"));
+
+        assertEquals(List.of("item", "label"), dropped.getVariables());
+        assertEquals(List.of(Map.of("item", "Q1", "label", "Expo"), Map.of("item", "Q2", "label", "Lisbon")), dropped.asRows());
+        assertEquals(TermKind.LITERAL, dropped.getKind(1));
+        assertSame(table.getValue(0, 2), dropped.getValue(0, 1));
+        assertTrue(dropped.getEstimatedBytes() < table.getEstimatedBytes());
+        assertSame(table, table.without(List.of("endTime")));
+    }
+
+    @Test
+    void testEmptyResult() {
+        SearchResult result = new SearchResult(Collections.emptyList());
+
+        assertTrue(result.results().isEmpty());
+        assertEquals(0, result.table().getRowCount());
+    }
+}
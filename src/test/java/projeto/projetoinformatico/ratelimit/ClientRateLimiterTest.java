@@ -0,0 +1,156 @@
+package projeto.projetoinformatico.ratelimit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import projeto.projetoinformatico.config.ratelimit.ClientRateLimiter;
+import projeto.projetoinformatico.config.ratelimit.RateLimitInterceptor;
+import projeto.projetoinformatico.controllers.SearchController;
+import projeto.projetoinformatico.model.SearchResult;
+import projeto.projetoinformatico.service.SearchService;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+public class ClientRateLimiterTest {
+
+    @AfterEach
+    public void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    public void testBurstThenWaitForTheNextToken() {
+        ClientRateLimiter limiter = new ClientRateLimiter(1.0, 3, 100, 60_000);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.tryAcquire("ip:10.0.0.1"));
+        }
+        long waitNanos = limiter.tryAcquire("ip:10.0.0.1");
+
+        assertTrue(waitNanos > 0 && waitNanos <= TimeUnit.SECONDS.toNanos(1));
+        // Other clients have their own bucket
+        assertEquals(0, limiter.tryAcquire("ip:10.0.0.2"));
+    }
+
+    @Test
+    public void testConcurrentRequestsNeverGetMoreThanTheBurst() throws Exception {
+        // No token comes back during the test
+        ClientRateLimiter limiter = new ClientRateLimiter(0.001, 100, 100, 60_000);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger admitted = new AtomicInteger();
+        try {
+            CompletableFuture<?>[] threads = new CompletableFuture<?>[8];
+            for (int t = 0; t < threads.length; t++) {
+                threads[t] = CompletableFuture.runAsync(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    for (int i = 0; i < 1_000; i++) {
+                        if (limiter.tryAcquire("user:ana") == 0) {
+                            admitted.incrementAndGet();
+                        }
+                    }
+                }, executor);
+            }
+            start.countDown();
+            CompletableFuture.allOf(threads).get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(100, admitted.get());
+    }
+
+    @Test
+    public void testClientsAreBounded() {
+        ClientRateLimiter limiter = new ClientRateLimiter(1.0, 3, 10, 60_000);
+
+        for (int i = 0; i < 1_000; i++) {
+            limiter.tryAcquire("ip:10.0." + i / 256 + "." + i % 256);
+        }
+        limiter.cleanUp();
+
+        assertTrue(limiter.getClientCount() <= 10);
+    }
+
+    @Test
+    public void testLimitedEndpointsAnswerTooManyRequestsWithRetryAfter() throws Exception {
+        SearchService searchService = mock(SearchService.class);
+        when(searchService.executeSparqlQueryFromJsonStringAsync(anyString()))
+                .thenReturn(CompletableFuture.completedFuture(new SearchResult(List.of())));
+        ClientRateLimiter limiter = new ClientRateLimiter(0.5, 1, 100, 60_000);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        limiter.bindTo(registry);
+        MockMvc mockMvc = MockMvcBuilders.standaloneSetup(new SearchController(searchService))
+                .addInterceptors(new RateLimitInterceptor(limiter))
+                .build();
+
+        mockMvc.perform(sparql("10.0.0.1")).andExpect(status().isOk());
+        mockMvc.perform(sparql("10.0.0.1"))
+                .andExpect(status().isTooManyRequests())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "2"));
+        mockMvc.perform(sparql("10.0.0.2")).andExpect(status().isOk());
+
+        // Logged in users are counted by name wherever they come from
+        SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken("ana", null, List.of()));
+        mockMvc.perform(sparql("10.0.0.3")).andExpect(status().isOk());
+        mockMvc.perform(sparql("10.0.0.4")).andExpect(status().isTooManyRequests());
+        // Endpoints that are not limited are not counted
+        mockMvc.perform(get("/api/unknown")).andExpect(status().isNotFound());
+
+        assertEquals(1.0, registry.get("ratelimit.rejected").tag("client", "address").functionCounter().count());
+        assertEquals(1.0, registry.get("ratelimit.rejected").tag("client", "user").functionCounter().count());
+        assertEquals(3.0, registry.get("ratelimit.clients").gauge().value());
+    }
+
+    @Test
+    public void testAsyncDispatchesAreNotCountedAgain() throws Exception {
+        SearchService searchService = mock(SearchService.class);
+        when(searchService.executeSparqlQueryFromJsonStringAsync(anyString()))
+                .thenReturn(CompletableFuture.completedFuture(new SearchResult(List.of())));
+        ClientRateLimiter limiter = new ClientRateLimiter(0.001, 1, 100, 60_000);
+        MockMvc mockMvc = MockMvcBuilders.standaloneSetup(new SearchController(searchService))
+                .addInterceptors(new RateLimitInterceptor(limiter))
+                .build();
+
+        MvcResult result = mockMvc.perform(sparql("10.0.0.1")).andExpect(request().asyncStarted()).andReturn();
+        mockMvc.perform(asyncDispatch(result)).andExpect(status().isOk());
+
+        // The single token went to the request, not to its dispatch
+        mockMvc.perform(sparql("10.0.0.1")).andExpect(status().isTooManyRequests());
+    }
+
+    private static MockHttpServletRequestBuilder sparql(String address) {
+        return post("/api/sparql").content("{}").with(request -> {
+            request.setRemoteAddr(address);
+            return request;
+        });
+    }
+}
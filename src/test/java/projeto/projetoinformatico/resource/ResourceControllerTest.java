@@ -5,8 +5,10 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.async.DeferredResult;
 import projeto.projetoinformatico.controllers.ResourceController;
 import projeto.projetoinformatico.controllers.UserController;
+import projeto.projetoinformatico.model.CachedSearchResult;
 import projeto.projetoinformatico.model.SearchResult;
 import projeto.projetoinformatico.model.users.UserRepository;
 import projeto.projetoinformatico.service.ResourceService;
@@ -16,6 +18,7 @@ import projeto.projetoinformatico.service.UserService;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.Mockito.*;
@@ -32,7 +35,7 @@ public class ResourceControllerTest {
         resourceService = mock(ResourceService.class);
         userRepository = mock(UserRepository.class);
         rateLimiter = mock(RateLimiter.class);
-        resourceController = new ResourceController(resourceService,20.0);
+        resourceController = new ResourceController(resourceService);
     }
 
     @Test
@@ -43,9 +46,10 @@ public class ResourceControllerTest {
         String itemId = "yourItemId";
         List<Map<String, String>> mockResults = Collections.emptyList(); // Mock search results
         SearchResult mockSearchResult = new SearchResult(mockResults);
-        when(resourceService.getItem(itemId)).thenReturn(mockSearchResult);
+        when(resourceService.getItemAsync(itemId))
+                .thenReturn(CompletableFuture.completedFuture(CachedSearchResult.fetchedNow(mockSearchResult)));
 
-        ResponseEntity<SearchResult> responseEntity = resourceController.getWikidataItem(itemId);
+        ResponseEntity<SearchResult> responseEntity = resultOf(resourceController.getWikidataItem(itemId));
 
         assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
         assertEquals(mockResults, responseEntity.getBody().results());
@@ -74,9 +78,10 @@ public class ResourceControllerTest {
         String propertyId = "yourPropertyId";
         List<Map<String, String>> mockResults = Collections.emptyList(); // Mock search results
         SearchResult mockSearchResult = new SearchResult(mockResults);
-        when(resourceService.getProperty(propertyId)).thenReturn(mockSearchResult);
+        when(resourceService.getPropertyAsync(propertyId))
+                .thenReturn(CompletableFuture.completedFuture(CachedSearchResult.fetchedNow(mockSearchResult)));
 
-        ResponseEntity<SearchResult> responseEntity = resourceController.getWikidataProperty(propertyId);
+        ResponseEntity<SearchResult> responseEntity = resultOf(resourceController.getWikidataProperty(propertyId));
 
         assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
         assertEquals(mockResults, responseEntity.getBody().results());
@@ -105,9 +110,10 @@ public class ResourceControllerTest {
         String itemId = "yourItemId";
         List<Map<String, String>> mockResults = Collections.emptyList(); // Mock search results
         SearchResult mockSearchResult = new SearchResult(mockResults); // Mock search results
-        when(resourceService.getGeolocationData(itemId)).thenReturn(mockSearchResult);
+        when(resourceService.getGeolocationDataAsync(itemId))
+                .thenReturn(CompletableFuture.completedFuture(CachedSearchResult.fetchedNow(mockSearchResult)));
 
-        ResponseEntity<?> responseEntity = resourceController.getGeolocationData(itemId);
+        ResponseEntity<SearchResult> responseEntity = resultOf(resourceController.getGeolocationData(itemId));
 
         assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
         assertEquals(mockSearchResult, responseEntity.getBody());
@@ -135,9 +141,10 @@ public class ResourceControllerTest {
         String propertyId = "yourPropertyId";
         List<Map<String, String>> mockResults = Collections.emptyList(); // Mock search results
         SearchResult mockSearchResult = new SearchResult(mockResults); // Mock search results
-        when(resourceService.getPropertyValues(itemId, propertyId)).thenReturn(mockSearchResult);
+        when(resourceService.getPropertyValuesAsync(itemId, propertyId))
+                .thenReturn(CompletableFuture.completedFuture(CachedSearchResult.fetchedNow(mockSearchResult)));
 
-        ResponseEntity<?> responseEntity = resourceController.getPropertyValues(itemId, propertyId);
+        ResponseEntity<SearchResult> responseEntity = resultOf(resourceController.getPropertyValues(itemId, propertyId));
 
         assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
         assertEquals(mockSearchResult, responseEntity.getBody());
@@ -157,4 +164,9 @@ public class ResourceControllerTest {
         verify(resourceService, never()).getPropertyValues(itemId, propertyId); // Verify that getPropertyValues() is never called
     }
 */
+
+    @SuppressWarnings("unchecked")
+    private static <T> T resultOf(DeferredResult<T> deferredResult) {
+        return (T) deferredResult.getResult();
+    }
 }
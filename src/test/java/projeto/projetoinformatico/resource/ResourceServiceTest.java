@@ -4,16 +4,21 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import projeto.projetoinformatico.exceptions.Exception.SparqlQueryNotFoundException;
+import projeto.projetoinformatico.model.CachedSearchResult;
 import projeto.projetoinformatico.model.SearchResult;
 import projeto.projetoinformatico.service.ResourceService;
 import projeto.projetoinformatico.service.SearchService;
+import projeto.projetoinformatico.utils.QueryNamespace;
 import projeto.projetoinformatico.utils.SparqlQueryProvider;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -38,10 +43,11 @@ public class ResourceServiceTest {
 
         SearchResult emptySearchResult = new SearchResult(Collections.emptyList());
 
-        when(searchService.executeSparqlQuery(anyString())).thenReturn(emptySearchResult);
+        when(searchService.executeCachedSparqlQueryAsync(eq(QueryNamespace.PROPERTY_VALUES), anyString()))
+                .thenReturn(CompletableFuture.completedFuture(CachedSearchResult.fetchedNow(emptySearchResult)));
 
         // When
-        SearchResult result = resourceService.getPropertyValues(itemId, propertyId);
+        SearchResult result = resourceService.getPropertyValuesAsync(itemId, propertyId).join().result();
 
         // Then
         Assertions.assertNotNull(result);
@@ -56,10 +62,11 @@ public class ResourceServiceTest {
 
         SearchResult emptySearchResult = new SearchResult(Collections.emptyList());
 
-        when(searchService.executeSparqlQuery(anyString())).thenReturn(emptySearchResult);
+        when(searchService.executeCachedSparqlQueryAsync(eq(QueryNamespace.GEOLOCATION), anyString()))
+                .thenReturn(CompletableFuture.completedFuture(CachedSearchResult.fetchedNow(emptySearchResult)));
 
         // When
-        SearchResult result = resourceService.getGeolocationData(itemId);
+        SearchResult result = resourceService.getGeolocationDataAsync(itemId).join().result();
 
         // Then
         Assertions.assertNotNull(result);
@@ -77,10 +84,11 @@ public class ResourceServiceTest {
                 }}
         ));
 
-        when(searchService.executeSparqlQuery(anyString())).thenReturn(searchResult);
+        when(searchService.executeCachedSparqlQueryAsync(eq(QueryNamespace.ITEM), anyString()))
+                .thenReturn(CompletableFuture.completedFuture(CachedSearchResult.fetchedNow(searchResult)));
 
         // When
-        SearchResult result = resourceService.getItem(itemId);
+        SearchResult result = resourceService.getItemAsync(itemId).join().result();
 
         // Then
         Assertions.assertNotNull(result);
@@ -100,10 +108,11 @@ public class ResourceServiceTest {
                 }}
         ));
 
-        when(searchService.executeSparqlQuery(anyString())).thenReturn(searchResult);
+        when(searchService.executeCachedSparqlQueryAsync(eq(QueryNamespace.PROPERTY), anyString()))
+                .thenReturn(CompletableFuture.completedFuture(CachedSearchResult.fetchedNow(searchResult)));
 
         // When
-        SearchResult result = resourceService.getProperty(propertyId);
+        SearchResult result = resourceService.getPropertyAsync(propertyId).join().result();
 
         // Then
         Assertions.assertNotNull(result);
@@ -114,12 +123,15 @@ public class ResourceServiceTest {
     @Test
     public void testExecuteSparqlQuery_Error() {
         // Given
-        when(searchService.executeSparqlQuery(anyString())).thenReturn(null);
+        when(sparqlQueryProvider.buildPropertyItemQuery(anyString(), anyString())).thenReturn("exampleSparqlQuery");
+        when(searchService.executeCachedSparqlQueryAsync(eq(QueryNamespace.PROPERTY_VALUES), anyString()))
+                .thenReturn(CompletableFuture.completedFuture(null));
 
         // When and Then
-        Assertions.assertThrows(SparqlQueryNotFoundException.class, () -> {
-            resourceService.getPropertyValues("exampleItemId", "examplePropertyId");
+        CompletionException e = Assertions.assertThrows(CompletionException.class, () -> {
+            resourceService.getPropertyValuesAsync("exampleItemId", "examplePropertyId").join();
         });
+        Assertions.assertInstanceOf(SparqlQueryNotFoundException.class, e.getCause());
     }
 
 
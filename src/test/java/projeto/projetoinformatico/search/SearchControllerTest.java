@@ -5,7 +5,9 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.async.DeferredResult;
 import projeto.projetoinformatico.controllers.SearchController;
+import projeto.projetoinformatico.exceptions.Exception.SparqlQueryException;
 import projeto.projetoinformatico.service.SearchService;
 import projeto.projetoinformatico.model.SearchResult;
 import projeto.projetoinformatico.utils.Validation;
@@ -14,6 +16,8 @@ import projeto.projetoinformatico.utils.Validation;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.Mockito.*;
@@ -31,7 +35,7 @@ public class SearchControllerTest {
         searchService = mock(SearchService.class);
         validation = mock(Validation.class);
         rateLimiter = mock(RateLimiter.class);
-        searchController = new SearchController(searchService,20.0);
+        searchController = new SearchController(searchService);
     }
 
     @Test
@@ -42,14 +46,41 @@ public class SearchControllerTest {
         String sparqlQuery = "{\"query\": \"Your SPARQL query here\"}"; // Example SPARQL query
         List<Map<String, String>> mockResults = Collections.emptyList(); // Mock search results
         SearchResult mockSearchResult = new SearchResult(mockResults); // Mock search results
-        when(searchService.executeSparqlQueryFromJsonString(sparqlQuery)).thenReturn(mockSearchResult);
+        when(searchService.executeSparqlQueryFromJsonStringAsync(sparqlQuery)).thenReturn(CompletableFuture.completedFuture(mockSearchResult));
 
-        ResponseEntity<SearchResult> responseEntity = searchController.executeSparqlQuery(sparqlQuery);
+        ResponseEntity<SearchResult> responseEntity = resultOf(searchController.executeSparqlQuery(sparqlQuery));
 
         assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
         assertEquals(mockSearchResult, responseEntity.getBody());
     }
 
+    @Test
+    public void testExecuteSparqlQuery_InvalidQuery() {
+        String sparqlQuery = "not json";
+        when(searchService.executeSparqlQueryFromJsonStringAsync(sparqlQuery))
+                .thenReturn(CompletableFuture.failedFuture(new SparqlQueryException("Error parsing JSON")));
+
+        ResponseEntity<SearchResult> responseEntity = resultOf(searchController.executeSparqlQuery(sparqlQuery));
+
+        assertEquals(HttpStatus.BAD_REQUEST, responseEntity.getStatusCode());
+    }
+
+    @Test
+    public void testExecuteSparqlQuery_Timeout() {
+        String sparqlQuery = "{\"query\": \"Your SPARQL query here\"}";
+        when(searchService.executeSparqlQueryFromJsonStringAsync(sparqlQuery))
+                .thenReturn(CompletableFuture.failedFuture(new TimeoutException()));
+
+        ResponseEntity<SearchResult> responseEntity = resultOf(searchController.executeSparqlQuery(sparqlQuery));
+
+        assertEquals(HttpStatus.GATEWAY_TIMEOUT, responseEntity.getStatusCode());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T resultOf(DeferredResult<T> deferredResult) {
+        return (T) deferredResult.getResult();
+    }
+
     /*
     @Test
     public void testExecuteSparqlQuery_TooManyRequests() {
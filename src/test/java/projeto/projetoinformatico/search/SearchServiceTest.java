@@ -0,0 +1,494 @@
+package projeto.projetoinformatico.search;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.jena.datatypes.TypeMapper;
+import org.apache.jena.datatypes.xsd.XSDDatatype;
+import org.apache.jena.graph.NodeFactory;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.query.QueryExecution;
+import org.apache.jena.query.ResultSet;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.ModelFactory;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.sparql.core.Var;
+import org.apache.jena.sparql.engine.ResultSetStream;
+import org.apache.jena.sparql.engine.binding.Binding;
+import org.apache.jena.sparql.engine.binding.BindingFactory;
+import org.apache.jena.sparql.engine.binding.BindingMap;
+import org.apache.jena.sparql.engine.http.QueryExceptionHTTP;
+import org.apache.jena.system.Txn;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.test.util.ReflectionTestUtils;
+import projeto.projetoinformatico.config.sparql.DatasetSparqlBackend;
+import projeto.projetoinformatico.config.sparql.RemoteSparqlBackend;
+import projeto.projetoinformatico.config.sparql.SparqlBackend;
+import projeto.projetoinformatico.config.sparql.SparqlBackends;
+import projeto.projetoinformatico.exceptions.Exception.SparqlEndpointUnavailableException;
+import projeto.projetoinformatico.exceptions.Exception.SparqlQueryException;
+import projeto.projetoinformatico.exceptions.Exception.SparqlQueryExecutionException;
+import projeto.projetoinformatico.model.CachedSearchResult;
+import projeto.projetoinformatico.model.LayerCost;
+import projeto.projetoinformatico.model.ResultTable;
+import projeto.projetoinformatico.model.SearchResult;
+import projeto.projetoinformatico.model.TermKind;
+import projeto.projetoinformatico.service.SearchService;
+import projeto.projetoinformatico.service.SparqlGateway;
+import projeto.projetoinformatico.utils.LayerCostProfiler;
+import projeto.projetoinformatico.utils.QueryCacheMetrics;
+import projeto.projetoinformatico.utils.QueryKeyGenerator;
+import projeto.projetoinformatico.utils.QueryMetrics;
+import projeto.projetoinformatico.utils.QueryNamespace;
+import projeto.projetoinformatico.utils.QueryTrace;
+import projeto.projetoinformatico.utils.SparqlQueryProvider;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.IntConsumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class SearchServiceTest {
+
+    private static final List<String> VARS = List.of("item", "itemLabel", "coordinates");
+    private static final String PREFIXES = "PREFIX wd: <http://www.wikidata.org/entity/>\n"
+            + "PREFIX wdt: <http://www.wikidata.org/prop/direct/>\n"
+            + "PREFIX wikibase: <http://wikiba.se/ontology#>\n"
+            + "PREFIX bd: <http://www.bigdata.com/rdf#>\n";
+
+    private SearchService searchService;
+    private ObjectMapper objectMapper;
+    private SparqlQueryProvider sparqlQueryProvider;
+    private CacheManager cacheManager;
+    private Deque<Runnable> pendingTasks;
+    private QueryKeyGenerator queryKeyGenerator;
+    private QueryCacheMetrics queryCacheMetrics;
+    private SparqlBackends sparqlBackends;
+    private SparqlGateway sparqlGateway;
+    private SimpleMeterRegistry meterRegistry;
+    private QueryMetrics queryMetrics;
+    private LayerCostProfiler layerCostProfiler;
+
+    @BeforeEach
+    public void setUp() {
+        objectMapper = new ObjectMapper();
+        sparqlQueryProvider = mock(SparqlQueryProvider.class);
+        cacheManager = new ConcurrentMapCacheManager("searchCache");
+        pendingTasks = new ConcurrentLinkedDeque<>();
+        queryKeyGenerator = new QueryKeyGenerator(PREFIXES);
+        queryCacheMetrics = new QueryCacheMetrics(new SimpleMeterRegistry());
+        sparqlBackends = new SparqlBackends(Map.of(
+                SparqlBackend.DEFAULT, new RemoteSparqlBackend("http://localhost:1/sparql"),
+                "local", new DatasetSparqlBackend(castles(), "castles")));
+        // One failure opens the circuit for a minute
+        sparqlGateway = new SparqlGateway(1_000, 8, 32, 10_000, 1, 60_000, 0, 0, new SimpleMeterRegistry());
+        meterRegistry = new SimpleMeterRegistry();
+        queryMetrics = new QueryMetrics(meterRegistry);
+        layerCostProfiler = new LayerCostProfiler(16);
+        searchService = new SearchService(sparqlQueryProvider, objectMapper, cacheManager, pendingTasks::add,
+                queryKeyGenerator, queryCacheMetrics, sparqlBackends, sparqlGateway, queryMetrics, layerCostProfiler);
+    }
+
+    @Test
+    public void testExecuteSparqlQueryAsync_CacheHitDoesNotUseExecutor() {
+        SearchResult cached = new SearchResult(List.of(Map.of("item", "Q1")));
+        cacheManager.getCache("searchCache").put(queryKeyGenerator.keyFor(QueryNamespace.SPARQL, "SELECT * WHERE {?s ?p ?o}"),
+                CachedSearchResult.fetchedNow(cached));
+
+        CompletableFuture<SearchResult> future = searchService.executeSparqlQueryAsync("SELECT * WHERE {?s ?p ?o}");
+
+        assertTrue(future.isDone());
+        assertSame(cached, future.join());
+        assertTrue(pendingTasks.isEmpty());
+        assertEquals(1.0, queryCacheMetrics.hitRatio(QueryNamespace.SPARQL));
+    }
+
+    @Test
+    public void testExecuteCachedSparqlQueryAsync_ServesStaleResultWithinBound() {
+        ReflectionTestUtils.setField(searchService, "maxStaleMs", 3_600_000L);
+        CachedSearchResult stale = new CachedSearchResult(new SearchResult(List.of(Map.of("item", "Q1"))),
+                System.currentTimeMillis() - 600_000);
+        cacheManager.getCache("searchCache").put(queryKeyGenerator.keyFor(QueryNamespace.LAYER, "SELECT * WHERE {?s ?p ?o}"), stale);
+
+        CompletableFuture<CachedSearchResult> future = searchService.executeCachedSparqlQueryAsync(QueryNamespace.LAYER, "SELECT * WHERE {?s ?p ?o}");
+
+        assertSame(stale, future.join());
+        assertTrue(future.join().ageSeconds() >= 600);
+        assertTrue(pendingTasks.isEmpty());
+    }
+
+    @Test
+    public void testExecuteCachedSparqlQueryAsync_RefetchesResultPastStaleBound() {
+        ReflectionTestUtils.setField(searchService, "maxStaleMs", 3_600_000L);
+        CachedSearchResult tooOld = new CachedSearchResult(new SearchResult(List.of(Map.of("item", "Q1"))),
+                System.currentTimeMillis() - 7_200_000);
+        cacheManager.getCache("searchCache").put(queryKeyGenerator.keyFor(QueryNamespace.LAYER, "SELECT * WHERE {?s ?p ?o}"), tooOld);
+
+        CompletableFuture<CachedSearchResult> future = searchService.executeCachedSparqlQueryAsync(QueryNamespace.LAYER, "SELECT * WHERE {?s ?p ?o}");
+
+        assertFalse(future.isDone());
+        assertEquals(1, pendingTasks.size());
+        assertEquals(0.0, queryCacheMetrics.hitRatio(QueryNamespace.LAYER));
+    }
+
+    @Test
+    public void testExecuteSparqlQuery_ServesStaleResultWhileCircuitIsOpen() {
+        ReflectionTestUtils.setField(searchService, "maxStaleMs", 3_600_000L);
+        CachedSearchResult tooOld = new CachedSearchResult(new SearchResult(List.of(Map.of("item", "Q1"))),
+                System.currentTimeMillis() - 7_200_000);
+        cacheManager.getCache("searchCache").put(queryKeyGenerator.keyFor(QueryNamespace.LAYER, "SELECT * WHERE {?s ?p ?o}"), tooOld);
+        assertThrows(QueryExceptionHTTP.class, () -> sparqlGateway.execute(null, () -> {
+            throw new QueryExceptionHTTP(503, "Service Unavailable");
+        }));
+
+        SearchResult result = execute(QueryNamespace.LAYER, null, "SELECT * WHERE {?s ?p ?o}");
+
+        assertSame(tooOld.result(), result);
+        assertThrows(SparqlEndpointUnavailableException.class,
+                () -> execute(QueryNamespace.LAYER, null, "SELECT ?s WHERE {?s ?p ?o}"));
+        verify(sparqlQueryProvider, times(2)).constructSparqlQuery(anyString());
+    }
+
+    @Test
+    public void testExecuteSparqlQueryAsync_NamespacesDoNotShareEntries() {
+        SearchResult cached = new SearchResult(List.of(Map.of("item", "Q1")));
+        cacheManager.getCache("searchCache").put(queryKeyGenerator.keyFor(QueryNamespace.ITEM, "SELECT * WHERE {?s ?p ?o}"),
+                CachedSearchResult.fetchedNow(cached));
+
+        CompletableFuture<SearchResult> future = searchService.executeSparqlQueryAsync(QueryNamespace.GEOLOCATION, "SELECT * WHERE {?s ?p ?o}");
+
+        assertFalse(future.isDone());
+        assertEquals(1, pendingTasks.size());
+        assertEquals(0.0, queryCacheMetrics.hitRatio(QueryNamespace.GEOLOCATION));
+        assertTrue(Double.isNaN(queryCacheMetrics.hitRatio(QueryNamespace.ITEM)));
+    }
+
+    @Test
+    public void testExecuteSparqlQueryAsync_RunsOnSparqlExecutor() {
+        CompletableFuture<SearchResult> future = searchService.executeSparqlQueryAsync("SELECT * WHERE {?s ?p ?o}");
+
+        assertFalse(future.isDone());
+        assertEquals(1, pendingTasks.size());
+        verify(sparqlQueryProvider, never()).constructSparqlQuery(anyString());
+    }
+
+    @Test
+    public void testExecuteSparqlQueryAsync_ConcurrentIdenticalQueriesRunOnce() throws Exception {
+        int callers = 16;
+        ExecutorService pool = Executors.newFixedThreadPool(callers);
+        CountDownLatch go = new CountDownLatch(1);
+        try {
+            List<Future<CompletableFuture<SearchResult>>> submitted = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                // Same query, only the whitespace differs
+                String query = i % 2 == 0 ? "SELECT * WHERE {?s ?p ?o}" : "  SELECT *\n WHERE {?s ?p ?o}\n";
+                submitted.add(pool.submit(() -> {
+                    go.await();
+                    return searchService.executeSparqlQueryAsync(query);
+                }));
+            }
+            go.countDown();
+            List<CompletableFuture<SearchResult>> futures = new ArrayList<>();
+            for (Future<CompletableFuture<SearchResult>> future : submitted) {
+                futures.add(future.get(5, TimeUnit.SECONDS));
+            }
+
+            assertEquals(1, pendingTasks.size());
+            assertEquals(1, searchService.getInFlightQueryCount());
+
+            pendingTasks.poll().run();
+
+            verify(sparqlQueryProvider, times(1)).constructSparqlQuery(anyString());
+            for (CompletableFuture<SearchResult> future : futures) {
+                assertTrue(future.isDone());
+            }
+            assertEquals(0, searchService.getInFlightQueryCount());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testExecuteSparqlQueryAsync_CancelledQueryIsNeverSent() {
+        CompletableFuture<SearchResult> future = searchService.executeSparqlQueryAsync("SELECT * WHERE {?s ?p ?o}");
+
+        future.cancel(true);
+        pendingTasks.forEach(Runnable::run);
+
+        assertTrue(future.isCancelled());
+        verify(sparqlQueryProvider, never()).constructSparqlQuery(anyString());
+    }
+
+    @Test
+    public void testExecuteSparqlQueryAsync_RejectedWhenExecutorIsFull() {
+        searchService = new SearchService(sparqlQueryProvider, objectMapper, cacheManager, task -> {
+            throw new RejectedExecutionException();
+        }, queryKeyGenerator, queryCacheMetrics, sparqlBackends, sparqlGateway, queryMetrics, layerCostProfiler);
+
+        CompletableFuture<SearchResult> future = searchService.executeSparqlQueryAsync("SELECT * WHERE {?s ?p ?o}");
+
+        ExecutionException e = assertThrows(ExecutionException.class, future::get);
+        assertInstanceOf(SparqlQueryExecutionException.class, e.getCause());
+    }
+
+    @Test
+    public void testExecuteSparqlQuery_LocalBackendAnswersLabelService() {
+        when(sparqlQueryProvider.constructSparqlQuery(anyString())).thenAnswer(invocation -> PREFIXES + invocation.getArgument(0));
+
+        SearchResult result = execute(QueryNamespace.LAYER, "local",
+                "SELECT ?item ?itemLabel WHERE { { SELECT ?item WHERE { ?item wdt:P31 wd:Q23413 } }\n"
+                        + "SERVICE wikibase:label { bd:serviceParam wikibase:language \"[AUTO_LANGUAGE],pt\". } } ORDER BY ?item");
+
+        assertEquals(List.of(
+                Map.of("item", "http://www.wikidata.org/entity/Q1", "itemLabel", "Castelo de Guimarães@pt"),
+                Map.of("item", "http://www.wikidata.org/entity/Q2")), result.results());
+    }
+
+    @Test
+    public void testExecuteSparqlQuery_RecordsTimeAndRowsOfBackendQueries() {
+        when(sparqlQueryProvider.constructSparqlQuery(anyString())).thenAnswer(invocation -> PREFIXES + invocation.getArgument(0));
+        searchService.bindTo(meterRegistry);
+
+        execute(QueryNamespace.LAYER, "local", "SELECT ?item WHERE { ?item wdt:P31 wd:Q23413 }");
+        assertThrows(SparqlQueryException.class,
+                () -> execute(QueryNamespace.LAYER, "local", "SELECT ?item WHERE { ?item"));
+
+        assertEquals(1, meterRegistry.get("sparql.query").tags("namespace", "layer", "backend", "local", "outcome", "success")
+                .timer().count());
+        assertEquals(2.0, meterRegistry.get("sparql.query.rows").tags("backend", "local").summary().totalAmount());
+        assertEquals(0.0, meterRegistry.get("sparql.queries.in.flight").gauge().value());
+    }
+
+    @Test
+    public void testRefresh_RunsTheQueryAsItWasAskedFor() {
+        when(sparqlQueryProvider.constructSparqlQuery(anyString())).thenAnswer(invocation -> PREFIXES + invocation.getArgument(0));
+        String query = "SELECT ?item WHERE { ?item wdt:P31 wd:Q23413 }";
+
+        CachedSearchResult refreshed = searchService.refresh(queryKeyGenerator.keyFor(QueryNamespace.LAYER, "local", query));
+
+        assertEquals(2, refreshed.result().results().size());
+        verify(sparqlQueryProvider).constructSparqlQuery(query);
+    }
+
+    @Test
+    public void testExecuteCachedSparqlQueryAsync_TracesThePhasesOnTheExecutor() {
+        when(sparqlQueryProvider.constructSparqlQuery(anyString())).thenAnswer(invocation -> PREFIXES + invocation.getArgument(0));
+        String query = "SELECT ?item WHERE { ?item wdt:P31 wd:Q23413 }";
+        QueryTrace trace = QueryTrace.start(null);
+
+        CompletableFuture<CachedSearchResult> future;
+        try (QueryTrace.Scope scope = trace.attach()) {
+            QueryTrace.tagLayer(3L);
+            future = searchService.executeCachedSparqlQueryAsync(QueryNamespace.LAYER, "local", query);
+        }
+        pendingTasks.poll().run();
+
+        assertEquals(2, future.join().result().results().size());
+        assertEquals(queryKeyGenerator.keyFor(QueryNamespace.LAYER, "local", query).digest(), trace.getQueryHash());
+        assertEquals(2, trace.getRows());
+        for (QueryTrace.Phase phase : List.of(QueryTrace.Phase.CACHE, QueryTrace.Phase.BUILD, QueryTrace.Phase.QUEUE,
+                QueryTrace.Phase.EXECUTE, QueryTrace.Phase.DECODE)) {
+            assertTrue(trace.getPhaseNanos(phase) > 0, phase.getId());
+        }
+        // The query is put down to the layer of the trace
+        LayerCost cost = layerCostProfiler.ranking(LayerCostProfiler.Order.TIME, 10).get(0);
+        assertEquals(3L, cost.layerId());
+        assertEquals(1, cost.queries());
+        assertEquals(2, cost.rows());
+        assertTrue(cost.bytes() > 0);
+    }
+
+    @Test
+    public void testExecuteSparqlQuery_BackendsDoNotShareEntries() {
+        String query = "SELECT * WHERE {?s ?p ?o}";
+        cacheManager.getCache("searchCache").put(queryKeyGenerator.keyFor(QueryNamespace.LAYER, query),
+                CachedSearchResult.fetchedNow(new SearchResult(List.of(Map.of("item", "Q1")))));
+
+        assertTrue(searchService.executeCachedSparqlQueryAsync(QueryNamespace.LAYER, null, query).isDone());
+        assertFalse(searchService.executeCachedSparqlQueryAsync(QueryNamespace.LAYER, "local", query).isDone());
+        assertThrows(SparqlQueryException.class,
+                () -> execute(QueryNamespace.LAYER, "missing", "SELECT ?s WHERE {?s ?p ?o}"));
+        assertTrue(searchService.hasBackend("local"));
+        assertFalse(searchService.hasBackend("missing"));
+    }
+
+    /**
+     * Runs the query and the tasks it hands to the executor on the calling thread.
+     */
+    private SearchResult execute(QueryNamespace namespace, String backend, String sparqlQuery) {
+        CompletableFuture<CachedSearchResult> future = searchService.executeCachedSparqlQueryAsync(namespace, backend, sparqlQuery);
+        for (Runnable task = pendingTasks.poll(); task != null; task = pendingTasks.poll()) {
+            task.run();
+        }
+        try {
+            return future.join().result();
+        } catch (CompletionException e) {
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    private static Dataset castles() {
+        Model model = ModelFactory.createDefaultModel();
+        RDFDataMgr.read(model, new StringReader(PREFIXES
+                + "PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#>\n"
+                + "wd:Q1 wdt:P31 wd:Q23413 ; rdfs:label \"Guimarães Castle\"@en, \"Castelo de Guimarães\"@pt .\n"
+                + "wd:Q2 wdt:P31 wd:Q23413 .\n"), null, Lang.TURTLE);
+        Dataset dataset = DatasetFactory.createTxnMem();
+        Txn.executeWrite(dataset, () -> dataset.getDefaultModel().add(model));
+        return dataset;
+    }
+
+    @Test
+    public void testProcessQueryResults_KeepsTermKinds() {
+        List<String> vars = List.of("item", "itemLabel", "coordinates", "date", "email");
+        BindingMap binding = BindingFactory.create();
+        binding.add(Var.alloc("item"), NodeFactory.createURI("http://www.wikidata.org/entity/Q597"));
+        binding.add(Var.alloc("itemLabel"), NodeFactory.createLiteral("Lisboa", "pt"));
+        binding.add(Var.alloc("coordinates"), NodeFactory.createLiteral("Point(-9.15 38.7252)",
+                TypeMapper.getInstance().getSafeTypeByName("http://www.opengis.net/ont/geosparql#wktLiteral")));
+        binding.add(Var.alloc("date"), NodeFactory.createLiteral("1755-11-01T09:40:00Z", XSDDatatype.XSDdateTime));
+        binding.add(Var.alloc("email"), NodeFactory.createLiteral("info@lisboa", XSDDatatype.XSDstring));
+
+        ResultTable table = SearchService.processQueryResults(
+                new ResultSetStream(vars, ModelFactory.createDefaultModel(), List.<Binding>of(binding).iterator()));
+
+        assertEquals(List.of(TermKind.ENTITY, TermKind.LANG_STRING, TermKind.POINT, TermKind.DATE_TIME, TermKind.LITERAL),
+                List.of(table.getKind(0), table.getKind(1), table.getKind(2), table.getKind(3), table.getKind(4)));
+        assertEquals("Q597", table.getText(0, 0));
+        assertEquals("pt", table.getLanguage(0, 1));
+        assertEquals(-9.15, table.getLongitude(0, 2));
+        assertEquals(-6758432400000L, table.getEpochMillis(0, 3));
+        assertNull(table.getLanguage(0, 4));
+        // Clients still get the text of every term
+        assertEquals("Lisboa@pt", table.getValue(0, 1));
+    }
+
+    @Test
+    public void testWriteQueryResults_MatchesMaterializedJson() throws Exception {
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        searchService.writeQueryResults(syntheticResultSet(250, i -> { }), streamed);
+
+        SearchResult materialized = new SearchResult(SearchService.processQueryResults(syntheticResultSet(250, i -> { })));
+
+        assertEquals(objectMapper.readTree(objectMapper.writeValueAsString(materialized)),
+                objectMapper.readTree(streamed.toByteArray()));
+    }
+
+    @Test
+    public void testWriteQueryResults_WritesRowsBeforeResultSetIsExhausted() throws Exception {
+        CountingOutputStream out = new CountingOutputStream();
+        int[] bytesWrittenMidway = new int[1];
+        searchService.writeQueryResults(syntheticResultSet(10_000, i -> {
+            if (i == 5_000) {
+                bytesWrittenMidway[0] = (int) out.count;
+            }
+        }), out);
+
+        assertTrue(bytesWrittenMidway[0] > 0, "rows should reach the output before the result set ends");
+        assertTrue(bytesWrittenMidway[0] < out.count);
+    }
+
+    @Test
+    public void testStreamSparqlQuery_AbortsTheQueryWhenTheClientGoesAway() throws Exception {
+        QueryExecution qexec = mock(QueryExecution.class);
+        when(qexec.execSelect()).thenReturn(syntheticResultSet(10_000, i -> { }));
+        SparqlBackend backend = mock(SparqlBackend.class);
+        when(backend.execute(anyString(), any())).thenAnswer(invocation ->
+                invocation.<SparqlBackend.QueryAction<?>>getArgument(1).apply(qexec));
+        searchService = new SearchService(sparqlQueryProvider, objectMapper, cacheManager, pendingTasks::add,
+                queryKeyGenerator, queryCacheMetrics, new SparqlBackends(Map.of(SparqlBackend.DEFAULT, backend)),
+                sparqlGateway, queryMetrics, layerCostProfiler);
+        ReflectionTestUtils.setField(searchService, "queryTimeoutMs", 30_000L);
+        when(sparqlQueryProvider.constructSparqlQuery(anyString())).thenAnswer(invocation -> invocation.getArgument(0));
+        OutputStream disconnected = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+        };
+
+        assertThrows(IOException.class, () -> searchService.streamSparqlQuery("SELECT * WHERE {?s ?p ?o}", disconnected));
+
+        verify(qexec).setTimeout(30_000L);
+        verify(qexec).abort();
+        // A client going away says nothing about the backend
+        assertFalse(sparqlGateway.isCircuitOpen(null));
+    }
+
+    @Test
+    public void testWriteQueryResults_HeapStaysFlatAsResultSizeGrows() throws Exception {
+        long smallGrowth = peakHeapGrowthWhileStreaming(20_000);
+        long largeGrowth = peakHeapGrowthWhileStreaming(400_000);
+
+        // Materializing 400k rows as maps needs well over 100MB, streaming should stay in the noise
+        assertTrue(largeGrowth - smallGrowth < 32L * 1024 * 1024,
+                "heap grew by " + (largeGrowth - smallGrowth) + " bytes between 20k and 400k rows");
+    }
+
+    private long peakHeapGrowthWhileStreaming(int rows) throws Exception {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long baseline = runtime.totalMemory() - runtime.freeMemory();
+        long[] peak = new long[1];
+        searchService.writeQueryResults(syntheticResultSet(rows, i -> {
+            if (i % 20_000 == 0) {
+                System.gc();
+                peak[0] = Math.max(peak[0], runtime.totalMemory() - runtime.freeMemory() - baseline);
+            }
+        }), new CountingOutputStream());
+        return peak[0];
+    }
+
+    private static ResultSet syntheticResultSet(int rows, IntConsumer onRow) {
+        Var item = Var.alloc(VARS.get(0));
+        Var label = Var.alloc(VARS.get(1));
+        Var coordinates = Var.alloc(VARS.get(2));
+        Iterator<Binding> bindings = new Iterator<>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < rows;
+            }
+
+            @Override
+            public Binding next() {
+                onRow.accept(next);
+                BindingMap binding = BindingFactory.create();
+                binding.add(item, NodeFactory.createURI("http://www.wikidata.org/entity/Q" + next));
+                binding.add(label, NodeFactory.createLiteral("Castle " + next, "en"));
+                binding.add(coordinates, NodeFactory.createLiteral("Point(" + (next % 180) + " 45.5)",
+                        XSDDatatype.XSDstring));
+                next++;
+                return binding;
+            }
+        };
+        return new ResultSetStream(VARS, ModelFactory.createDefaultModel(), bindings);
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package projeto.projetoinformatico.search;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.jena.query.QueryCancelledException;
+import org.apache.jena.query.QueryParseException;
+import org.apache.jena.sparql.engine.http.QueryExceptionHTTP;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import projeto.projetoinformatico.config.async.AsyncConfig;
+import projeto.projetoinformatico.config.async.PriorityTaskQueue;
+import projeto.projetoinformatico.config.sparql.SparqlEndpointBusyException;
+import projeto.projetoinformatico.exceptions.Exception.SparqlEndpointUnavailableException;
+import projeto.projetoinformatico.service.SparqlGateway;
+import projeto.projetoinformatico.utils.QueryPriority;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SparqlGatewayTest {
+
+    private SimpleMeterRegistry registry;
+    private SparqlGateway gateway;
+    private ExecutorService executor;
+
+    @BeforeEach
+    public void setUp() {
+        registry = new SimpleMeterRegistry();
+        // Three failures in a row open the circuit for 200 ms, nothing waits past the limit
+        gateway = new SparqlGateway(1e9, 4, 8, 10_000, 3, 200, 0, 0, registry);
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testCircuitOpensAfterFailuresInARowAndClosesAfterAProbe() throws Exception {
+        failWith(new QueryExceptionHTTP(502, "Bad Gateway"));
+        failWith(new QueryCancelledException());
+        assertFalse(gateway.isCircuitOpen(null));
+        failWith(new QueryExceptionHTTP(new ConnectException("Connection refused")));
+
+        assertTrue(gateway.isCircuitOpen(null));
+        SparqlEndpointUnavailableException refused = assertThrows(SparqlEndpointUnavailableException.class,
+                () -> gateway.execute(null, () -> "never sent"));
+        assertTrue(refused.getRetryAfterMillis() > 0 && refused.getRetryAfterMillis() <= 200);
+        assertEquals(1.0, registry.get("sparql.gateway.circuit.open").tag("backend", "default").gauge().value());
+
+        Thread.sleep(250);
+
+        assertEquals("probe", gateway.execute(null, () -> "probe"));
+        assertFalse(gateway.isCircuitOpen(null));
+        assertEquals("next", gateway.execute(null, () -> "next"));
+    }
+
+    @Test
+    public void testRetryAfterOpensTheCircuitForAsLongAsAsked() {
+        failWith(new SparqlEndpointBusyException(new QueryExceptionHTTP(429, "Too Many Requests"), 60_000));
+
+        SparqlEndpointUnavailableException refused = assertThrows(SparqlEndpointUnavailableException.class,
+                () -> gateway.execute(null, () -> "never sent"));
+
+        assertTrue(refused.getRetryAfterMillis() > 59_000);
+        assertEquals("60", refused.getRetryAfterSeconds());
+        assertEquals(1.0, registry.get("sparql.gateway.rejected").tag("reason", "open").counter().count());
+        // Other backends keep their own circuit
+        assertFalse(gateway.isCircuitOpen("local"));
+    }
+
+    @Test
+    public void testQueryErrorsDoNotOpenTheCircuit() {
+        for (int i = 0; i < 5; i++) {
+            failWith(new QueryExceptionHTTP(400, "Bad Request"));
+            failWith(new QueryParseException("Unexpected token", 1, 1));
+        }
+
+        assertFalse(gateway.isCircuitOpen(null));
+        assertEquals(4, gateway.getLimit(null));
+    }
+
+    @Test
+    public void testLimitShrinksOnFailuresAndGrowsWhileUsed() {
+        failWith(new QueryExceptionHTTP(503, "Service Unavailable"));
+        failWith(new QueryExceptionHTTP(503, "Service Unavailable"));
+        // 4 * 0.9 * 0.9
+        assertEquals(3, gateway.getLimit(null));
+
+        for (int i = 0; i < 20; i++) {
+            runConcurrently(3);
+        }
+
+        assertEquals(8, gateway.getLimit(null));
+        assertEquals(0, gateway.getInFlight(null));
+    }
+
+    @Test
+    public void testErrorsReleaseThePermit() {
+        assertThrows(OutOfMemoryError.class, () -> gateway.execute(null, () -> {
+            throw new OutOfMemoryError("Java heap space");
+        }));
+
+        assertEquals(0, gateway.getInFlight(null));
+        assertEquals(4, gateway.getLimit(null));
+    }
+
+    @Test
+    public void testQueriesPastTheLimitAreRefused() throws Exception {
+        CountDownLatch running = new CountDownLatch(4);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<?>[] queries = new CompletableFuture<?>[4];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = CompletableFuture.runAsync(() -> {
+                try {
+                    gateway.execute(null, () -> {
+                        running.countDown();
+                        await(release);
+                        return null;
+                    });
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, executor);
+        }
+        running.await();
+
+        SparqlEndpointUnavailableException refused = assertThrows(SparqlEndpointUnavailableException.class,
+                () -> gateway.execute(null, () -> "fifth"));
+        release.countDown();
+        CompletableFuture.allOf(queries).join();
+
+        assertEquals("Too many SPARQL queries in progress", refused.getMessage());
+        assertEquals(1.0, registry.get("sparql.gateway.rejected").tag("reason", "limit").counter().count());
+        assertFalse(gateway.isCircuitOpen(null));
+    }
+
+    @Test
+    public void testWaitingQueriesGoMostUrgentFirst() throws Exception {
+        // One query at a time, two may wait
+        gateway = new SparqlGateway(1e9, 1, 1, 10_000, 3, 200, 2, 5_000, registry);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<?> running = hold(release);
+        List<String> sent = Collections.synchronizedList(new ArrayList<>());
+
+        CompletableFuture<?> background = submit(QueryPriority.BACKGROUND, sent);
+        waitFor(() -> gateway.getQueueDepth(null, QueryPriority.BACKGROUND) == 1);
+        CompletableFuture<?> editor = submit(QueryPriority.EDITOR, sent);
+        waitFor(() -> gateway.getQueueDepth(null, QueryPriority.EDITOR) == 1);
+        release.countDown();
+        CompletableFuture.allOf(running, background, editor).join();
+
+        assertEquals(List.of("editor", "background"), sent);
+        assertEquals(1, registry.get("sparql.gateway.queue.wait").tag("priority", "background").timer().count());
+        assertEquals(0, gateway.getQueueDepth(null, QueryPriority.BACKGROUND));
+        assertEquals(0, gateway.getInFlight(null));
+    }
+
+    @Test
+    public void testFullQueueShedsTheLowestPriorityFirst() throws Exception {
+        gateway = new SparqlGateway(1e9, 1, 1, 10_000, 3, 200, 1, 5_000, registry);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<?> running = hold(release);
+        List<String> sent = Collections.synchronizedList(new ArrayList<>());
+
+        CompletableFuture<?> background = submit(QueryPriority.BACKGROUND, sent);
+        waitFor(() -> gateway.getQueueDepth(null, QueryPriority.BACKGROUND) == 1);
+        CompletableFuture<?> interactive = submit(QueryPriority.INTERACTIVE, sent);
+        waitFor(background::isDone);
+        // Nothing lower than an interactive query waits, so the bulk query is the one refused
+        SparqlEndpointUnavailableException refused = assertThrows(SparqlEndpointUnavailableException.class,
+                () -> gateway.execute(null, QueryPriority.BULK, () -> "bulk"));
+        release.countDown();
+        CompletableFuture.allOf(running, interactive).join();
+
+        CompletionException shed = assertThrows(CompletionException.class, background::join);
+        assertInstanceOf(SparqlEndpointUnavailableException.class, shed.getCause());
+        assertEquals("Too many SPARQL queries in progress", refused.getMessage());
+        assertEquals(List.of("interactive"), sent);
+        assertEquals(1.0, registry.get("sparql.gateway.rejected").tag("priority", "background").tag("reason", "shed").counter().count());
+        assertEquals(1.0, registry.get("sparql.gateway.rejected").tag("priority", "bulk").tag("reason", "limit").counter().count());
+        // The query holding the only place and the one that took it next
+        assertEquals(2.0, registry.get("sparql.gateway.admitted").tag("priority", "interactive").counter().count());
+    }
+
+    @Test
+    public void testUrgentQueriesWaitForTheRateWhileBackgroundOnesAreRefused() throws Exception {
+        // A query every 500 ms
+        gateway = new SparqlGateway(2, 4, 8, 10_000, 3, 200, 0, 5_000, registry);
+        gateway.execute(null, QueryPriority.BACKGROUND, () -> "first");
+
+        SparqlEndpointUnavailableException refused = assertThrows(SparqlEndpointUnavailableException.class,
+                () -> gateway.execute(null, QueryPriority.BACKGROUND, () -> "background"));
+        assertEquals("editor", gateway.execute(null, QueryPriority.EDITOR, () -> "editor"));
+
+        assertEquals("Too many SPARQL queries per second", refused.getMessage());
+        assertEquals(1.0, registry.get("sparql.gateway.rejected").tag("priority", "background").tag("reason", "rate").counter().count());
+        assertEquals(1.0, registry.get("sparql.gateway.admitted").tag("priority", "editor").counter().count());
+    }
+
+    @Test
+    public void testEditorQueriesOvertakeBackgroundWorkQueuedOnTheExecutor() throws Exception {
+        gateway = new SparqlGateway(1e9, 1, 1, 10_000, 3, 200, 4, 5_000, registry);
+        // The executor of the application with its only thread busy
+        AsyncTaskExecutor sparqlExecutor = AsyncConfig.sparqlExecutor(1, 1, 10, false);
+        ((ThreadPoolTaskExecutor) sparqlExecutor).initialize();
+        try {
+            CountDownLatch release = new CountDownLatch(1);
+            CompletableFuture<?> running = CompletableFuture.runAsync(() -> {
+                try {
+                    gateway.execute(null, QueryPriority.INTERACTIVE, () -> {
+                        await(release);
+                        return null;
+                    });
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, sparqlExecutor);
+            waitFor(() -> gateway.getInFlight(null) == 1);
+            List<String> sent = Collections.synchronizedList(new ArrayList<>());
+
+            List<CompletableFuture<?>> queued = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                queued.add(submit(PriorityTaskQueue.prioritized(sparqlExecutor, QueryPriority.BACKGROUND), QueryPriority.BACKGROUND, sent));
+            }
+            queued.add(submit(PriorityTaskQueue.prioritized(sparqlExecutor, QueryPriority.EDITOR), QueryPriority.EDITOR, sent));
+            release.countDown();
+            running.join();
+            CompletableFuture.allOf(queued.toArray(CompletableFuture[]::new)).join();
+
+            assertEquals(List.of("editor", "background", "background", "background"), sent);
+        } finally {
+            ((ThreadPoolTaskExecutor) sparqlExecutor).shutdown();
+        }
+    }
+
+    @Test
+    public void testStreamedResultsOvertakeRefreshesQueuedOnTheExecutor() throws Exception {
+        gateway = new SparqlGateway(1e9, 1, 1, 10_000, 3, 200, 4, 5_000, registry);
+        AsyncTaskExecutor sparqlExecutor = AsyncConfig.sparqlExecutor(1, 1, 10, false);
+        ((ThreadPoolTaskExecutor) sparqlExecutor).initialize();
+        try {
+            CountDownLatch release = new CountDownLatch(1);
+            CompletableFuture<?> running = CompletableFuture.runAsync(() -> await(release), sparqlExecutor);
+            List<String> sent = Collections.synchronizedList(new ArrayList<>());
+
+            List<CompletableFuture<?>> queued = new ArrayList<>();
+            // Refreshes of cached results are handed to the executor without a priority
+            queued.add(submit(sparqlExecutor, QueryPriority.BACKGROUND, sent));
+            queued.add(submit(sparqlExecutor, QueryPriority.BACKGROUND, sent));
+            queued.add(submit(AsyncConfig.mvcAsyncExecutor(sparqlExecutor), QueryPriority.BULK, sent));
+            release.countDown();
+            running.join();
+            CompletableFuture.allOf(queued.toArray(CompletableFuture[]::new)).join();
+
+            assertEquals(List.of("bulk", "background", "background"), sent);
+        } finally {
+            ((ThreadPoolTaskExecutor) sparqlExecutor).shutdown();
+        }
+    }
+
+    @Test
+    public void testParseRetryAfter() {
+        long now = System.currentTimeMillis();
+        String inTwoMinutes = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusMinutes(2));
+
+        assertEquals(120_000L, SparqlEndpointBusyException.parseRetryAfter("120", now));
+        long untilDate = SparqlEndpointBusyException.parseRetryAfter(inTwoMinutes, now);
+        assertTrue(untilDate > 110_000 && untilDate <= 120_000);
+        assertNull(SparqlEndpointBusyException.parseRetryAfter("soon", now));
+        assertNull(SparqlEndpointBusyException.parseRetryAfter(null, now));
+    }
+
+    private void failWith(RuntimeException e) {
+        assertThrows(e.getClass(), () -> gateway.execute(null, () -> {
+            throw e;
+        }));
+    }
+
+    private CompletableFuture<?> hold(CountDownLatch release) throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CompletableFuture<?> running = CompletableFuture.runAsync(() -> {
+            try {
+                gateway.execute(null, QueryPriority.INTERACTIVE, () -> {
+                    started.countDown();
+                    await(release);
+                    return null;
+                });
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+        started.await();
+        return running;
+    }
+
+    private CompletableFuture<?> submit(QueryPriority priority, List<String> sent) {
+        return submit(executor, priority, sent);
+    }
+
+    private CompletableFuture<?> submit(Executor executor, QueryPriority priority, List<String> sent) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                gateway.execute(null, priority, () -> sent.add(priority.getId()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting");
+            Thread.sleep(5);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runConcurrently(int queries) {
+        CountDownLatch running = new CountDownLatch(queries);
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[queries];
+        for (int i = 0; i < queries; i++) {
+            futures[i] = CompletableFuture.runAsync(() -> {
+                try {
+                    gateway.execute(null, () -> {
+                        running.countDown();
+                        await(running);
+                        return null;
+                    });
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, executor);
+        }
+        CompletableFuture.allOf(futures).join();
+    }
+}
@@ -0,0 +1,190 @@
+package projeto.projetoinformatico.search;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.mock.http.MockHttpOutputMessage;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.client.RestTemplate;
+import projeto.projetoinformatico.config.web.GeoJsonHttpMessageConverter;
+import projeto.projetoinformatico.config.web.TypedJsonHttpMessageConverter;
+import projeto.projetoinformatico.config.web.WireFormatConfig;
+import projeto.projetoinformatico.controllers.SearchController;
+import projeto.projetoinformatico.model.ClusterResult;
+import projeto.projetoinformatico.model.ResultTable;
+import projeto.projetoinformatico.model.SearchResult;
+import projeto.projetoinformatico.service.SearchService;
+import projeto.projetoinformatico.utils.Tile;
+import projeto.projetoinformatico.utils.VectorTileEncoder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+public class WireFormatTest {
+
+    private static final String WKT = "^^http://www.opengis.net/ont/geosparql#wktLiteral";
+
+    private final ObjectMapper json = new ObjectMapper();
+
+    @Test
+    public void testGeoJsonHasNumericCoordinates() throws Exception {
+        SearchResult result = new SearchResult(ResultTable.builder(List.of("item", "coordinates", "itemLabel"))
+                .addRow("http://www.wikidata.org/entity/Q597", "Point(-9.15 38.7252)" + WKT, "Lisbon@en")
+                .addRow("http://www.wikidata.org/entity/Q42", null, "Douglas Adams@en")
+                .build());
+
+        JsonNode geoJson = json.readTree(geoJson(result));
+
+        assertEquals("FeatureCollection", geoJson.get("type").asText());
+        JsonNode lisbon = geoJson.get("features").get(0);
+        assertEquals("Point", lisbon.get("geometry").get("type").asText());
+        assertEquals(-9.15, lisbon.get("geometry").get("coordinates").get(0).doubleValue());
+        assertEquals(38.7252, lisbon.get("geometry").get("coordinates").get(1).doubleValue());
+        assertEquals("Q597", lisbon.get("properties").get("item").asText());
+        assertEquals("Lisbon", lisbon.get("properties").get("itemLabel").get("value").asText());
+        assertEquals("en", lisbon.get("properties").get("itemLabel").get("lang").asText());
+        assertFalse(lisbon.get("properties").has("coordinates"));
+        assertTrue(geoJson.get("features").get(1).get("geometry").isNull());
+    }
+
+    @Test
+    public void testGeoJsonClusters() throws Exception {
+        ClusterResult clusters = new ClusterResult(5, 3, List.of(
+                new ClusterResult.Cluster(38.74, -9.12, 2, null),
+                new ClusterResult.Cluster(41.1621, -8.6219, 1, Map.of("item", "http://www.wikidata.org/entity/Q36433",
+                        "coordinates", "Point(-8.6219 41.1621)" + WKT))));
+
+        JsonNode features = json.readTree(geoJson(clusters)).get("features");
+
+        assertEquals(2, features.get(0).get("properties").get("count").intValue());
+        assertEquals(1, features.get(0).get("properties").size());
+        assertEquals("Q36433", features.get(1).get("properties").get("item").asText());
+        assertFalse(features.get(1).get("properties").has("coordinates"));
+    }
+
+    @Test
+    public void testTypedJsonListsKindsAndDecodedValues() throws Exception {
+        SearchResult result = new SearchResult(ResultTable.builder(List.of("item", "coordinates", "date"))
+                .addRow("http://www.wikidata.org/entity/Q2001", "Point(-9.0938 38.7677)" + WKT,
+                        "1998-05-22T00:00:00Z^^http://www.w3.org/2001/XMLSchema#dateTime")
+                .build());
+        MockHttpOutputMessage message = new MockHttpOutputMessage();
+        new TypedJsonHttpMessageConverter().write(result, TypedJsonHttpMessageConverter.APPLICATION_TYPED_JSON, message);
+
+        JsonNode typed = json.readTree(message.getBodyAsBytes());
+
+        assertEquals("POINT", typed.get("variables").get(1).get("kind").asText());
+        JsonNode expo = typed.get("results").get(0);
+        assertEquals("Q2001", expo.get("item").asText());
+        assertEquals(38.7677, expo.get("coordinates").get("latitude").doubleValue());
+        assertEquals(895795200000L, expo.get("date").longValue());
+    }
+
+    @Test
+    public void testVectorTileKeepsPointsInsideTheTile() {
+        ResultTable table = ResultTable.builder(List.of("item", "coordinates"))
+                .addRow("http://www.wikidata.org/entity/Q597", "Point(-9.15 38.7252)" + WKT)
+                .addRow("http://www.wikidata.org/entity/Q90", "Point(2.3508 48.8567)" + WKT)
+                .build();
+
+        byte[] world = VectorTileEncoder.encode("castles", new Tile(0, 0, 0), table);
+        byte[] westOfGreenwich = VectorTileEncoder.encode("castles", new Tile(1, 0, 0), table);
+
+        // Tile message with its layer, which starts with the version and the name
+        assertEquals(0x1A, world[0]);
+        assertTrue(new String(world, StandardCharsets.ISO_8859_1).contains("castles"));
+        // MoveTo(1) to Lisbon at x = 1944 and y = 1569 of the 4096 wide world tile, zigzag encoded
+        assertTrue(contains(world, new byte[]{0x09, (byte) 0xB0, 0x1E, (byte) 0xC2, 0x18}));
+        assertTrue(westOfGreenwich.length < world.length);
+        assertFalse(new String(westOfGreenwich, StandardCharsets.ISO_8859_1).contains("Q90"));
+    }
+
+    @Test
+    public void testSparqlResultsFollowTheAcceptHeader() throws Exception {
+        SearchService searchService = mock(SearchService.class);
+        SearchResult result = new SearchResult(List.of(Map.of("item", "http://www.wikidata.org/entity/Q597",
+                "coordinates", "Point(-9.15 38.7252)" + WKT)));
+        when(searchService.executeSparqlQueryFromJsonStringAsync("{}")).thenReturn(CompletableFuture.completedFuture(result));
+        List<HttpMessageConverter<?>> converters = new ArrayList<>(new RestTemplate().getMessageConverters());
+        new WireFormatConfig().extendMessageConverters(converters);
+        MockMvc mockMvc = MockMvcBuilders.standaloneSetup(new SearchController(searchService))
+                .setMessageConverters(converters.toArray(new HttpMessageConverter[0]))
+                .build();
+
+        MvcResult json = perform(mockMvc, MediaType.ALL);
+        MvcResult geoJson = perform(mockMvc, GeoJsonHttpMessageConverter.APPLICATION_GEO_JSON);
+        MvcResult cbor = perform(mockMvc, MediaType.APPLICATION_CBOR);
+
+        mockMvc.perform(asyncDispatch(json)).andExpect(status().isOk()).andExpect(content().contentTypeCompatibleWith(MediaType.APPLICATION_JSON));
+        mockMvc.perform(asyncDispatch(geoJson)).andExpect(status().isOk()).andExpect(content().contentTypeCompatibleWith(GeoJsonHttpMessageConverter.APPLICATION_GEO_JSON));
+        byte[] body = mockMvc.perform(asyncDispatch(cbor)).andExpect(status().isOk()).andReturn().getResponse().getContentAsByteArray();
+        assertEquals(result, new ObjectMapper(new CBORFactory()).readValue(body, SearchResult.class));
+    }
+
+    /**
+     * Sizes of a large layer result in every format; their times are compared by
+     * SearchResultSerializationBenchmark.
+     */
+    @Test
+    public void testCompactFormatsAreSmallerThanJson() throws Exception {
+        ResultTable.Builder builder = ResultTable.builder(List.of("item", "itemLabel", "coordinates", "image"));
+        for (int i = 0; i < 2_000; i++) {
+            builder.addRow("http://www.wikidata.org/entity/Q" + (1000 + i), "Castle " + i + "@en",
+                    "Point(" + (-9 + i % 500 / 100.0) + " " + (38 + i % 300 / 100.0) + ")" + WKT,
+                    i % 3 == 0 ? "http://commons.wikimedia.org/wiki/Special:FilePath/Castle%20" + i + ".jpg" : null);
+        }
+        SearchResult result = new SearchResult(builder.build());
+
+        int jsonBytes = json.writeValueAsBytes(result).length;
+        int cborBytes = new ObjectMapper(new CBORFactory()).writeValueAsBytes(result).length;
+        int smileBytes = new ObjectMapper(new SmileFactory()).writeValueAsBytes(result).length;
+        int geoJsonBytes = geoJson(result).length;
+        int vectorTileBytes = VectorTileEncoder.encode("castles", new Tile(0, 0, 0), result.table()).length;
+
+        assertTrue(cborBytes < jsonBytes);
+        assertTrue(smileBytes < jsonBytes);
+        assertTrue(vectorTileBytes < cborBytes);
+        assertTrue(geoJsonBytes > 0);
+    }
+
+    private static MvcResult perform(MockMvc mockMvc, MediaType accept) throws Exception {
+        return mockMvc.perform(post("/api/sparql").content("{}").accept(accept)).andReturn();
+    }
+
+    private static byte[] geoJson(Object body) throws IOException {
+        MockHttpOutputMessage message = new MockHttpOutputMessage();
+        new GeoJsonHttpMessageConverter().write(body, GeoJsonHttpMessageConverter.APPLICATION_GEO_JSON, message);
+        return message.getBodyAsBytes();
+    }
+
+    private static boolean contains(byte[] bytes, byte[] part) {
+        for (int i = 0; i + part.length <= bytes.length; i++) {
+            int j = 0;
+            while (j < part.length && bytes[i + j] == part[j]) {
+                j++;
+            }
+            if (j == part.length) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,87 @@
+package projeto.projetoinformatico.spatial;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.ObjectProvider;
+import projeto.projetoinformatico.config.spatial.SpatialIndex;
+import projeto.projetoinformatico.config.spatial.WikidataDumpIngester;
+import projeto.projetoinformatico.service.SpatialIndexService;
+
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SpatialIndexTest {
+
+    @TempDir
+    Path directory;
+
+    private SpatialIndex index;
+
+    @BeforeEach
+    public void setUp() {
+        index = new SpatialIndex(directory.resolve("spatial-index.mv.db").toString());
+    }
+
+    @AfterEach
+    public void tearDown() {
+        index.close();
+    }
+
+    @Test
+    public void testDumpIngestionKeepsItemsWithEarthCoordinates() throws Exception {
+        long indexed = new WikidataDumpIngester(index).ingest(dump());
+
+        // Paris, Lisbon, Porto, Coimbra and two events; not the crater on the Moon nor Douglas Adams
+        assertEquals(6, indexed);
+        assertEquals(6, index.size());
+    }
+
+    @Test
+    public void testBoxLookup() throws Exception {
+        new WikidataDumpIngester(index).ingest(dump());
+
+        List<String> portugal = index.findWithin(36.9, -9.6, 42.2, -6.1, null, null, 100);
+        assertEquals(List.of("Q1050", "Q1056813", "Q2001", "Q36433", "Q597"), portugal.stream().sorted().toList());
+        // Corners may be given in any order
+        assertEquals(5, index.findWithin(42.2, -6.1, 36.9, -9.6, null, null, 100).size());
+        assertEquals(List.of("Q90"), index.findWithin(48.0, 2.0, 49.0, 3.0, null, null, 100));
+        assertEquals(2, index.findWithin(36.9, -9.6, 42.2, -6.1, null, null, 2).size());
+    }
+
+    @Test
+    public void testYearsKeepItemsWithoutPointInTime() throws Exception {
+        new WikidataDumpIngester(index).ingest(dump());
+
+        List<String> items = index.findWithin(36.9, -9.6, 42.2, -6.1, 1900L, 2000L, 100);
+
+        assertTrue(items.contains("Q2001"));
+        assertFalse(items.contains("Q1056813"));
+        assertTrue(items.containsAll(List.of("Q597", "Q36433", "Q1050")));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testServiceLeavesLargeBoxesToEndpoint() throws Exception {
+        ObjectProvider<SpatialIndex> provider = mock(ObjectProvider.class);
+        when(provider.getIfAvailable()).thenReturn(index);
+        SpatialIndexService service = new SpatialIndexService(provider, 3, "");
+
+        assertEquals(Optional.empty(), service.findItemsWithin(36.9, -9.6, 42.2, -6.1, null, null));
+        assertEquals(6, service.rebuild(dump()));
+        assertEquals(Optional.empty(), service.findItemsWithin(36.9, -9.6, 42.2, -6.1, null, null));
+        assertEquals(Optional.of(List.of("Q90")), service.findItemsWithin(48.0, 2.0, 49.0, 3.0, null, null));
+        assertEquals(Optional.empty(), service.findItemsWithin(null, 2.0, 49.0, 3.0, null, null));
+    }
+
+    private static Path dump() throws URISyntaxException {
+        return Path.of(SpatialIndexTest.class.getResource("/dumps/wikidata-fragment.json").toURI());
+    }
+}
@@ -0,0 +1,145 @@
+package projeto.projetoinformatico.tracing;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.slf4j.MDC;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import projeto.projetoinformatico.config.tracing.QueryTraceInterceptor;
+import projeto.projetoinformatico.controllers.LayerController;
+import projeto.projetoinformatico.model.CachedSearchResult;
+import projeto.projetoinformatico.model.SearchResult;
+import projeto.projetoinformatico.service.ClusterService;
+import projeto.projetoinformatico.service.LayerService;
+import projeto.projetoinformatico.utils.QueryTrace;
+import projeto.projetoinformatico.utils.SlowQueryLog;
+import projeto.projetoinformatico.utils.Validation;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+public class QueryTraceTest {
+
+    private static final String TRACE_ID = "4bf92f3577b34da6a3ce929d0e0e4736";
+
+    @Test
+    public void testSpansRecordOnlyIntoTheCurrentTrace() {
+        QueryTrace trace = QueryTrace.start(null);
+        QueryTrace.span(QueryTrace.Phase.BUILD).close();
+        QueryTrace.tagLayer(1L);
+
+        try (QueryTrace.Scope scope = trace.attach()) {
+            assertSame(trace, QueryTrace.current());
+            assertEquals(trace.getTraceId(), MDC.get(QueryTrace.TRACE_ID));
+            QueryTrace.Span span = QueryTrace.span(QueryTrace.Phase.BUILD);
+            String spanId = MDC.get(QueryTrace.SPAN_ID);
+            assertNotEquals(trace.getSpanId(), spanId);
+            span.close();
+            span.close();
+            assertEquals(trace.getSpanId(), MDC.get(QueryTrace.SPAN_ID));
+            QueryTrace.tagLayer(2L);
+            QueryTrace.tagRows(3);
+            QueryTrace.tagRows(4);
+        }
+
+        assertNull(QueryTrace.current());
+        assertNull(MDC.get(QueryTrace.TRACE_ID));
+        assertTrue(trace.getPhaseNanos(QueryTrace.Phase.BUILD) > 0);
+        assertEquals(2L, trace.getLayerId());
+        assertEquals(7, trace.getRows());
+        assertEquals(32, trace.getTraceId().length());
+    }
+
+    @Test
+    public void testTraceJoinsTheCallersTraceparent() {
+        assertEquals(TRACE_ID, QueryTrace.start("00-" + TRACE_ID + "-00f067aa0ba902b7-01").getTraceId());
+        assertNotEquals(TRACE_ID, QueryTrace.start(TRACE_ID).getTraceId());
+        assertNotEquals("0".repeat(32), QueryTrace.start("00-" + "0".repeat(32) + "-00f067aa0ba902b7-01").getTraceId());
+    }
+
+    @Test
+    public void testTraceFollowsWorkToOtherThreads() throws Exception {
+        QueryTrace trace = QueryTrace.start(null);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (QueryTrace.Scope scope = trace.attach()) {
+            CompletableFuture.supplyAsync(QueryTrace.propagate(() -> {
+                try (QueryTrace.Span span = QueryTrace.span(QueryTrace.Phase.EXECUTE)) {
+                    return QueryTrace.current();
+                }
+            }), executor).get();
+            // Nothing is left attached to the executor thread
+            assertNull(CompletableFuture.supplyAsync(QueryTrace::current, executor).get());
+        } finally {
+            executor.shutdownNow();
+        }
+        assertTrue(trace.getPhaseNanos(QueryTrace.Phase.EXECUTE) > 0);
+    }
+
+    @Test
+    public void testSlowQueryLogRecordsLayerRequestsPastTheThreshold() {
+        QueryTrace trace = QueryTrace.start(null);
+        try (QueryTrace.Scope scope = trace.attach()) {
+            QueryTrace.tagQuery("abc123");
+            QueryTrace.tagRows(42);
+        }
+        trace.finish();
+
+        // Only layer requests are logged
+        assertFalse(new SlowQueryLog(0).record(trace));
+        try (QueryTrace.Scope scope = trace.attach()) {
+            QueryTrace.tagLayer(5L);
+        }
+        assertTrue(new SlowQueryLog(0).record(trace));
+        assertFalse(new SlowQueryLog(60_000).record(trace));
+        assertFalse(new SlowQueryLog(-1).record(trace));
+    }
+
+    @Test
+    public void testLayerRequestsAreTracedUntilTheResponseIsWritten() throws Exception {
+        LayerService layerService = mock(LayerService.class);
+        Validation validation = mock(Validation.class);
+        when(validation.isValidCoordinate(anyDouble(), anyDouble(), anyDouble(), anyDouble())).thenReturn(true);
+        when(layerService.getLayerByIdWithParamsAsync(any(), any(), any(), any(), any(), anyLong(), anyLong()))
+                .thenAnswer(invocation -> {
+                    QueryTrace.tagLayer(invocation.getArgument(0));
+                    return CompletableFuture.completedFuture(CachedSearchResult.fetchedNow(
+                            new SearchResult(List.of(Map.of("item", "Q1")))));
+                });
+        SlowQueryLog slowQueryLog = spy(new SlowQueryLog(0));
+        MockMvc mockMvc = MockMvcBuilders.standaloneSetup(new LayerController(layerService, validation, new ClusterService(16)))
+                .addInterceptors(new QueryTraceInterceptor(slowQueryLog))
+                .build();
+
+        MvcResult result = mockMvc.perform(get("/api/layers/9")
+                        .param("lat1", "38.0").param("lon1", "-10.0").param("lat2", "42.0").param("lon2", "-8.0")
+                        .param("start", "1000").param("end", "2000")
+                        .header("traceparent", "00-" + TRACE_ID + "-00f067aa0ba902b7-01"))
+                .andExpect(request().asyncStarted())
+                .andExpect(header().string(QueryTraceInterceptor.TRACE_ID_HEADER, TRACE_ID))
+                .andReturn();
+        verify(slowQueryLog, never()).record(any());
+        mockMvc.perform(asyncDispatch(result)).andExpect(status().isOk());
+
+        ArgumentCaptor<QueryTrace> trace = ArgumentCaptor.forClass(QueryTrace.class);
+        verify(slowQueryLog).record(trace.capture());
+        assertEquals(TRACE_ID, trace.getValue().getTraceId());
+        assertEquals(9L, trace.getValue().getLayerId());
+        assertTrue(trace.getValue().getPhaseNanos(QueryTrace.Phase.SERIALIZE) > 0);
+        assertNull(QueryTrace.current());
+    }
+}
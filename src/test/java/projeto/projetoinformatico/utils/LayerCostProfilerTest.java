@@ -0,0 +1,85 @@
+package projeto.projetoinformatico.utils;
+
+import org.junit.jupiter.api.Test;
+import projeto.projetoinformatico.model.LayerCost;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LayerCostProfilerTest {
+
+    @Test
+    public void testRefreshesArePutDownToTheLayerThatSentTheQuery() {
+        LayerCostProfiler profiler = new LayerCostProfiler(100);
+
+        profiler.record(7L, "digest", 2_000_000, 10, 100);
+        profiler.record(null, "digest", 3_000_000, 12, 120);
+        // Nobody sent this one, it is left out
+        profiler.record(null, "other", 1_000_000, 1, 1);
+
+        List<LayerCost> ranking = profiler.ranking(LayerCostProfiler.Order.TIME, 10);
+        assertEquals(1, ranking.size());
+        LayerCost cost = ranking.get(0);
+        assertEquals(7L, cost.layerId());
+        assertEquals(2, cost.queries());
+        assertEquals(5.0, cost.totalMillis());
+        assertEquals(2.5, cost.meanMillis());
+        assertEquals(3.0, cost.maxMillis());
+        assertEquals(22, cost.rows());
+        assertEquals(220, cost.bytes());
+        assertEquals(1.0, cost.timeShare());
+    }
+
+    @Test
+    public void testLayersAreBoundedAndCanBeForgotten() {
+        LayerCostProfiler profiler = new LayerCostProfiler(10);
+        for (long layerId = 0; layerId < 1_000; layerId++) {
+            profiler.record(layerId, null, 1_000, 1, 1);
+        }
+        assertTrue(profiler.ranking(LayerCostProfiler.Order.QUERIES, Integer.MAX_VALUE).size() <= 10);
+
+        profiler.reset();
+        profiler.record(1L, null, 1_000, 1, 1);
+        profiler.remove(1L);
+        assertTrue(profiler.ranking(LayerCostProfiler.Order.QUERIES, 10).isEmpty());
+    }
+
+    @Test
+    public void testConcurrentRecordsAreNeverLost() throws Exception {
+        LayerCostProfiler profiler = new LayerCostProfiler(100);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                workers.add(executor.submit(() -> {
+                    start.await();
+                    for (int j = 0; j < 10_000; j++) {
+                        profiler.record((long) (j % 4), null, 1_000, 1, 10);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        List<LayerCost> ranking = profiler.ranking(LayerCostProfiler.Order.ROWS, 10);
+        assertEquals(4, ranking.size());
+        for (LayerCost cost : ranking) {
+            assertEquals(20_000, cost.queries());
+            assertEquals(200_000, cost.bytes());
+            assertEquals(0.25, cost.timeShare(), 1e-9);
+        }
+    }
+}
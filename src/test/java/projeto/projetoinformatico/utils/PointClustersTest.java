@@ -0,0 +1,68 @@
+package projeto.projetoinformatico.utils;
+
+import org.junit.jupiter.api.Test;
+import projeto.projetoinformatico.model.ResultTable;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PointClustersTest {
+
+    private static final String WKT = "^^http://www.opengis.net/ont/geosparql#wktLiteral";
+
+    @Test
+    public void testPointsMergeAsTheMapZoomsOut() {
+        PointClusters clusters = PointClusters.of(places());
+
+        assertEquals("coordinates", clusters.getCoordinateVariable());
+        assertEquals(4, clusters.getPointCount());
+        assertEquals(4, clusters.clusters(Tile.MAX_ZOOM).size());
+        // Lisbon and the Expo site are a few kilometres apart, Porto is 270 km north
+        assertEquals(4, clusters.clusters(7).size());
+        assertEquals(3, clusters.clusters(6).size());
+        // West and east of Greenwich are different cells even on the whole world map
+        assertEquals(2, clusters.clusters(0).size());
+
+        PointClusters.Cluster portugal = clusters.clusters(0).get(0);
+        assertEquals(3, portugal.count());
+        assertEquals(0, portugal.row());
+        assertEquals((38.7252 + 38.7677 + 41.1621) / 3, portugal.latitude(), 1e-9);
+        assertEquals((-9.15 - 9.0938 - 8.6219) / 3, portugal.longitude(), 1e-9);
+        assertEquals(new PointClusters.Cluster(48.8567, 2.3508, 1, 3), clusters.clusters(0).get(1));
+    }
+
+    @Test
+    public void testLevelsWithoutMergesAreShared() {
+        PointClusters clusters = PointClusters.of(places());
+
+        assertTrue(clusters.getLevelCount() < Tile.MAX_ZOOM + 1);
+        assertEquals(clusters.clusters(Tile.MAX_ZOOM), clusters.clusters(7));
+    }
+
+    @Test
+    public void testRowsWithoutPointsAreLeftOut() {
+        ResultTable table = ResultTable.builder(List.of("item", "label", "coordinates"))
+                .addRow("http://www.wikidata.org/entity/Q42", "Douglas Adams", null)
+                .addRow("http://www.wikidata.org/entity/Q90", "Paris", "Point(2.3508 48.8567)" + WKT)
+                .addRow("http://www.wikidata.org/entity/Q1", "Universe", "not a point")
+                .build();
+
+        PointClusters clusters = PointClusters.of(table);
+
+        assertEquals(1, clusters.getPointCount());
+        assertEquals(List.of(new PointClusters.Cluster(48.8567, 2.3508, 1, 1)), clusters.clusters(5));
+        assertEquals(0, PointClusters.of(ResultTable.empty()).clusters(5).size());
+        assertNull(PointClusters.of(ResultTable.empty()).getCoordinateVariable());
+        assertThrows(IllegalArgumentException.class, () -> clusters.clusters(Tile.MAX_ZOOM + 1));
+    }
+
+    private static ResultTable places() {
+        return ResultTable.builder(List.of("item", "coordinates"))
+                .addRow("http://www.wikidata.org/entity/Q597", "Point(-9.15 38.7252)" + WKT)
+                .addRow("http://www.wikidata.org/entity/Q2001", "Point(-9.0938 38.7677)" + WKT)
+                .addRow("http://www.wikidata.org/entity/Q36433", "Point(-8.6219 41.1621)" + WKT)
+                .addRow("http://www.wikidata.org/entity/Q90", "Point(2.3508 48.8567)" + WKT)
+                .build();
+    }
+}
@@ -0,0 +1,69 @@
+package projeto.projetoinformatico.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueryKeyGeneratorTest {
+
+    private static final String PREFIXES = "PREFIX wd: <http://www.wikidata.org/entity/>\n" +
+            "PREFIX wdt: <http://www.wikidata.org/prop/direct/>\n";
+
+    private final QueryKeyGenerator generator = new QueryKeyGenerator(PREFIXES);
+
+    @Test
+    void whitespaceAndFormattingDoNotChangeTheKey() {
+        QueryKey compact = generator.keyFor(QueryNamespace.LAYER, "SELECT ?item WHERE {?item wdt:P31 wd:Q23413} LIMIT 10");
+        QueryKey spread = generator.keyFor(QueryNamespace.LAYER, "\n  SELECT ?item\nWHERE {\n\t?item  wdt:P31  wd:Q23413 .\n}\nLIMIT 10 ");
+
+        assertEquals(compact, spread);
+    }
+
+    @Test
+    void prefixDeclarationsDoNotChangeTheKey() {
+        QueryKey bare = generator.keyFor(QueryNamespace.SPARQL, "SELECT ?item WHERE { ?item wdt:P31 wd:Q23413 }");
+        QueryKey withPrefixes = generator.keyFor(QueryNamespace.SPARQL, PREFIXES + "SELECT ?item WHERE { ?item wdt:P31 wd:Q23413 }");
+        QueryKey renamed = generator.keyFor(QueryNamespace.SPARQL,
+                "PREFIX e: <http://www.wikidata.org/entity/> PREFIX d: <http://www.wikidata.org/prop/direct/> " +
+                        "SELECT ?item WHERE { ?item d:P31 e:Q23413 }");
+        QueryKey expanded = generator.keyFor(QueryNamespace.SPARQL,
+                "SELECT ?item WHERE { ?item <http://www.wikidata.org/prop/direct/P31> <http://www.wikidata.org/entity/Q23413> }");
+
+        assertEquals(bare, withPrefixes);
+        assertEquals(bare, renamed);
+        assertEquals(bare, expanded);
+        // Each key still runs the query it was given
+        assertEquals("SELECT ?item WHERE { ?item wdt:P31 wd:Q23413 }", bare.query());
+        assertEquals(PREFIXES + "SELECT ?item WHERE { ?item wdt:P31 wd:Q23413 }", withPrefixes.query());
+    }
+
+    @Test
+    void differentQueriesGetDifferentKeys() {
+        QueryKey castles = generator.keyFor(QueryNamespace.LAYER, "SELECT ?item WHERE { ?item wdt:P31 wd:Q23413 }");
+        QueryKey churches = generator.keyFor(QueryNamespace.LAYER, "SELECT ?item WHERE { ?item wdt:P31 wd:Q16970 }");
+        QueryKey english = generator.keyFor(QueryNamespace.LAYER, "SELECT ?l WHERE { wd:Q1 ?p ?l FILTER(LANG(?l) = 'en') }");
+        QueryKey spacedLiteral = generator.keyFor(QueryNamespace.LAYER, "SELECT ?l WHERE { wd:Q1 ?p ?l FILTER(LANG(?l) = ' en') }");
+
+        assertNotEquals(castles, churches);
+        assertNotEquals(english, spacedLiteral);
+        assertEquals(64, castles.digest().length());
+    }
+
+    @Test
+    void namespacesKeepIdenticalQueriesApart() {
+        String query = "SELECT ?item WHERE { ?item wdt:P31 wd:Q23413 }";
+
+        QueryKey item = generator.keyFor(QueryNamespace.ITEM, query);
+        QueryKey geolocation = generator.keyFor(QueryNamespace.GEOLOCATION, query);
+
+        assertEquals(item.digest(), geolocation.digest());
+        assertNotEquals(item, geolocation);
+    }
+
+    @Test
+    void unparsableQueriesFallBackToCollapsedWhitespace() {
+        assertEquals(generator.keyFor(QueryNamespace.SPARQL, "not  sparql\n'a  b'"),
+                generator.keyFor(QueryNamespace.SPARQL, " not sparql 'a  b' "));
+        assertEquals("not sparql 'a  b'", QueryKeyGenerator.collapseWhitespace(" not \n sparql 'a  b' "));
+    }
+}
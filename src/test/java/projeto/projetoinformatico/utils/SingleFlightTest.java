@@ -0,0 +1,99 @@
+package projeto.projetoinformatico.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTest {
+
+    @Test
+    void concurrentCallersShareOneExecution() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        AtomicInteger upstreamCalls = new AtomicInteger();
+        CompletableFuture<String> upstream = new CompletableFuture<>();
+        int callers = 32;
+        ExecutorService pool = Executors.newFixedThreadPool(callers);
+        CountDownLatch ready = new CountDownLatch(callers);
+        CountDownLatch go = new CountDownLatch(1);
+        try {
+            List<Future<CompletableFuture<String>>> results = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                results.add(pool.submit(() -> {
+                    ready.countDown();
+                    go.await();
+                    return singleFlight.execute("SELECT ?item WHERE { ?item wdt:P31 wd:Q23413 }", () -> {
+                        upstreamCalls.incrementAndGet();
+                        return upstream;
+                    });
+                }));
+            }
+            ready.await();
+            go.countDown();
+            List<CompletableFuture<String>> futures = new ArrayList<>();
+            for (Future<CompletableFuture<String>> result : results) {
+                futures.add(result.get(5, TimeUnit.SECONDS));
+            }
+
+            upstream.complete("result");
+
+            for (CompletableFuture<String> future : futures) {
+                assertEquals("result", future.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, upstreamCalls.get());
+            assertEquals(0, singleFlight.size());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void failureIsSharedAndNextCallStartsAgain() {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        CompletableFuture<String> upstream = new CompletableFuture<>();
+        CompletableFuture<String> first = singleFlight.execute("q", () -> upstream);
+        CompletableFuture<String> second = singleFlight.execute("q", () -> CompletableFuture.completedFuture("unused"));
+
+        upstream.completeExceptionally(new IllegalStateException("boom"));
+
+        assertInstanceOf(IllegalStateException.class, assertThrows(ExecutionException.class, first::get).getCause());
+        assertInstanceOf(IllegalStateException.class, assertThrows(ExecutionException.class, second::get).getCause());
+        assertEquals("again", singleFlight.execute("q", () -> CompletableFuture.completedFuture("again")).join());
+    }
+
+    @Test
+    void upstreamIsCancelledOnlyWhenEveryCallerCancels() {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        CompletableFuture<String> upstream = new CompletableFuture<>();
+        CompletableFuture<String> first = singleFlight.execute("q", () -> upstream);
+        CompletableFuture<String> second = singleFlight.execute("q", () -> upstream);
+
+        first.cancel(true);
+        assertFalse(upstream.isCancelled());
+
+        second.cancel(true);
+        assertTrue(upstream.isCancelled());
+    }
+
+    @Test
+    void differentKeysRunSeparately() {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        AtomicInteger upstreamCalls = new AtomicInteger();
+
+        singleFlight.execute("a", () -> {
+            upstreamCalls.incrementAndGet();
+            return new CompletableFuture<>();
+        });
+        singleFlight.execute("b", () -> {
+            upstreamCalls.incrementAndGet();
+            return new CompletableFuture<>();
+        });
+
+        assertEquals(2, upstreamCalls.get());
+        assertEquals(2, singleFlight.size());
+    }
+}
@@ -1,5 +1,6 @@
 package projeto.projetoinformatico.utils;
 
+import org.apache.jena.query.QueryFactory;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -32,6 +33,32 @@ class SparqlQueryProviderTest {
         assertEquals(expected, result);
     }
 
+    @Test
+    void buildLocalFilterQuery() {
+        String query = "SELECT DISTINCT ?item ?coordinates WHERE { ?item wdt:P625 ?coordinates. }";
+
+        String result = sparqlQueryProvider.buildLocalFilterQuery(query, java.util.List.of("Q597", "Q36433"));
+
+        assertEquals("SELECT DISTINCT ?item ?coordinates WHERE { ?item wdt:P625 ?coordinates.       VALUES ?item { wd:Q597 wd:Q36433 }\n}", result);
+    }
+
+    @Test
+    void buildTimesQuery() {
+        String query = "SELECT DISTINCT ?item ?itemLabel ?description ?coordinates ?image ?itemSchemaLabel ?url WHERE {\n"
+                + "  { SELECT DISTINCT ?item ?coordinates WHERE { ?item wdt:P625 ?coordinates. } }\n"
+                + "}";
+
+        String result = sparqlQueryProvider.buildTimesQuery(query);
+
+        assertEquals("SELECT ?item ?itemLabel ?description ?coordinates ?image ?itemSchemaLabel ?url (MIN(?start) AS ?startTime) (MAX(?end) AS ?endTime) WHERE {\n"
+                + "  {\n" + query + "\n  }\n"
+                + "  OPTIONAL { ?item wdt:P585|wdt:P580 ?start. }\n"
+                + "  OPTIONAL { ?item wdt:P585|wdt:P582 ?end. }\n"
+                + "} GROUP BY ?item ?itemLabel ?description ?coordinates ?image ?itemSchemaLabel ?url", result);
+        assertDoesNotThrow(() -> QueryFactory.create(prefixes + result));
+        assertEquals("SELECT * WHERE {?s ?p ?o}", sparqlQueryProvider.buildTimesQuery("SELECT * WHERE {?s ?p ?o}"));
+    }
+
     @Test
     void generateFilterClause() {
         // Given
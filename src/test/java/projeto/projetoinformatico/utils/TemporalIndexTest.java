@@ -0,0 +1,87 @@
+package projeto.projetoinformatico.utils;
+
+import org.junit.jupiter.api.Test;
+import projeto.projetoinformatico.model.ResultTable;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TemporalIndexTest {
+
+    private static final String DATE_TIME = "^^http://www.w3.org/2001/XMLSchema#dateTime";
+
+    @Test
+    public void testSpansPointsAndOpenEnds() {
+        ResultTable table = ResultTable.builder(List.of("item", "pointInTime", "startTime", "endTime"))
+                // Lisbon earthquake
+                .addRow("Q1", date(1755), null, null)
+                // Expo 98
+                .addRow("Q2", null, date(1998), date(1998))
+                // Still standing since 1147
+                .addRow("Q3", null, date(1147), null)
+                // Gone in 1580, since no one knows when
+                .addRow("Q4", null, null, date(1580))
+                .addRow("Q5", null, null, null)
+                .build();
+
+        TemporalIndex index = TemporalIndex.of(table);
+
+        assertEquals(4, index.getTimedRowCount());
+        assertEquals(5, index.getRowCount());
+        assertArrayEquals(new int[]{0, 2, 4}, index.rowsOverlapping(millis(1700), millis(1800)));
+        assertArrayEquals(new int[]{1, 2, 4}, index.rowsOverlapping(millis(1990), millis(2000)));
+        assertArrayEquals(new int[]{2, 3, 4}, index.rowsOverlapping(millis(1500), millis(1600)));
+        assertArrayEquals(new int[]{3, 4}, index.rowsOverlapping(millis(1000), millis(1100)));
+    }
+
+    @Test
+    public void testTablesWithoutTimesKeepEveryRow() {
+        ResultTable table = ResultTable.builder(List.of("item")).addRow("Q1").addRow("Q2").build();
+
+        TemporalIndex index = TemporalIndex.of(table);
+
+        assertEquals(0, index.getTimedRowCount());
+        assertArrayEquals(new int[]{0, 1}, index.rowsOverlapping(0, 1));
+    }
+
+    @Test
+    public void testLookupsMatchAScanOfEverySpan() {
+        Random random = new Random(42);
+        ResultTable.Builder builder = ResultTable.builder(List.of("item", "startTime", "endTime"));
+        List<int[]> spans = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            int start = 1000 + random.nextInt(1000);
+            int end = start + random.nextInt(200);
+            spans.add(new int[]{start, end});
+            builder.addRow("Q" + i, date(start), date(end));
+        }
+        TemporalIndex index = TemporalIndex.of(builder.build());
+
+        for (int lookup = 0; lookup < 100; lookup++) {
+            int from = 1000 + random.nextInt(1100);
+            int to = from + random.nextInt(50);
+            List<Integer> expected = new ArrayList<>();
+            for (int row = 0; row < spans.size(); row++) {
+                if (spans.get(row)[0] <= to && spans.get(row)[1] >= from) {
+                    expected.add(row);
+                }
+            }
+            int[] found = index.rowsOverlapping(millis(from), millis(to));
+            assertEquals(expected, Arrays.stream(found).boxed().toList());
+        }
+    }
+
+    private static String date(int year) {
+        return String.format("%04d-01-01T00:00:00Z", year) + DATE_TIME;
+    }
+
+    private static long millis(int year) {
+        return LocalDate.of(year, 1, 1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+    }
+}
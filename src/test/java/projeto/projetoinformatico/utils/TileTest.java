@@ -0,0 +1,55 @@
+package projeto.projetoinformatico.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TileTest {
+
+    @Test
+    public void testTilesCoverTheBox() {
+        List<Tile> tiles = Tile.covering(38.70, -9.20, 38.75, -9.10, 4);
+
+        assertTrue(tiles.size() <= 4);
+        double south = tiles.stream().mapToDouble(Tile::south).min().orElseThrow();
+        double north = tiles.stream().mapToDouble(Tile::north).max().orElseThrow();
+        double west = tiles.stream().mapToDouble(Tile::west).min().orElseThrow();
+        double east = tiles.stream().mapToDouble(Tile::east).max().orElseThrow();
+        assertTrue(south <= 38.70 && north >= 38.75);
+        assertTrue(west <= -9.20 && east >= -9.10);
+        // One zoom level deeper would need more tiles
+        assertEquals(12, tiles.get(0).zoom());
+    }
+
+    @Test
+    public void testKnownTile() {
+        assertEquals(486, Tile.x(-9.14, 10));
+        assertEquals(392, Tile.y(38.72, 10));
+        List<Tile> point = Tile.covering(38.72, -9.14, 38.72, -9.14, 1);
+        assertEquals(List.of(new Tile(Tile.MAX_ZOOM, Tile.x(-9.14, Tile.MAX_ZOOM), Tile.y(38.72, Tile.MAX_ZOOM))), point);
+        Tile tile = new Tile(1, 0, 0);
+        assertEquals(-180, tile.west());
+        assertEquals(0, tile.east());
+        assertEquals(90, tile.north());
+        assertEquals(0, tile.south(), 1e-9);
+    }
+
+    @Test
+    public void testPannedViewportsShareTiles() {
+        Set<Tile> first = new HashSet<>(Tile.covering(38.700, -9.200, 38.750, -9.100, 4));
+        Set<Tile> panned = new HashSet<>(Tile.covering(38.705, -9.190, 38.755, -9.090, 4));
+
+        panned.retainAll(first);
+        assertFalse(panned.isEmpty());
+    }
+
+    @Test
+    public void testWholeWorldIsOneTile() {
+        assertEquals(List.of(new Tile(0, 0, 0)), Tile.covering(-90, -180, 90, 180, 1));
+        assertEquals(4, Tile.covering(-90, -180, 90, 180, 4).size());
+    }
+}